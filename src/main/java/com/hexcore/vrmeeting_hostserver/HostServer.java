@@ -5,13 +5,26 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import main.java.com.hexcore.vrmeeting_hostserver.config.DrainConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.MeetingConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.SlowConsumerConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.config.TCPAcceptorConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.TransportConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.WriterConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.ConnectionListener;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.IncomingConnectionAccepter;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.NIOConnectionAcceptor;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.TCPConnectionAcceptor;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.nio.NIOEventLoopGroup;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.validation.ValidConnectionOutput;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.validation.ValidationThread;
 import main.java.com.hexcore.vrmeeting_hostserver.dataserver.WebServerConnector;
@@ -20,8 +33,12 @@ import main.java.com.hexcore.vrmeeting_hostserver.exception.IllegalComponentStat
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.UserExistsException;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerMetrics;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.HashedTimingWheel;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue.WaitStrategy;
 
 
 /**
@@ -35,7 +52,9 @@ public class HostServer extends ServerComponent implements ValidConnectionOutput
 	private static ServerLogger logger = new ServerLogger("Host Server Thread");
 	private static WebServerConnector dataServer;
 	private ConcurrentHashMap<String, Meeting> meetings = new ConcurrentHashMap<String, Meeting>();
-	private static final int SERVER_STOPPED_CHECK_RATE = 10; //In ms, the rate at which the main thread will check to see if the server has stopped
+	private IncomingConnectionAccepter acceptor;
+	private volatile boolean draining = false;
+	private final AtomicBoolean drainFinishing = new AtomicBoolean(false); //So the connections are only closed once, by either the last meeting closing or the deadline
 	
 	public HostServer()
 	{
@@ -83,9 +102,103 @@ public class HostServer extends ServerComponent implements ValidConnectionOutput
 		System.out.println("\n\n");
 		
 		TCPAcceptorConfig.PORT = Integer.parseInt(properties.getProperty("ListenOnPort"));
+		if(properties.getProperty("Transport") != null)
+		{
+			TransportConfig.USE_NIO_TRANSPORT = !properties.getProperty("Transport").trim().toLowerCase().equals("legacy");
+		}
+		if(properties.getProperty("PoolReceiveBuffers") != null)
+		{
+			TransportConfig.POOL_RECEIVE_BUFFERS = Boolean.parseBoolean(properties.getProperty("PoolReceiveBuffers").trim());
+		}
+		if(properties.getProperty("DrainDeadlineSeconds") != null)
+		{
+			DrainConfig.DEADLINE = Long.parseLong(properties.getProperty("DrainDeadlineSeconds").trim()) * 1000;
+		}
+		if(properties.getProperty("DrainCloseWindowMillis") != null)
+		{
+			DrainConfig.CLOSE_WINDOW = Long.parseLong(properties.getProperty("DrainCloseWindowMillis").trim());
+		}
+		if(properties.getProperty("BatchWrites") != null)
+		{
+			WriterConfig.BATCH_WRITES = Boolean.parseBoolean(properties.getProperty("BatchWrites").trim());
+		}
+		if(properties.getProperty("WriterMaxBatchBytes") != null)
+		{
+			WriterConfig.MAX_BATCH_BYTES = Integer.parseInt(properties.getProperty("WriterMaxBatchBytes").trim());
+		}
+		if(properties.getProperty("WriterMaxLingerMicros") != null)
+		{
+			WriterConfig.MAX_LINGER = Integer.parseInt(properties.getProperty("WriterMaxLingerMicros").trim());
+		}
+		if(properties.getProperty("WriterMaxQueuedAudioBytes") != null)
+		{
+			WriterConfig.MAX_QUEUED_AUDIO_BYTES = Integer.parseInt(properties.getProperty("WriterMaxQueuedAudioBytes").trim());
+		}
+		if(properties.getProperty("WriterMaxAudioAgeMillis") != null)
+		{
+			WriterConfig.MAX_AUDIO_AGE = Integer.parseInt(properties.getProperty("WriterMaxAudioAgeMillis").trim());
+		}
+		if(properties.getProperty("SlowConsumerDegradeQueuedBytes") != null)
+		{
+			SlowConsumerConfig.DEGRADE_QUEUED_BYTES = Integer.parseInt(properties.getProperty("SlowConsumerDegradeQueuedBytes").trim());
+		}
+		if(properties.getProperty("SlowConsumerDegradeBlockedMillis") != null)
+		{
+			SlowConsumerConfig.DEGRADE_BLOCKED_WRITE = Integer.parseInt(properties.getProperty("SlowConsumerDegradeBlockedMillis").trim());
+		}
+		if(properties.getProperty("SlowConsumerEvictQueuedBytes") != null)
+		{
+			SlowConsumerConfig.EVICT_QUEUED_BYTES = Integer.parseInt(properties.getProperty("SlowConsumerEvictQueuedBytes").trim());
+		}
+		if(properties.getProperty("SlowConsumerEvictBlockedMillis") != null)
+		{
+			SlowConsumerConfig.EVICT_BLOCKED_WRITE = Integer.parseInt(properties.getProperty("SlowConsumerEvictBlockedMillis").trim());
+		}
+		if(properties.getProperty("SlowConsumerMaxDegradedMillis") != null)
+		{
+			SlowConsumerConfig.MAX_DEGRADED_TIME = Integer.parseInt(properties.getProperty("SlowConsumerMaxDegradedMillis").trim());
+		}
+		if(properties.getProperty("MeetingEventQueueCapacity") != null)
+		{
+			MeetingConfig.EVENT_QUEUE_CAPACITY = Integer.parseInt(properties.getProperty("MeetingEventQueueCapacity").trim());
+		}
+		if(properties.getProperty("MeetingExecution") != null)
+		{
+			MeetingConfig.USE_SHARED_EXECUTOR = !properties.getProperty("MeetingExecution").trim().toLowerCase().equals("thread");
+		}
+		if(properties.getProperty("MeetingExecutorThreads") != null)
+		{
+			MeetingConfig.EXECUTOR_THREADS = Integer.parseInt(properties.getProperty("MeetingExecutorThreads").trim());
+		}
+		if(properties.getProperty("AudioMixing") != null)
+		{
+			MeetingConfig.AUDIO_MIXING = Boolean.parseBoolean(properties.getProperty("AudioMixing").trim());
+		}
+		if(properties.getProperty("VoiceActivityDetection") != null)
+		{
+			MeetingConfig.VOICE_ACTIVITY_DETECTION = Boolean.parseBoolean(properties.getProperty("VoiceActivityDetection").trim());
+		}
+		if(properties.getProperty("VoiceActivityThreshold") != null)
+		{
+			MeetingConfig.VOICE_ACTIVITY_THRESHOLD = Float.parseFloat(properties.getProperty("VoiceActivityThreshold").trim());
+		}
+		if(properties.getProperty("MaxActiveSpeakers") != null)
+		{
+			MeetingConfig.MAX_ACTIVE_SPEAKERS = Integer.parseInt(properties.getProperty("MaxActiveSpeakers").trim());
+		}
+		if(properties.getProperty("RosterDeltas") != null)
+		{
+			MeetingConfig.ROSTER_DELTAS = Boolean.parseBoolean(properties.getProperty("RosterDeltas").trim());
+		}
+		if(properties.getProperty("MeetingWaitStrategy") != null)
+		{
+			MeetingConfig.WAIT_STRATEGY = properties.getProperty("MeetingWaitStrategy").trim();
+			WaitStrategy.forName(MeetingConfig.WAIT_STRATEGY); //Fail at startup rather than when the first meeting is created
+		}
 		dataServer = new WebServerConnector(properties.getProperty("WebServerURL"));
 		logger.logInfo("Attempting to start host server listening on port " + TCPAcceptorConfig.PORT);
 		logger.logInfo("Host Server will connect to the web server located at " + properties.getProperty("WebServerURL"));
+		logger.logInfo("Using the " + (TransportConfig.USE_NIO_TRANSPORT ? "NIO" : "legacy thread per connection") + " transport");
 		
 		if(!dataServer.isAvailable())
 		{
@@ -110,6 +223,22 @@ public class HostServer extends ServerComponent implements ValidConnectionOutput
 					logger.logInfo("Stopping Host Server...");
 					server.stop();
 					run = false;
+				}else if(next.toLowerCase().startsWith("drain"))
+				{
+					String[] command = next.trim().split("\\s+");
+					try
+					{
+						long deadline = command.length > 1 ? Long.parseLong(command[1]) * 1000 : DrainConfig.DEADLINE;
+						logger.logInfo("Draining Host Server, meetings have " + (deadline / 1000) + "s to finish...");
+						server.drain(deadline);
+						run = false;
+					}catch(NumberFormatException e)
+					{
+						logger.logWarning("Usage: drain [deadline in seconds]");
+					}
+				}else if(next.toLowerCase().equals("stats"))
+				{
+					server.logStatistics();
 				}
 			}catch(IOException i)
 			{
@@ -117,20 +246,133 @@ public class HostServer extends ServerComponent implements ValidConnectionOutput
 			}
 		}
 		
-		while(server.getState() != ServerComponentState.STOPPED) //Wait for the server to stop
+		server.whenStopped().join(); //Wait for the server and every component below it to stop
+		
+		logger.logInfo("Host Server stopped");
+	}
+
+	/**
+	 * Logs the server wide counters in {@link ServerMetrics} followed by the health and traffic counters of every client in every meeting
+	 */
+	public void logStatistics()
+	{
+		logger.logInfo(ServerMetrics.summary());
+		for(Meeting meeting : meetings.values())
 		{
-			try
+			logger.logInfo("Meeting " + meeting.getMeetingCode() + " has " + meeting.getNumberParticipants() + " participants, events queued by priority " + Arrays.toString(meeting.getEventQueueDepths())
+					+ ", " + meeting.getAudioFramesSuppressed() + " of " + meeting.getAudioFramesReceived() + " audio frames suppressed as silence");
+			for(Roster.Member member : meeting.getRoster().getMembers())
+			{
+				ThreadedBufferedMessageWriter writer = member.getWriter();
+				Connection connection = member.getClient().getConnection();
+				logger.logInfo("  " + connection.getName() + " " + writer.getHealth() + ", " + writer.getQueuedBytes() + " bytes queued, " + connection.getMetrics());
+			}
+		}
+	}
+	
+	/**
+	 * Stops the server without cutting off the meetings running on it, for when it is being replaced. New connections stop being accepted and anyone who finishes validating
+	 * is sent an NVAL message rather than joining. The meetings carry on until they empty and close by themselves or the deadline passes, after which the connections still open
+	 * are closed spread over {@link DrainConfig#CLOSE_WINDOW} so their clients do not all reconnect elsewhere at once. The server stops once they have been closed.
+	 * Has no effect if the server is already draining
+	 * @param deadline In ms, how long the meetings have to finish by themselves
+	 */
+	public void drain(long deadline)
+	{
+		if(draining || !getState().equals(ServerComponentState.RUNNING))
+		{
+			return;
+		}
+		draining = true;
+		
+		IncomingConnectionAccepter currentAcceptor = acceptor;
+		if(currentAcceptor != null)
+		{
+			try {
+				currentAcceptor.stop();
+			} catch (IllegalComponentStateException e) {
+				logger.logIgnore(e.getMessage());
+			}
+		}
+		
+		HashedTimingWheel.getShared().schedule(() -> {
+			if(drainFinishing.compareAndSet(false, true))
 			{
-				Thread.sleep(SERVER_STOPPED_CHECK_RATE);
-			}catch(InterruptedException e)
+				logger.logInfo("Drain deadline reached with " + meetings.size() + " meetings still running");
+				closeRemainingConnections();
+			}
+		}, deadline);
+		finishDrainIfEmpty();
+	}
+	
+	/**
+	 * @return True if the server is draining, see {@link #drain(long)}
+	 */
+	public boolean isDraining()
+	{
+		return draining;
+	}
+	
+	@Override
+	public boolean isAcceptingClients() {
+		return !draining;
+	}
+	
+	/**
+	 * Stops the server as soon as the last meeting has closed while draining
+	 */
+	private void finishDrainIfEmpty()
+	{
+		if(draining && meetings.isEmpty() && drainFinishing.compareAndSet(false, true))
+		{
+			logger.logInfo("Every meeting has finished, stopping the drained Host Server");
+			stopAfterDrain();
+		}
+	}
+	
+	/**
+	 * Closes the connection of every client still in a meeting, one after another spread evenly over {@link DrainConfig#CLOSE_WINDOW}, then stops the server
+	 */
+	private void closeRemainingConnections()
+	{
+		List<Connection> remaining = new ArrayList<Connection>();
+		for(Meeting meeting : meetings.values())
+		{
+			for(MeetingClient client : meeting.getMeetingParticipants())
 			{
-				//Ignore
+				remaining.add(client.getConnection());
 			}
 		}
 		
-		logger.logInfo("Host Server stopped");
+		for(int i = 0;i < remaining.size();i++)
+		{
+			Connection connection = remaining.get(i);
+			HashedTimingWheel.getShared().schedule(() -> {
+				try {
+					connection.close();
+				} catch (ConnectionErrorException e) {
+					logger.logIgnore(e.getMessage()); //The client has already gone
+				}
+			}, DrainConfig.CLOSE_WINDOW * i / remaining.size());
+		}
+		HashedTimingWheel.getShared().schedule(this::stopAfterDrain, remaining.isEmpty() ? 0 : DrainConfig.CLOSE_WINDOW);
 	}
-
+	
+	/**
+	 * Stops the server on a thread of its own, as the drain finishes on the thread of the timing wheel which must not be held up stopping every component
+	 */
+	private void stopAfterDrain()
+	{
+		Thread stopper = new Thread(() -> {
+			try {
+				stop();
+			} catch (IllegalComponentStateException e) {
+				logger.logIgnore(e.getMessage()); //Already stopped
+			}
+		},"Host Server Drain");
+		stopper.start();
+	}
+	
 	@Override
 	public void connectionValidationOutput(MeetingClient client) {
 		logger.logInfo("New connection successfully validated from " + client.getConnection().getName() + " for user " + client.getUserInfo().getFirstName());
@@ -147,6 +389,23 @@ public class HostServer extends ServerComponent implements ValidConnectionOutput
 		{
 			String meetingID = client.getUserInfo().getMeetingID();
 			Meeting meeting;
+			
+			if(draining)
+			{
+				//Validated just as the drain started, no new meeting can be created once the drain may have finished
+				logger.logWarning("Refusing client " + client.getConnection().getName() + " as the server is draining");
+				try {
+					ValidationThread.sendNotValidatedMessage(client.getConnection());
+				} catch (ConnectionErrorException e) {
+					logger.logIgnore("Failed to send NVAL message");
+				}
+				try {
+					client.getConnection().close();
+				} catch (ConnectionErrorException e) {
+					logger.logIgnore(e.getMessage());
+				}
+				return;
+			}
 
 			if(meetings.containsKey(meetingID))
 			{
@@ -194,14 +453,24 @@ public class HostServer extends ServerComponent implements ValidConnectionOutput
 
 	@Override
 	protected void startUp() throws StartupException {
-		TCPConnectionAcceptor acceptor = new TCPConnectionAcceptor(); //Create the listener thread to receive incoming TCP connections
-		addSubServerComponent(acceptor); //Add the listener thread as a sub component so it will stop when this component stops
-		acceptor.addConnectionListener(this); //Add the host server as an output for any new incoming connection
 		try {
-			acceptor.start();
+			if(TransportConfig.USE_NIO_TRANSPORT)
+			{
+				//The event loops are owned by the server rather than the acceptor so connections keep being serviced if the acceptor stops
+				NIOEventLoopGroup eventLoops = new NIOEventLoopGroup(TransportConfig.EVENT_LOOP_THREADS);
+				addSubServerComponent(eventLoops);
+				eventLoops.start();
+				acceptor = new NIOConnectionAcceptor(eventLoops);
+			}else
+			{
+				acceptor = new TCPConnectionAcceptor(); //Create the listener thread to receive incoming TCP connections
+			}
+			addSubServerComponent(acceptor); //Add the listener thread as a sub component so it will stop when this component stops
+			acceptor.addConnectionListener(this); //Add the host server as an output for any new incoming connection
+			acceptor.start(); //Start the listener
 		} catch (IllegalComponentStateException e) {
 			throw new StartupException(e.getMessage());
-		} //Start the listener
+		}
 	}
 
 	@Override
@@ -219,6 +488,7 @@ public class HostServer extends ServerComponent implements ValidConnectionOutput
 		{
 			removeSubServerComponent(meeting);
 			logger.logInfo("Removed meeting " + meetingID + " from list");
+			finishDrainIfEmpty();
 		}
 	}
 	
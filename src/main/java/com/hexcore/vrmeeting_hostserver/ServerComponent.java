@@ -1,7 +1,16 @@
 package main.java.com.hexcore.vrmeeting_hostserver;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import main.java.com.hexcore.vrmeeting_hostserver.exception.IllegalComponentStateException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
@@ -13,12 +22,19 @@ import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
  * ServerComponents can form a hierarchal structure as a ServerComponent can be a sub component of another. And if the parent component is instructed to stop then
  * so are all sub-components.
  * Classes extending this are expected to handle moving to the stopped state
+ * Rather than walking the tree of sub components, each component keeps a count of its sub components which have not yet stopped which they update as they stop,
+ * so whether a component and everything below it has stopped is known at once and can be waited on through {@link #whenStopped()} or {@link #awaitStopped(long)}
  * @author Psymj1 (Marcus)
  */
 public abstract class ServerComponent {
-	private ServerComponentState currentState = ServerComponentState.NEW;
-	private List<ServerComponent> subComponenets = new ArrayList<ServerComponent>();
-	private ServerComponent parent;
+	private final AtomicReference<ServerComponentState> currentState = new AtomicReference<ServerComponentState>(ServerComponentState.NEW);
+	private final AtomicBoolean startCalled = new AtomicBoolean(false); //So only one caller of start() starts the component
+	private final List<ServerComponentStateListener> stateListeners = new CopyOnWriteArrayList<ServerComponentStateListener>();
+	private final Set<ServerComponent> subComponenets = ConcurrentHashMap.newKeySet();
+	private final Set<ServerComponent> liveSubComponents = ConcurrentHashMap.newKeySet(); //The sub components which have not yet stopped
+	private final AtomicInteger liveSubComponentCount = new AtomicInteger(0);
+	private final CompletableFuture<Void> stopped = new CompletableFuture<Void>(); //Completed once this component and all of its sub components have stopped
+	private volatile ServerComponent parent;
 	
 	public ServerComponent(ServerComponent parent)
 	{
@@ -37,12 +53,13 @@ public abstract class ServerComponent {
 	 */
 	public void start() throws StartupException, IllegalComponentStateException
 	{
-		if(!getState().equals(ServerComponentState.NEW))
+		if(!getState().equals(ServerComponentState.NEW) || !startCalled.compareAndSet(false, true))
 		{
 			throw new IllegalComponentStateException("Component cannot be started because it has already been started");
 		}
 		startUp();
-		setState(ServerComponentState.RUNNING);
+		//A component whose own thread has already finished and stopped it must not be moved back to running
+		transitionState(ServerComponentState.NEW, ServerComponentState.RUNNING);
 	}
 	
 	/**
@@ -57,24 +74,37 @@ public abstract class ServerComponent {
 	 */
 	public void stop() throws IllegalComponentStateException
 	{
-		if(!getState().equals(ServerComponentState.RUNNING))
+		if(!transitionState(ServerComponentState.RUNNING, ServerComponentState.STOPPING))
 		{
 			throw new IllegalComponentStateException("Component cannot be stopped as it is not running");
 		}
-		setState(ServerComponentState.STOPPING);
 		
-		synchronized(subComponenets)
+		for(ServerComponent c : subComponenets)
 		{
-			for(ServerComponent c : subComponenets)
-			{
-				c.stop();
-			}
+			c.stopIfRunning();
 		}
 		
-		
 		shutdown();
 	}
 	
+	/**
+	 * Stops the component as part of stopping its parent, a sub component which was never started or has already stopped or been told to stop is left as it is
+	 */
+	private void stopIfRunning()
+	{
+		if(currentState.get() != ServerComponentState.RUNNING)
+		{
+			return;
+		}
+		try
+		{
+			stop();
+		}catch(IllegalComponentStateException e)
+		{
+			//Another thread stopped it first
+		}
+	}
+	
 	/**
 	 * Called during stop() providing subclasses the ability to perform operations to cleanly shutdown
 	 */
@@ -86,25 +116,11 @@ public abstract class ServerComponent {
 	 */
 	public ServerComponentState getState()
 	{
-		ServerComponentState temp;
-		synchronized(currentState)
-		{
-			temp = currentState;
-		}
+		ServerComponentState temp = currentState.get();
 		
-		if(temp == ServerComponentState.STOPPED)
+		if(temp == ServerComponentState.STOPPED && liveSubComponentCount.get() > 0)
 		{
-			synchronized(subComponenets)
-			{
-				for(ServerComponent s: subComponenets)
-				{
-					if(s.getState() != ServerComponentState.STOPPED)
-					{
-						temp = ServerComponentState.STOPPING;
-						break;
-					}
-				}
-			}
+			temp = ServerComponentState.STOPPING;
 		}
 		
 		return temp;
@@ -117,26 +133,149 @@ public abstract class ServerComponent {
 	
 	public void addSubServerComponent(ServerComponent component)
 	{
-		synchronized(subComponenets)
+		if(!subComponenets.add(component))
+		{
+			return;
+		}
+		component.setParentComponent(this);
+		if(!component.stopped.isDone() && liveSubComponents.add(component))
 		{
-			subComponenets.add(component);
-			component.setParentComponent(this);
+			liveSubComponentCount.incrementAndGet();
+			if(component.stopped.isDone())
+			{
+				forgetLiveSubComponent(component); //It stopped before it was counted so it could not tell this component
+			}
 		}
 	}
 	
 	public void removeSubServerComponent(ServerComponent component)
 	{
-		synchronized(subComponenets)
+		subComponenets.remove(component);
+		forgetLiveSubComponent(component);
+	}
+	
+	/**
+	 * Stops counting a sub component as live, either because it has stopped or because it has been removed
+	 * @param component The sub component
+	 */
+	private void forgetLiveSubComponent(ServerComponent component)
+	{
+		if(liveSubComponents.remove(component) && liveSubComponentCount.decrementAndGet() == 0)
+		{
+			checkStopped();
+		}
+	}
+	
+	/**
+	 * Completes {@link #whenStopped()} and tells the parent component if this component and all of its sub components have now stopped
+	 */
+	private void checkStopped()
+	{
+		if(currentState.get() == ServerComponentState.STOPPED && liveSubComponentCount.get() == 0 && stopped.complete(null))
 		{
-			subComponenets.remove(component);
+			ServerComponent currentParent = parent;
+			if(currentParent != null)
+			{
+				currentParent.forgetLiveSubComponent(this);
+			}
 		}
 	}
 	
+	/**
+	 * @return A future completed once this component and all of its sub components have stopped, which is when {@link #getState()} first reports {@link ServerComponentState#STOPPED}
+	 */
+	public CompletableFuture<Void> whenStopped()
+	{
+		return stopped.thenApply(ignored -> null); //A dependent future so that callers cannot complete the one used by this component
+	}
+	
+	/**
+	 * Blocks until this component and all of its sub components have stopped
+	 * @param timeout In ms, the longest to wait or 0 to wait until they stop
+	 * @return True if the component stopped, false if the timeout passed first
+	 * @throws InterruptedException If the calling thread is interrupted while waiting
+	 */
+	public boolean awaitStopped(long timeout) throws InterruptedException
+	{
+		try
+		{
+			if(timeout > 0)
+			{
+				stopped.get(timeout, TimeUnit.MILLISECONDS);
+			}else
+			{
+				stopped.get();
+			}
+			return true;
+		}catch(TimeoutException e)
+		{
+			return false;
+		}catch(ExecutionException e)
+		{
+			return true; //Never completed exceptionally
+		}
+	}
+	
+	/**
+	 * Moves the component to a state whatever state it is currently in, used by a component to record that it has stopped
+	 * @param state The state to move to
+	 */
 	protected void setState(ServerComponentState state)
 	{
-		synchronized(currentState)
+		ServerComponentState previous = currentState.getAndSet(state);
+		if(previous != state)
+		{
+			onStateChanged(previous, state);
+		}
+	}
+	
+	/**
+	 * Moves the component to the next state only if it is still in the state expected
+	 * @param expected The state the component must be in
+	 * @param next The state to move to
+	 * @return True if the component moved to the next state, false if it was no longer in the state expected
+	 * @throws IllegalArgumentException If a component cannot move from the state expected to the next state, see {@link ServerComponentState#canTransitionTo(ServerComponentState)}
+	 */
+	protected final boolean transitionState(ServerComponentState expected,ServerComponentState next)
+	{
+		if(!expected.canTransitionTo(next))
 		{
-			currentState = state;
+			throw new IllegalArgumentException("A component cannot move from " + expected + " to " + next);
+		}
+		if(!currentState.compareAndSet(expected, next))
+		{
+			return false;
+		}
+		onStateChanged(expected, next);
+		return true;
+	}
+	
+	/**
+	 * The listener is told about changes to the state of this component only, not the combined state reported by {@link #getState()} while sub components are stopping
+	 * @param listener A listener to tell whenever the state of the component changes
+	 */
+	public void addStateListener(ServerComponentStateListener listener)
+	{
+		stateListeners.add(listener);
+	}
+	
+	/**
+	 * @param listener A listener which should no longer be told when the state of the component changes
+	 */
+	public void removeStateListener(ServerComponentStateListener listener)
+	{
+		stateListeners.remove(listener);
+	}
+	
+	private void onStateChanged(ServerComponentState previous,ServerComponentState current)
+	{
+		if(current == ServerComponentState.STOPPED)
+		{
+			checkStopped();
+		}
+		for(ServerComponentStateListener listener : stateListeners)
+		{
+			listener.onStateChanged(this, previous, current);
 		}
 	}
 	
@@ -147,8 +286,6 @@ public abstract class ServerComponent {
 	
 	protected int getNumOfSubComponenets()
 	{
-		synchronized (subComponenets) {
-			return subComponenets.size();
-		}
+		return subComponenets.size();
 	}
 }
@@ -10,5 +10,15 @@ public enum ServerComponentState {
 	//STARTING, //When the component has had start() called but has not finished starting yet
 	RUNNING, //After start() has successfully run
 	STOPPING, //stop() has been called but the component or its sub components have not yet stopped 
-	STOPPED //Has been running and has now been stopped
+	STOPPED; //Has been running and has now been stopped
+	
+	/**
+	 * A component only moves forward through its states, it can stop itself at any point but never starts again once stopped
+	 * @param next The state to move to
+	 * @return True if a component in this state can move to the next state
+	 */
+	public boolean canTransitionTo(ServerComponentState next)
+	{
+		return next.ordinal() > ordinal();
+	}
 }
@@ -0,0 +1,16 @@
+package main.java.com.hexcore.vrmeeting_hostserver;
+
+/**
+ * A class implementing this interface can be added to a {@link ServerComponent} to be told whenever its own state changes
+ * @author Psymj1 (Marcus)
+ *
+ */
+public interface ServerComponentStateListener {
+	/**
+	 * Called on the thread which changed the state, after it has changed, so it must not block
+	 * @param component The component whose state changed
+	 * @param previous The state the component was in
+	 * @param current The state the component is now in
+	 */
+	public void onStateChanged(ServerComponent component,ServerComponentState previous,ServerComponentState current);
+}
@@ -0,0 +1,112 @@
+package main.java.com.hexcore.vrmeeting_hostserver.communication.buffer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import main.java.com.hexcore.vrmeeting_hostserver.config.TransportConfig;
+
+/**
+ * Keeps the buffers released by packets which have been fully handled so that later packets of the same length reuse them rather than allocating a new array.
+ * Buffers are kept by their exact length, which suits audio as a client sends every AUDI message with the same number of samples, and because each array is exactly as long
+ * as its packet it can be parsed, relayed and written just like an array which was not pooled.
+ * At most {@link TransportConfig#MAX_POOLED_BYTES} are kept, buffers released beyond that are left to the garbage collector. This class is thread safe
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class BufferPool {
+	private static final BufferPool SHARED = new BufferPool(TransportConfig.MAX_POOLED_BYTES);
+
+	private final long maxPooledBytes;
+	private ConcurrentHashMap<Integer,ConcurrentLinkedQueue<PooledBuffer>> free = new ConcurrentHashMap<Integer,ConcurrentLinkedQueue<PooledBuffer>>();
+	private AtomicLong pooledBytes = new AtomicLong(0);
+	private AtomicLong reused = new AtomicLong(0);
+	private AtomicLong allocated = new AtomicLong(0);
+
+	/**
+	 * @param maxPooledBytes The most bytes of released buffers to keep for reuse
+	 */
+	public BufferPool(long maxPooledBytes)
+	{
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	/**
+	 * @return The pool shared by every connection for the packets it receives
+	 */
+	public static BufferPool shared()
+	{
+		return SHARED;
+	}
+
+	/**
+	 * Takes a released buffer of the given length from the pool, or allocates one if there isn't one.
+	 * If {@link TransportConfig#POOL_RECEIVE_BUFFERS} is not set the buffer is never returned to the pool
+	 * @param length The length of the array needed
+	 * @return A buffer holding one reference to an array of exactly the length given. Its contents are undefined
+	 */
+	public PooledBuffer acquire(int length)
+	{
+		if(!TransportConfig.POOL_RECEIVE_BUFFERS)
+		{
+			return PooledBuffer.wrap(new byte[length]);
+		}
+
+		ConcurrentLinkedQueue<PooledBuffer> buffers = free.get(length);
+		PooledBuffer buffer = buffers == null ? null : buffers.poll();
+		if(buffer == null)
+		{
+			allocated.incrementAndGet();
+			return new PooledBuffer(new byte[length],this);
+		}
+		pooledBytes.addAndGet(-length);
+		reused.incrementAndGet();
+		buffer.reset();
+		return buffer;
+	}
+
+	/**
+	 * Keeps a buffer whose last reference has been released, unless the pool is already full
+	 * @param buffer The buffer released
+	 */
+	void recycle(PooledBuffer buffer)
+	{
+		int length = buffer.array().length;
+		if(pooledBytes.addAndGet(length) > maxPooledBytes)
+		{
+			pooledBytes.addAndGet(-length);
+			return;
+		}
+		ConcurrentLinkedQueue<PooledBuffer> buffers = free.get(length);
+		if(buffers == null)
+		{
+			free.putIfAbsent(length, new ConcurrentLinkedQueue<PooledBuffer>());
+			buffers = free.get(length);
+		}
+		buffers.offer(buffer);
+	}
+
+	/**
+	 * @return The number of bytes held in released buffers waiting to be reused
+	 */
+	public long getPooledBytes()
+	{
+		return pooledBytes.get();
+	}
+
+	/**
+	 * @return The number of buffers handed out which reused a released buffer
+	 */
+	public long getReusedCount()
+	{
+		return reused.get();
+	}
+
+	/**
+	 * @return The number of buffers handed out which had to be allocated
+	 */
+	public long getAllocatedCount()
+	{
+		return allocated.get();
+	}
+}
@@ -0,0 +1,105 @@
+package main.java.com.hexcore.vrmeeting_hostserver.communication.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted byte array holding one packet received from a connection. It starts with one reference, each holder which keeps the buffer beyond the call it was given to it in
+ * calls {@link #retain()} and calls {@link #release()} once it is finished with it. When the last reference is released the array is returned to the {@link BufferPool} it came from
+ * to be reused for a later packet, so nothing may read the array after releasing its reference.
+ * A buffer which was not taken from a pool, see {@link #wrap(byte[])}, is not counted and is left to the garbage collector
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class PooledBuffer {
+	private final byte[] array;
+	private final BufferPool pool; //Null if the buffer is not pooled
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	PooledBuffer(byte[] array,BufferPool pool)
+	{
+		this.array = array;
+		this.pool = pool;
+	}
+
+	/**
+	 * @param array The array to wrap
+	 * @return A buffer holding the array which is never returned to a pool, so retaining and releasing it has no effect
+	 */
+	public static PooledBuffer wrap(byte[] array)
+	{
+		return new PooledBuffer(array,null);
+	}
+
+	/**
+	 * @return The array held by the buffer, exactly as long as the packet it holds. Must not be read after the caller's reference has been released
+	 */
+	public byte[] array()
+	{
+		return array;
+	}
+
+	/**
+	 * @return True if the array is returned to a pool once every reference is released
+	 */
+	public boolean isPooled()
+	{
+		return pool != null;
+	}
+
+	/**
+	 * Adds a reference to the buffer
+	 * @throws IllegalStateException If every reference to the buffer has already been released
+	 */
+	public void retain()
+	{
+		if(pool == null)
+		{
+			return;
+		}
+		int current;
+		do
+		{
+			current = references.get();
+			if(current <= 0)
+			{
+				throw new IllegalStateException("A buffer cannot be retained once it has been released");
+			}
+		}while(!references.compareAndSet(current, current + 1));
+	}
+
+	/**
+	 * Removes a reference to the buffer, returning its array to the pool if it was the last
+	 * @throws IllegalStateException If every reference to the buffer has already been released
+	 */
+	public void release()
+	{
+		if(pool == null)
+		{
+			return;
+		}
+		int remaining = references.decrementAndGet();
+		if(remaining == 0)
+		{
+			pool.recycle(this);
+		}else if(remaining < 0)
+		{
+			throw new IllegalStateException("A buffer cannot be released more times than it was retained");
+		}
+	}
+
+	/**
+	 * @return The number of references held to the buffer, 0 once it has been released
+	 */
+	public int getReferenceCount()
+	{
+		return references.get();
+	}
+
+	/**
+	 * Gives the buffer its first reference again as it is handed out by its pool
+	 */
+	void reset()
+	{
+		references.set(1);
+	}
+}
@@ -1,19 +1,48 @@
 package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ServerSignals;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 
 /**
  * This class models a 'message' sent during the VRMeeting Messaging Protocol.
  * It contains a 'signal' which indicates the purpose of the message and a 'payload' which is the content of the message itself.
  * The message 'signal' denotes the format of the message 'payload'
+ * A message parsed from a packet in a {@link PooledBuffer} can be a read only view of the payload within the packet rather than a copy of it, see {@link #getPayloadArray()}.
+ * Anything holding such a message beyond the call it was given to it in must {@link #retain()} it and {@link #release()} it once finished, every other message ignores both
  * @author Psymj1 (Marcus)
  * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
  */
 public class Message {
+	private static final HashMap<String,Integer> SIGNAL_IDS = new HashMap<String,Integer>();
+	private static final HashMap<String,ClientSignals> CLIENT_SIGNALS = new HashMap<String,ClientSignals>();
+	static
+	{
+		for(ClientSignals clientSignal : ClientSignals.values())
+		{
+			SIGNAL_IDS.put(clientSignal.toString(), clientSignal.getID());
+			CLIENT_SIGNALS.put(clientSignal.toString(), clientSignal);
+		}
+		for(ServerSignals serverSignal : ServerSignals.values())
+		{
+			SIGNAL_IDS.put(serverSignal.toString(), serverSignal.getID());
+		}
+	}
+	
 	private String signal;
-	private byte[] payload;
+	private ClientSignals clientSignal; //Set by the parser or looked up the first time it is asked for, null if the signal is not one a client sends
+	private boolean clientSignalResolved = false;
+	private byte[] payload; //For a view the whole packet the payload is part of
+	private int payloadOffset = 0;
+	private int payloadLength;
+	private PooledBuffer buffer; //Null unless the message is a view into a pooled buffer
+	private volatile byte[] encodedV1; //Cached wire formats, each is only generated once however many connections the message is sent to
+	private volatile byte[] encodedV2;
 	
 	/**
 	 * Creates a new Message
@@ -45,11 +74,31 @@ public class Message {
 
 		this.signal = signal;
 		this.payload = (payload == null ? null : (payload.length > 0 ? payload : null));
+		payloadLength = this.payload == null ? 0 : this.payload.length;
 	}
 	
-	private int getPayloadLength()
+	/**
+	 * Creates a message whose payload is a view of part of a pooled buffer, without copying it. The message takes over the reference to the buffer held by the caller
+	 * @param signal The signal of the message
+	 * @param buffer The buffer holding the packet the message was parsed from
+	 * @param payloadOffset The index of the first byte of the payload within the buffer
+	 * @param payloadLength The length of the payload, greater than 0
+	 */
+	Message(String signal,PooledBuffer buffer,int payloadOffset,int payloadLength)
 	{
-		return payload == null ? 0 : payload.length;
+		this.signal = signal;
+		this.buffer = buffer;
+		this.payload = buffer.array();
+		this.payloadOffset = payloadOffset;
+		this.payloadLength = payloadLength;
+	}
+	
+	/**
+	 * @return The length of the payload in bytes, 0 if there isn't one
+	 */
+	public int getPayloadLength()
+	{
+		return payloadLength;
 	}
 	
 	/**
@@ -72,8 +121,8 @@ public class Message {
 		
 		if(payload != null)
 		{
-			System.arraycopy(payload, 0, message, offset, payload.length);
-			offset += payload.length;
+			System.arraycopy(payload, payloadOffset, message, offset, payloadLength);
+			offset += payloadLength;
 		}
 		
 		return message;
@@ -95,7 +144,7 @@ public class Message {
 		
 		if(getPayloadLength() > 0)
 		{
-			message.put(getPayload());
+			message.put(payload, payloadOffset, payloadLength);
 		}
 		
 		message.put(ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER);
@@ -103,13 +152,170 @@ public class Message {
 		return message.array();
 	}
 	
+	/**
+	 * Converts the signal and payload stored in the message to the wire format of the given version of the protocol.
+	 * The encoding for each version is only generated the first time it is asked for and the same array is returned from then on, so a message
+	 * relayed to many connections is only serialized once. The array returned is shared and must not be modified
+	 * @param version The version of the wire format negotiated with the endpoint the message will be sent to
+	 * @return Returns a byte array which represents the signal and payload stored in the object in the given wire format
+	 * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
+	 */
+	public byte[] getEncodedMessage(ProtocolVersion version)
+	{
+		byte[] encoded;
+		switch(version)
+		{
+		case V2:
+			encoded = encodedV2;
+			if(encoded == null)
+			{
+				encoded = getV2TransmittableMessage();
+				encodedV2 = encoded;
+			}
+			return encoded;
+		default:
+			encoded = encodedV1;
+			if(encoded == null)
+			{
+				encoded = getNewTransmittableMessage();
+				encodedV1 = encoded;
+			}
+			return encoded;
+		}
+	}
+	
+	/**
+	 * Stores the bytes the message was received as so they can be relayed unchanged to connections using the same version of the wire format
+	 * @param version The version of the wire format the bytes are in
+	 * @param encoded The complete message as it was received, which must not be modified afterwards
+	 */
+	void setEncodedMessage(ProtocolVersion version,byte[] encoded)
+	{
+		switch(version)
+		{
+		case V2:
+			encodedV2 = encoded;
+			break;
+		default:
+			encodedV1 = encoded;
+			break;
+		}
+	}
+	
+	/**
+	 * Converts the signal and payload stored in the message to the version 2 wire format, a header containing the signal ID, flags and the payload length as a varint followed by the payload
+	 * @return Returns a byte array which represents the data the signal and payload stored in the object
+	 * @throws IllegalStateException If the signal of the message does not have an ID in version 2 of the protocol
+	 */
+	private byte[] getV2TransmittableMessage()
+	{
+		Integer signalID = SIGNAL_IDS.get(signal);
+		if(signalID == null)
+		{
+			throw new IllegalStateException("The signal '" + signal + "' does not have an ID in version 2 of the protocol");
+		}
+		
+		int lengthOfPayload = getPayloadLength();
+		byte[] message = new byte[ProtocolConfig.V2_FIXED_HEADER_LENGTH + VarInt.encodedLength(lengthOfPayload) + lengthOfPayload];
+		message[0] = (byte)signalID.intValue();
+		message[1] = ProtocolConfig.V2_NO_FLAGS;
+		int offset = VarInt.write(lengthOfPayload, message, ProtocolConfig.V2_FIXED_HEADER_LENGTH);
+		
+		if(payload != null)
+		{
+			System.arraycopy(payload, payloadOffset, message, offset, payloadLength);
+		}
+		
+		return message;
+	}
+	
 	public String getSignal()
 	{
 		return signal;
 	}
 	
+	/**
+	 * A message parsed from a client already knows its signal, any other message looks it up once and remembers it,
+	 * so the signal can be compared by identity rather than by comparing strings
+	 * @return The client signal with the same name as the signal of the message or null if there isn't one
+	 */
+	public ClientSignals getClientSignal()
+	{
+		if(!clientSignalResolved)
+		{
+			clientSignal = CLIENT_SIGNALS.get(signal);
+			clientSignalResolved = true;
+		}
+		return clientSignal;
+	}
+	
+	/**
+	 * Records the client signal of a message so it never has to be looked up
+	 * @param clientSignal The signal the message was parsed with
+	 */
+	void setClientSignal(ClientSignals clientSignal)
+	{
+		this.clientSignal = clientSignal;
+		clientSignalResolved = true;
+	}
+	
+	/**
+	 * @return The payload of the message or null if there isn't one. The payload of a view is copied, so code handling audio should read it in place using {@link #getPayloadArray()} instead
+	 */
 	public byte[] getPayload()
+	{
+		if(buffer == null || payload == null)
+		{
+			return payload;
+		}
+		return Arrays.copyOfRange(payload, payloadOffset, payloadOffset + payloadLength);
+	}
+	
+	/**
+	 * The payload without copying it, it starts at {@link #getPayloadOffset()} and is {@link #getPayloadLength()} bytes long. It must not be modified,
+	 * and for a view it must not be read once the reference held to the message has been released
+	 * @return The array holding the payload or null if there isn't one
+	 */
+	public byte[] getPayloadArray()
 	{
 		return payload;
 	}
+	
+	/**
+	 * @return The index of the first byte of the payload within {@link #getPayloadArray()}
+	 */
+	public int getPayloadOffset()
+	{
+		return payloadOffset;
+	}
+	
+	/**
+	 * @return True if the payload is a view into a pooled buffer which is reused once every reference to it has been released
+	 */
+	public boolean isPooled()
+	{
+		return buffer != null && buffer.isPooled();
+	}
+	
+	/**
+	 * Adds a reference to the buffer the message is a view of, so it is not reused while the message is held. Has no effect on any other message
+	 */
+	public void retain()
+	{
+		if(buffer != null)
+		{
+			buffer.retain();
+		}
+	}
+	
+	/**
+	 * Removes a reference to the buffer the message is a view of, the buffer is reused once the last is removed. Has no effect on any other message
+	 */
+	public void release()
+	{
+		if(buffer != null)
+		{
+			buffer.release();
+		}
+	}
 }
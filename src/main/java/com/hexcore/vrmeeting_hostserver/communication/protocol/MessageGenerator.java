@@ -1,6 +1,7 @@
 package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ServerSignals;
@@ -57,7 +58,56 @@ public final class MessageGenerator {
 	 */
 	public static Message generateUDMMessage(User user)
 	{
-		return new Message(ServerSignals.UDM.toString(),user.convertToJSON().getBytes(ProtocolConfig.SIGNAL_CHARACTER_SET));
+		return generateUDMMessage(user.convertToJSON());
+	}
+	
+	/**
+	 * Generate a UDM message from user information which has already been converted to JSON
+	 * @param userJSON The JSON of the user as returned by {@link User#convertToJSON()}
+	 * @return A UDM message containing the given JSON in the payload
+	 */
+	public static Message generateUDMMessage(String userJSON)
+	{
+		return new Message(ServerSignals.UDM.toString(),userJSON.getBytes(ProtocolConfig.SIGNAL_CHARACTER_SET));
+	}
+	
+	/**
+	 * Generate an RDLT message describing how the participants of a meeting changed between two versions of its roster.
+	 * The payload is JSON of the form {"version":12,"since":10,"reset":false,"added":[user,...],"removed":[userID,...]} where each added user is in the same format as a UDM payload.
+	 * If reset is true the client should forget every participant it knows of and replace them with those added
+	 * @param sinceVersion The version the changes are from
+	 * @param version The version the changes lead to
+	 * @param reset True if the added participants are everyone in the meeting rather than only those who joined since sinceVersion
+	 * @param addedJSON The JSON of every user who joined, as returned by {@link User#convertToJSON()}
+	 * @param removedIDs The ID of every user who left
+	 * @return A message with the RDLT signal and the changes encoded in UTF-8 in the payload
+	 */
+	public static Message generateRosterDeltaMessage(long sinceVersion,long version,boolean reset,List<String> addedJSON,List<Integer> removedIDs)
+	{
+		StringBuilder json = new StringBuilder(64 + addedJSON.size() * 256);
+		json.append("{\"version\":").append(version);
+		json.append(",\"since\":").append(sinceVersion);
+		json.append(",\"reset\":").append(reset);
+		json.append(",\"added\":[");
+		for(int i = 0;i < addedJSON.size();i++)
+		{
+			if(i > 0)
+			{
+				json.append(',');
+			}
+			json.append(addedJSON.get(i));
+		}
+		json.append("],\"removed\":[");
+		for(int i = 0;i < removedIDs.size();i++)
+		{
+			if(i > 0)
+			{
+				json.append(',');
+			}
+			json.append(removedIDs.get(i).intValue());
+		}
+		json.append("]}");
+		return new Message(ServerSignals.RDLT.toString(),json.toString().getBytes(ProtocolConfig.SIGNAL_CHARACTER_SET));
 	}
 	
 	/**
@@ -72,6 +122,16 @@ public final class MessageGenerator {
 		return new Message(ServerSignals.LEFT.toString(),id.array());
 	}
 	
+	/**
+	 * Generate a PROT message confirming the version of the wire format that will be used with a client
+	 * @param version The version chosen for the client
+	 * @return A message with the PROT signal and the number of the version as a single byte payload
+	 */
+	public static Message generateProtocolVersionMessage(ProtocolVersion version)
+	{
+		return new Message(ServerSignals.PROT.toString(),new byte[]{(byte)version.getNumber()});
+	}
+	
 	public static Message generateEAUDMessage()
 	{
 		return new Message(ClientSignals.EAUD.toString(),null);
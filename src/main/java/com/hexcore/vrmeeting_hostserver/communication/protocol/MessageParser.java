@@ -2,6 +2,7 @@ package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
 
 import java.nio.ByteBuffer;
 
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
@@ -24,6 +25,18 @@ public class MessageParser {
 	 * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
 	 */
 	public static Message parseMessage(byte[] message) throws InvalidMessageException
+	{
+		return parseV1Message(message,null);
+	}
+	
+	/**
+	 * Parses a {@link ProtocolVersion#V1} message, copying its payload unless it is an AUDI message in a pooled buffer
+	 * @param message The message to validate
+	 * @param buffer The pooled buffer holding the message or null if it is not pooled
+	 * @return Returns a {@link Message} object which represents the parsed raw message
+	 * @throws InvalidMessageException Thrown if the message is invalid
+	 */
+	private static Message parseV1Message(byte[] message,PooledBuffer buffer) throws InvalidMessageException
 	{
 		if(message == null)
 		{
@@ -40,64 +53,223 @@ public class MessageParser {
 			throw new InvalidMessageException("Error parsing message: The maximum possible message size defined by the VRMeeting Messaging Protocol is " + ProtocolConfig.MAX_POSSIBLE_SERIALIZED_MESSAGE_LENGTH + " but the message supplied is " + message.length + " bytes long");
 		}
 		
-		ClientSignals signal = extractSignal(message);
+		int delimiterIndex = findSignalDelimiterIndex(message);
+		ClientSignals signal = extractSignal(message,delimiterIndex);
+		Message parsed = parseMessage(signal,message,delimiterIndex+ProtocolConfig.ENCODED_END_OF_SIGNAL_DELIMITER.length,buffer);
+		if(buffer != null && !parsed.isPooled())
+		{
+			buffer.release(); //The payload was copied so nothing refers to the packet any more
+		}
+		return parsed;
+	}
+	
+	/**
+	 * Parses the raw 'message' passed into the function according to the given version of the wire format of the VRMeeting Messaging Protocol
+	 * @param message The message to validate, without the {@link ProtocolConfig#END_OF_PAYLOAD_DELIMITER} if it is a {@link ProtocolVersion#V1} message
+	 * @param version The version of the wire format the message was received in
+	 * @return Returns a {@link Message} object which represents the parsed raw message
+	 * @throws InvalidMessageException Thrown if the message is invalid
+	 * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
+	 */
+	public static Message parseMessage(byte[] message,ProtocolVersion version) throws InvalidMessageException
+	{
+		return parseMessage(message,version,null);
+	}
+	
+	/**
+	 * Parses a packet held in a pooled buffer according to the given version of the wire format of the VRMeeting Messaging Protocol.
+	 * An AUDI message is a view of its payload within the buffer and takes over the reference to it held by the caller, see {@link Message#release()}.
+	 * The buffer of any other message is released once its payload has been copied, unless the message keeps the packet to relay it unchanged
+	 * @param packet The packet to validate, without the {@link ProtocolConfig#END_OF_PAYLOAD_DELIMITER} if it is a {@link ProtocolVersion#V1} message
+	 * @param version The version of the wire format the message was received in
+	 * @return Returns a {@link Message} object which represents the parsed raw message
+	 * @throws InvalidMessageException Thrown if the message is invalid, the buffer is released first
+	 */
+	public static Message parseMessage(PooledBuffer packet,ProtocolVersion version) throws InvalidMessageException
+	{
+		if(packet == null)
+		{
+			return parseMessage((byte[])null,version);
+		}
+		try
+		{
+			return parseMessage(packet.array(),version,packet);
+		}catch(InvalidMessageException e)
+		{
+			packet.release();
+			throw e;
+		}
+	}
+	
+	private static Message parseMessage(byte[] message,ProtocolVersion version,PooledBuffer buffer) throws InvalidMessageException
+	{
+		if(version != ProtocolVersion.V2)
+		{
+			return parseV1Message(message,buffer);
+		}
+		
+		if(message == null)
+		{
+			throw new IllegalArgumentException("Error parsing message: message cannot be null");
+		}
+		
+		if(message.length < ProtocolConfig.V2_FIXED_HEADER_LENGTH + 1)
+		{
+			throw new InvalidMessageException("Error parsing message: A version 2 message must be at least " + (ProtocolConfig.V2_FIXED_HEADER_LENGTH + 1) + " bytes long but the message supplied is " + message.length + " bytes long");
+		}
+		
+		ClientSignals signal = ClientSignals.fromID(message[0] & 0xFF);
+		if(signal == null)
+		{
+			throw new InvalidMessageException("Error parsing message: Unknown signal ID '" + (message[0] & 0xFF) + "'");
+		}
+		
+		int payloadLength = 0;
+		int offset = ProtocolConfig.V2_FIXED_HEADER_LENGTH;
+		for(int i = 0;;i++)
+		{
+			if(i == ProtocolConfig.MAX_BYTES_PER_PAYLOAD_LENGTH || offset == message.length)
+			{
+				throw new InvalidMessageException("Error parsing message: The payload length is not a valid varint of at most " + ProtocolConfig.MAX_BYTES_PER_PAYLOAD_LENGTH + " bytes");
+			}
+			byte next = message[offset++];
+			payloadLength = VarInt.accumulate(payloadLength, next, i);
+			if(!VarInt.hasMore(next))
+			{
+				break;
+			}
+		}
+		
+		if(payloadLength != message.length - offset)
+		{
+			throw new InvalidMessageException("Error parsing message: The header gives a payload length of " + payloadLength + " bytes but the payload is " + (message.length - offset) + " bytes long");
+		}
+		
+		if(payloadLength > ProtocolConfig.MAX_SERIALIZED_PAYLOAD_SIZE)
+		{
+			throw new InvalidMessageException("Error parsing message: The maximum payload size defined by the VRMeeting Messaging Protocol is " + ProtocolConfig.MAX_SERIALIZED_PAYLOAD_SIZE + " but the payload supplied is " + payloadLength + " bytes long");
+		}
+		
+		Message parsed = parseMessage(signal,message,offset,buffer);
+		//Relayed messages can then be sent to other version 2 connections exactly as they arrived without being serialized again
+		parsed.setEncodedMessage(ProtocolVersion.V2, message);
+		return parsed;
+	}
+	
+	/**
+	 * Creates the message for the payload at the end of a packet. An AUDI message in a pooled buffer is a view of the payload, every other message is given a copy of it
+	 * @param signal The signal of the message
+	 * @param message The whole packet
+	 * @param payloadStart The index of the first byte of the payload within the packet
+	 * @param buffer The pooled buffer holding the packet or null if it is not pooled
+	 * @return Returns a {@link Message} object which represents the parsed message
+	 * @throws InvalidMessageException Thrown if the payload is invalid or the signal should not be received by the server
+	 */
+	private static Message parseMessage(ClientSignals signal,byte[] message,int payloadStart,PooledBuffer buffer) throws InvalidMessageException
+	{
+		int payloadLength = message.length - payloadStart;
+		if(signal == ClientSignals.AUDI && buffer != null && buffer.isPooled())
+		{
+			validateAUDIPayload(payloadLength);
+			Message view = new Message(ClientSignals.AUDI.toString(),buffer,payloadStart,payloadLength);
+			view.setClientSignal(signal);
+			return view;
+		}
+		
+		byte[] payload = new byte[payloadLength];
+		System.arraycopy(message, payloadStart, payload, 0, payloadLength);
+		return parseMessage(signal,payload);
+	}
+	
+	/**
+	 * Validates the payload according to the signal it was sent with and creates the matching {@link Message}, regardless of the wire format it was received in
+	 * @param signal The signal of the message
+	 * @param payload The payload of the message, empty if there isn't one
+	 * @return Returns a {@link Message} object which represents the parsed message
+	 * @throws InvalidMessageException Thrown if the payload is invalid or the signal should not be received by the server
+	 */
+	private static Message parseMessage(ClientSignals signal,byte[] payload) throws InvalidMessageException
+	{
+		Message parsed = parsePayload(signal,payload);
+		parsed.setClientSignal(signal);
+		return parsed;
+	}
+	
+	private static Message parsePayload(ClientSignals signal,byte[] payload) throws InvalidMessageException
+	{
 		switch(signal)
 		{
 		case AUDI:
-			return parseAUDIMessage(message);
+			return parseAUDIMessage(payload);
 		case CHNG:
-			return parseCHNGMessage(message);
+			return parseCHNGMessage(payload);
 		case END:
 			return parseENDMessage();
 		case TOKE:
-			return parseTOKEMessage(message);
+			return parseTOKEMessage(payload);
 		case MID:
-			return parseMIDMessage(message);
+			return parseMIDMessage(payload);
 		case GAP:
-			return parseGAPMessage(message);
+			return parseGAPMessage(payload);
 		case GONE:
-			return parseGONEMessage(message);
+			return parseGONEMessage(payload);
 		case HERE:
-			return parseHEREMessage(message);
+			return parseHEREMessage(payload);
 		case HRTB:
-			return parseHRTBMessage(message);
+			return parseHRTBMessage(payload);
 		case EAUD:
-			return parseEAUDMessage(message);
+			return parseEAUDMessage(payload);
+		case PROT:
+			return parsePROTMessage(payload);
 		default:
 			throw new InvalidMessageException("Warning: A " + signal.toString() + " message should not be received by the server");
 		}
 	}
 	
-	private static Message parseEAUDMessage(byte[] message) throws InvalidMessageException
+	private static Message parsePROTMessage(byte[] payload) throws InvalidMessageException
+	{
+		if(payload.length != 1)
+		{
+			throw new InvalidMessageException("Error Parsing PROT Message: The payload must be 1 byte long but was " + payload.length + " bytes long");
+		}
+		return new ProtocolVersionMessage(payload);
+	}
+	
+	private static Message parseEAUDMessage(byte[] payload) throws InvalidMessageException
 	{
 		//TODO Add validation to check the payload contains the length of the original audio
-		byte[] payload = extractPayload(message);
 		return new Message(ClientSignals.EAUD.toString(),payload);
 	}
 	
-	private static Message parseGAPMessage(byte[] message) throws InvalidMessageException
+	/**
+	 * Keeps the payload of a GAP message only if it is the version of the roster the client already knows about, anything else is ignored as it was before the version was added
+	 */
+	private static Message parseGAPMessage(byte[] payload) throws InvalidMessageException
 	{
+		if(payload.length == ProtocolConfig.BYTES_PER_ROSTER_VERSION)
+		{
+			return new Message(ClientSignals.GAP.toString(),payload);
+		}
 		return new Message(ClientSignals.GAP.toString(),null);
 	}
 	
-	private static Message parseGONEMessage(byte[] message) throws InvalidMessageException
+	private static Message parseGONEMessage(byte[] payload) throws InvalidMessageException
 	{
 		return new Message(ClientSignals.GONE.toString(),null);
 	}
 	
-	private static Message parseHEREMessage(byte[] message) throws InvalidMessageException
+	private static Message parseHEREMessage(byte[] payload) throws InvalidMessageException
 	{
 		return new Message(ClientSignals.HERE.toString(),null);
 	}
 	
-	private static Message parseHRTBMessage(byte[] message) throws InvalidMessageException
+	private static Message parseHRTBMessage(byte[] payload) throws InvalidMessageException
 	{
 		return new Message(ClientSignals.HRTB.toString(),null);
 	}
 	
-	private static Message parseMIDMessage(byte[] message) throws InvalidMessageException
+	private static Message parseMIDMessage(byte[] payload) throws InvalidMessageException
 	{ 
-		byte[] payload = extractPayload(message);
 		validateMIDPayload(payload);
 		return new MeetingIDMessage(payload);
 	}
@@ -116,22 +288,21 @@ public class MessageParser {
 		}
 	}
 	
-	private static Message parseAUDIMessage(byte[] message) throws InvalidMessageException
+	private static Message parseAUDIMessage(byte[] payload) throws InvalidMessageException
 	{
-		byte[] payload = extractPayload(message);
-		validateAUDIPayload(payload);
+		validateAUDIPayload(payload.length);
 		return new Message(ClientSignals.AUDI.toString(),payload);
 	}
 	
 	/**
-	 * Checks the byte array passed in to see if it is a valid AUDI message payload according to the VRMeeting Messaging Protocol
-	 * @param payload The payload to check
+	 * Checks the length of a payload to see if it is a valid AUDI message payload according to the VRMeeting Messaging Protocol
+	 * @param payloadLength The length of the payload to check
 	 * @throws InvalidMessageException Thrown if the payload is invalid and contains the reason
 	 * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
 	 */
-	private static void validateAUDIPayload(byte[] payload) throws InvalidMessageException
+	private static void validateAUDIPayload(int payloadLength) throws InvalidMessageException
 	{
-		if(!(payload.length > 0))
+		if(!(payloadLength > 0))
 		{
 			throw new InvalidMessageException("Error Parsing AUDI Message: The payload of an AUDI message cannot be empty");
 		}
@@ -141,9 +312,8 @@ public class MessageParser {
 //		}
 	}
 	
-	private static Message parseCHNGMessage(byte[] message) throws InvalidMessageException
+	private static Message parseCHNGMessage(byte[] payload) throws InvalidMessageException
 	{
-		byte[] payload = extractPayload(message);
 		validateCHNGPayload(payload);
 		return new Message(ClientSignals.CHNG.toString(),payload);
 	}
@@ -182,9 +352,8 @@ public class MessageParser {
 		return new Message(ClientSignals.END.toString(),null);
 	}
 	
-	private static Message parseTOKEMessage(byte[] message) throws InvalidMessageException
+	private static Message parseTOKEMessage(byte[] payload) throws InvalidMessageException
 	{
-		byte[] payload = extractPayload(message);
 		validateTOKEPayload(payload);
 		return new AuthTokenMessage(payload);
 	}
@@ -204,42 +373,22 @@ public class MessageParser {
 	}
 	
 	/**
-	 * Attempts to separate the payload from the signal in the raw message
-	 * @param message The raw message to extract the payload from
-	 * @return The byte array that represents the payload of the message
-	 * @throws InvalidMessageException If the message does not contain a {@link main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig#END_OF_SIGNAL_DELIMITER}
-	 */
-	private static byte[] extractPayload(byte[] message) throws InvalidMessageException
-	{
-		int delimiterIndex = findSignalDelimiterIndex(message);
-		int payloadStart = delimiterIndex+ProtocolConfig.END_OF_SIGNAL_DELIMITER.length();
-		//Since 1 character = 1 byte when using ASCII
-		byte[] payload = new byte[message.length - payloadStart];
-		System.arraycopy(message, payloadStart, payload, 0, payload.length);
-		return payload;
-	}
-	
-	/**
-	 * Attempts to decode the signal in the message and convert it to the appropriate {@link vrmeeting.messages.signals.Signals}
+	 * Attempts to decode the signal in the message and convert it to the appropriate {@link ClientSignals}.
+	 * The signal is matched against its ASCII bytes so no String is created unless the signal is unknown
 	 * @param message The raw message to extract the signal from
-	 * @return Returns the {@link vrmeeting.messages.signals.Signals} that was encoded into the message
-	 * @throws InvalidMessageException If there is an error with the format of the message such that the signal cannot be extracted
+	 * @param delimiterIndex The index of the first byte of the {@link main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig#END_OF_SIGNAL_DELIMITER}
+	 * @return Returns the {@link ClientSignals} that was encoded into the message
+	 * @throws InvalidMessageException If the signal is not one of the {@link ClientSignals}
 	 */
-	private static ClientSignals extractSignal(byte[] message) throws InvalidMessageException
+	private static ClientSignals extractSignal(byte[] message,int delimiterIndex) throws InvalidMessageException
 	{
-		int delimiterIndex = findSignalDelimiterIndex(message);
-		String messageAsString = new String(message);
-		//Get the string that represents the signal
-		String stringSignal = messageAsString.substring(0,delimiterIndex);
-		try
-		{
-			ClientSignals signal = ClientSignals.valueOf(stringSignal);
-			return signal;
-		}catch(IllegalArgumentException i)
+		ClientSignals signal = ClientSignals.fromASCII(message, 0, delimiterIndex);
+		if(signal == null)
 		{
-			//If the string doesn't represent any of the valid signals
-			throw new InvalidMessageException("Error parsing message: Unknown signal '" + stringSignal + "'");
+			//If the bytes don't represent any of the valid signals
+			throw new InvalidMessageException("Error parsing message: Unknown signal '" + new String(message,0,delimiterIndex,ProtocolConfig.SIGNAL_CHARACTER_SET) + "'");
 		}
+		return signal;
 	}
 	
 	/**
@@ -250,13 +399,20 @@ public class MessageParser {
 	 */
 	private static int findSignalDelimiterIndex(byte[] message) throws InvalidMessageException
 	{
-		//First convert the whole message to a string as the signal and signal delimiter are encoded in ASCII
-		String messageAsString = new String(message);
-		int delimiterIndex = messageAsString.indexOf(ProtocolConfig.END_OF_SIGNAL_DELIMITER);
-		if(delimiterIndex == -1)
+		//The signal and signal delimiter are encoded in ASCII so the delimiter can be searched for byte by byte
+		byte[] delimiter = ProtocolConfig.ENCODED_END_OF_SIGNAL_DELIMITER;
+		search:
+		for(int i = 0;i <= message.length - delimiter.length;i++)
 		{
-			throw new InvalidMessageException("Signal End Delimiter not found");
+			for(int j = 0;j < delimiter.length;j++)
+			{
+				if(message[i + j] != delimiter[j])
+				{
+					continue search;
+				}
+			}
+			return i;
 		}
-		return delimiterIndex;
+		throw new InvalidMessageException("Signal End Delimiter not found");
 	}
 }
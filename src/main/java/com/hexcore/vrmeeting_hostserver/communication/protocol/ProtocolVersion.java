@@ -0,0 +1,56 @@
+package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
+
+/**
+ * The versions of the wire format used to frame messages sent using the VRMeeting Messaging Protocol.
+ * Every connection starts using {@link #V1} and may move to a later version if one is negotiated while the connection is being validated
+ * @author Psymj1 (Marcus)
+ * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
+ */
+public enum ProtocolVersion {
+	/**
+	 * The signal is followed by the end of signal delimiter, then the payload and finally the end of payload delimiter
+	 */
+	V1(1),
+	/**
+	 * A fixed header of a one byte signal ID, one byte of flags and the payload length as an unsigned varint, followed by the payload
+	 */
+	V2(2);
+
+	/**
+	 * The latest version of the wire format the server supports
+	 */
+	public static final ProtocolVersion LATEST = V2;
+
+	private final int number;
+
+	private ProtocolVersion(int number)
+	{
+		this.number = number;
+	}
+
+	/**
+	 * @return The number used to identify the version when it is negotiated
+	 */
+	public int getNumber()
+	{
+		return number;
+	}
+
+	/**
+	 * Chooses the version to use with a client which supports every version up to and including the one requested
+	 * @param requestedVersion The number of the latest version the client supports
+	 * @return The latest version supported by both the client and the server
+	 */
+	public static ProtocolVersion negotiate(int requestedVersion)
+	{
+		ProtocolVersion chosen = V1;
+		for(ProtocolVersion version : values())
+		{
+			if(version.number <= requestedVersion)
+			{
+				chosen = version;
+			}
+		}
+		return chosen;
+	}
+}
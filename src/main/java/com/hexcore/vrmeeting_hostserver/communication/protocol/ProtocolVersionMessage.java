@@ -0,0 +1,23 @@
+package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+
+/**
+ * This class aims to provide additional power to the {@linkplain main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message} Class Allowing the protocol version encoded into the payload of a PROT message to be extracted
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class ProtocolVersionMessage extends Message {
+	
+	public ProtocolVersionMessage(byte[] payload) {
+		super(ClientSignals.PROT.toString(), payload);
+	}
+	
+	/**
+	 * @return The number of the latest {@link ProtocolVersion} the client supports
+	 */
+	public int getRequestedVersion()
+	{
+		return getPayload()[0] & 0xFF;
+	}
+}
@@ -0,0 +1,70 @@
+package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
+
+/**
+ * A Utility Class used to encode the payload length of a {@link ProtocolVersion#V2} message as an unsigned varint.
+ * Each byte holds 7 bits of the value starting with the least significant, and the top bit of a byte is set if another byte follows it
+ * @author Psymj1 (Marcus)
+ * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
+ */
+public final class VarInt {
+	private static final int VALUE_BITS = 0x7F;
+	private static final int CONTINUATION_BIT = 0x80;
+
+	/**
+	 * Private Constructor so that the class cannot be initialised
+	 */
+	private VarInt(){}
+
+	/**
+	 * @param value The value to encode, cannot be negative
+	 * @return The number of bytes the value takes up once encoded
+	 */
+	public static int encodedLength(int value)
+	{
+		int length = 1;
+		while((value >>>= 7) != 0)
+		{
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Encodes the value into the array
+	 * @param value The value to encode, cannot be negative
+	 * @param destination The array to write the encoded value into
+	 * @param offset The index to write the first byte to
+	 * @return The index after the last byte written
+	 */
+	public static int write(int value,byte[] destination,int offset)
+	{
+		while((value & ~VALUE_BITS) != 0)
+		{
+			destination[offset++] = (byte)((value & VALUE_BITS) | CONTINUATION_BIT);
+			value >>>= 7;
+		}
+		destination[offset++] = (byte)value;
+		return offset;
+	}
+
+	/**
+	 * @param encodedByte A byte of an encoded value
+	 * @return True if another byte of the value follows this one
+	 */
+	public static boolean hasMore(byte encodedByte)
+	{
+		return (encodedByte & CONTINUATION_BIT) != 0;
+	}
+
+	/**
+	 * Adds the bits held in one byte of an encoded value to the value decoded so far
+	 * @param value The value decoded from the previous bytes
+	 * @param encodedByte The next byte of the encoded value
+	 * @param index The index of the byte within the encoded value, starting from 0
+	 * @return The value decoded so far including this byte
+	 */
+	public static int accumulate(int value,byte encodedByte,int index)
+	{
+		return value | ((encodedByte & VALUE_BITS) << (7 * index));
+	}
+}
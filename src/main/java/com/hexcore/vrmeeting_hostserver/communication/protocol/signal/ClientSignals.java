@@ -2,18 +2,112 @@ package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal
 
 /**
  * Contains Signals that will be contained within messages sent from clients to the server based on the VRMeeting Messaging Protocol
+ * Each signal also has the ID used to represent it in the header of a {@link main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion#V2} message,
+ * signals which share a name with a {@link ServerSignals} share the same ID
  * @author Psymj1 (Marcus)
  * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol under 'Developer Documentation'</a>
  */
 public enum ClientSignals {
-	TOKE,
-	CHNG,
-	AUDI,
-	END,
-	MID,
-	GAP,
-	HERE,
-	GONE,
-	HRTB,
-	EAUD
+	TOKE(1),
+	CHNG(2),
+	AUDI(3),
+	END(4),
+	MID(5),
+	GAP(6),
+	HERE(7),
+	GONE(8),
+	HRTB(9),
+	EAUD(10),
+	PROT(11);
+	
+	private static final ClientSignals[] BY_ID = new ClientSignals[256];
+	static
+	{
+		for(ClientSignals signal : values())
+		{
+			BY_ID[signal.id] = signal;
+		}
+	}
+	
+	private final int id;
+	
+	private ClientSignals(int id)
+	{
+		this.id = id;
+	}
+	
+	/**
+	 * @return The ID of the signal in the header of a version 2 message
+	 */
+	public int getID()
+	{
+		return id;
+	}
+	
+	/**
+	 * Resolves the signal of a {@link main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion#V1} message straight from its ASCII bytes,
+	 * without decoding them to a String
+	 * @param bytes The array holding the signal
+	 * @param offset The index of the first byte of the signal
+	 * @param length The number of bytes in the signal
+	 * @return The signal spelt by the bytes or null if they do not spell one
+	 */
+	public static ClientSignals fromASCII(byte[] bytes,int offset,int length)
+	{
+		if(length < 3 || length > 4)
+		{
+			return null;
+		}
+		int key = 0;
+		for(int i = 0;i < length;i++)
+		{
+			key = (key << 8) | (bytes[offset + i] & 0xFF);
+		}
+		
+		if(length == 3)
+		{
+			switch(key)
+			{
+			case 'E' << 16 | 'N' << 8 | 'D':
+				return END;
+			case 'M' << 16 | 'I' << 8 | 'D':
+				return MID;
+			case 'G' << 16 | 'A' << 8 | 'P':
+				return GAP;
+			default:
+				return null;
+			}
+		}
+		
+		switch(key)
+		{
+		case 'A' << 24 | 'U' << 16 | 'D' << 8 | 'I':
+			return AUDI;
+		case 'E' << 24 | 'A' << 16 | 'U' << 8 | 'D':
+			return EAUD;
+		case 'H' << 24 | 'R' << 16 | 'T' << 8 | 'B':
+			return HRTB;
+		case 'C' << 24 | 'H' << 16 | 'N' << 8 | 'G':
+			return CHNG;
+		case 'T' << 24 | 'O' << 16 | 'K' << 8 | 'E':
+			return TOKE;
+		case 'H' << 24 | 'E' << 16 | 'R' << 8 | 'E':
+			return HERE;
+		case 'G' << 24 | 'O' << 16 | 'N' << 8 | 'E':
+			return GONE;
+		case 'P' << 24 | 'R' << 16 | 'O' << 8 | 'T':
+			return PROT;
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @param id The ID read from the header of a version 2 message
+	 * @return The signal with the ID or null if there isn't one
+	 */
+	public static ClientSignals fromID(int id)
+	{
+		return (id < 0 || id >= BY_ID.length) ? null : BY_ID[id];
+	}
 }
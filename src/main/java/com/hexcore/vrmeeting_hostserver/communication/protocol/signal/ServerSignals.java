@@ -2,18 +2,37 @@ package main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal
 
 /**
  * Contains signals that will be in messages sent from the server to a client based on the VRMeeting Messaging Protocol
+ * Each signal also has the ID used to represent it in the header of a {@link main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion#V2} message,
+ * signals which share a name with a {@link ClientSignals} share the same ID
  * @author Psymj1 (Marcus)
  * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol under 'Developer Documentation'</a>
  */
 public enum ServerSignals {
-	AUTH,
-	VAL,
-	NVAL,
-	CHNG,
-	AUDI,
-	EAUD,
-	END,
-	MEET,
-	UDM,
-	LEFT
+	AUTH(32),
+	VAL(33),
+	NVAL(34),
+	CHNG(2),
+	AUDI(3),
+	EAUD(10),
+	END(4),
+	MEET(35),
+	UDM(36),
+	LEFT(37),
+	PROT(11),
+	RDLT(38);
+	
+	private final int id;
+	
+	private ServerSignals(int id)
+	{
+		this.id = id;
+	}
+	
+	/**
+	 * @return The ID of the signal in the header of a version 2 message
+	 */
+	public int getID()
+	{
+		return id;
+	}
 }
@@ -0,0 +1,26 @@
+package main.java.com.hexcore.vrmeeting_hostserver.config;
+
+/**
+ * Contains the constants used when the server is drained before being stopped, see {@link main.java.com.hexcore.vrmeeting_hostserver.HostServer#drain(long)}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class DrainConfig {
+	/**
+	 * Private constructor so that it cannot be instantiated
+	 */
+	private DrainConfig(){}
+	
+	/**
+	 * In ms, how long meetings are left to finish by themselves once the server starts draining before their remaining connections are closed.
+	 * Set in seconds using the 'DrainDeadlineSeconds' property or given to the 'drain' console command
+	 */
+	public static long DEADLINE = 300000;
+	
+	/**
+	 * In ms, the connections still open at the deadline are closed one after another spread evenly over this window,
+	 * so the clients do not all reconnect to the rest of the servers at the same moment.
+	 * Set using the 'DrainCloseWindowMillis' property
+	 */
+	public static long CLOSE_WINDOW = 10000;
+}
@@ -0,0 +1,97 @@
+package main.java.com.hexcore.vrmeeting_hostserver.config;
+
+/**
+ * Contains the constants used to configure how a {@link main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting} queues and executes events
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class MeetingConfig {
+	/**
+	 * Private constructor so that it cannot be instantiated
+	 */
+	private MeetingConfig(){}
+	
+	/**
+	 * The number of events that can wait to be executed at each priority of a meeting, rounded up to the next power of 2.
+	 * Set using the 'MeetingEventQueueCapacity' property
+	 */
+	public static int EVENT_QUEUE_CAPACITY = 4096;
+	
+	/**
+	 * How a meeting with its own thread waits for events when it has none, one of park, yield or sleep.
+	 * Set using the 'MeetingWaitStrategy' property
+	 * @see main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue.WaitStrategy#forName(String)
+	 */
+	public static String WAIT_STRATEGY = "park";
+	
+	/**
+	 * If true every meeting runs on the shared {@link main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingExecutor}, only taking a worker thread while it has events or checks to run.
+	 * If false each meeting has its own thread which waits for events using {@link #WAIT_STRATEGY}. Set using the 'MeetingExecution' property (pool or thread)
+	 */
+	public static boolean USE_SHARED_EXECUTOR = true;
+	
+	/**
+	 * The number of worker threads in the shared {@link main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingExecutor}.
+	 * Set using the 'MeetingExecutorThreads' property
+	 */
+	public static int EXECUTOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	
+	/**
+	 * The maximum number of events a meeting executes each time it is given a worker thread before handing the thread to the next meeting
+	 */
+	public static final int MAX_EVENTS_PER_RUN = 256;
+	
+	/**
+	 * In ms, the time between each tick of the {@link main.java.com.hexcore.vrmeeting_hostserver.meeting.HashedTimingWheel} which times out heartbeats, and so how late a heartbeat can be noticed as expired
+	 */
+	public static final int TIMER_TICK = 100;
+	
+	/**
+	 * The number of buckets in the {@link main.java.com.hexcore.vrmeeting_hostserver.meeting.HashedTimingWheel}, large enough that a heartbeat timeout fits within one turn of the wheel
+	 */
+	public static final int TIMER_WHEEL_SIZE = 128;
+	
+	/**
+	 * If true clients using {@link main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion#V2} are sent the changes to the participants of their meeting
+	 * as one RDLT message per tick instead of a UDM or LEFT message for every participant who joins or leaves. Set using the 'RosterDeltas' property (true or false)
+	 */
+	public static boolean ROSTER_DELTAS = true;
+	
+	/**
+	 * If true each meeting mixes the audio of everyone speaking into one stream per listener with their own voice taken out, instead of forwarding every AUDI message to every listener.
+	 * Set using the 'AudioMixing' property (true or false)
+	 * @see main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.AudioMixer
+	 */
+	public static boolean AUDIO_MIXING = false;
+	
+	/**
+	 * In ms, how often a meeting which mixes audio sends each listener the audio received since the last tick
+	 */
+	public static final int AUDIO_MIX_TICK = 20;
+	
+	/**
+	 * If true the AUDI messages of each client are checked for speech as they are received and silent ones are dropped rather than forwarded,
+	 * with an EAUD message sent in place of the first silent one. Set using the 'VoiceActivityDetection' property (true or false).
+	 * The samples are read as 32 bit little endian floats, so it should only be turned on for clients which send that format
+	 * @see main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.VoiceActivityDetector
+	 */
+	public static boolean VOICE_ACTIVITY_DETECTION = false;
+	
+	/**
+	 * The root mean square level, with samples between -1 and 1, below which an AUDI message is treated as silence. Set using the 'VoiceActivityThreshold' property
+	 */
+	public static float VOICE_ACTIVITY_THRESHOLD = 0.01f;
+	
+	/**
+	 * The most participants of a meeting whose audio is forwarded at once, chosen by how loud they have been recently. 0 or less, the default, forwards everyone.
+	 * Set using the 'MaxActiveSpeakers' property
+	 * @see main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.ActiveSpeakerSelector
+	 */
+	public static int MAX_ACTIVE_SPEAKERS = 0;
+	
+	/**
+	 * The number of past versions of the participants a meeting remembers to work out what changed since a version a client asks about.
+	 * A client asking about an older version is sent every participant instead
+	 */
+	public static final int ROSTER_HISTORY_SIZE = 64;
+}
@@ -107,4 +107,29 @@ public final class ProtocolConfig {
 	 */
 	public static final int BYTES_PER_SLIDE_NUMBER = Integer.BYTES;
 	
+	/**
+	 * The number of bytes used to define the version of the roster the client already knows about in a GAP message
+	 */
+	public static final int BYTES_PER_ROSTER_VERSION = Integer.BYTES;
+	
+	/**
+	 * The number of bytes in the header of a version 2 message before the payload length, one for the signal ID and one for the flags
+	 */
+	public static final int V2_FIXED_HEADER_LENGTH = 2; //In Bytes
+	
+	/**
+	 * The maximum number of bytes the varint encoded payload length of a version 2 message can take up, enough to encode {@link #MAX_SERIALIZED_PAYLOAD_SIZE}
+	 */
+	public static final int MAX_BYTES_PER_PAYLOAD_LENGTH = 3; //In Bytes
+	
+	/**
+	 * The maximum possible length of a version 2 message, defined as {@link #V2_FIXED_HEADER_LENGTH} + {@link #MAX_BYTES_PER_PAYLOAD_LENGTH} + {@link #MAX_SERIALIZED_PAYLOAD_SIZE}
+	 */
+	public static final int MAX_POSSIBLE_V2_MESSAGE_LENGTH = V2_FIXED_HEADER_LENGTH + MAX_BYTES_PER_PAYLOAD_LENGTH + MAX_SERIALIZED_PAYLOAD_SIZE; //In Bytes
+	
+	/**
+	 * The value of the flags byte in the header of a version 2 message, no flags are currently defined so it is always sent as 0
+	 */
+	public static final byte V2_NO_FLAGS = 0;
+	
 }
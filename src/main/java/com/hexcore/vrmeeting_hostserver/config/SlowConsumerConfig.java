@@ -0,0 +1,43 @@
+package main.java.com.hexcore.vrmeeting_hostserver.config;
+
+/**
+ * Contains the constants used to decide when a client which is not reading the messages sent to it is degraded to control traffic only and when it is evicted from its meeting
+ * @author Psymj1 (Marcus)
+ * @see main.java.com.hexcore.vrmeeting_hostserver.connection.ConsumerHealth
+ */
+public final class SlowConsumerConfig {
+	/**
+	 * Private constructor so that it cannot be instantiated
+	 */
+	private SlowConsumerConfig(){}
+	
+	/**
+	 * When this many bytes are waiting to be sent to a client it is degraded to control traffic only.
+	 * Set using the 'SlowConsumerDegradeQueuedBytes' property
+	 */
+	public static int DEGRADE_QUEUED_BYTES = 262144; //In Bytes
+	
+	/**
+	 * In ms, when a single write to a client has been blocked for this long it is degraded to control traffic only.
+	 * Set using the 'SlowConsumerDegradeBlockedMillis' property
+	 */
+	public static int DEGRADE_BLOCKED_WRITE = 1000;
+	
+	/**
+	 * When this many bytes of control traffic are waiting to be sent to a client it is evicted from its meeting.
+	 * Set using the 'SlowConsumerEvictQueuedBytes' property
+	 */
+	public static int EVICT_QUEUED_BYTES = 1048576; //In Bytes
+	
+	/**
+	 * In ms, when a single write to a client has been blocked for this long it is evicted from its meeting.
+	 * Set using the 'SlowConsumerEvictBlockedMillis' property
+	 */
+	public static int EVICT_BLOCKED_WRITE = 10000;
+	
+	/**
+	 * In ms, a client which has been degraded for this long without catching up is evicted from its meeting.
+	 * Set using the 'SlowConsumerMaxDegradedMillis' property
+	 */
+	public static int MAX_DEGRADED_TIME = 30000;
+}
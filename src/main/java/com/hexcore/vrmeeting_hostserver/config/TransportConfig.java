@@ -0,0 +1,50 @@
+package main.java.com.hexcore.vrmeeting_hostserver.config;
+
+/**
+ * Contains the constants used to choose and configure the transport that client connections are accepted on
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class TransportConfig {
+	/**
+	 * Private constructor so that it cannot be instantiated
+	 */
+	private TransportConfig(){}
+
+	/**
+	 * If true connections are accepted by the {@link main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.NIOConnectionAcceptor} and serviced by a fixed number of selector threads.
+	 * If false the legacy {@link main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.TCPConnectionAcceptor} is used instead. Set using the 'Transport' property (nio or legacy)
+	 */
+	public static boolean USE_NIO_TRANSPORT = true;
+
+	/**
+	 * The number of event loop threads which handle the readiness of every NIO connection
+	 */
+	public static int EVENT_LOOP_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The size of the buffer each event loop reads socket data into before it is handed to a connection
+	 */
+	public static final int READ_BUFFER_SIZE = 16384; //In Bytes
+
+	/**
+	 * When this many bytes are waiting to be written to a NIO connection a call to send will block until the event loop has written some of them
+	 */
+	public static final int WRITE_HIGH_WATER_MARK = 65536; //In Bytes
+
+	/**
+	 * In ms, the maximum time an event loop or acceptor will wait for readiness before checking whether it should stop
+	 */
+	public static final int SELECT_TIMEOUT = 1000;
+
+	/**
+	 * If true each packet received is decoded into a buffer taken from the shared {@link main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool} and AUDI messages are parsed as a view into it,
+	 * so the buffer is reused once every writer has sent the message rather than a new array being allocated for each one. Set using the 'PoolReceiveBuffers' property
+	 */
+	public static boolean POOL_RECEIVE_BUFFERS = true;
+
+	/**
+	 * The most bytes of released receive buffers kept for reuse
+	 */
+	public static final long MAX_POOLED_BYTES = 4 * 1024 * 1024; //In Bytes
+}
@@ -0,0 +1,43 @@
+package main.java.com.hexcore.vrmeeting_hostserver.config;
+
+/**
+ * Contains the constants used to configure how the {@link main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter} sends queued messages
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class WriterConfig {
+	/**
+	 * Private constructor so that it cannot be instantiated
+	 */
+	private WriterConfig(){}
+	
+	/**
+	 * If true every message waiting in a writer's queue is sent to the connection in one batch, up to {@link #MAX_BATCH_BYTES}, instead of one write per message.
+	 * Set using the 'BatchWrites' property (true or false)
+	 */
+	public static boolean BATCH_WRITES = true;
+	
+	/**
+	 * The maximum number of bytes sent to a connection in one batch, a single message larger than this is still sent on its own.
+	 * Set using the 'WriterMaxBatchBytes' property
+	 */
+	public static int MAX_BATCH_BYTES = 16384; //In Bytes
+	
+	/**
+	 * In microseconds, how long a writer waits for more messages to join a batch smaller than {@link #MAX_BATCH_BYTES} before sending it.
+	 * 0 sends whatever is queued straight away. Set using the 'WriterMaxLingerMicros' property
+	 */
+	public static int MAX_LINGER = 0;
+	
+	/**
+	 * The maximum number of bytes of audio which can wait in a writer's queue, when it is exceeded the oldest AUDI messages are dropped.
+	 * Set using the 'WriterMaxQueuedAudioBytes' property
+	 */
+	public static int MAX_QUEUED_AUDIO_BYTES = 65536; //In Bytes
+	
+	/**
+	 * In ms, how long an AUDI message can wait in a writer's queue before it is too late to be worth sending and is dropped.
+	 * Set using the 'WriterMaxAudioAgeMillis' property
+	 */
+	public static int MAX_AUDIO_AGE = 500;
+}
@@ -1,17 +1,35 @@
 package main.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 
 /**
  * A class extending this is able to send and receive packets in the form of byte arrays to and from an end point
+ * Packets can be received without polling through {@link #receiveNextPacketAsync()}, which completes as soon as a packet is ready. A subclass which is told when data arrives calls
+ * {@link #signalReadable()} whenever a packet may have become ready, a subclass which has to block to read starts reading when {@link #onReceiveAwaited()} is called
+ * A subclass whose socket is serviced by an event loop can also send for a writer from that loop, see {@link #setWriteHandler(Runnable)}, so the writer needs no thread of its own
  * @author Psymj1 (Marcus)
  */
 public abstract class Connection {
-	private ConnectionState state;
+	private final AtomicReference<ConnectionState> state = new AtomicReference<ConnectionState>(ConnectionState.OPEN); //Per connection so checking the state never contends with other connections
+	private final List<ConnectionStateListener> stateListeners = new CopyOnWriteArrayList<ConnectionStateListener>();
+	private volatile ProtocolVersion inboundVersion = ProtocolVersion.V1;
+	private volatile ProtocolVersion outboundVersion = ProtocolVersion.V1;
+	private final ConnectionMetrics metrics = new ConnectionMetrics();
+	private volatile long lastReceivedTime = System.currentTimeMillis(); //In ms, when the last packet was received or the connection was created if none have been
+	private final Object receiveLock = new Object(); //Guards the pending receive and the unclaimed packet
+	private CompletableFuture<PooledBuffer> pendingReceive; //The receive waiting for the next packet, null if there isn't one
+	private PooledBuffer unclaimedPacket; //A packet taken for a pending receive which was cancelled before it could be given to it
 	
 	public Connection()
 	{
-		state = ConnectionState.OPEN;
 	}
 	
 	/**
@@ -21,6 +39,27 @@ public abstract class Connection {
 	 */
 	public final byte[] receiveNextPacket() throws ConnectionErrorException
 	{
+		PooledBuffer packet = receiveNextPooledPacket();
+		return packet == null ? null : packet.array();
+	}
+	
+	/**
+	 * Get the next packet of data sent to the connection from the end point in a buffer which can be returned to its pool once it has been handled. Call may block if {@link #willReceiveBlock()} is false
+	 * @return Returns the next packet of data holding one reference which is given to the caller, or Null if there is no data to be read
+	 * @throws ConnectionErrorException If there is an error has occurred with the connection such that it cannot perform any further actions
+	 */
+	public final PooledBuffer receiveNextPooledPacket() throws ConnectionErrorException
+	{
+		synchronized(receiveLock)
+		{
+			if(unclaimedPacket != null)
+			{
+				PooledBuffer packet = unclaimedPacket;
+				unclaimedPacket = null;
+				return packet;
+			}
+		}
+		
 		if(getState().equals(ConnectionState.ERROR))
 		{
 			throw new ConnectionErrorException("An error has occurred in the connection so the next packet cannot be received");
@@ -33,12 +72,229 @@ public abstract class Connection {
 		
 		try
 		{
-			return receive();
+			PooledBuffer packet = receivePooled();
+			if(packet != null)
+			{
+				lastReceivedTime = System.currentTimeMillis();
+			}
+			return packet;
+		}catch(ConnectionErrorException e)
+		{
+			transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Get every packet which has already been received in full, without blocking, so a burst of packets can be handled in one go
+	 * @return The packets in the order they were received, each holding one reference which is given to the caller. Empty if no packet is ready
+	 * @throws ConnectionErrorException If there is an error has occurred with the connection such that it cannot perform any further actions
+	 */
+	public final List<byte[]> receiveAllPackets() throws ConnectionErrorException
+	{
+		List<PooledBuffer> pooled = receiveAllPooledPackets();
+		List<byte[]> packets = new ArrayList<byte[]>(pooled.size());
+		for(PooledBuffer packet : pooled)
+		{
+			packets.add(packet.array());
+		}
+		return packets;
+	}
+	
+	/**
+	 * Get every packet which has already been received in full, without blocking, in buffers which can be returned to their pool once they have been handled
+	 * @return The packets in the order they were received, each holding one reference which is given to the caller. Empty if no packet is ready
+	 * @throws ConnectionErrorException If there is an error has occurred with the connection such that it cannot perform any further actions
+	 */
+	public final List<PooledBuffer> receiveAllPooledPackets() throws ConnectionErrorException
+	{
+		List<PooledBuffer> packets = new ArrayList<PooledBuffer>();
+		try
+		{
+			while(true)
+			{
+				boolean unclaimed;
+				synchronized(receiveLock)
+				{
+					unclaimed = unclaimedPacket != null;
+				}
+				if(!unclaimed && (!isOpen() || !hasBufferedPacket()))
+				{
+					break;
+				}
+				PooledBuffer packet = receiveNextPooledPacket();
+				if(packet == null)
+				{
+					break;
+				}
+				packets.add(packet);
+			}
 		}catch(ConnectionErrorException e)
 		{
-			setState(ConnectionState.ERROR);
+			for(PooledBuffer packet : packets)
+			{
+				packet.release();
+			}
+			transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
 			throw e;
 		}
+		
+		if(packets.isEmpty() && !isOpen())
+		{
+			throw new ConnectionErrorException("No further packets can be received from a connection that is " + getState());
+		}
+		return packets;
+	}
+	
+	/**
+	 * Implemented by a subclass which buffers the packets it receives to say whether one has been received in full, the check must not block.
+	 * By default this is whether {@link #willReadBlock()} is false
+	 * @return True if a packet can be received without waiting for more data
+	 * @throws ConnectionErrorException If there is an error with the connection
+	 */
+	protected boolean hasBufferedPacket() throws ConnectionErrorException
+	{
+		return !willReadBlock();
+	}
+	
+	/**
+	 * Waits for the next packet without blocking the caller. The future is completed with the packet, holding one reference which is given to whoever completes it,
+	 * as soon as one is ready, or completed exceptionally with a {@link ConnectionErrorException} if the connection closes or fails first.
+	 * Only one receive waits at a time, so calling this again before the future completes returns the same future. The future may be completed on the thread which received the packet,
+	 * such as an event loop, so anything chained to it must not block
+	 * @return The future which will be completed with the next packet
+	 */
+	public final CompletableFuture<PooledBuffer> receiveNextPacketAsync()
+	{
+		CompletableFuture<PooledBuffer> future;
+		synchronized(receiveLock)
+		{
+			if(pendingReceive != null && !pendingReceive.isDone())
+			{
+				return pendingReceive;
+			}
+			future = new CompletableFuture<PooledBuffer>();
+			pendingReceive = future;
+		}
+		if(!completePendingReceive())
+		{
+			onReceiveAwaited();
+		}
+		return future;
+	}
+	
+	/**
+	 * Called by a subclass whenever a packet may have become ready, or the connection may have closed, so that a receive waiting for it is completed
+	 */
+	protected final void signalReadable()
+	{
+		completePendingReceive();
+	}
+	
+	/**
+	 * Called when a receive starts waiting and no packet is ready. A subclass which is not told when data arrives should start reading and call {@link #signalReadable()} once a packet is ready
+	 */
+	protected void onReceiveAwaited()
+	{
+		
+	}
+	
+	/**
+	 * Completes the pending receive with the next packet if one has already been received in full, see {@link #hasBufferedPacket()}, or exceptionally if the connection can no longer receive.
+	 * A partly received packet is left for {@link #onReceiveAwaited()} so the caller, which may be an event loop, is never blocked reading the rest of it
+	 * @return True if there is no longer a receive waiting
+	 */
+	private boolean completePendingReceive()
+	{
+		CompletableFuture<PooledBuffer> future;
+		PooledBuffer packet;
+		ConnectionErrorException error = null;
+		synchronized(receiveLock)
+		{
+			future = pendingReceive;
+			if(future == null || future.isDone())
+			{
+				pendingReceive = null;
+				return true;
+			}
+			try
+			{
+				if(unclaimedPacket == null && isOpen() && !hasBufferedPacket()) //Once the connection is no longer open receiving fails rather than waiting
+				{
+					return false;
+				}
+				packet = receiveNextPooledPacket();
+			}catch(ConnectionErrorException e)
+			{
+				packet = null;
+				error = e;
+			}
+			if(packet == null && error == null)
+			{
+				return false;
+			}
+			pendingReceive = null;
+		}
+		
+		if(error != null)
+		{
+			future.completeExceptionally(error);
+			transitionState(ConnectionState.OPEN, ConnectionState.ERROR); //Checking for a buffered packet does not record the error itself
+			return true;
+		}
+		
+		//Completed outside the lock as whatever is chained to the future may start the next receive
+		if(!future.complete(packet))
+		{
+			synchronized(receiveLock)
+			{
+				unclaimedPacket = packet; //The receive was cancelled while the packet was being taken so keep it for the next one
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Withdraws the receive waiting for the next packet, started by {@link #receiveNextPacketAsync()}, by cancelling its future.
+	 * Cancelling a future derived from it instead would leave the receive in place, so the next packet would be taken for a reader which no longer wants it.
+	 * A packet which arrives after this is kept by the connection for the next receive
+	 * @return True if there was a receive waiting which has been cancelled
+	 */
+	public final boolean cancelPendingReceive()
+	{
+		CompletableFuture<PooledBuffer> future;
+		synchronized(receiveLock)
+		{
+			future = pendingReceive;
+			pendingReceive = null;
+		}
+		return future != null && future.cancel(false);
+	}
+	
+	/**
+	 * Fails the pending receive as the connection can no longer receive
+	 */
+	private void failPendingReceive()
+	{
+		CompletableFuture<PooledBuffer> future;
+		synchronized(receiveLock)
+		{
+			future = pendingReceive;
+			pendingReceive = null;
+		}
+		if(future != null)
+		{
+			future.completeExceptionally(new ConnectionErrorException("The connection " + getName() + " can no longer receive packets as it is " + getState()));
+		}
+	}
+	
+	/**
+	 * Every packet received proves the endpoint is still alive, so this is used to keep the endpoint from timing out as well as its heartbeats
+	 * @return In ms, the time the last packet was received by {@link #receiveNextPacket()} or the time the connection was created if none have been received
+	 */
+	public final long getLastReceivedTime()
+	{
+		return lastReceivedTime;
 	}
 	
 	/**
@@ -48,6 +304,17 @@ public abstract class Connection {
 	 */
 	protected abstract byte[] receive() throws ConnectionErrorException;
 	
+	/**
+	 * Overridden by a subclass which decodes packets into pooled buffers, otherwise the packet returned by {@link #receive()} is wrapped in a buffer which is not pooled
+	 * @return Returns the next packet of data holding one reference or null if there is no data to be read
+	 * @throws ConnectionErrorException If an error occurs while attempting to get the next packet
+	 */
+	protected PooledBuffer receivePooled() throws ConnectionErrorException
+	{
+		byte[] packet = receive();
+		return packet == null ? null : PooledBuffer.wrap(packet);
+	}
+	
 	/**
 	 * Send a packet to the end point at the other end of the connection
 	 * @param packet The packet to send to the connection endpoint
@@ -79,7 +346,7 @@ public abstract class Connection {
 			send(packet);
 		}catch(ConnectionErrorException e)
 		{
-			setState(ConnectionState.ERROR);
+			transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
 			throw e;
 		}
 	}
@@ -91,6 +358,120 @@ public abstract class Connection {
 	 */
 	protected abstract void send(byte[] packet) throws ConnectionErrorException;
 	
+	/**
+	 * Send several packets to the end point at the other end of the connection in order, allowing the connection to hand them to the underlying socket together
+	 * @param packets The packets to send to the connection endpoint
+	 * @throws ConnectionErrorException If there is an error has occurred with the connection such that it cannot perform any further actions
+	 */
+	public final void sendPackets(List<byte[]> packets) throws ConnectionErrorException
+	{
+		checkPacketsCanBeSent(packets);
+		
+		try
+		{
+			send(packets);
+		}catch(ConnectionErrorException e)
+		{
+			transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Send several packets to the end point at the other end of the connection in order without blocking. Must only be called by the handler set with {@link #setWriteHandler(Runnable)}.
+	 * Whatever the socket cannot take straight away is kept by the connection and written by its event loop, after which the handler is run again
+	 * @param packets The packets to send to the connection endpoint
+	 * @return True if every byte was written, false if some were left for the event loop
+	 * @throws ConnectionErrorException If there is an error has occurred with the connection such that it cannot perform any further actions
+	 */
+	public final boolean sendPacketsWithoutBlocking(List<byte[]> packets) throws ConnectionErrorException
+	{
+		checkPacketsCanBeSent(packets);
+		
+		try
+		{
+			return sendWithoutBlocking(packets);
+		}catch(ConnectionErrorException e)
+		{
+			transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+			throw e;
+		}
+	}
+	
+	private void checkPacketsCanBeSent(List<byte[]> packets) throws ConnectionErrorException
+	{
+		if(getState().equals(ConnectionState.ERROR))
+		{
+			throw new ConnectionErrorException("An error has occurred in the connection so the packets cannot be sent");
+		}
+		
+		if(getState().equals(ConnectionState.CLOSED))
+		{
+			throw new ConnectionErrorException("Packets cannot be sent from a connection that is closed");
+		}
+		
+		if(packets == null)
+		{
+			throw new IllegalArgumentException("The packets cannot be null");
+		}
+		for(byte[] packet : packets)
+		{
+			if(packet == null)
+			{
+				throw new IllegalArgumentException("The packet cannot be null");
+			}
+			if(packet.length == 0)
+			{
+				throw new IllegalArgumentException("The packet cannot be empty");
+			}
+		}
+	}
+	
+	/**
+	 * Sends each packet to the endpoint of the connection in order. Subclasses which can write several packets to their socket at once should override this
+	 * @param packets The packets to send
+	 * @throws ConnectionErrorException If an error occurs while attempting to send the packets
+	 */
+	protected void send(List<byte[]> packets) throws ConnectionErrorException
+	{
+		for(byte[] packet : packets)
+		{
+			send(packet);
+		}
+	}
+	
+	/**
+	 * Implemented by a subclass which runs a write handler to send packets without blocking, see {@link #sendPacketsWithoutBlocking(List)}
+	 * @param packets The packets to send
+	 * @return True if every byte was written, false if some were left for the event loop
+	 * @throws ConnectionErrorException If an error occurs while attempting to send the packets
+	 */
+	protected boolean sendWithoutBlocking(List<byte[]> packets) throws ConnectionErrorException
+	{
+		throw new UnsupportedOperationException("The connection " + getName() + " cannot send without blocking");
+	}
+	
+	/**
+	 * Overridden by a subclass whose socket is serviced by an event loop so that packets can be sent from the loop rather than from a thread which blocks.
+	 * The handler is run on the event loop after {@link #requestWrite()} is called, and again each time the socket has taken every byte left over from an earlier write,
+	 * so that it is never run while bytes are still waiting to be written. It sends using {@link #sendPacketsWithoutBlocking(List)}.
+	 * The handler is also run once the connection closes so that it finds out it can stop
+	 * @param handler The handler to run or null to stop running one
+	 * @return True if the handler will be run, false if the connection has no event loop and packets must be sent from a thread of their own
+	 */
+	public boolean setWriteHandler(Runnable handler)
+	{
+		return false;
+	}
+	
+	/**
+	 * Asks for the handler set by {@link #setWriteHandler(Runnable)} to be run on the event loop. Can be called from any thread, any number of calls made before it runs cause it to run once
+	 */
+	public void requestWrite()
+	{
+		
+	}
+	
 	/**
 	 * Checks whether {@link #receiveNextPacket()} will block, it does not guarantee that the call will not block
 	 * @return Returns true if calling {@link #receiveNextPacket()} will block
@@ -111,7 +492,7 @@ public abstract class Connection {
 			return willReadBlock();
 		}catch(ConnectionErrorException c)
 		{
-			setState(ConnectionState.ERROR);
+			transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
 			throw c;
 		}
 	}
@@ -129,20 +510,129 @@ public abstract class Connection {
 	 */
 	public final ConnectionState getState()
 	{
-		ConnectionState temp;
-		synchronized(state)
+		return state.get();
+	}
+	
+	/**
+	 * Forces the connection into a state whatever state it is currently in. The connection itself only moves between states through {@link #transitionState(ConnectionState, ConnectionState)}
+	 * @param state The state to move to
+	 */
+	public final void setState(ConnectionState state)
+	{
+		ConnectionState previous = this.state.getAndSet(state);
+		if(previous != state)
 		{
-			temp = state;
+			onStateChanged(previous, state);
 		}
-		
-		return temp;
 	}
 	
-	public final void setState(ConnectionState state)
+	/**
+	 * Moves the connection to the next state only if it is still in the state expected, so of several threads racing to close or fail the connection only one succeeds
+	 * @param expected The state the connection must be in
+	 * @param next The state to move to
+	 * @return True if the connection moved to the next state, false if it was no longer in the state expected
+	 * @throws IllegalArgumentException If a connection cannot move from the state expected to the next state, see {@link ConnectionState#canTransitionTo(ConnectionState)}
+	 */
+	public final boolean transitionState(ConnectionState expected,ConnectionState next)
 	{
-		synchronized (this.state) {
-			this.state = state;
+		if(!expected.canTransitionTo(next))
+		{
+			throw new IllegalArgumentException("A connection cannot move from " + expected + " to " + next);
+		}
+		if(!state.compareAndSet(expected, next))
+		{
+			return false;
 		}
+		onStateChanged(expected, next);
+		return true;
+	}
+	
+	/**
+	 * @param listener A listener to tell whenever the state of the connection changes
+	 */
+	public final void addStateListener(ConnectionStateListener listener)
+	{
+		stateListeners.add(listener);
+	}
+	
+	/**
+	 * @param listener A listener which should no longer be told when the state of the connection changes
+	 */
+	public final void removeStateListener(ConnectionStateListener listener)
+	{
+		stateListeners.remove(listener);
+	}
+	
+	private void onStateChanged(ConnectionState previous,ConnectionState current)
+	{
+		if(current != ConnectionState.OPEN)
+		{
+			failPendingReceive();
+		}
+		for(ConnectionStateListener listener : stateListeners)
+		{
+			listener.onStateChanged(this, previous, current);
+		}
+	}
+	
+	/**
+	 * @return The counters recording what has happened to the traffic of this connection
+	 */
+	public final ConnectionMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * @return The version of the wire format packets received from the end point are framed in
+	 */
+	public final ProtocolVersion getInboundProtocolVersion()
+	{
+		return inboundVersion;
+	}
+	
+	/**
+	 * Changes the wire format used to split the bytes received from the end point into packets. Any bytes already received which are not yet part of a complete packet are decoded using the new format
+	 * @param version The version of the wire format the end point will send packets in from now on
+	 */
+	public final void setInboundProtocolVersion(ProtocolVersion version)
+	{
+		if(version == null)
+		{
+			throw new IllegalArgumentException("The protocol version cannot be null");
+		}
+		inboundVersion = version;
+		onInboundProtocolVersionChanged(version);
+	}
+	
+	/**
+	 * @return The version of the wire format messages sent to the end point should be encoded in
+	 */
+	public final ProtocolVersion getOutboundProtocolVersion()
+	{
+		return outboundVersion;
+	}
+	
+	/**
+	 * Changes the wire format messages sent to the end point are encoded in
+	 * @param version The version of the wire format the end point expects from now on
+	 */
+	public final void setOutboundProtocolVersion(ProtocolVersion version)
+	{
+		if(version == null)
+		{
+			throw new IllegalArgumentException("The protocol version cannot be null");
+		}
+		outboundVersion = version;
+	}
+	
+	/**
+	 * Called when the inbound protocol version changes to provide the opportunity for extending classes which split the incoming bytes into packets to change how they do so
+	 * @param version The new inbound protocol version
+	 */
+	protected void onInboundProtocolVersionChanged(ProtocolVersion version)
+	{
+		
 	}
 	
 	/**
@@ -151,9 +641,8 @@ public abstract class Connection {
 	 */
 	public final void close() throws ConnectionErrorException
 	{
-		if(isOpen())
+		if(transitionState(ConnectionState.OPEN, ConnectionState.CLOSED))
 		{
-			setState(ConnectionState.CLOSED);
 			onClose();
 		}else
 		{
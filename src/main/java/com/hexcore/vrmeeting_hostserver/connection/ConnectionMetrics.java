@@ -0,0 +1,156 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing what has happened to the traffic of a single {@link Connection}. Every counter can be updated and read from any thread
+ * Only one write to the connection is expected to be in progress at a time, as is the case when it is written to by a single {@link ThreadedBufferedMessageWriter}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class ConnectionMetrics {
+	private AtomicLong audioFramesDroppedForSpace = new AtomicLong();
+	private AtomicLong audioFramesDroppedForAge = new AtomicLong();
+	private AtomicLong audioFramesDroppedWhileDegraded = new AtomicLong();
+	private AtomicLong audioBytesDropped = new AtomicLong();
+	private AtomicLong bytesSent = new AtomicLong();
+	private volatile boolean writing = false;
+	private volatile long writeStartedAt; //In ns, from System.nanoTime(), only meaningful while writing is true
+	private volatile long sendThroughput = 0; //In bytes per second
+	
+	/**
+	 * Records an audio frame which was discarded because the outbound queue of the connection was full
+	 * @param bytes The encoded size of the frame
+	 */
+	public void audioFrameDroppedForSpace(int bytes)
+	{
+		audioFramesDroppedForSpace.incrementAndGet();
+		audioBytesDropped.addAndGet(bytes);
+	}
+	
+	/**
+	 * Records an audio frame which was discarded because it waited in the outbound queue of the connection for too long
+	 * @param bytes The encoded size of the frame
+	 */
+	public void audioFrameDroppedForAge(int bytes)
+	{
+		audioFramesDroppedForAge.incrementAndGet();
+		audioBytesDropped.addAndGet(bytes);
+	}
+	
+	/**
+	 * Records an audio frame which was discarded because the connection had been degraded to control traffic only
+	 * @param bytes The encoded size of the frame
+	 */
+	public void audioFrameDroppedWhileDegraded(int bytes)
+	{
+		audioFramesDroppedWhileDegraded.incrementAndGet();
+		audioBytesDropped.addAndGet(bytes);
+	}
+	
+	/**
+	 * Records that a write to the connection has started. Must be followed by a call to {@link #writeFinished(int)}
+	 */
+	public void writeStarted()
+	{
+		writeStartedAt = System.nanoTime();
+		writing = true;
+	}
+	
+	/**
+	 * Records that the write started by {@link #writeStarted()} has returned
+	 * @param bytes The number of bytes written
+	 */
+	public void writeFinished(int bytes)
+	{
+		writing = false;
+		bytesSent.addAndGet(bytes);
+	}
+	
+	/**
+	 * @param bytesPerSecond The rate at which bytes were most recently written to the connection
+	 */
+	public void setSendThroughput(long bytesPerSecond)
+	{
+		sendThroughput = bytesPerSecond;
+	}
+	
+	/**
+	 * @return True while a write started by {@link #writeStarted()} has not finished
+	 */
+	public boolean isWriting()
+	{
+		return writing;
+	}
+	
+	/**
+	 * @return In ms, how long the write currently in progress has been blocked for or 0 if no write is in progress
+	 */
+	public long getTimeBlockedInWrite()
+	{
+		long startedAt = writeStartedAt;
+		return writing ? (System.nanoTime() - startedAt) / 1000000 : 0;
+	}
+	
+	/**
+	 * @return The total number of bytes written to the connection
+	 */
+	public long getBytesSent()
+	{
+		return bytesSent.get();
+	}
+	
+	/**
+	 * @return In bytes per second, the rate at which bytes were most recently written to the connection
+	 */
+	public long getSendThroughput()
+	{
+		return sendThroughput;
+	}
+	
+	/**
+	 * @return The number of audio frames discarded because the outbound queue was full
+	 */
+	public long getAudioFramesDroppedForSpace()
+	{
+		return audioFramesDroppedForSpace.get();
+	}
+	
+	/**
+	 * @return The number of audio frames discarded because they were too old to be worth sending
+	 */
+	public long getAudioFramesDroppedForAge()
+	{
+		return audioFramesDroppedForAge.get();
+	}
+	
+	/**
+	 * @return The number of audio frames discarded because the connection had been degraded to control traffic only
+	 */
+	public long getAudioFramesDroppedWhileDegraded()
+	{
+		return audioFramesDroppedWhileDegraded.get();
+	}
+	
+	/**
+	 * @return The total number of audio frames that have been discarded instead of being sent
+	 */
+	public long getAudioFramesDropped()
+	{
+		return getAudioFramesDroppedForSpace() + getAudioFramesDroppedForAge() + getAudioFramesDroppedWhileDegraded();
+	}
+	
+	/**
+	 * @return The total encoded size of every audio frame that has been discarded
+	 */
+	public long getAudioBytesDropped()
+	{
+		return audioBytesDropped.get();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "bytes sent: " + getBytesSent() + ", throughput: " + getSendThroughput() + " B/s, blocked in write: " + getTimeBlockedInWrite() + " ms, audio frames dropped (queue full: " + getAudioFramesDroppedForSpace() + ", too old: " + getAudioFramesDroppedForAge() + ", degraded: " + getAudioFramesDroppedWhileDegraded() + ", bytes: " + getAudioBytesDropped() + ")";
+	}
+}
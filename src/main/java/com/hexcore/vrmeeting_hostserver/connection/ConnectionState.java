@@ -1,7 +1,21 @@
 package main.java.com.hexcore.vrmeeting_hostserver.connection;
 
+/**
+ * The states of a {@link Connection}. A connection starts open and can only move once, to either closed or error, both of which are final
+ * @author Psymj1 (Marcus)
+ *
+ */
 public enum ConnectionState {
 	OPEN,
 	CLOSED,
-	ERROR
+	ERROR;
+	
+	/**
+	 * @param next The state to move to
+	 * @return True if a connection in this state can move to the next state
+	 */
+	public boolean canTransitionTo(ConnectionState next)
+	{
+		return this == OPEN && next != OPEN;
+	}
 }
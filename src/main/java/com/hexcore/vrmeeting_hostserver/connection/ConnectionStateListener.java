@@ -0,0 +1,16 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection;
+
+/**
+ * A class implementing this interface can be added to a {@link Connection} to be told whenever its state changes
+ * @author Psymj1 (Marcus)
+ *
+ */
+public interface ConnectionStateListener {
+	/**
+	 * Called on the thread which changed the state, after it has changed, so it must not block
+	 * @param connection The connection whose state changed
+	 * @param previous The state the connection was in
+	 * @param current The state the connection is now in
+	 */
+	public void onStateChanged(Connection connection,ConnectionState previous,ConnectionState current);
+}
@@ -0,0 +1,21 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection;
+
+/**
+ * How well the endpoint of a connection is keeping up with the messages queued for it by a {@link ThreadedBufferedMessageWriter}
+ * @author Psymj1 (Marcus)
+ * @see main.java.com.hexcore.vrmeeting_hostserver.config.SlowConsumerConfig
+ */
+public enum ConsumerHealth {
+	/**
+	 * Every message queued is sent
+	 */
+	HEALTHY,
+	/**
+	 * The endpoint has fallen behind so only control messages are sent to it until it catches up
+	 */
+	DEGRADED,
+	/**
+	 * The endpoint did not catch up and should be removed from its meeting, a writer never leaves this state
+	 */
+	EVICTED
+}
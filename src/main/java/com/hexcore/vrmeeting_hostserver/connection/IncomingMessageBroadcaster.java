@@ -4,29 +4,39 @@
 package main.java.com.hexcore.vrmeeting_hostserver.connection;
 
 import java.util.ArrayList;
-import java.util.concurrent.TimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponent;
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
 
 /**
- * A threaded class which broadcasts each message received by a connection to all subscribers continually
- * The thread will stop if the connection enters either a stopped state or error state
- * The thread will also stop if {@link #stop()} is called
+ * Broadcasts each message received by a connection to all subscribers continually
+ * Every message already received in full when one is read is broadcast with it as a batch through {@link MessageBroadcastSubscriber#onReceiveBatch(Connection, List)}
+ * Rather than a thread polling the connection, the broadcaster waits on {@link Connection#receiveNextPacketAsync()} so subscribers are called on whichever thread received the packet
+ * The broadcaster will stop if the connection enters either a stopped state or error state
+ * The broadcaster will also stop if {@link #stop()} is called
+ * The broadcaster releases each message once every subscriber has been given it, so a subscriber which keeps a message must {@link Message#retain()} it
  * @author Psymj1 (Marcus)
  *
  */
 public class IncomingMessageBroadcaster extends ServerComponent {
 
 	private Connection connection;
-	private ArrayList<MessageBroadcastSubscriber> subscribers = new ArrayList<MessageBroadcastSubscriber>();
-	private boolean keepRunning = true;
-	private static final int MINIMUM_POLL_RATE = 10; //The minimum rate at which the message broadcaster will check the connection for new messages
+	private List<MessageBroadcastSubscriber> subscribers = new CopyOnWriteArrayList<MessageBroadcastSubscriber>(); //Subscribers are rarely added but iterated for every message so iteration takes no lock
+	private volatile boolean keepRunning = true;
+	private volatile CompletableFuture<Message> pendingRead; //The read waiting for the next message, null once the broadcaster has stopped
 	private MessageReader reader;
 	private static ServerLogger logger;
 	
@@ -36,7 +46,6 @@ public class IncomingMessageBroadcaster extends ServerComponent {
 	public IncomingMessageBroadcaster(Connection c) {
 		connection = c;
 		reader = new MessageReader(c);
-		reader.setTimeout(MINIMUM_POLL_RATE); //So that if for whatever reason a read attempt is made when there is no message then the reader will not block indefinitely
 		logger = new ServerLogger(c.getName() + " Message Broadcaster");
 	}
 
@@ -45,7 +54,7 @@ public class IncomingMessageBroadcaster extends ServerComponent {
 	 */
 	@Override
 	protected void startUp() throws StartupException {
-		new ReaderThread(connection.getName() + " Message Broadcaster").start();
+		readNext();
 	}
 
 	/**
@@ -54,60 +63,130 @@ public class IncomingMessageBroadcaster extends ServerComponent {
 	@Override
 	protected void shutdown() {
 		keepRunning = false;
+		if(pendingRead != null)
+		{
+			//Withdrawn from the connection itself so the read chained to it fails and wakes the broadcaster, a packet arriving after this is kept by the connection
+			connection.cancelPendingReceive();
+		}
+	}
+	
+	/**
+	 * Waits for the next message without holding a thread. Messages which are already waiting are broadcast in a loop on the calling thread, otherwise the broadcaster
+	 * continues on whichever thread completes the receive once the next packet arrives
+	 */
+	private void readNext()
+	{
+		while(keepRunning && connection.isOpen())
+		{
+			CompletableFuture<Message> nextMessage = reader.readNextMessageAsync();
+			pendingRead = nextMessage;
+			if(!keepRunning)
+			{
+				connection.cancelPendingReceive(); //Stopped while the read was being started, so shutdown may have missed it
+			}
+			if(!nextMessage.isDone())
+			{
+				nextMessage.whenComplete((message,error) -> {
+					onRead(message,error);
+					readNext();
+				});
+				return;
+			}
+			Message message = null;
+			Throwable error = null;
+			try
+			{
+				message = nextMessage.join();
+			}catch(CompletionException | CancellationException e)
+			{
+				error = e;
+			}
+			onRead(message,error);
+		}
+		pendingRead = null;
+		setState(ServerComponentState.STOPPED);
 	}
 	
-	private class ReaderThread extends Thread{
-		
-		public ReaderThread(String threadName)
+	/**
+	 * Broadcasts a message that was read or logs why one could not be
+	 * @param message The message read, null if the read failed
+	 * @param error Why the read failed, null if it did not
+	 */
+	private void onRead(Message message,Throwable error)
+	{
+		if(message != null)
 		{
-			setName(threadName);
+			broadcastMessagesToSubscribers(takeBatch(message));
+			return;
 		}
-		
-		@Override
-		public void run()
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		if(cause instanceof InvalidMessageException)
+		{
+			logger.logWarning("Invalid message from " + connection.getName() + "||" + cause.getMessage());
+		}else if(cause instanceof ConnectionErrorException && keepRunning && connection.getState() == ConnectionState.ERROR)
 		{
-			while(keepRunning && connection.isOpen())
+			logger.logError(cause.getMessage(), (ConnectionErrorException)cause);
+		}
+		//A read cancelled by shutdown or failed by the connection closing is not an error, the loop stops as the broadcaster or connection is no longer running
+	}
+	
+	/**
+	 * Takes every other message which has already been received in full along with the one just read, so a burst is broadcast as one batch
+	 * @param first The message just read
+	 * @return The message just read followed by any others ready to be read
+	 */
+	private List<Message> takeBatch(Message first)
+	{
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(first);
+		try
+		{
+			for(PooledBuffer packet : connection.receiveAllPooledPackets())
 			{
-				try {
-					if(!reader.willReadBlock())
-					{
-						Message nextMessage = reader.readNextMessage();
-						broadcastMessageToSubscribers(nextMessage);
-					}else
-					{
-						Thread.sleep(MINIMUM_POLL_RATE);
-					}
-				} catch (ConnectionErrorException e) {
-					logger.logError(e.getMessage(), e);
-				} catch (InterruptedException e) {
-					//IGNORE since this is used to indicate the thread should stop and is handled by the outer while loop
-				} catch (TimeoutException e) {
-					//IGNORE as the timeout is just to protect against an indefinite block
-				} catch (InvalidMessageException e) {
+				try
+				{
+					batch.add(MessageParser.parseMessage(packet,connection.getInboundProtocolVersion()));
+				}catch(InvalidMessageException e)
+				{
 					logger.logWarning("Invalid message from " + connection.getName() + "||" + e.getMessage());
 				}
 			}
-			setState(ServerComponentState.STOPPED);
-		}
-		
-		private void broadcastMessageToSubscribers(Message m)
+		}catch(ConnectionErrorException e)
 		{
-			synchronized(subscribers)
+			//The messages already taken are still broadcast, the failure stops the broadcaster on its next read
+			if(keepRunning && connection.getState() == ConnectionState.ERROR)
 			{
-				for(MessageBroadcastSubscriber subscriber : subscribers)
-				{
-					subscriber.onReceiveBroadcast(connection,m);
-				}
+				logger.logError(e.getMessage(), e);
 			}
 		}
+		return batch;
 	}
 	
-	public void addSubscriber(MessageBroadcastSubscriber subscriber)
+	private void broadcastMessagesToSubscribers(List<Message> messages)
 	{
-		synchronized(subscribers)
+		try
 		{
-			subscribers.add(subscriber);
+			List<Message> batch = Collections.unmodifiableList(messages);
+			for(MessageBroadcastSubscriber subscriber : subscribers)
+			{
+				subscriber.onReceiveBatch(connection,batch);
+			}
+		}catch(RuntimeException e)
+		{
+			//Subscribers may be called on a connection's event loop so a failing subscriber is logged rather than allowed to stop the thread it was called on
+			logger.logError("A subscriber failed to handle a message from " + connection.getName() + ": " + e.getMessage(), e);
+		}finally
+		{
+			for(Message m : messages)
+			{
+				m.release();
+			}
 		}
 	}
+	
+	public void addSubscriber(MessageBroadcastSubscriber subscriber)
+	{
+		subscribers.add(subscriber);
+	}
 
 }
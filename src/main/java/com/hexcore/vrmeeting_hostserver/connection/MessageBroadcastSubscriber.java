@@ -3,6 +3,8 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import java.util.List;
+
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 
 /**
@@ -12,9 +14,25 @@ import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message
  */
 public interface MessageBroadcastSubscriber {
 	/**
-	 * Called by the {@link IncomingMessageBroadcaster} the subscriber is subscribed to whenever a new message is received
+	 * Called by the {@link IncomingMessageBroadcaster} the subscriber is subscribed to whenever a new message is received.
+	 * The message is released once this returns, so it must be retained if it is kept, see {@link Message#retain()}
 	 * @param m The message received by the broadcaster
 	 * @param origin The connection the message came from
 	 */
 	public void onReceiveBroadcast(Connection origin,Message m);
+	
+	/**
+	 * Called by the {@link IncomingMessageBroadcaster} the subscriber is subscribed to with every message received together, such as a burst sent back to back.
+	 * By default each message is passed to {@link #onReceiveBroadcast(Connection, Message)} in turn, a subscriber which can handle the whole batch at once more cheaply should override this.
+	 * The messages are released once this returns, so any which are kept must be retained
+	 * @param origin The connection the messages came from
+	 * @param messages The messages received, in the order they were received
+	 */
+	public default void onReceiveBatch(Connection origin,List<Message> messages)
+	{
+		for(Message m : messages)
+		{
+			onReceiveBroadcast(origin,m);
+		}
+	}
 }
@@ -1,7 +1,13 @@
 package main.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
@@ -36,7 +42,8 @@ public class MessageReader {
 	}
 	
 	/**
-	 * Attempts to take the next packet that comes into the connection and convert it to a message and return the converted message
+	 * Attempts to take the next packet that comes into the connection and convert it to a message and return the converted message.
+	 * The caller holds a reference to the message which it must {@link Message#release()} once it has finished with it
 	 * @return The next message that comes into the connection
 	 * @throws TimeoutException If {@link #setTimeout(int)} has been called and set to be greater than 0
 	 * @throws InvalidMessageException If the next packet to come into the connection is not a valid message
@@ -49,21 +56,58 @@ public class MessageReader {
 			throw new ConnectionErrorException("Connection " + connection.getName() + " cannot be read from as it is no longer open");
 		}
 		
-		long waitStart = System.currentTimeMillis();
-		
-		while(willReadBlock())
+		//Waits for the connection to complete the receive rather than polling it
+		CompletableFuture<PooledBuffer> nextPacket = connection.receiveNextPacketAsync();
+		PooledBuffer packet;
+		try
 		{
-			if(timeout > 0)
+			try
+			{
+				packet = timeout > 0 ? nextPacket.get(timeout, TimeUnit.MILLISECONDS) : nextPacket.get();
+			}catch(TimeoutException e)
 			{
-				if(System.currentTimeMillis() >= waitStart + timeout)
+				if(nextPacket.cancel(false)) //A packet which arrives after the receive is cancelled is kept by the connection for the next read
 				{
 					throw new TimeoutException("Reader timed out after no packets were received after " + timeout + "ms of waiting");
 				}
+				packet = nextPacket.get(); //The packet arrived just as the wait timed out
+			}
+		}catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof ConnectionErrorException)
+			{
+				throw (ConnectionErrorException)e.getCause();
 			}
+			throw new ConnectionErrorException("Connection " + connection.getName() + " failed to receive the next packet: " + e.getCause().getMessage());
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ConnectionErrorException("Interrupted while waiting for a packet from " + connection.getName());
+		}catch(CancellationException e)
+		{
+			throw new ConnectionErrorException("The receive from " + connection.getName() + " was cancelled");
 		}
 		
-		byte[] packet = connection.receiveNextPacket();
-		return MessageParser.parseMessage(packet);
+		return MessageParser.parseMessage(packet,connection.getInboundProtocolVersion());
+	}
+	
+	/**
+	 * Takes the next packet that comes into the connection without blocking the caller. The future is completed with the message once the packet arrives and has been parsed, with
+	 * an {@link InvalidMessageException} if the packet is not a valid message or with a {@link ConnectionErrorException} if the connection closes or fails first.
+	 * The timeout set by {@link #setTimeout(int)} does not apply. The caller holds a reference to the message which it must {@link Message#release()} once it has finished with it
+	 * @return The future which will be completed with the next message
+	 */
+	public CompletableFuture<Message> readNextMessageAsync()
+	{
+		return connection.receiveNextPacketAsync().thenApply(packet -> {
+			try
+			{
+				return MessageParser.parseMessage(packet,connection.getInboundProtocolVersion());
+			}catch(InvalidMessageException e)
+			{
+				throw new CompletionException(e);
+			}
+		});
 	}
 	
 	/**
@@ -1,6 +1,10 @@
 package main.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 
 /**
@@ -21,12 +25,44 @@ public class MessageWriter {
 	}
 	
 	/**
-	 * Sends a message to the end point of the connection
+	 * Sends a message to the end point of the connection, encoded in the outbound protocol version of the connection
 	 * @param m The message to send
 	 * @throws ConnectionErrorException Thrown if there is an error communicating with the connection
 	 */
 	public void sendMessage(Message m) throws ConnectionErrorException
 	{
-		connection.sendPacket(m.getNewTransmittableMessage());
+		connection.sendPacket(m.getEncodedMessage(connection.getOutboundProtocolVersion()));
+	}
+	
+	/**
+	 * Sends several messages to the end point of the connection in order as a single batch, each encoded in the outbound protocol version of the connection
+	 * @param messages The messages to send
+	 * @throws ConnectionErrorException Thrown if there is an error communicating with the connection
+	 */
+	public void sendMessages(List<Message> messages) throws ConnectionErrorException
+	{
+		connection.sendPackets(encode(messages));
+	}
+	
+	/**
+	 * Sends several messages to the end point of the connection in order without blocking, see {@link Connection#sendPacketsWithoutBlocking(List)}
+	 * @param messages The messages to send
+	 * @return True if every byte was written, false if some were left for the event loop of the connection
+	 * @throws ConnectionErrorException Thrown if there is an error communicating with the connection
+	 */
+	public boolean sendMessagesWithoutBlocking(List<Message> messages) throws ConnectionErrorException
+	{
+		return connection.sendPacketsWithoutBlocking(encode(messages));
+	}
+	
+	private List<byte[]> encode(List<Message> messages)
+	{
+		ProtocolVersion version = connection.getOutboundProtocolVersion();
+		List<byte[]> packets = new ArrayList<byte[]>(messages.size());
+		for(Message m : messages)
+		{
+			packets.add(m.getEncodedMessage(version));
+		}
+		return packets;
 	}
 }
@@ -8,15 +8,22 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.config.TransportConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.frame.FrameDecoder;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
 
 /**
  * An implmentation of the Connection interface which stores a TCP Connection
+ * As the socket can only be read by blocking, a receive waiting for a packet is served by a thread from a shared pool which blocks reading until a packet is complete
  * @author Psymj1 (Marcus)
  */
 public class TCPConnection extends Connection {
@@ -25,6 +32,15 @@ public class TCPConnection extends Connection {
 	private BufferedInputStream inputStream;
 	private BufferedOutputStream outputStream;
 	private ServerLogger logger;
+	private FrameDecoder decoder = FrameDecoder.forVersion(ProtocolVersion.V1);
+	private final Object decoderLock = new Object(); //Guards the decoder separately from the stream so packets already framed can be taken while a reader is blocked reading
+	private byte[] readBuffer = new byte[TransportConfig.READ_BUFFER_SIZE]; //Reused for every read from the input stream
+	private AtomicBoolean readScheduled = new AtomicBoolean(false); //True while a reader thread is blocked reading for a waiting receive
+	private static final ExecutorService READERS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable,"TCPConnection Reader");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	public TCPConnection(Socket connection) throws IOException, SocketException
 	{
@@ -36,82 +52,125 @@ public class TCPConnection extends Connection {
 
 	@Override
 	protected byte[] receive() throws ConnectionErrorException {
+		return receivePooled().array();
+	}
+	
+	/**
+	 * Each packet is decoded into a buffer from the shared {@link main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool}
+	 */
+	@Override
+	protected PooledBuffer receivePooled() throws ConnectionErrorException {
 		try
 		{
+			synchronized(decoderLock)
+			{
+				if(decoder.hasFrame())
+				{
+					return decoder.nextPooledFrame();
+				}
+			}
 			synchronized(inputStream)
 			{
-				ArrayList<Byte> signal = new ArrayList<Byte>();
-	            ArrayList<Byte> payload = new ArrayList<Byte>();
-	            
-
-	            //First loop will gather the signal 
-	            while(true)
-	            {
-	            	byte[] nextByte = new byte[1];
-	                inputStream.read(nextByte,0,1);
-	                signal.add(nextByte[0]);
-	                char byteAsCharacter = new String(nextByte).toCharArray()[0];
-	                if(byteAsCharacter == ProtocolConfig.END_OF_SIGNAL_DELIMITER.toCharArray()[0])
-	                {
-	                    break;
-	                }
-	            }
-
-	            //Second loop will gather the payload
-	            while(true)
-	             {
-	            	byte[] nextByte = new byte[1];
-	            	int bytesRead = inputStream.read(nextByte,0,1);
-	            	if(bytesRead <= 0)
-	            	{
-	            		throw new RuntimeException("FAILED");
-	            	}
-	            	payload.add(nextByte[0]);
-	                     if (payload.size() >= ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER.length)
-	                     {
-	                         int offsetFromStart = payload.size() - ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER.length;
-	                         ByteBuffer bs = ByteBuffer.allocate(ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER.length);
-	                         for(int i = 0;i < ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER.length;i++)
-	                         {
-	                             bs.put(payload.get(offsetFromStart + i));
-	                         }
-	 
-	                         String toCompare = new String(bs.array());
-	                         if (toCompare.equals(ProtocolConfig.END_OF_PAYLOAD_DELIMITER))
-	                         {
-	                             break;
-	                         }
-	                     }
-	             }
-	            
-	             int positionToStartAt = payload.size() - ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER.length;
-	             for(int i = 0;i< ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER.length;i++)
-	             {
-	            	 payload.remove(positionToStartAt);
-	             }
-	            
-	            ByteBuffer buffer = ByteBuffer.allocate(signal.size() + payload.size());
-	            byte[] bSignal = new byte[signal.size()];
-	            for(int i = 0;i < signal.size();i++)
-	            {
-	            	bSignal[i] = signal.get(i);
-	            }
-	            
-	            byte[] bPayload = new byte[payload.size()];
-	            for(int i = 0;i < payload.size();i++)
-	            {
-	            	bPayload[i] = payload.get(i);
-	            }
-	            
-	            buffer.put(bSignal);
-	            buffer.put(bPayload);
-	            return buffer.array();
+				readUntilFrame();
+				synchronized(decoderLock)
+				{
+					return decoder.nextPooledFrame();
+				}
 			}
 		}catch(IOException i)
 		{
 			logger.logError(i.getMessage(),i);
 			closeUnderlyingComponents();
 			throw new ConnectionErrorException("Error in TCP connection to " + getName() + ", see logs for details.");
+		}catch(InvalidMessageException m)
+		{
+			logger.logError("Unable to frame data from " + getName() + ": " + m.getMessage(),m);
+			closeUnderlyingComponents();
+			throw new ConnectionErrorException("Error in TCP connection to " + getName() + ", see logs for details.");
+		}
+	}
+
+	/**
+	 * Blocks a thread from the shared pool reading until a packet is complete, then completes the waiting receive
+	 */
+	@Override
+	protected void onReceiveAwaited() {
+		if(!readScheduled.compareAndSet(false, true))
+		{
+			return;
+		}
+		READERS.execute(() -> {
+			try
+			{
+				synchronized(inputStream)
+				{
+					readUntilFrame();
+				}
+			}catch(IOException i)
+			{
+				logger.logError(i.getMessage(),i);
+				closeUnderlyingComponents();
+				transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+			}catch(InvalidMessageException m)
+			{
+				logger.logError("Unable to frame data from " + getName() + ": " + m.getMessage(),m);
+				closeUnderlyingComponents();
+				transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+			}finally
+			{
+				readScheduled.set(false);
+			}
+			signalReadable();
+		});
+	}
+	
+	/**
+	 * Reads in bulk until at least one packet has been completed, any extra packets read stay in the decoder. Must be called holding the lock on the input stream
+	 * @throws IOException If the stream is closed or cannot be read
+	 * @throws InvalidMessageException If the bytes read cannot be framed
+	 */
+	private void readUntilFrame() throws IOException, InvalidMessageException
+	{
+		while(!hasBufferedPacket())
+		{
+			int bytesRead = inputStream.read(readBuffer, 0, readBuffer.length);
+			if(bytesRead == -1)
+			{
+				throw new IOException("The connection was closed by the remote end");
+			}
+			synchronized(decoderLock)
+			{
+				decoder.feed(readBuffer, 0, bytesRead);
+			}
+		}
+	}
+
+	/**
+	 * Only checks the packets already framed so it never waits on a reader blocked reading the stream
+	 */
+	@Override
+	protected boolean hasBufferedPacket() {
+		synchronized(decoderLock)
+		{
+			return decoder.hasFrame();
+		}
+	}
+
+	@Override
+	protected void onInboundProtocolVersionChanged(ProtocolVersion version) {
+		synchronized(decoderLock)
+		{
+			byte[] remaining = decoder.remainingBytes();
+			decoder = FrameDecoder.forVersion(version);
+			try
+			{
+				decoder.feed(remaining, 0, remaining.length);
+			}catch(InvalidMessageException m)
+			{
+				logger.logError("Unable to frame data from " + getName() + ": " + m.getMessage(),m);
+				closeUnderlyingComponents();
+				transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+			}
 		}
 	}
 
@@ -129,16 +188,39 @@ public class TCPConnection extends Connection {
 		}
 	}
 	
+	/**
+	 * Writes every packet into the buffered output stream and flushes it once, so a batch of small packets becomes as few socket writes as possible
+	 */
+	@Override
+	protected void send(List<byte[]> packets) throws ConnectionErrorException {
+		try
+		{
+			for(byte[] packet : packets)
+			{
+				outputStream.write(packet, 0, packet.length);
+			}
+			outputStream.flush();
+		}catch(IOException i)
+		{
+			logger.logError(i.getMessage(),i);
+			closeUnderlyingComponents();
+			throw new ConnectionErrorException("Error in TCP connection to " + getName() + ", see logs for details.");
+		}
+	}
+	
 	@Override
 	protected boolean willReadBlock() throws ConnectionErrorException {
 		try
 		{
-			boolean willBlock = true;
-			synchronized(inputStream)
+			if(hasBufferedPacket())
+			{
+				return false;
+			}
+			if(readScheduled.get())
 			{
-				willBlock = !(inputStream.available() > 0);
+				return true; //A reader is blocked reading the stream and will signal once a packet is complete
 			}
-			return willBlock;
+			return !(inputStream.available() > 0);
 		}catch(IOException i)
 		{
 			logger.logError(i.getMessage(),i);
@@ -3,32 +3,79 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponent;
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.config.SlowConsumerConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.WriterConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerMetrics;
 
 /**
- * A threaded class which maintains an internal buffer of messages to be sent. Messages added to the buffer are queued in a FIFO fashion and then sent to the endpoint of the connection
- * The thread will stop if the connection enters either a stopped state or error state
- * The thread will also stop if {@link #stop()} is called
+ * A class which maintains an internal buffer of messages to be sent. Messages added to the buffer are queued in a FIFO fashion and then sent to the endpoint of the connection
+ * If the connection has an event loop, see {@link Connection#setWriteHandler(Runnable)}, the messages are sent from the loop whenever some are queued and the socket can take them,
+ * so the writer has no thread of its own. Otherwise, as with the legacy transport, they are sent by a thread of the writer's own which blocks while writing
+ * Sending will stop if the connection enters either a stopped state or error state
+ * Sending will also stop if {@link #stop()} is called
  * Once a message is added to the queue it cannot be removed
+ * If {@link WriterConfig#BATCH_WRITES} is set then everything waiting in the queue, up to {@link WriterConfig#MAX_BATCH_BYTES}, is handed to the connection as one batch
+ * so that a burst of messages costs one write to the socket rather than one per message
+ * Messages are split into two lanes. Control messages (anything other than AUDI and EAUD) are always sent ahead of audio and are never dropped.
+ * Audio is bounded by {@link WriterConfig#MAX_QUEUED_AUDIO_BYTES} and {@link WriterConfig#MAX_AUDIO_AGE}, when either is exceeded the oldest AUDI messages are dropped
+ * and counted in the {@link ConnectionMetrics} of the connection. EAUD messages share the audio lane so they stay in order with the audio but are never dropped
+ * The writer also tracks how well the endpoint is keeping up, see {@link #updateHealth()}. While it is {@link ConsumerHealth#DEGRADED} every AUDI message is dropped
+ * Each message queued is retained until it has been sent or dropped, so a message which is a view of a pooled buffer is released by the last writer to send it
  * @author Psymj1 (Marcus)
  *
  */
 public class ThreadedBufferedMessageWriter extends ServerComponent {
 	
 	private Connection connection;
-	private boolean keepRunning = true;
-	private ArrayList<Message> messageQueue = new ArrayList<Message>();
-	private static final int MIN_QUEUE_CHECK_RATE = 10; //In ms, the minimum rate at which the queue will be checked for new messages
+	private volatile boolean keepRunning = true;
+	private final Object queueLock = new Object(); //Guards both queues and the byte counts, private to each writer so writers never wait on each other
+	private ArrayDeque<Message> controlQueue = new ArrayDeque<Message>();
+	private ArrayDeque<QueuedAudio> audioQueue = new ArrayDeque<QueuedAudio>();
+	private int queuedBytes = 0; //The encoded size of every message in both queues
+	private int queuedAudioBytes = 0; //The encoded size of every AUDI message in the audio queue
+	private boolean sendingStopped = false; //Set once sending has stopped, messages queued after this are dropped as nothing will send them. Guarded by the queue lock
+	private volatile boolean sendsFromEventLoop = false; //Set on start up if the connection sends the messages from its event loop rather than from a thread of the writer's own
+	private int bytesLeftWithEventLoop = 0; //The size of the batch the event loop is still writing, 0 if there isn't one. Only used by the event loop
+	private final ConnectionStateListener stateListener = (c,previous,current) -> wakeSending(); //So sending stops as soon as the connection closes or fails
 	private MessageWriter writer;
+	private volatile ConsumerHealth health = ConsumerHealth.HEALTHY;
+	private long degradedSince; //In ns, from System.nanoTime(), when the writer last became degraded
+	private long lastHealthCheck = System.nanoTime(); //In ns, from System.nanoTime()
+	private long bytesSentAtLastHealthCheck = 0;
+	private volatile Runnable backlogListener; //Null unless something wants to know when messages start waiting to be sent
 	private static ServerLogger logger;
 	
+	/**
+	 * A message waiting in the audio lane along with what is needed to decide whether to drop it
+	 */
+	private static class QueuedAudio
+	{
+		private final Message message;
+		private final int size;
+		private final long enqueuedAt; //In ns, from System.nanoTime()
+		private final boolean droppable;
+		
+		private QueuedAudio(Message message,int size,boolean droppable)
+		{
+			this.message = message;
+			this.size = size;
+			this.droppable = droppable;
+			enqueuedAt = System.nanoTime();
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -43,7 +90,15 @@ public class ThreadedBufferedMessageWriter extends ServerComponent {
 	 */
 	@Override
 	protected void startUp() throws StartupException {
-		new SendingThread(connection.getName() + " Buffered Message Writer").start();
+		connection.addStateListener(stateListener);
+		if(connection.setWriteHandler(this::sendFromEventLoop))
+		{
+			sendsFromEventLoop = true;
+			connection.requestWrite(); //Send anything queued before the writer started
+		}else
+		{
+			new SendingThread(connection.getName() + " Buffered Message Writer").start();
+		}
 	}
 
 	/**
@@ -52,17 +107,478 @@ public class ThreadedBufferedMessageWriter extends ServerComponent {
 	@Override
 	protected void shutdown() {
 		keepRunning = false;
+		wakeSending();
 	}
 	
 	/**
-	 * Enqueue a message to the end of the queue of messages to be sent to the endpoint of the connection
+	 * Wakes whatever sends the messages so it notices it should stop
+	 */
+	private void wakeSending()
+	{
+		if(sendsFromEventLoop)
+		{
+			connection.requestWrite();
+		}else
+		{
+			synchronized(queueLock)
+			{
+				queueLock.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Enqueue a message to the end of the queue of messages to be sent to the endpoint of the connection.
+	 * If the message is an AUDI message and the audio waiting to be sent now exceeds {@link WriterConfig#MAX_QUEUED_AUDIO_BYTES} the oldest AUDI messages are dropped
 	 * @param message The message to send
 	 */
 	public void enqueueMessage(Message message)
 	{
-		synchronized(messageQueue)
+		int size = encodedSize(message);
+		boolean backlogStarted;
+		synchronized(queueLock)
+		{
+			backlogStarted = queuedBytes == 0;
+			addToQueue(message,size);
+			backlogStarted &= queuedBytes > 0;
+			queueLock.notifyAll();
+		}
+		if(sendsFromEventLoop)
+		{
+			connection.requestWrite();
+		}
+		if(backlogStarted)
+		{
+			notifyBacklogStarted();
+		}
+	}
+	
+	/**
+	 * Enqueue several messages to the end of the queue in the order given. They are added together so no other message can be queued in between them,
+	 * and sending is only woken once so a burst such as the state sent to someone joining a meeting is normally written as a single batch
+	 * @param messages The messages to send
+	 */
+	public void enqueueMessages(Message... messages)
+	{
+		int[] sizes = new int[messages.length];
+		for(int i = 0;i < messages.length;i++)
+		{
+			sizes[i] = encodedSize(messages[i]);
+		}
+		boolean backlogStarted;
+		synchronized(queueLock)
+		{
+			backlogStarted = queuedBytes == 0;
+			for(int i = 0;i < messages.length;i++)
+			{
+				addToQueue(messages[i],sizes[i]);
+			}
+			backlogStarted &= queuedBytes > 0;
+			queueLock.notifyAll();
+		}
+		if(sendsFromEventLoop)
+		{
+			connection.requestWrite();
+		}
+		if(backlogStarted)
+		{
+			notifyBacklogStarted();
+		}
+	}
+	
+	/**
+	 * @param listener Run on the thread queuing a message whenever it is queued while nothing else was waiting to be sent, so that whoever calls {@link #updateHealth()}
+	 * knows to start calling it again. Null for none
+	 */
+	public void setBacklogListener(Runnable listener)
+	{
+		backlogListener = listener;
+	}
+	
+	private void notifyBacklogStarted()
+	{
+		Runnable listener = backlogListener;
+		if(listener != null)
+		{
+			listener.run();
+		}
+	}
+	
+	/**
+	 * Adds a message to the lane it belongs in. Must be called holding the queue lock
+	 * @param message The message to add
+	 * @param size The encoded size of the message
+	 */
+	private void addToQueue(Message message,int size)
+	{
+		if(sendingStopped)
+		{
+			return;
+		}
+		ClientSignals signal = message.getClientSignal();
+		if(signal == ClientSignals.AUDI)
+		{
+			if(health != ConsumerHealth.HEALTHY)
+			{
+				connection.getMetrics().audioFrameDroppedWhileDegraded(size);
+				return;
+			}
+			message.retain();
+			audioQueue.add(new QueuedAudio(message,size,true));
+			queuedAudioBytes += size;
+			dropAudioOverBudget();
+		}else if(signal == ClientSignals.EAUD)
+		{
+			message.retain();
+			audioQueue.add(new QueuedAudio(message,size,false));
+		}else
+		{
+			message.retain();
+			controlQueue.add(message);
+		}
+		queuedBytes += size;
+	}
+	
+	/**
+	 * Drops AUDI messages from the front of the audio lane until the audio waiting fits within {@link WriterConfig#MAX_QUEUED_AUDIO_BYTES}. Must be called holding the queue lock
+	 */
+	private void dropAudioOverBudget()
+	{
+		Iterator<QueuedAudio> queued = audioQueue.iterator();
+		while(queuedAudioBytes > WriterConfig.MAX_QUEUED_AUDIO_BYTES && queued.hasNext())
+		{
+			QueuedAudio next = queued.next();
+			if(next.droppable)
+			{
+				queued.remove();
+				queuedAudioBytes -= next.size;
+				queuedBytes -= next.size;
+				connection.getMetrics().audioFrameDroppedForSpace(next.size);
+				next.message.release();
+			}
+		}
+	}
+	
+	/**
+	 * Drops every AUDI message waiting to be sent. Must be called holding the queue lock
+	 */
+	private void dropAllAudio()
+	{
+		Iterator<QueuedAudio> queued = audioQueue.iterator();
+		while(queued.hasNext())
+		{
+			QueuedAudio next = queued.next();
+			if(next.droppable)
+			{
+				queued.remove();
+				queuedAudioBytes -= next.size;
+				queuedBytes -= next.size;
+				connection.getMetrics().audioFrameDroppedWhileDegraded(next.size);
+				next.message.release();
+			}
+		}
+	}
+	
+	/**
+	 * Releases every message still waiting once sending has stopped, and stops any more being queued, so pooled buffers are not held by a writer which will never send them
+	 * @return True if sending had not already been stopped
+	 */
+	private boolean discardQueued()
+	{
+		synchronized(queueLock)
+		{
+			if(sendingStopped)
+			{
+				return false;
+			}
+			sendingStopped = true;
+			for(Message message : controlQueue)
+			{
+				message.release();
+			}
+			for(QueuedAudio audio : audioQueue)
+			{
+				audio.message.release();
+			}
+			controlQueue.clear();
+			audioQueue.clear();
+			queuedBytes = 0;
+			queuedAudioBytes = 0;
+			return true;
+		}
+	}
+	
+	/**
+	 * @return The total encoded size of every message waiting to be sent
+	 */
+	public int getQueuedBytes()
+	{
+		synchronized(queueLock)
+		{
+			return queuedBytes;
+		}
+	}
+	
+	/**
+	 * @return True while messages are waiting to be sent, a write is in progress or the writer is degraded, which is when {@link #updateHealth()} needs to keep being called
+	 */
+	public boolean needsHealthChecks()
+	{
+		return getQueuedBytes() > 0 || connection.getMetrics().isWriting() || health == ConsumerHealth.DEGRADED;
+	}
+	
+	/**
+	 * @return How well the endpoint of the connection was keeping up the last time {@link #updateHealth()} was called
+	 */
+	public ConsumerHealth getHealth()
+	{
+		return health;
+	}
+	
+	/**
+	 * Measures how well the endpoint of the connection is keeping up, using the bytes waiting to be sent and how long the current write has been blocked for, and updates the send throughput of the connection's {@link ConnectionMetrics}.
+	 * A writer which passes one of the degrade thresholds in {@link SlowConsumerConfig} becomes {@link ConsumerHealth#DEGRADED} and drops all of its queued audio. It becomes healthy again once
+	 * less than half of each threshold is reached. A writer which passes one of the evict thresholds, or stays degraded for too long, becomes {@link ConsumerHealth#EVICTED}.
+	 * Should only be called periodically from a single thread
+	 * @return True if the health of the writer changed
+	 */
+	public boolean updateHealth()
+	{
+		ConnectionMetrics metrics = connection.getMetrics();
+		long now = System.nanoTime();
+		long sent = metrics.getBytesSent();
+		if(now > lastHealthCheck)
+		{
+			metrics.setSendThroughput((sent - bytesSentAtLastHealthCheck) * 1000000000L / (now - lastHealthCheck));
+		}
+		bytesSentAtLastHealthCheck = sent;
+		lastHealthCheck = now;
+		
+		if(health == ConsumerHealth.EVICTED)
 		{
-			messageQueue.add(message);
+			return false;
+		}
+		
+		long blocked = metrics.getTimeBlockedInWrite();
+		int queued = getQueuedBytes();
+		ConsumerHealth next;
+		if(blocked >= SlowConsumerConfig.EVICT_BLOCKED_WRITE || queued >= SlowConsumerConfig.EVICT_QUEUED_BYTES
+				|| (health == ConsumerHealth.DEGRADED && (now - degradedSince) / 1000000 >= SlowConsumerConfig.MAX_DEGRADED_TIME))
+		{
+			next = ConsumerHealth.EVICTED;
+		}else if(blocked >= SlowConsumerConfig.DEGRADE_BLOCKED_WRITE || queued >= SlowConsumerConfig.DEGRADE_QUEUED_BYTES)
+		{
+			next = ConsumerHealth.DEGRADED;
+		}else if(health == ConsumerHealth.DEGRADED && (blocked >= SlowConsumerConfig.DEGRADE_BLOCKED_WRITE / 2 || queued >= SlowConsumerConfig.DEGRADE_QUEUED_BYTES / 2))
+		{
+			next = ConsumerHealth.DEGRADED; //Not caught up enough yet to be worth sending audio again
+		}else
+		{
+			next = ConsumerHealth.HEALTHY;
+		}
+		
+		if(next == health)
+		{
+			return false;
+		}
+		
+		health = next;
+		switch(next)
+		{
+			case DEGRADED:
+				logger.logWarning("Connection is not keeping up (" + queued + " bytes queued, blocked in write for " + blocked + " ms), sending control messages only");
+				degradedSince = now;
+				ServerMetrics.slowConsumerDegraded();
+				synchronized(queueLock)
+				{
+					dropAllAudio();
+				}
+				break;
+			case EVICTED:
+				logger.logWarning("Connection did not catch up (" + queued + " bytes queued, blocked in write for " + blocked + " ms), it should be evicted");
+				ServerMetrics.slowConsumerEvicted();
+				break;
+			default:
+				logger.logInfo("Connection has caught up, sending audio again");
+		}
+		return true;
+	}
+	
+	/**
+	 * Drops AUDI messages which have waited longer than {@link WriterConfig#MAX_AUDIO_AGE}. Must be called holding the queue lock
+	 */
+	private void dropExpiredAudio()
+	{
+		long oldestAllowed = System.nanoTime() - WriterConfig.MAX_AUDIO_AGE * 1000000L;
+		Iterator<QueuedAudio> queued = audioQueue.iterator();
+		while(queued.hasNext())
+		{
+			QueuedAudio next = queued.next();
+			if(next.enqueuedAt - oldestAllowed >= 0)
+			{
+				break; //The lane is in the order messages were queued so everything after this is younger
+			}
+			if(next.droppable)
+			{
+				queued.remove();
+				queuedAudioBytes -= next.size;
+				queuedBytes -= next.size;
+				connection.getMetrics().audioFrameDroppedForAge(next.size);
+				next.message.release();
+			}
+		}
+	}
+	
+	/**
+	 * @param message A message in the queue
+	 * @return The number of bytes the message will take up when it is sent to the connection
+	 */
+	private int encodedSize(Message message)
+	{
+		return message.getEncodedMessage(connection.getOutboundProtocolVersion()).length;
+	}
+	
+	/**
+	 * Waits for at least one message to be queued and then removes the messages which should be sent next, see {@link #takeQueuedMessages()}.
+	 * When batching, waits up to {@link WriterConfig#MAX_LINGER} for more messages to arrive while the batch is smaller than {@link WriterConfig#MAX_BATCH_BYTES}
+	 * @return The messages to send in order, empty if the writer was stopped before any were queued
+	 */
+	private List<Message> takeNextMessages()
+	{
+		synchronized(queueLock)
+		{
+			try
+			{
+				while(keepRunning && connection.isOpen() && isQueueEmpty())
+				{
+					queueLock.wait(); //Woken by a message being queued, the writer stopping or the connection closing
+				}
+				
+				if(WriterConfig.BATCH_WRITES && WriterConfig.MAX_LINGER > 0)
+				{
+					long lingerEnd = System.nanoTime() + WriterConfig.MAX_LINGER * 1000L;
+					long remaining;
+					while(keepRunning && queuedBytes < WriterConfig.MAX_BATCH_BYTES && (remaining = lingerEnd - System.nanoTime()) > 0)
+					{
+						queueLock.wait(remaining / 1000000, (int)(remaining % 1000000));
+					}
+				}
+			}catch(InterruptedException e)
+			{
+				//Send whatever has been queued so far
+			}
+			
+			return takeQueuedMessages();
+		}
+	}
+	
+	/**
+	 * Removes the messages which should be sent next without waiting, control messages first, up to {@link WriterConfig#MAX_BATCH_BYTES} when batching
+	 * @return The messages to send in order, empty if none are queued
+	 */
+	private List<Message> takeQueuedMessages()
+	{
+		List<Message> batch = new ArrayList<Message>();
+		synchronized(queueLock)
+		{
+			dropExpiredAudio();
+			
+			int batchBytes = 0;
+			while(!controlQueue.isEmpty())
+			{
+				int size = encodedSize(controlQueue.peek());
+				if(!canJoinBatch(batch, batchBytes, size))
+				{
+					return batch;
+				}
+				batch.add(controlQueue.poll());
+				batchBytes += size;
+				queuedBytes -= size;
+			}
+			
+			while(!audioQueue.isEmpty())
+			{
+				QueuedAudio next = audioQueue.peek();
+				if(!canJoinBatch(batch, batchBytes, next.size))
+				{
+					return batch;
+				}
+				audioQueue.poll();
+				batch.add(next.message);
+				batchBytes += next.size;
+				queuedBytes -= next.size;
+				if(next.droppable)
+				{
+					queuedAudioBytes -= next.size;
+				}
+			}
+		}
+		return batch;
+	}
+	
+	private boolean isQueueEmpty()
+	{
+		return controlQueue.isEmpty() && audioQueue.isEmpty();
+	}
+	
+	private boolean canJoinBatch(List<Message> batch,int batchBytes,int size)
+	{
+		return batch.isEmpty() || (WriterConfig.BATCH_WRITES && batchBytes + size <= WriterConfig.MAX_BATCH_BYTES);
+	}
+	
+	/**
+	 * The write handler run on the event loop of the connection. Sends batches until nothing is queued or the socket cannot take all of a batch,
+	 * in which case the event loop runs it again once the rest has been written. A batch counts as being written, see {@link ConnectionMetrics#getTimeBlockedInWrite()},
+	 * until the socket has taken all of it. Messages queued while it runs are sent without waiting to batch with later ones, as bursts already build up while the loop is busy
+	 */
+	private void sendFromEventLoop()
+	{
+		if(bytesLeftWithEventLoop > 0)
+		{
+			connection.getMetrics().writeFinished(bytesLeftWithEventLoop); //The socket has taken the rest of the last batch
+			bytesLeftWithEventLoop = 0;
+		}
+		
+		while(keepRunning && connection.isOpen())
+		{
+			List<Message> next = takeQueuedMessages();
+			if(next.isEmpty())
+			{
+				return;
+			}
+			
+			int bytes = 0;
+			for(Message message : next)
+			{
+				bytes += encodedSize(message);
+			}
+			
+			boolean written = true;
+			connection.getMetrics().writeStarted();
+			try {
+				written = writer.sendMessagesWithoutBlocking(next);
+			} catch (ConnectionErrorException e) {
+				logger.logError(e.getMessage(),e);
+			} finally {
+				for(Message message : next)
+				{
+					message.release(); //Whatever the socket did not take has been copied by the connection
+				}
+			}
+			
+			if(!written)
+			{
+				bytesLeftWithEventLoop = bytes;
+				return;
+			}
+			connection.getMetrics().writeFinished(bytes);
+		}
+		
+		connection.setWriteHandler(null);
+		connection.removeStateListener(stateListener);
+		if(discardQueued()) //The handler may already have been run again by a request made before it was removed
+		{
+			setState(ServerComponentState.STOPPED);
 		}
 	}
 	
@@ -78,26 +594,40 @@ public class ThreadedBufferedMessageWriter extends ServerComponent {
 		{
 			while(keepRunning && connection.isOpen())
 			{
-				if(messageQueue.isEmpty())
+				List<Message> next = takeNextMessages();
+				if(next.isEmpty())
 				{
-					try {
-						Thread.sleep(MIN_QUEUE_CHECK_RATE);
-					} catch (InterruptedException e) {
-						
-					}
-				}else
+					continue;
+				}
+				
+				int bytes = 0;
+				for(Message message : next)
 				{
-					Message m = messageQueue.get(0);
-					messageQueue.remove(0);
-					try {
-						writer.sendMessage(m);
-					} catch (ConnectionErrorException e) {
-						logger.logError(e.getMessage(),e);
-					}
+					bytes += encodedSize(message);
 				}
 				
+				connection.getMetrics().writeStarted();
+				try {
+					if(next.size() == 1)
+					{
+						writer.sendMessage(next.get(0));
+					}else
+					{
+						writer.sendMessages(next);
+					}
+				} catch (ConnectionErrorException e) {
+					logger.logError(e.getMessage(),e);
+				} finally {
+					connection.getMetrics().writeFinished(bytes);
+					for(Message message : next)
+					{
+						message.release();
+					}
+				}
 			}
 			
+			connection.removeStateListener(stateListener);
+			discardQueued();
 			setState(ServerComponentState.STOPPED);
 		}
 	}
@@ -0,0 +1,161 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
+import main.java.com.hexcore.vrmeeting_hostserver.config.TCPAcceptorConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.TransportConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.nio.NIOConnection;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.nio.NIOEventLoopGroup;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+
+/**
+ * Listens for incoming TCP connections using a non-blocking {@link ServerSocketChannel} and notifies listeners when one is received.
+ * Each accepted connection is handed to one of the loops in the {@link NIOEventLoopGroup} rather than being given threads of its own
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class NIOConnectionAcceptor extends IncomingConnectionAccepter {
+
+	private int port;
+	private ServerSocketChannel server;
+	private Selector acceptSelector;
+	private NIOEventLoopGroup eventLoops;
+	private ServerLogger logger = new ServerLogger("NIO Connection Acceptor");
+
+	private class AcceptConnectionThread extends Thread
+	{
+		public AcceptConnectionThread()
+		{
+			setName("NIO Connection Acceptor");
+		}
+
+		@Override
+		public void run() {
+			logger.logInfo("Started");
+			boolean accepting = true;
+			while(accepting)
+			{
+				try
+				{
+					if(acceptSelector.select(TransportConfig.SELECT_TIMEOUT) > 0)
+					{
+						acceptSelector.selectedKeys().clear();
+						SocketChannel nextChannel;
+						while((nextChannel = server.accept()) != null)
+						{
+							NIOConnection newConnection;
+							try
+							{
+								newConnection = new NIOConnection(nextChannel,eventLoops.next());
+							}catch(IOException i)
+							{
+								logger.logError("Failed to set up an accepted connection: " + i.getMessage(),i);
+								closeQuietly(nextChannel);
+								continue;
+							}
+							logger.logInfo("New NIO Connection from " + newConnection.getName());
+							notifyAllListeners(newConnection);
+						}
+					}
+				}catch(IOException i)
+				{
+					logger.logError(i.getMessage(),i);
+				}
+
+				if(NIOConnectionAcceptor.this.getState().equals(ServerComponentState.STOPPING))
+				{
+					try
+					{
+						acceptSelector.close();
+						server.close();
+					}catch(IOException j)
+					{
+						logger.logWarning("Failed to close server socket channel:" + j.getMessage());
+					}
+
+					setState(ServerComponentState.STOPPED);
+					accepting = false;
+				}
+			}
+			logger.logInfo("Stopped");
+		}
+	}
+
+	private void closeQuietly(SocketChannel channel)
+	{
+		try
+		{
+			channel.close();
+		}catch(IOException j)
+		{
+			logger.logIgnore(j.getMessage());
+		}
+	}
+
+	/**
+	 * Uses the default port number in {@link TCPAcceptorConfig#PORT}
+	 * @param eventLoops The event loops accepted connections are registered with
+	 */
+	public NIOConnectionAcceptor(NIOEventLoopGroup eventLoops)
+	{
+		this(TCPAcceptorConfig.PORT,eventLoops);
+	}
+
+	/**
+	 * Sets the port to listen on to the port specified in the constructor
+	 * @param port The port to listen on
+	 * @param eventLoops The event loops accepted connections are registered with, must be started before a connection is accepted
+	 */
+	public NIOConnectionAcceptor(int port,NIOEventLoopGroup eventLoops)
+	{
+		if(port < 0)
+		{
+			throw new IllegalArgumentException("The port cannot be negative");
+		}
+		if(port > TCPAcceptorConfig.MAX_PORT)
+		{
+			throw new IllegalArgumentException("The port cannot be greater than " + TCPAcceptorConfig.MAX_PORT);
+		}
+		if(eventLoops == null)
+		{
+			throw new IllegalArgumentException("The event loop group cannot be null");
+		}
+		this.port = port;
+		this.eventLoops = eventLoops;
+	}
+
+	@Override
+	protected void startUp() throws StartupException {
+		logger.logInfo("Starting...");
+		try {
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(port));
+			server.configureBlocking(false);
+			acceptSelector = Selector.open();
+			server.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			logger.logError(e.getMessage(),e);
+			throw new StartupException("Error starting NIOConnectionAcceptor, see logs for details");
+		}
+
+		new AcceptConnectionThread().start();
+	}
+
+	@Override
+	protected void shutdown() {
+		logger.logInfo("Stopping...");
+		acceptSelector.wakeup();
+	}
+
+	public int getPort()
+	{
+		return port;
+	}
+}
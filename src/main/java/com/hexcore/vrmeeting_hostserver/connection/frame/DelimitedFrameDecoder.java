@@ -0,0 +1,202 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection.frame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+
+/**
+ * Splits a stream of bytes into packets framed by the {@link ProtocolConfig#END_OF_PAYLOAD_DELIMITER} as defined by the VRMeeting Messaging Protocol.
+ * Bytes can be fed in chunks of any size, including chunks which end part way through a signal or delimiter, and each complete packet is made available
+ * through {@link #nextFrame()} with the end of payload delimiter removed.
+ * The bytes are accumulated in a reusable buffer and the delimiter is found using a precomputed Knuth-Morris-Pratt table so each byte is examined once.
+ * This class is not thread safe
+ * @see main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion#V1
+ * @author Psymj1 (Marcus)
+ * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
+ */
+public class DelimitedFrameDecoder implements FrameDecoder {
+	private static final byte SIGNAL_DELIMITER = ProtocolConfig.ENCODED_END_OF_SIGNAL_DELIMITER[0];
+	private static final byte[] PAYLOAD_DELIMITER = ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER;
+	private static final int[] PAYLOAD_DELIMITER_FAILURE_TABLE = buildFailureTable(PAYLOAD_DELIMITER);
+	private static final int INITIAL_BUFFER_SIZE = 2048; //In Bytes
+	private static final int MAX_FRAME_LENGTH = ProtocolConfig.MAX_POSSIBLE_SERIALIZED_MESSAGE_LENGTH + PAYLOAD_DELIMITER.length; //In Bytes
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int frameStart = 0; //Index of the first byte of the frame currently being decoded
+	private int scanPosition = 0; //Index of the next byte to be examined
+	private int writePosition = 0; //Index the next byte fed in will be written to
+	private boolean readingPayload = false; //True once the end of signal delimiter of the current frame has been found
+	private int matched = 0; //The number of bytes of the payload delimiter matched so far
+	private ArrayDeque<PooledBuffer> frames = new ArrayDeque<PooledBuffer>();
+
+	@Override
+	public void feed(byte[] source,int offset,int length) throws InvalidMessageException
+	{
+		while(length > 0)
+		{
+			ensureSpace();
+			int toCopy = Math.min(length, buffer.length - writePosition);
+			System.arraycopy(source, offset, buffer, writePosition, toCopy);
+			writePosition += toCopy;
+			offset += toCopy;
+			length -= toCopy;
+			scan();
+		}
+	}
+
+	@Override
+	public void feed(ByteBuffer source) throws InvalidMessageException
+	{
+		while(source.hasRemaining())
+		{
+			ensureSpace();
+			int toCopy = Math.min(source.remaining(), buffer.length - writePosition);
+			source.get(buffer, writePosition, toCopy);
+			writePosition += toCopy;
+			scan();
+		}
+	}
+
+	@Override
+	public boolean hasFrame()
+	{
+		return !frames.isEmpty();
+	}
+
+	@Override
+	public byte[] nextFrame()
+	{
+		PooledBuffer frame = frames.poll();
+		return frame == null ? null : frame.array();
+	}
+
+	@Override
+	public PooledBuffer nextPooledFrame()
+	{
+		return frames.poll();
+	}
+
+	@Override
+	public byte[] remainingBytes()
+	{
+		return Arrays.copyOfRange(buffer, frameStart, writePosition);
+	}
+
+	/**
+	 * Examines every byte not yet scanned, moving completed packets onto the queue of frames
+	 * @throws InvalidMessageException If the signal of a packet is longer than the protocol allows
+	 */
+	private void scan() throws InvalidMessageException
+	{
+		while(scanPosition < writePosition)
+		{
+			byte next = buffer[scanPosition++];
+			if(!readingPayload)
+			{
+				if(next == SIGNAL_DELIMITER)
+				{
+					readingPayload = true;
+				}else if(scanPosition - frameStart > ProtocolConfig.MAX_BYTES_PER_SIGNAL)
+				{
+					throw new InvalidMessageException("Signal End Delimiter not found within " + ProtocolConfig.MAX_BYTES_PER_SIGNAL + " bytes");
+				}
+				continue;
+			}
+
+			while(matched > 0 && next != PAYLOAD_DELIMITER[matched])
+			{
+				matched = PAYLOAD_DELIMITER_FAILURE_TABLE[matched - 1];
+			}
+			if(next == PAYLOAD_DELIMITER[matched])
+			{
+				matched++;
+			}
+
+			if(matched == PAYLOAD_DELIMITER.length)
+			{
+				frames.add(copyFrame(frameStart, scanPosition - PAYLOAD_DELIMITER.length - frameStart));
+				frameStart = scanPosition;
+				readingPayload = false;
+				matched = 0;
+			}
+		}
+
+		if(frameStart == writePosition)
+		{
+			//Every byte has been consumed so start again from the beginning of the buffer
+			frameStart = 0;
+			scanPosition = 0;
+			writePosition = 0;
+		}
+	}
+
+	/**
+	 * Copies a complete packet out of the buffer into a buffer of its own from the shared {@link BufferPool}
+	 * @param start The index of the first byte of the packet
+	 * @param length The length of the packet without the end of payload delimiter
+	 * @return The buffer holding the packet
+	 */
+	private PooledBuffer copyFrame(int start,int length)
+	{
+		PooledBuffer frame = BufferPool.shared().acquire(length);
+		System.arraycopy(buffer, start, frame.array(), 0, length);
+		return frame;
+	}
+
+	/**
+	 * Makes room for at least one more byte at the end of the buffer, first by discarding bytes of packets already decoded and then by growing the buffer
+	 * @throws InvalidMessageException If the packet currently being decoded is already the maximum possible length
+	 */
+	private void ensureSpace() throws InvalidMessageException
+	{
+		if(writePosition < buffer.length)
+		{
+			return;
+		}
+
+		if(frameStart > 0)
+		{
+			int pending = writePosition - frameStart;
+			System.arraycopy(buffer, frameStart, buffer, 0, pending);
+			scanPosition -= frameStart;
+			writePosition = pending;
+			frameStart = 0;
+			return;
+		}
+
+		if(buffer.length >= MAX_FRAME_LENGTH)
+		{
+			throw new InvalidMessageException("Packet exceeded the maximum message length of " + ProtocolConfig.MAX_POSSIBLE_SERIALIZED_MESSAGE_LENGTH + " bytes without an end of payload delimiter");
+		}
+		buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_FRAME_LENGTH));
+	}
+
+	/**
+	 * Builds the Knuth-Morris-Pratt failure table for the pattern, where entry i is the length of the longest proper prefix of pattern[0..i] which is also a suffix of it
+	 * @param pattern The pattern to build the table for
+	 * @return The failure table
+	 */
+	private static int[] buildFailureTable(byte[] pattern)
+	{
+		int[] table = new int[pattern.length];
+		int length = 0;
+		for(int i = 1;i < pattern.length;i++)
+		{
+			while(length > 0 && pattern[i] != pattern[length])
+			{
+				length = table[length - 1];
+			}
+			if(pattern[i] == pattern[length])
+			{
+				length++;
+			}
+			table[i] = length;
+		}
+		return table;
+	}
+}
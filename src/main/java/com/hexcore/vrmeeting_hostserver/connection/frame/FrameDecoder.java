@@ -0,0 +1,67 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection.frame;
+
+import java.nio.ByteBuffer;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+
+/**
+ * A class implementing this splits a stream of bytes received by a connection into the packets framed by one version of the wire format.
+ * Bytes can be fed in chunks of any size and each complete packet is made available through {@link #nextFrame()}
+ * @author Psymj1 (Marcus)
+ * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
+ */
+public interface FrameDecoder {
+
+	/**
+	 * Adds the bytes to the decoder, decoding any packets they complete
+	 * @param source The array containing the bytes
+	 * @param offset The index of the first byte to add
+	 * @param length The number of bytes to add
+	 * @throws InvalidMessageException If the bytes cannot be part of a valid message, after which the stream cannot be decoded any further
+	 */
+	public void feed(byte[] source,int offset,int length) throws InvalidMessageException;
+
+	/**
+	 * Adds the remaining bytes of the buffer to the decoder, decoding any packets they complete
+	 * @param source The bytes to add, its position is moved to its limit
+	 * @throws InvalidMessageException If the bytes cannot be part of a valid message, after which the stream cannot be decoded any further
+	 */
+	public void feed(ByteBuffer source) throws InvalidMessageException;
+
+	/**
+	 * @return True if there is at least one complete packet waiting to be taken by {@link #nextFrame()}
+	 */
+	public boolean hasFrame();
+
+	/**
+	 * @return The oldest decoded packet in the form expected by {@link main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser#parseMessage(byte[], ProtocolVersion)}, or null if no packet is complete
+	 */
+	public byte[] nextFrame();
+
+	/**
+	 * @return The oldest decoded packet in a buffer from the shared {@link main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool} holding one reference which is given to the caller, or null if no packet is complete
+	 */
+	public PooledBuffer nextPooledFrame();
+
+	/**
+	 * @return The bytes fed into the decoder which are not yet part of a complete packet, used to carry them over when the connection moves to a different wire format
+	 */
+	public byte[] remainingBytes();
+
+	/**
+	 * @param version The version of the wire format to decode
+	 * @return A new decoder for the version
+	 */
+	public static FrameDecoder forVersion(ProtocolVersion version)
+	{
+		switch(version)
+		{
+		case V2:
+			return new LengthPrefixedFrameDecoder();
+		default:
+			return new DelimitedFrameDecoder();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection.frame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.VarInt;
+import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+
+/**
+ * Splits a stream of bytes into packets framed by the header of the version 2 wire format, a one byte signal ID, one byte of flags and the payload length as a varint.
+ * Only the header is examined, once the payload length is known the whole packet is taken without looking at its payload.
+ * Each packet made available through {@link #nextFrame()} includes its header.
+ * This class is not thread safe
+ * @author Psymj1 (Marcus)
+ * @see main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion#V2
+ * @see <a href="https://github.com/psymj1/VRMeeting-Documentation">VRMeeting Messaging Protocol</a>
+ */
+public class LengthPrefixedFrameDecoder implements FrameDecoder {
+	private static final int INITIAL_BUFFER_SIZE = 2048; //In Bytes
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int frameStart = 0; //Index of the first byte of the frame currently being decoded
+	private int writePosition = 0; //Index the next byte fed in will be written to
+	private ArrayDeque<PooledBuffer> frames = new ArrayDeque<PooledBuffer>();
+
+	@Override
+	public void feed(byte[] source,int offset,int length) throws InvalidMessageException
+	{
+		while(length > 0)
+		{
+			ensureSpace();
+			int toCopy = Math.min(length, buffer.length - writePosition);
+			System.arraycopy(source, offset, buffer, writePosition, toCopy);
+			writePosition += toCopy;
+			offset += toCopy;
+			length -= toCopy;
+			extractFrames();
+		}
+	}
+
+	@Override
+	public void feed(ByteBuffer source) throws InvalidMessageException
+	{
+		while(source.hasRemaining())
+		{
+			ensureSpace();
+			int toCopy = Math.min(source.remaining(), buffer.length - writePosition);
+			source.get(buffer, writePosition, toCopy);
+			writePosition += toCopy;
+			extractFrames();
+		}
+	}
+
+	@Override
+	public boolean hasFrame()
+	{
+		return !frames.isEmpty();
+	}
+
+	@Override
+	public byte[] nextFrame()
+	{
+		PooledBuffer frame = frames.poll();
+		return frame == null ? null : frame.array();
+	}
+
+	@Override
+	public PooledBuffer nextPooledFrame()
+	{
+		return frames.poll();
+	}
+
+	@Override
+	public byte[] remainingBytes()
+	{
+		return Arrays.copyOfRange(buffer, frameStart, writePosition);
+	}
+
+	/**
+	 * Moves every complete packet in the buffer onto the queue of frames
+	 * @throws InvalidMessageException If the header of a packet is invalid
+	 */
+	private void extractFrames() throws InvalidMessageException
+	{
+		while(true)
+		{
+			int frameLength = completeFrameLength();
+			if(frameLength == -1)
+			{
+				break;
+			}
+			PooledBuffer frame = BufferPool.shared().acquire(frameLength);
+			System.arraycopy(buffer, frameStart, frame.array(), 0, frameLength);
+			frames.add(frame);
+			frameStart += frameLength;
+		}
+
+		if(frameStart == writePosition)
+		{
+			//Every byte has been consumed so start again from the beginning of the buffer
+			frameStart = 0;
+			writePosition = 0;
+		}
+	}
+
+	/**
+	 * Reads the header of the packet at the start of the unconsumed bytes
+	 * @return The length of the packet including its header if all of it has been fed, otherwise -1
+	 * @throws InvalidMessageException If the payload length is not a valid varint or is longer than the protocol allows
+	 */
+	private int completeFrameLength() throws InvalidMessageException
+	{
+		int position = frameStart + ProtocolConfig.V2_FIXED_HEADER_LENGTH;
+		int payloadLength = 0;
+		for(int i = 0;;i++)
+		{
+			if(i == ProtocolConfig.MAX_BYTES_PER_PAYLOAD_LENGTH)
+			{
+				throw new InvalidMessageException("The payload length is not a valid varint of at most " + ProtocolConfig.MAX_BYTES_PER_PAYLOAD_LENGTH + " bytes");
+			}
+			if(position >= writePosition)
+			{
+				return -1;
+			}
+			byte next = buffer[position++];
+			payloadLength = VarInt.accumulate(payloadLength, next, i);
+			if(!VarInt.hasMore(next))
+			{
+				break;
+			}
+		}
+
+		if(payloadLength > ProtocolConfig.MAX_SERIALIZED_PAYLOAD_SIZE)
+		{
+			throw new InvalidMessageException("Packet payload length of " + payloadLength + " bytes exceeds the maximum payload size of " + ProtocolConfig.MAX_SERIALIZED_PAYLOAD_SIZE + " bytes");
+		}
+
+		int frameEnd = position + payloadLength;
+		return frameEnd <= writePosition ? frameEnd - frameStart : -1;
+	}
+
+	/**
+	 * Makes room for at least one more byte at the end of the buffer, first by discarding bytes of packets already decoded and then by growing the buffer.
+	 * The buffer never needs to grow beyond {@link ProtocolConfig#MAX_POSSIBLE_V2_MESSAGE_LENGTH} as the header of a longer packet is rejected before it is reached
+	 */
+	private void ensureSpace()
+	{
+		if(writePosition < buffer.length)
+		{
+			return;
+		}
+
+		if(frameStart > 0)
+		{
+			int pending = writePosition - frameStart;
+			System.arraycopy(buffer, frameStart, buffer, 0, pending);
+			writePosition = pending;
+			frameStart = 0;
+			return;
+		}
+
+		buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, ProtocolConfig.MAX_POSSIBLE_V2_MESSAGE_LENGTH));
+	}
+}
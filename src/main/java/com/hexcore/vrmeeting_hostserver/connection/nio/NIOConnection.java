@@ -0,0 +1,462 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.config.TransportConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.ConnectionState;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.frame.FrameDecoder;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+
+/**
+ * An implementation of the Connection class backed by a non-blocking {@link SocketChannel}.
+ * All socket reads are performed by the {@link NIOEventLoop} the connection is registered with, which splits the incoming bytes into packets
+ * that are then handed out by {@link #receive()} without blocking. Writes are attempted straight away and any bytes the socket could not take
+ * are finished off by the event loop. A writer which sets a write handler, see {@link #setWriteHandler(Runnable)}, sends from the event loop too,
+ * so the connection needs no threads of its own
+ * @author Psymj1 (Marcus)
+ */
+public class NIOConnection extends Connection {
+	private SocketChannel channel;
+	private NIOEventLoop eventLoop;
+	private SelectionKey key; //Only accessed by the event loop thread
+	private String name;
+	private ServerLogger logger;
+
+	private FrameDecoder decoder = FrameDecoder.forVersion(ProtocolVersion.V1); //Fed by the event loop thread, guarded by inboundLock
+	private final Object inboundLock = new Object();
+	private volatile boolean remoteClosed = false;
+
+	private ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<ByteBuffer>();
+	private int pendingWriteBytes = 0;
+	private boolean writeInterest = false;
+	private volatile Runnable writeHandler; //Run on the event loop to send for a writer, null if there isn't one
+	private final AtomicBoolean writeRequested = new AtomicBoolean(false); //True while a run of the write handler is waiting on the event loop
+
+	/**
+	 * @param channel The connected channel to wrap, it is switched to non-blocking mode
+	 * @param eventLoop The event loop which will service the channel
+	 * @throws IOException If the channel cannot be configured
+	 */
+	public NIOConnection(SocketChannel channel,NIOEventLoop eventLoop) throws IOException
+	{
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		InetSocketAddress remote = (InetSocketAddress)channel.getRemoteAddress();
+		name = remote.getHostString() + ":" + remote.getPort();
+		logger = new ServerLogger("NIOConnection");
+		eventLoop.register(this);
+	}
+
+	/**
+	 * Called on the event loop thread to register the channel with the loop's selector
+	 * @param selector The selector of the event loop
+	 */
+	void registerWith(Selector selector)
+	{
+		try
+		{
+			key = channel.register(selector, SelectionKey.OP_READ, this);
+		}catch(ClosedChannelException c)
+		{
+			logger.logIgnore("Connection to " + getName() + " closed before it could be registered");
+		}catch(ClosedSelectorException c)
+		{
+			eventLoopStopped();
+		}
+	}
+
+	/**
+	 * Called when the event loop the connection is registered with stops, as nothing will read from or finish writing to the channel again
+	 */
+	void eventLoopStopped()
+	{
+		logger.logWarning("The event loop serving " + getName() + " has stopped, closing the connection");
+		transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+		closeChannel();
+		requestWrite(); //So the write handler finds out it can stop
+	}
+
+	/**
+	 * Called on the event loop thread when the channel is readable. Reads everything available and passes it to the frame decoder
+	 * @param readBuffer The buffer owned by the event loop to read into
+	 */
+	void handleRead(ByteBuffer readBuffer)
+	{
+		try
+		{
+			int bytesRead;
+			do
+			{
+				readBuffer.clear();
+				bytesRead = channel.read(readBuffer);
+				if(bytesRead == -1)
+				{
+					remoteClosed = true;
+					closeChannel();
+					signalReadable(); //So a waiting receive finds out the connection has closed
+					return;
+				}
+				readBuffer.flip();
+				synchronized(inboundLock)
+				{
+					decoder.feed(readBuffer);
+				}
+			}while(bytesRead == readBuffer.capacity());
+			signalReadable();
+		}catch(IOException i)
+		{
+			fail(i);
+		}catch(InvalidMessageException m)
+		{
+			fail(new IOException("Unable to frame data from " + getName() + ": " + m.getMessage(),m));
+		}
+	}
+
+	@Override
+	protected void onInboundProtocolVersionChanged(ProtocolVersion version) {
+		synchronized(inboundLock)
+		{
+			byte[] remaining = decoder.remainingBytes();
+			decoder = FrameDecoder.forVersion(version);
+			try
+			{
+				decoder.feed(remaining, 0, remaining.length);
+			}catch(InvalidMessageException m)
+			{
+				fail(new IOException("Unable to frame data from " + getName() + ": " + m.getMessage(),m));
+			}
+		}
+	}
+
+	/**
+	 * Called on the event loop thread when the channel can accept more bytes. Once every byte waiting has been written the write handler is run to send whatever is next
+	 */
+	void handleWrite()
+	{
+		boolean flushed;
+		synchronized(pendingWrites)
+		{
+			try
+			{
+				flushPendingWrites();
+			}catch(IOException i)
+			{
+				fail(i);
+			}
+
+			flushed = pendingWrites.isEmpty();
+			if(flushed)
+			{
+				writeInterest = false;
+				if(key.isValid())
+				{
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+			pendingWrites.notifyAll();
+		}
+
+		if(flushed)
+		{
+			runWriteHandler();
+		}
+	}
+
+	/**
+	 * The handler is run on the event loop this connection is registered with
+	 */
+	@Override
+	public boolean setWriteHandler(Runnable handler) {
+		writeHandler = handler;
+		return true;
+	}
+
+	@Override
+	public void requestWrite() {
+		if(writeHandler != null && writeRequested.compareAndSet(false, true))
+		{
+			eventLoop.execute(this::runWriteHandler);
+		}
+	}
+
+	/**
+	 * Runs the write handler on the event loop thread unless bytes from an earlier write are still waiting, in which case {@link #handleWrite()} runs it once they have been written
+	 */
+	private void runWriteHandler()
+	{
+		writeRequested.set(false); //A request made while the handler runs runs it again, so nothing queued in the meantime is missed
+		synchronized(pendingWrites)
+		{
+			if(!pendingWrites.isEmpty())
+			{
+				return;
+			}
+		}
+		Runnable handler = writeHandler;
+		if(handler != null)
+		{
+			handler.run();
+		}
+	}
+
+	private void flushPendingWrites() throws IOException
+	{
+		while(!pendingWrites.isEmpty())
+		{
+			ByteBuffer next = pendingWrites.peek();
+			pendingWriteBytes -= channel.write(next);
+			if(next.hasRemaining())
+			{
+				return;
+			}
+			pendingWrites.poll();
+		}
+	}
+
+	private void enableWriteInterest()
+	{
+		synchronized(pendingWrites)
+		{
+			if(writeInterest && key != null && key.isValid())
+			{
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	@Override
+	protected byte[] receive() throws ConnectionErrorException {
+		synchronized(inboundLock)
+		{
+			return decoder.nextFrame();
+		}
+	}
+
+	/**
+	 * Each packet is decoded into a buffer from the shared {@link main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool}
+	 */
+	@Override
+	protected PooledBuffer receivePooled() throws ConnectionErrorException {
+		synchronized(inboundLock)
+		{
+			return decoder.nextPooledFrame();
+		}
+	}
+
+	/**
+	 * Writes as much of the packet as the socket will take straight away, leaving the rest for the event loop.
+	 * Blocks while more than {@link TransportConfig#WRITE_HIGH_WATER_MARK} bytes are still waiting to be written
+	 */
+	@Override
+	protected void send(byte[] packet) throws ConnectionErrorException {
+		synchronized(pendingWrites)
+		{
+			waitForPendingWrites();
+			writeOrQueue(new ByteBuffer[]{ByteBuffer.wrap(packet)});
+		}
+	}
+
+	/**
+	 * Writes the packets to the channel with a single gathering write, leaving whatever the socket could not take for the event loop.
+	 * Blocks while more than {@link TransportConfig#WRITE_HIGH_WATER_MARK} bytes are still waiting to be written
+	 */
+	@Override
+	protected void send(List<byte[]> packets) throws ConnectionErrorException {
+		synchronized(pendingWrites)
+		{
+			waitForPendingWrites();
+			writeOrQueue(wrap(packets));
+		}
+	}
+
+	/**
+	 * Writes the packets to the channel with a single gathering write without ever waiting. Only called by the write handler, which is not run again until
+	 * the event loop has written whatever the socket could not take, so at most one batch is ever left waiting
+	 */
+	@Override
+	protected boolean sendWithoutBlocking(List<byte[]> packets) throws ConnectionErrorException {
+		synchronized(pendingWrites)
+		{
+			if(!channel.isOpen())
+			{
+				throw new ConnectionErrorException("Error in NIO connection to " + getName() + ", the channel is closed");
+			}
+			writeOrQueue(wrap(packets));
+			return pendingWrites.isEmpty();
+		}
+	}
+
+	private ByteBuffer[] wrap(List<byte[]> packets)
+	{
+		ByteBuffer[] buffers = new ByteBuffer[packets.size()];
+		for(int i = 0;i < buffers.length;i++)
+		{
+			buffers[i] = ByteBuffer.wrap(packets.get(i));
+		}
+		return buffers;
+	}
+
+	/**
+	 * Writes the buffers straight to the channel unless bytes from an earlier write are still waiting, then queues whatever was not written for the event loop.
+	 * Must be called holding the lock on pendingWrites
+	 * @param buffers The buffers to write in order
+	 * @throws ConnectionErrorException If the write fails, the channel is closed
+	 */
+	private void writeOrQueue(ByteBuffer[] buffers) throws ConnectionErrorException
+	{
+		try
+		{
+			if(pendingWrites.isEmpty())
+			{
+				channel.write(buffers);
+			}
+		}catch(IOException i)
+		{
+			logger.logError(i.getMessage(),i);
+			closeChannel();
+			throw new ConnectionErrorException("Error in NIO connection to " + getName() + ", see logs for details.");
+		}
+
+		for(ByteBuffer buffer : buffers)
+		{
+			queueRemainder(buffer);
+		}
+	}
+
+	/**
+	 * Blocks while more than {@link TransportConfig#WRITE_HIGH_WATER_MARK} bytes are waiting to be written. Must be called holding the lock on pendingWrites
+	 * @throws ConnectionErrorException If the channel is closed or the thread is interrupted while waiting
+	 */
+	private void waitForPendingWrites() throws ConnectionErrorException
+	{
+		while(pendingWriteBytes >= TransportConfig.WRITE_HIGH_WATER_MARK && channel.isOpen())
+		{
+			try
+			{
+				pendingWrites.wait();
+			}catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new ConnectionErrorException("Interrupted while waiting to send to " + getName());
+			}
+		}
+
+		if(!channel.isOpen())
+		{
+			throw new ConnectionErrorException("Error in NIO connection to " + getName() + ", the channel is closed");
+		}
+	}
+
+	/**
+	 * Queues any bytes of the buffer which were not written for the event loop to finish off. Must be called holding the lock on pendingWrites.
+	 * The bytes are copied as the packet may be a pooled buffer which is reused as soon as the send returns
+	 * @param buffer The buffer which was partly or completely written
+	 */
+	private void queueRemainder(ByteBuffer buffer)
+	{
+		if(buffer.hasRemaining())
+		{
+			ByteBuffer remainder = ByteBuffer.allocate(buffer.remaining());
+			remainder.put(buffer);
+			remainder.flip();
+			pendingWrites.add(remainder);
+			pendingWriteBytes += remainder.remaining();
+			if(!writeInterest)
+			{
+				writeInterest = true;
+				eventLoop.execute(this::enableWriteInterest);
+			}
+		}
+	}
+
+	@Override
+	protected boolean hasBufferedPacket() {
+		synchronized(inboundLock)
+		{
+			return decoder.hasFrame();
+		}
+	}
+
+	@Override
+	protected boolean willReadBlock() throws ConnectionErrorException {
+		synchronized(inboundLock)
+		{
+			if(decoder.hasFrame())
+			{
+				return false;
+			}
+		}
+
+		if(remoteClosed)
+		{
+			throw new ConnectionErrorException("The connection to " + getName() + " was closed by the remote end");
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the channel and moves the connection to the error state unless it has already been closed
+	 * @param cause The reason for the failure
+	 */
+	void fail(IOException cause)
+	{
+		logger.logError(cause.getMessage(),cause);
+		transitionState(ConnectionState.OPEN, ConnectionState.ERROR);
+		closeChannel();
+		requestWrite(); //So the write handler finds out it can stop
+	}
+
+	/**
+	 * Closes the channel and forgets the bytes still waiting to be written, as they never will be
+	 */
+	private void closeChannel()
+	{
+		try
+		{
+			channel.close();
+		}catch(IOException e)
+		{
+			logger.logError("Error closing NIOConnection to " + getName() + e.getMessage(),e);
+		}
+		synchronized(pendingWrites)
+		{
+			pendingWrites.clear();
+			pendingWriteBytes = 0;
+			pendingWrites.notifyAll();
+		}
+	}
+
+	@Override
+	protected void onClose() {
+		logger.logInfo("Closing NIOConnection to " + getName());
+		closeChannel();
+		requestWrite(); //So the write handler finds out it can stop
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
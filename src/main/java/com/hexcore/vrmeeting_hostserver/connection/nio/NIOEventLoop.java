@@ -0,0 +1,178 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import main.java.com.hexcore.vrmeeting_hostserver.config.TransportConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+
+/**
+ * A single selector thread which services the reads and writes of every {@link NIOConnection} registered to it.
+ * Work that must touch the selector from another thread is passed to the loop using {@link #execute(Runnable)}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class NIOEventLoop extends Thread {
+	private Selector selector;
+	private NIOEventLoopGroup group;
+	private ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+	private ByteBuffer readBuffer = ByteBuffer.allocate(TransportConfig.READ_BUFFER_SIZE); //Shared by every connection on this loop as only the loop reads
+	private volatile boolean keepRunning = true;
+	private volatile boolean stopped = false; //Set once the selector has been closed, tasks queued after this are run by whoever queues them
+	private ServerLogger logger;
+
+	/**
+	 * @param group The group the loop belongs to, notified when the loop stops
+	 * @param name The name of the thread
+	 * @throws IOException If the selector cannot be opened
+	 */
+	public NIOEventLoop(NIOEventLoopGroup group,String name) throws IOException
+	{
+		setName(name);
+		this.group = group;
+		selector = Selector.open();
+		logger = new ServerLogger(name);
+	}
+
+	/**
+	 * Queues a task to be executed on the event loop thread and wakes the loop up so it runs promptly.
+	 * Once the loop has stopped the task is run straight away on the calling thread, so that it still finds out the selector is closed
+	 * @param task The task to run
+	 */
+	public void execute(Runnable task)
+	{
+		pendingTasks.add(task);
+		if(stopped)
+		{
+			runPendingTasks();
+		}else
+		{
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Registers the connection with this loop's selector so that it will be notified when its channel is readable
+	 * @param connection The connection to register
+	 */
+	void register(NIOConnection connection)
+	{
+		execute(() -> connection.registerWith(selector));
+	}
+
+	/**
+	 * Requests that the loop stops after its current iteration
+	 */
+	public void shutdownLoop()
+	{
+		keepRunning = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run()
+	{
+		while(keepRunning)
+		{
+			try
+			{
+				selector.select(TransportConfig.SELECT_TIMEOUT);
+			}catch(IOException i)
+			{
+				logger.logError(i.getMessage(),i);
+				break;
+			}
+
+			runPendingTasks();
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext())
+			{
+				SelectionKey key = keys.next();
+				keys.remove();
+				NIOConnection connection = (NIOConnection)key.attachment();
+				try
+				{
+					if(key.isValid() && key.isReadable())
+					{
+						connection.handleRead(readBuffer);
+					}
+					if(key.isValid() && key.isWritable())
+					{
+						connection.handleWrite();
+					}
+				}catch(CancelledKeyException c)
+				{
+					//IGNORE the connection was closed by another thread while its key was selected
+				}catch(RuntimeException r)
+				{
+					//Only the connection being serviced is failed, the loop carries on serving every other connection registered with it
+					connection.fail(new IOException("Unexpected error servicing " + connection.getName() + ": " + r.getMessage(),r));
+				}
+			}
+		}
+
+		closeAll();
+		group.loopStopped();
+	}
+
+	/**
+	 * Closes every channel registered with the loop and the selector, so that nothing is left waiting on a loop which will never service it again
+	 */
+	private void closeAll()
+	{
+		keepRunning = false;
+		runPendingTasks(); //Connections still waiting to be registered are registered so they are closed with the rest
+		for(SelectionKey key : selector.keys())
+		{
+			if(!key.isValid())
+			{
+				continue; //Already closed
+			}
+			Object attachment = key.attachment();
+			if(attachment instanceof NIOConnection)
+			{
+				((NIOConnection)attachment).eventLoopStopped();
+			}else
+			{
+				try
+				{
+					key.channel().close();
+				}catch(IOException i)
+				{
+					logger.logIgnore(i.getMessage());
+				}
+			}
+		}
+
+		try
+		{
+			selector.close();
+		}catch(IOException i)
+		{
+			logger.logIgnore(i.getMessage());
+		}
+		stopped = true;
+		runPendingTasks(); //Anything queued while the loop was closing runs against the closed selector
+	}
+
+	private void runPendingTasks()
+	{
+		Runnable task;
+		while((task = pendingTasks.poll()) != null)
+		{
+			try
+			{
+				task.run();
+			}catch(RuntimeException r)
+			{
+				logger.logError("Error running a task on the event loop: " + r.getMessage(),r);
+			}
+		}
+	}
+}
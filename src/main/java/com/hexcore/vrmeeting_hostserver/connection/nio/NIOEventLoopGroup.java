@@ -0,0 +1,91 @@
+package main.java.com.hexcore.vrmeeting_hostserver.connection.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.java.com.hexcore.vrmeeting_hostserver.ServerComponent;
+import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+
+/**
+ * A fixed set of {@link NIOEventLoop}s which between them handle the readiness of every {@link NIOConnection} on the server.
+ * New connections are spread across the loops in a round robin fashion.
+ * The group moves to the stopped state once every loop has stopped
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class NIOEventLoopGroup extends ServerComponent {
+	private NIOEventLoop[] loops;
+	private int numberOfLoops;
+	private AtomicInteger nextLoop = new AtomicInteger();
+	private AtomicInteger runningLoops = new AtomicInteger();
+	private ServerLogger logger = new ServerLogger("NIO Event Loop Group");
+
+	/**
+	 * @param numberOfLoops The number of event loop threads to create when started
+	 */
+	public NIOEventLoopGroup(int numberOfLoops)
+	{
+		if(numberOfLoops <= 0)
+		{
+			throw new IllegalArgumentException("The number of event loops must be greater than 0");
+		}
+		this.numberOfLoops = numberOfLoops;
+	}
+
+	@Override
+	protected void startUp() throws StartupException {
+		loops = new NIOEventLoop[numberOfLoops];
+		try
+		{
+			for(int i = 0;i < numberOfLoops;i++)
+			{
+				loops[i] = new NIOEventLoop(this,"NIO Event Loop " + i);
+			}
+		}catch(IOException e)
+		{
+			logger.logError(e.getMessage(),e);
+			throw new StartupException("Error opening a selector for the NIO event loops, see logs for details");
+		}
+
+		runningLoops.set(numberOfLoops);
+		for(NIOEventLoop loop : loops)
+		{
+			loop.start();
+		}
+		logger.logInfo("Started " + numberOfLoops + " event loops");
+	}
+
+	@Override
+	protected void shutdown() {
+		for(NIOEventLoop loop : loops)
+		{
+			loop.shutdownLoop();
+		}
+	}
+
+	/**
+	 * @return The loop the next new connection should be registered with
+	 */
+	public NIOEventLoop next()
+	{
+		if(loops == null)
+		{
+			throw new IllegalStateException("The event loop group has not been started");
+		}
+		return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+	}
+
+	/**
+	 * Called by each loop as it exits
+	 */
+	void loopStopped()
+	{
+		if(runningLoops.decrementAndGet() == 0)
+		{
+			setState(ServerComponentState.STOPPED);
+			logger.logInfo("Stopped");
+		}
+	}
+}
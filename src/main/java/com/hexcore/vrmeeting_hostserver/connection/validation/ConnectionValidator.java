@@ -9,6 +9,8 @@ import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.AuthTok
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MeetingIDMessage;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersionMessage;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ValidatorConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.MessageReader;
@@ -86,6 +88,13 @@ public class ConnectionValidator{
 		reader.setTimeout(ValidatorConfig.RESPONSE_TIMEOUT);
 		try {
 			Message input = reader.readNextMessage();
+			if(input.getClass() == ProtocolVersionMessage.class)
+			{
+				//The client has asked to use a later wire format before sending its token
+				negotiateProtocolVersion(client, (ProtocolVersionMessage)input);
+				input = reader.readNextMessage();
+			}
+			
 			if(input.getClass() == AuthTokenMessage.class)
 			{
 				AuthTokenMessage tokenMsg = (AuthTokenMessage)input;
@@ -103,6 +112,24 @@ public class ConnectionValidator{
 		}
 	}
 	
+	/**
+	 * Chooses the latest version of the wire format supported by both the client and the server and confirms it to the client with a PROT message.
+	 * The inbound version is changed before the PROT message is sent so that the next message from the client, which it may send as soon as it receives the PROT message, is decoded correctly.
+	 * The PROT message itself is sent in the version the client is currently using and the outbound version is changed afterwards
+	 * @param client The connection the PROT message was received from
+	 * @param request The PROT message sent by the client containing the latest version it supports
+	 * @return The version which will be used with the client from now on
+	 * @throws ConnectionErrorException If the PROT message cannot be sent to the client
+	 */
+	public static ProtocolVersion negotiateProtocolVersion(Connection client,ProtocolVersionMessage request) throws ConnectionErrorException
+	{
+		ProtocolVersion version = ProtocolVersion.negotiate(request.getRequestedVersion());
+		client.setInboundProtocolVersion(version);
+		new MessageWriter(client).sendMessage(MessageGenerator.generateProtocolVersionMessage(version));
+		client.setOutboundProtocolVersion(version);
+		return version;
+	}
+	
 	public static User validateUserToken(DataServerConnector dataServer,String userToken) throws ValidationFailedException
 	{
 		String currentStage = "Validating Authentication Token";
@@ -12,4 +12,13 @@ import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
  */
 public interface ValidConnectionOutput {
 	public void connectionValidationOutput(MeetingClient client);
+	
+	/**
+	 * Checked once a connection has been validated, a connection validated while this is false is sent an NVAL message and closed instead of being output
+	 * @return True if validated connections can join their meeting
+	 */
+	public default boolean isAcceptingClients()
+	{
+		return true;
+	}
 }
@@ -2,7 +2,9 @@ package main.java.com.hexcore.vrmeeting_hostserver.connection.validation;
 
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponent;
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
 import main.java.com.hexcore.vrmeeting_hostserver.dataserver.DataServerConnector;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
@@ -56,8 +58,12 @@ public class ValidationThread extends ServerComponent{
 			try
 			{
 				MeetingClient client = validate();
+				if(output != null && !output.isAcceptingClients())
+				{
+					throw new ValidationFailedException("Validation Failed at (Joining Meeting): The server is draining and is not accepting new clients");
+				}
 				try {
-					connection.sendPacket(MessageGenerator.generateValidatedMessage().getNewTransmittableMessage());
+					connection.sendPacket(MessageGenerator.generateValidatedMessage().getEncodedMessage(connection.getOutboundProtocolVersion()));
 					output.connectionValidationOutput(client);
 					logger.logInfo("Connection successfully validated");
 				} catch (ConnectionErrorException e) {
@@ -67,7 +73,7 @@ public class ValidationThread extends ServerComponent{
 			{
 				logger.logWarning(v.getMessage());
 				try {
-					connection.sendPacket(MessageGenerator.generateNotValidatedMessage().getTransmittableMessage());
+					sendNotValidatedMessage(connection);
 					connection.close();
 				} catch (ConnectionErrorException e) {
 					logger.logIgnore("Failed to send NVAL message");
@@ -92,5 +98,17 @@ public class ValidationThread extends ServerComponent{
 	{
 		return ConnectionValidator.validateConnection(connection, dataServer);
 	}
+	
+	/**
+	 * Sends an NVAL message to the given connection in its outbound protocol version
+	 * @param connection The connection being refused
+	 * @throws ConnectionErrorException Thrown if the message could not be sent
+	 */
+	public static void sendNotValidatedMessage(Connection connection) throws ConnectionErrorException
+	{
+		Message nval = MessageGenerator.generateNotValidatedMessage();
+		//Version 1 clients have always been sent the NVAL message without the end of payload delimiter
+		connection.sendPacket(connection.getOutboundProtocolVersion() == ProtocolVersion.V1 ? nval.getTransmittableMessage() : nval.getEncodedMessage(connection.getOutboundProtocolVersion()));
+	}
 
 }
@@ -0,0 +1,84 @@
+package main.java.com.hexcore.vrmeeting_hostserver.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing what has happened across the whole server. Every counter can be updated and read from any thread
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class ServerMetrics {
+	private static AtomicLong slowConsumersDegraded = new AtomicLong();
+	private static AtomicLong slowConsumersEvicted = new AtomicLong();
+	private static AtomicLong eventsDropped = new AtomicLong();
+	
+	/**
+	 * Private constructor so that it cannot be instantiated
+	 */
+	private ServerMetrics(){}
+	
+	/**
+	 * Records a client which was degraded to control traffic only because it was not keeping up with the messages sent to it
+	 */
+	public static void slowConsumerDegraded()
+	{
+		slowConsumersDegraded.incrementAndGet();
+	}
+	
+	/**
+	 * Records a client which was evicted from its meeting because it was not keeping up with the messages sent to it
+	 */
+	public static void slowConsumerEvicted()
+	{
+		slowConsumersEvicted.incrementAndGet();
+	}
+	
+	/**
+	 * Records an event which was dropped because the queue of its meeting was full
+	 */
+	public static void eventDropped()
+	{
+		eventsDropped.incrementAndGet();
+	}
+	
+	/**
+	 * Records events which were dropped together because the queue of their meeting was full
+	 * @param count The number of events dropped
+	 */
+	public static void eventsDropped(int count)
+	{
+		eventsDropped.addAndGet(count);
+	}
+	
+	/**
+	 * @return The number of times a client has been degraded to control traffic only
+	 */
+	public static long getSlowConsumersDegraded()
+	{
+		return slowConsumersDegraded.get();
+	}
+	
+	/**
+	 * @return The number of clients evicted from their meeting for not keeping up with the messages sent to them
+	 */
+	public static long getSlowConsumersEvicted()
+	{
+		return slowConsumersEvicted.get();
+	}
+	
+	/**
+	 * @return The number of events dropped across every meeting because their queue was full
+	 */
+	public static long getEventsDropped()
+	{
+		return eventsDropped.get();
+	}
+	
+	/**
+	 * @return A single line summary of every counter, used by the 'stats' console command
+	 */
+	public static String summary()
+	{
+		return "Slow consumers degraded: " + getSlowConsumersDegraded() + ", evicted: " + getSlowConsumersEvicted() + ", meeting events dropped: " + getEventsDropped();
+	}
+}
@@ -0,0 +1,183 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import main.java.com.hexcore.vrmeeting_hostserver.config.MeetingConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+
+/**
+ * A timer which can hold a very large number of timeouts at once, each costing O(1) to schedule and to cancel.
+ * Time is split into ticks and the wheel has a fixed number of buckets, a timeout is placed in the bucket of the tick it is due on along with the number of whole turns of the wheel still to wait.
+ * Every tick a single thread visits one bucket and runs the timeouts which are due, so the cost of the timer depends on how many timeouts fire rather than how many are waiting.
+ * Timeouts fire up to one tick late and tasks run on the thread of the wheel, so they should do no more than hand work to another thread
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class HashedTimingWheel {
+	private static HashedTimingWheel shared;
+	private static ServerLogger logger = new ServerLogger("Timing Wheel");
+	private final long tickDuration; //In ns
+	private final int mask;
+	private final List<Timeout>[] buckets;
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>(); //Timeouts scheduled since the last tick, only moved into buckets by the thread of the wheel
+	private final long startTime = System.nanoTime();
+	private volatile boolean running = true;
+	private long tick = 0; //Only used by the thread of the wheel
+	
+	/**
+	 * A task waiting in the wheel
+	 */
+	public static final class Timeout
+	{
+		private final Runnable task;
+		private final long deadline; //In ns since the wheel started
+		private long remainingRounds;
+		private volatile boolean cancelled = false;
+		
+		private Timeout(Runnable task,long deadline)
+		{
+			this.task = task;
+			this.deadline = deadline;
+		}
+		
+		/**
+		 * Stops the task from running if it has not already run. The timeout is discarded the next time the wheel reaches its bucket
+		 */
+		public void cancel()
+		{
+			cancelled = true;
+		}
+		
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+	}
+	
+	/**
+	 * @param tickDuration In ms, the time between each visit to a bucket
+	 * @param wheelSize The number of buckets, rounded up to the next power of 2
+	 */
+	@SuppressWarnings("unchecked")
+	public HashedTimingWheel(long tickDuration,int wheelSize)
+	{
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		int size = wheelSize <= 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+		mask = size - 1;
+		buckets = (List<Timeout>[]) new List<?>[size];
+		for(int i = 0;i < size;i++)
+		{
+			buckets[i] = new ArrayList<Timeout>();
+		}
+		Thread worker = new Thread(this::run, "Timing Wheel");
+		worker.setDaemon(true);
+		worker.start();
+	}
+	
+	/**
+	 * @return The wheel shared by every meeting, created with {@link MeetingConfig#TIMER_TICK} and {@link MeetingConfig#TIMER_WHEEL_SIZE} the first time it is requested
+	 */
+	public static synchronized HashedTimingWheel getShared()
+	{
+		if(shared == null)
+		{
+			shared = new HashedTimingWheel(MeetingConfig.TIMER_TICK,MeetingConfig.TIMER_WHEEL_SIZE);
+		}
+		return shared;
+	}
+	
+	/**
+	 * Schedules a task to run once after a delay. Can be called from any thread
+	 * @param task The task to run
+	 * @param delay In ms, the minimum time to wait before running the task
+	 * @return The timeout which can be used to cancel the task
+	 */
+	public Timeout schedule(Runnable task,long delay)
+	{
+		Timeout timeout = new Timeout(task,System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)));
+		pending.add(timeout);
+		return timeout;
+	}
+	
+	/**
+	 * Stops the thread of the wheel, no more tasks will be run
+	 */
+	public void stop()
+	{
+		running = false;
+	}
+	
+	private void run()
+	{
+		while(running)
+		{
+			waitForNextTick();
+			transferPending();
+			expire(buckets[(int)(tick & mask)]);
+			tick++;
+		}
+	}
+	
+	private void waitForNextTick()
+	{
+		long tickEnd = (tick + 1) * tickDuration;
+		long remaining;
+		while(running && (remaining = tickEnd - (System.nanoTime() - startTime)) > 0)
+		{
+			LockSupport.parkNanos(this, remaining);
+		}
+	}
+	
+	/**
+	 * Moves every newly scheduled timeout into the bucket of the tick it is due on
+	 */
+	private void transferPending()
+	{
+		Timeout timeout;
+		while((timeout = pending.poll()) != null)
+		{
+			if(timeout.cancelled)
+			{
+				continue;
+			}
+			long dueTick = (timeout.deadline + tickDuration - 1) / tickDuration; //Round up so a timeout never fires early
+			timeout.remainingRounds = Math.max(0, dueTick - tick) / buckets.length;
+			buckets[(int)(Math.max(dueTick, tick) & mask)].add(timeout);
+		}
+	}
+	
+	/**
+	 * Runs the timeouts in a bucket which are due this turn of the wheel and discards cancelled ones, keeping the rest for a later turn
+	 */
+	private void expire(List<Timeout> bucket)
+	{
+		int kept = 0;
+		for(int i = 0;i < bucket.size();i++)
+		{
+			Timeout timeout = bucket.get(i);
+			if(timeout.cancelled)
+			{
+				continue;
+			}
+			if(timeout.remainingRounds > 0)
+			{
+				timeout.remainingRounds--;
+				bucket.set(kept++, timeout);
+				continue;
+			}
+			try
+			{
+				timeout.task.run();
+			}catch(RuntimeException e)
+			{
+				logger.logError("A task scheduled on the timing wheel failed", e);
+			}
+		}
+		bucket.subList(kept, bucket.size()).clear();
+	}
+}
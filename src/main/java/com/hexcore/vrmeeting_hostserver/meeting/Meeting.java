@@ -2,15 +2,24 @@ package main.java.com.hexcore.vrmeeting_hostserver.meeting;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponent;
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.config.MeetingConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.ConsumerHealth;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.IncomingMessageBroadcaster;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.MessageBroadcastSubscriber;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
@@ -19,42 +28,90 @@ import main.java.com.hexcore.vrmeeting_hostserver.exception.MessageNotEventExcep
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.UserExistsException;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerMetrics;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.ActiveSpeakerSelector;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.AudioMixer;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.VoiceActivityDetector;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.Event;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.MessageEventParser;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.UserLeftEvent;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue.PriorityEventQueue;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue.WaitStrategy;
 import main.java.com.hexcore.vrmeeting_hostserver.user.User;
 
 /**
  * Represents a collection of {@link User}s who can communicate between one another
  * A meeting has an ID, a number of people present and 1 presenter
  * Once started a meeting will execute events added to a queue by the connections present in the meeting clients
+ * Events are added without locking. A meeting runs as an actor on a {@link MeetingExecutor}, it is given a worker thread only when events are added or one of its timers is due
+ * and never runs on more than one worker at a time, so events are still executed one at a time in order. Its timers are only armed while they have something to do,
+ * so a meeting which is idle or empty is never given a worker.
+ * If {@link MeetingConfig#USE_SHARED_EXECUTOR} is false the meeting instead has its own thread which waits for events using the {@link WaitStrategy} set by {@link MeetingConfig#WAIT_STRATEGY}
+ * Heartbeats are timed out by the shared {@link HashedTimingWheel} rather than by checking every client periodically
+ * The meeting keeps the state a late joiner needs, the latest CHNG message and a UDM message for every participant encoded once when they joined, see {@link #getJoinState(Roster.Member)}
+ * Clients which use roster deltas, see {@link #usesRosterDeltas(Roster.Member)}, are not sent a message for each participant who joins or leaves.
+ * Instead a timer armed when the roster changes sends each of them one RDLT message holding everything that changed since the version of the roster they were last told about
+ * If {@link MeetingConfig#VOICE_ACTIVITY_DETECTION} is set silent AUDI messages are dropped as they are received, before an event is created for them.
+ * Only the audio of up to {@link MeetingConfig#MAX_ACTIVE_SPEAKERS} participants chosen by an {@link ActiveSpeakerSelector} is forwarded or mixed.
+ * If {@link MeetingConfig#AUDIO_MIXING} is set audio is not forwarded as it arrives, it is given to an {@link AudioMixer} which sends every listener one mixed AUDI message each {@link MeetingConfig#AUDIO_MIX_TICK}
  * @author Psymj1 (Marcus)
  *
  */
 public class Meeting extends ServerComponent implements MessageBroadcastSubscriber{
 	private String meetingCode;
 	private int presenterUID = -1;
-	private Set<MeetingClient> participants = new HashSet<MeetingClient>();
-	private Map<MeetingClient,IncomingMessageBroadcaster> clientBroadcasters = new HashMap<MeetingClient,IncomingMessageBroadcaster>();
-	private Map<MeetingClient,ThreadedBufferedMessageWriter> clientWriters = new HashMap<MeetingClient,ThreadedBufferedMessageWriter>();
-	private String meetingLock = "MeetingLock"; //Used to avoid concurrent modification of clientBroadcasters, clientWriters and participants
-	private boolean runMeetingThread = true;
-	private String eventLock = "EventLock";
-	private ArrayList<ArrayList<Event>> eventQueueList = new ArrayList<>();
-	private static final int MIN_EVENT_POLL_RATE = 10; //In ms, the minimum rate at which the event queue will be checked by the thread
-	private static final int HEARTBEAT_CHECK_RATE = 100; //In ms, the rate at which the heartbeats of every client are checked to see if they have expired in order to remove them from a meeting 
-	private static final int MEETING_CLOSE_CHECK_RATE = 5000; //In ms the rate at which the meeting checks if it has any participants, closing if there aren't any remaining
-	private long lastCloseCheck = System.currentTimeMillis();
-	private boolean oneUserJoined = false; //Only close if empty if 1 user has joined before
-	private long lastHeartbeatCheck = System.currentTimeMillis(); //The last time the heartbeats of all clients were checked
+	private volatile Message currentSlide; //The latest CHNG message, null until the slide is first changed
+	private AtomicReference<Roster> roster = new AtomicReference<Roster>(Roster.EMPTY); //Replaced by compare and set whenever a participant joins or leaves
+	private ConcurrentSkipListMap<Long,Roster> rosterHistory = new ConcurrentSkipListMap<Long,Roster>(); //The last MeetingConfig.ROSTER_HISTORY_SIZE rosters by version, used to work out what changed since a version
+	private Map<Connection,MeetingClient> clientsByConnection = new ConcurrentHashMap<Connection,MeetingClient>(); //Connection does not override equals so this is keyed by identity, read without locking for every message received
+	private volatile boolean runMeetingThread = true;
+	private PriorityEventQueue eventQueue = new PriorityEventQueue(MeetingConfig.EVENT_QUEUE_CAPACITY, WaitStrategy.forName(MeetingConfig.WAIT_STRATEGY));
+	private static final int PERIODIC_CHECK_RATE = 100; //In ms, the rate at which the writers of every client are checked to see if they should be removed from a meeting, and the longest roster changes wait to be sent
+	private static final int MEETING_CLOSE_DELAY = 5000; //In ms, how long the meeting waits after its last participant leaves before closing, so someone reconnecting finds it still open
+	private long lastPeriodicCheck = System.currentTimeMillis(); //The last time the periodic checks were run
+	private MeetingExecutor executor; //Null if the meeting has its own thread
+	private AtomicBoolean scheduled = new AtomicBoolean(false); //True while the meeting has been given to, or is running on, a worker of the executor
+	private volatile boolean started = false; //Events added before the meeting starts wait for it to start before it is given a worker
+	private final Object timerLock = new Object(); //Guards arming and cancelling the timers of a meeting on an executor
+	private volatile boolean slowConsumerCheckDue = false; //Set by the timer of the executor when the writers should be checked
+	private volatile ScheduledFuture<?> slowConsumerTimer; //Only armed while a writer has something to send or is degraded
+	private volatile boolean rosterDeltasDue = false; //Set by the timer of the executor when roster deltas should be sent
+	private volatile ScheduledFuture<?> rosterDeltaTimer; //Only armed once the roster has changed, so every change within one tick is sent together
+	private AudioMixer mixer; //Null unless audio is mixed, only used by the thread running the meeting
+	private ActiveSpeakerSelector activeSpeakers; //Null if everyone's audio is forwarded, only used by the thread running the meeting
+	private volatile boolean mixDue = false; //Set by the timer of the executor when the audio should be mixed
+	private long lastMix = System.currentTimeMillis(); //The last time the audio was mixed by a meeting with its own thread
+	private ScheduledFuture<?> mixTimer; //Only running while the meeting has participants, guarded by the timer lock
+	private AtomicLong audioFramesReceived = new AtomicLong(); //Counted by the threads reading the connections of the participants
+	private AtomicLong audioFramesSuppressed = new AtomicLong();
+	private static final Message END_OF_VOICE_MESSAGE = MessageGenerator.generateEAUDMessage(); //Sent in place of the first silent AUDI message after speech
 	private static ServerLogger logger;
 	
 	/**
 	 * @param meetingCode The meeting code of the meeting that this object represents. Used when attempting to add a user to a specific meeting
 	 */
 	public Meeting(String meetingCode)
+	{
+		this(meetingCode,MeetingConfig.USE_SHARED_EXECUTOR ? MeetingExecutor.getShared() : null);
+	}
+	
+	/**
+	 * @param meetingCode The meeting code of the meeting that this object represents. Used when attempting to add a user to a specific meeting
+	 * @param executor The executor to run the meeting on or null to run the meeting on its own thread
+	 */
+	public Meeting(String meetingCode,MeetingExecutor executor)
 	{
 		this.meetingCode = meetingCode;
+		this.executor = executor;
+		rosterHistory.put(Roster.EMPTY.getVersion(), Roster.EMPTY);
+		if(MeetingConfig.AUDIO_MIXING)
+		{
+			mixer = new AudioMixer();
+		}
+		if(MeetingConfig.MAX_ACTIVE_SPEAKERS > 0)
+		{
+			activeSpeakers = new ActiveSpeakerSelector(MeetingConfig.MAX_ACTIVE_SPEAKERS);
+		}
 		logger = new ServerLogger("Meeting " + meetingCode);
 	}
 	
@@ -66,31 +123,34 @@ public class Meeting extends ServerComponent implements MessageBroadcastSubscrib
  	 */
 	public void addNewParticipant(MeetingClient client) throws UserExistsException
 	{
-		oneUserJoined = true;
-		if(participants.contains(client))
+		IncomingMessageBroadcaster broadcaster = new IncomingMessageBroadcaster(client.getConnection());
+		ThreadedBufferedMessageWriter writer = new ThreadedBufferedMessageWriter(client.getConnection());
+		writer.setBacklogListener(this::armSlowConsumerCheck);
+		Roster.Member member = new Roster.Member(client,writer,broadcaster);
+		Roster current;
+		Roster updated;
+		do
 		{
-			throw new UserExistsException();
-		}else
-		{
-			IncomingMessageBroadcaster broadcaster = new IncomingMessageBroadcaster(client.getConnection());
-			broadcaster.addSubscriber(this);
-			ThreadedBufferedMessageWriter writer = new ThreadedBufferedMessageWriter(client.getConnection());
-			addSubServerComponent(broadcaster);
-			addSubServerComponent(writer);
-			
-			synchronized(meetingLock)
+			current = roster.get();
+			if(current.find(client) != null)
 			{
-				participants.add(client);
-				clientBroadcasters.put(client,broadcaster);
-				clientWriters.put(client,writer);
-			}
-			
-			try {
-				broadcaster.start();
-				writer.start();
-			} catch (StartupException | IllegalComponentStateException e) {
-				logger.logError("Failed to start the broadcaster or writer threads for connection " + client.getConnection().getName(), e);
+				throw new UserExistsException();
 			}
+			updated = current.with(member);
+		}while(!roster.compareAndSet(current, updated));
+		recordRoster(updated);
+		
+		clientsByConnection.put(client.getConnection(), client);
+		scheduleHeartbeatCheck(client, client.getHeartbeatTimeRemaining());
+		broadcaster.addSubscriber(this);
+		addSubServerComponent(broadcaster);
+		addSubServerComponent(writer);
+		
+		try {
+			broadcaster.start();
+			writer.start();
+		} catch (StartupException | IllegalComponentStateException e) {
+			logger.logError("Failed to start the broadcaster or writer threads for connection " + client.getConnection().getName(), e);
 		}
 	}
 	
@@ -100,20 +160,24 @@ public class Meeting extends ServerComponent implements MessageBroadcastSubscrib
 	 */
 	public void removeParticipant(MeetingClient client)
 	{
-		IncomingMessageBroadcaster broadcaster;
-		ThreadedBufferedMessageWriter writer;
-		
-		//Remove the client from the list of participants
-		//Remove the writer
-		//Remove the broadcaster
-		synchronized(meetingLock)
+		Roster current;
+		Roster updated;
+		Roster.Member member;
+		do
 		{
-			broadcaster = clientBroadcasters.get(client);
-			clientBroadcasters.remove(client);
-			writer = clientWriters.get(client);
-			clientWriters.remove(client);
-			participants.remove(client);
-		}
+			current = roster.get();
+			member = current.find(client);
+			if(member == null)
+			{
+				return; //Already removed, for example by both an expired heartbeat and an eviction
+			}
+			updated = current.without(member);
+		}while(!roster.compareAndSet(current, updated));
+		recordRoster(updated);
+		
+		clientsByConnection.remove(member.getClient().getConnection());
+		IncomingMessageBroadcaster broadcaster = member.getBroadcaster();
+		ThreadedBufferedMessageWriter writer = member.getWriter();
 		try
 		{
 			broadcaster.stop();
@@ -126,12 +190,32 @@ public class Meeting extends ServerComponent implements MessageBroadcastSubscrib
 		removeSubServerComponent(broadcaster);
 		removeSubServerComponent(writer);
 		logger.logInfo(client.getUserInfo().getFirstName() + " on connection " + client.getConnection().getName() + " has been removed from the meeting");
+		
+		if(updated.size() == 0)
+		{
+			HashedTimingWheel.getShared().schedule(this::closeIfEmpty, MEETING_CLOSE_DELAY);
+		}
+	}
+	
+	/**
+	 * Runs on the thread of the timing wheel once the meeting has been empty for {@link #MEETING_CLOSE_DELAY}, closing it unless someone has joined since
+	 */
+	private void closeIfEmpty()
+	{
+		if(getState() == ServerComponentState.RUNNING && runMeetingThread && getNumberParticipants() == 0)
+		{
+			closeMeeting();
+		}
 	}
 	
 	private void closeMeeting()
 	{
 		logger.logInfo("No more participants in meeting " + getMeetingCode() + ", closing meeting.");
-		getParentComponent().removeSubServerComponent(this);
+		ServerComponent parent = getParentComponent();
+		if(parent != null) //A meeting created on its own, rather than by the meeting manager, has no parent to be removed from
+		{
+			parent.removeSubServerComponent(this);
+		}
 		try {
 			stop();
 		} catch (IllegalComponentStateException e) {
@@ -141,20 +225,206 @@ public class Meeting extends ServerComponent implements MessageBroadcastSubscrib
 	
 	public int getNumberParticipants()
 	{
-		int num = 0;
-		synchronized(meetingLock)
+		return roster.get().size();
+	}
+	
+	public MeetingClient[] getMeetingParticipants()
+	{
+		return roster.get().getClients();
+	}
+	
+	/**
+	 * @return The current snapshot of the participants and their writers, which can be iterated without locking and will not change
+	 */
+	public Roster getRoster()
+	{
+		return roster.get();
+	}
+	
+	/**
+	 * @return The latest CHNG message sent in the meeting or null if the slide has not been changed
+	 */
+	public Message getCurrentSlide()
+	{
+		return currentSlide;
+	}
+	
+	/**
+	 * @param chngMessage The CHNG message which has just been sent to every participant, kept so that it can be sent to anyone who joins later
+	 */
+	public void setCurrentSlide(Message chngMessage)
+	{
+		currentSlide = chngMessage;
+	}
+	
+	/**
+	 * Builds the burst of messages sent to someone joining the meeting so they see it as everyone else does.
+	 * None of the UDM messages are generated here, each is the one cached when the participant joined. Must only be called by the thread running the meeting
+	 * @param joined The member who joined
+	 * @return If the member uses roster deltas an RDLT message holding every participant they have not been told about, otherwise the UDM message of every participant including the one joining.
+	 * Followed by the latest CHNG message if the slide has been changed
+	 */
+	public Message[] getJoinState(Roster.Member joined)
+	{
+		Roster current = roster.get();
+		List<Message> state = new ArrayList<Message>(current.size() + 1);
+		if(usesRosterDeltas(joined))
+		{
+			Message delta = generateRosterDelta(joined.getDeliveredRosterVersion(), current);
+			if(delta != null)
+			{
+				state.add(delta);
+			}
+			joined.setDeliveredRosterVersion(current.getVersion());
+		}else
 		{
-			num = participants.size();
+			for(Roster.Member member : current.getMembers())
+			{
+				state.add(member.getUserDataMessage());
+			}
+		}
+		
+		Message slide = currentSlide;
+		if(slide != null)
+		{
+			state.add(slide);
 		}
-		return num;
+		return state.toArray(new Message[state.size()]);
 	}
 	
-	public MeetingClient[] getMeetingParticipants()
+	/**
+	 * @param member A participant of the meeting
+	 * @return True if the participant is sent RDLT messages rather than a UDM or LEFT message for every participant who joins or leaves.
+	 * Only clients using {@link ProtocolVersion#V2} understand RDLT messages, and only if {@link MeetingConfig#ROSTER_DELTAS} is set
+	 */
+	public boolean usesRosterDeltas(Roster.Member member)
+	{
+		return MeetingConfig.ROSTER_DELTAS && member.getClient().getConnection().getOutboundProtocolVersion() == ProtocolVersion.V2;
+	}
+	
+	/**
+	 * Sends a participant everything that changed since a version of the roster they asked about, even if nothing has. Must only be called by the thread running the meeting
+	 * @param member The participant to send the changes to
+	 * @param sinceVersion The version of the roster the participant knows about
+	 */
+	public void sendRosterDelta(Roster.Member member,long sinceVersion)
+	{
+		Roster current = roster.get();
+		Message delta = generateRosterDelta(sinceVersion, current);
+		if(delta == null)
+		{
+			delta = MessageGenerator.generateRosterDeltaMessage(sinceVersion, current.getVersion(), false, new ArrayList<String>(0), new ArrayList<Integer>(0));
+		}
+		member.getWriter().enqueueMessage(delta);
+		member.setDeliveredRosterVersion(current.getVersion());
+	}
+	
+	/**
+	 * Remembers a new version of the roster so later deltas can be worked out from it, forgetting the oldest once more than {@link MeetingConfig#ROSTER_HISTORY_SIZE} are held,
+	 * and arms the timer which sends the change or cancels every timer if the roster is now empty
+	 */
+	private void recordRoster(Roster updated)
 	{
-		synchronized(meetingLock)
+		rosterHistory.put(updated.getVersion(), updated);
+		while(rosterHistory.size() > MeetingConfig.ROSTER_HISTORY_SIZE)
 		{
-			return participants.toArray(new MeetingClient[0]);
+			rosterHistory.pollFirstEntry();
 		}
+		updateTimers(MeetingConfig.ROSTER_DELTAS);
+	}
+	
+	/**
+	 * Works out who joined and left between two versions of the roster
+	 * @param sinceVersion The version the changes are from. If it is no longer remembered every participant is sent as added with reset set
+	 * @param current The version the changes lead to
+	 * @return An RDLT message holding the changes or null if nothing changed
+	 */
+	private Message generateRosterDelta(long sinceVersion,Roster current)
+	{
+		if(sinceVersion == current.getVersion())
+		{
+			return null;
+		}
+		
+		Roster base = rosterHistory.get(sinceVersion);
+		boolean reset = base == null;
+		if(reset)
+		{
+			base = Roster.EMPTY;
+		}
+		
+		List<String> added = new ArrayList<String>();
+		for(Roster.Member member : current.getMembers())
+		{
+			if(!base.contains(member))
+			{
+				added.add(member.getUserJSON());
+			}
+		}
+		List<Integer> removed = new ArrayList<Integer>();
+		for(Roster.Member member : base.getMembers())
+		{
+			if(!current.contains(member))
+			{
+				removed.add(member.getClient().getUserInfo().getUserID());
+			}
+		}
+		
+		if(!reset && added.isEmpty() && removed.isEmpty())
+		{
+			return null; //Someone joined and left again in between
+		}
+		return MessageGenerator.generateRosterDeltaMessage(sinceVersion, current.getVersion(), reset, added, removed);
+	}
+	
+	/**
+	 * Sends every participant who uses roster deltas one RDLT message holding everything that changed since they were last told, so any number of people
+	 * joining or leaving within one tick costs each participant a single message. Participants catching up from the same version share the same message
+	 */
+	private void flushRosterDeltas()
+	{
+		Roster current = roster.get();
+		Map<Long,Message> deltas = null; //Keyed by the version being caught up from
+		for(Roster.Member member : current.getMembers())
+		{
+			long delivered = member.getDeliveredRosterVersion();
+			if(delivered == current.getVersion() || !usesRosterDeltas(member))
+			{
+				continue;
+			}
+			
+			if(deltas == null)
+			{
+				deltas = new HashMap<Long,Message>();
+			}
+			Message delta = deltas.get(delivered);
+			if(delta == null && !deltas.containsKey(delivered))
+			{
+				delta = generateRosterDelta(delivered, current);
+				deltas.put(delivered, delta);
+			}
+			if(delta != null)
+			{
+				member.getWriter().enqueueMessage(delta);
+			}
+			member.setDeliveredRosterVersion(current.getVersion());
+		}
+	}
+	
+	/**
+	 * @return The mixer the audio of the meeting is given to or null if audio is forwarded to every listener as it arrives
+	 */
+	public AudioMixer getAudioMixer()
+	{
+		return mixer;
+	}
+	
+	/**
+	 * @return The selector which chooses whose audio is forwarded or null if everyone's audio is forwarded
+	 */
+	public ActiveSpeakerSelector getActiveSpeakerSelector()
+	{
+		return activeSpeakers;
 	}
 	
 	public String getMeetingCode()
@@ -175,41 +445,312 @@ public class Meeting extends ServerComponent implements MessageBroadcastSubscrib
 	@Override
 	protected void startUp() throws StartupException {
 		logger.logInfo("Starting meeting...");
-		new MeetingThread(logger.getName()).start();
+		if(executor != null)
+		{
+			logger.logInfo("Meeting started");
+			started = true;
+			updateTimers(MeetingConfig.ROSTER_DELTAS); //Anyone who joined before the meeting started
+			armSlowConsumerCheck(); //Their writers may have been given messages before the meeting started
+			if(!eventQueue.isEmpty())
+			{
+				scheduleRun(); //Run any events added before the meeting started
+			}
+		}else
+		{
+			MeetingThread thread = new MeetingThread(logger.getName());
+			eventQueue.setConsumer(thread);
+			thread.start();
+		}
 	}
 
 	@Override
 	protected void shutdown() {
 		logger.logInfo("Stopping meeting...");
 		runMeetingThread = false;
+		if(executor != null)
+		{
+			scheduleRun(); //The run will notice the meeting should stop
+		}else
+		{
+			eventQueue.wakeConsumer();
+		}
 	}
-
-	@Override
-	public void onReceiveBroadcast(Connection origin,Message m) {
-		MeetingClient originClient = null;
-		
-		synchronized(meetingLock) //Potential point of congestion as every message received will have to wait for this lock
+	
+	/**
+	 * Gives the meeting to a worker of the executor unless it has already been given one
+	 */
+	private void scheduleRun()
+	{
+		if(executor != null && started && scheduled.compareAndSet(false, true))
+		{
+			executor.execute(this::runOnExecutor);
+		}
+	}
+	
+	/**
+	 * Brings the timers of a meeting on an executor in line with its roster. While the roster is empty every timer is cancelled,
+	 * otherwise the audio mixing timer runs and, if asked, the timer which sends roster deltas is armed
+	 * @param rosterChanged True if roster deltas should be sent once the timer is due
+	 */
+	private void updateTimers(boolean rosterChanged)
+	{
+		if(executor == null)
+		{
+			return;
+		}
+		synchronized(timerLock)
 		{
-			for(MeetingClient client : participants)
+			if(!started || !runMeetingThread)
+			{
+				return; //Armed once the meeting starts, never armed again once it is stopping
+			}
+			if(roster.get().size() == 0)
 			{
-				if(client.getConnection() == origin)
+				cancelTimers();
+				return;
+			}
+			if(mixer != null && mixTimer == null)
+			{
+				mixTimer = executor.scheduleAtFixedRate(() -> {
+					mixDue = true;
+					scheduleRun();
+				}, MeetingConfig.AUDIO_MIX_TICK);
+			}
+			if(rosterChanged && rosterDeltaTimer == null)
+			{
+				rosterDeltaTimer = executor.schedule(() -> {
+					synchronized(timerLock)
+					{
+						rosterDeltaTimer = null; //A change from now on arms the timer again
+					}
+					rosterDeltasDue = true;
+					scheduleRun();
+				}, PERIODIC_CHECK_RATE);
+			}
+		}
+	}
+	
+	/**
+	 * Arms the timer which checks the writers of every client unless it is already armed. Called by a writer when messages start waiting to be sent,
+	 * and again after each check while any writer still needs checking
+	 */
+	private void armSlowConsumerCheck()
+	{
+		if(executor == null || slowConsumerTimer != null)
+		{
+			return;
+		}
+		synchronized(timerLock)
+		{
+			if(slowConsumerTimer == null && started && runMeetingThread && roster.get().size() > 0)
+			{
+				slowConsumerTimer = executor.schedule(() -> {
+					synchronized(timerLock)
+					{
+						slowConsumerTimer = null; //A writer which starts waiting from now on arms the timer again
+					}
+					slowConsumerCheckDue = true;
+					scheduleRun();
+				}, PERIODIC_CHECK_RATE);
+			}
+		}
+	}
+	
+	/**
+	 * Cancels every timer of the meeting. Must be called holding the timer lock
+	 */
+	private void cancelTimers()
+	{
+		if(mixTimer != null)
+		{
+			mixTimer.cancel(false);
+			mixTimer = null;
+		}
+		if(rosterDeltaTimer != null)
+		{
+			rosterDeltaTimer.cancel(false);
+			rosterDeltaTimer = null;
+		}
+		if(slowConsumerTimer != null)
+		{
+			slowConsumerTimer.cancel(false);
+			slowConsumerTimer = null;
+		}
+	}
+	
+	/**
+	 * Runs on a worker of the executor. Runs whatever its timers have said is due and then up to {@link MeetingConfig#MAX_EVENTS_PER_RUN} events.
+	 * Only one worker can be running a meeting at a time as a meeting is only given to a worker when it has not already been given one.
+	 * The worker is recorded as the consumer of the event queue while it runs the meeting, as only the consumer may remove events
+	 */
+	private void runOnExecutor()
+	{
+		eventQueue.setConsumer(Thread.currentThread());
+		try
+		{
+			if(runMeetingThread)
+			{
+				if(slowConsumerCheckDue)
+				{
+					slowConsumerCheckDue = false;
+					if(checkSlowConsumers())
+					{
+						armSlowConsumerCheck();
+					}
+				}
+				if(rosterDeltasDue)
 				{
-					originClient = client;
+					rosterDeltasDue = false;
+					flushRosterDeltas();
+				}
+				if(mixDue)
+				{
+					mixDue = false;
+					mixer.mix(roster.get().getMembers());
+				}
+				
+				for(int i = 0;i < MeetingConfig.MAX_EVENTS_PER_RUN && runMeetingThread;i++)
+				{
+					Event nextEvent = eventQueue.poll();
+					if(nextEvent == null)
+					{
+						break;
+					}
+					executeEvent(nextEvent);
 				}
 			}
+		}finally
+		{
+			eventQueue.setConsumer(null); //Cleared before the meeting can be given to another worker
 		}
 		
-		if(originClient != null)
+		if(!runMeetingThread)
 		{
-			try {
-				Event newEvent = MessageEventParser.parseMessageToEvent(originClient,m);
-				addEventToQueues(newEvent);
-			} catch (MessageNotEventException e) {
-				logger.logWarning("Message received that is not valid event from " + origin.getName());
+			//The meeting keeps its place on the executor so it is never run again
+			synchronized(timerLock)
+			{
+				cancelTimers();
 			}
-		}else
+			discardRemainingEvents();
+			setState(ServerComponentState.STOPPED);
+			logger.logInfo("Meeting stopped");
+			return;
+		}
+		
+		scheduled.set(false);
+		//Anything added or requested after the checks above would have failed to schedule the meeting as it was still running, so schedule it again now
+		if(!runMeetingThread || slowConsumerCheckDue || rosterDeltasDue || mixDue || !eventQueue.isEmpty())
+		{
+			scheduleRun();
+		}
+	}
+	
+	/**
+	 * Discards the events which were still waiting when the meeting stopped, releasing any pooled audio they hold. Must be called by the consumer of the event queue
+	 */
+	private void discardRemainingEvents()
+	{
+		int discarded = eventQueue.discardAll();
+		if(discarded > 0)
+		{
+			logger.logInfo("Discarded " + discarded + " events which were waiting when the meeting stopped");
+		}
+	}
+	
+	/**
+	 * Executes an event, logging anything it throws so that one bad event cannot stop the meeting
+	 */
+	private void executeEvent(Event event)
+	{
+		try
+		{
+			event.executeEvent(this);
+		}catch(RuntimeException e)
+		{
+			logger.logError("Event " + event.getClass().getSimpleName() + " failed", e);
+		}
+	}
+	
+	/**
+	 * Checks the writers of every client and sends any roster deltas, run by a meeting with its own thread every {@link #PERIODIC_CHECK_RATE}
+	 */
+	private void runPeriodicChecks()
+	{
+		lastPeriodicCheck = System.currentTimeMillis();
+		checkSlowConsumers();
+		flushRosterDeltas();
+	}
+
+	@Override
+	public void onReceiveBroadcast(Connection origin,Message m) {
+		Event newEvent = toEvent(clientsByConnection.get(origin),origin,m);
+		if(newEvent != null)
+		{
+			addEventToQueues(newEvent);
+		}
+	}
+	
+	/**
+	 * Translates every message of the batch to an event and adds them all to the queues together, so a burst from one client costs one atomic operation per priority
+	 */
+	@Override
+	public void onReceiveBatch(Connection origin,List<Message> messages) {
+		MeetingClient originClient = clientsByConnection.get(origin);
+		List<Event> newEvents = new ArrayList<Event>(messages.size());
+		for(Message m : messages)
+		{
+			Event newEvent = toEvent(originClient,origin,m);
+			if(newEvent != null)
+			{
+				newEvents.add(newEvent);
+			}
+		}
+		if(!newEvents.isEmpty())
+		{
+			addEventsToQueues(newEvents);
+		}
+	}
+	
+	/**
+	 * Translates a message received from a client to the event it causes
+	 * @param originClient The client who sent the message, null if they could not be found in the meeting
+	 * @param origin The connection the message came from
+	 * @param m The message received
+	 * @return The event or null if the message does not need one
+	 */
+	private Event toEvent(MeetingClient originClient,Connection origin,Message m)
+	{
+		if(m.getClientSignal() == ClientSignals.HRTB)
+		{
+			return null; //The connection recorded the time it was received which is all a heartbeat is needed for, so it never has to wait in the event queue
+		}
+		
+		if(originClient == null)
 		{
 			logger.logWarning("Client " + origin.getName() + " could not be found in the meeting to translate their " + m.getSignal() + " message to an event");
+			return null;
+		}
+		
+		if(MeetingConfig.VOICE_ACTIVITY_DETECTION && m.getClientSignal() == ClientSignals.AUDI)
+		{
+			audioFramesReceived.incrementAndGet();
+			VoiceActivityDetector.Activity activity = originClient.getVoiceActivityDetector().process(m.getPayloadArray(), m.getPayloadOffset(), m.getPayloadLength());
+			if(activity != VoiceActivityDetector.Activity.VOICE)
+			{
+				audioFramesSuppressed.incrementAndGet();
+				if(activity == VoiceActivityDetector.Activity.SILENCE)
+				{
+					return null;
+				}
+				m = END_OF_VOICE_MESSAGE;
+			}
+		}
+		
+		try {
+			return MessageEventParser.parseMessageToEvent(originClient,m);
+		} catch (MessageNotEventException e) {
+			logger.logWarning("Message received that is not valid event from " + origin.getName());
+			return null;
 		}
 	}
 	
@@ -227,108 +768,149 @@ public class Meeting extends ServerComponent implements MessageBroadcastSubscrib
 			logger.logInfo("Meeting started");
 			while(runMeetingThread)
 			{
-				if(shouldCheckHeartbeats())
+				if(shouldRunPeriodicChecks())
 				{
-					checkHeartbeats();
+					runPeriodicChecks();
 				}
-				
-				Event nextEvent = null;
-				
-				synchronized(eventLock)
+				if(mixer != null && System.currentTimeMillis() >= lastMix + MeetingConfig.AUDIO_MIX_TICK)
 				{
-					//Look through each priority queue from highest to lowest, if a queue is not empty then get the next event and execute it
-					for(ArrayList<Event> priorityQueue : eventQueueList)
-					{
-						if(!priorityQueue.isEmpty())
-						{
-							nextEvent = priorityQueue.get(0);
-							priorityQueue.remove(0);
-							break;
-						}
-					}
+					lastMix = System.currentTimeMillis();
+					mixer.mix(roster.get().getMembers());
 				}
 				
+				//Take the oldest event of the highest priority and execute it
+				Event nextEvent = eventQueue.poll();
+				
 				if(nextEvent != null)
 				{
-					nextEvent.executeEvent(Meeting.this);
+					executeEvent(nextEvent);
 				}else
 				{
-					try {
-						Thread.sleep(MIN_EVENT_POLL_RATE);
-					} catch (InterruptedException e) {
-						
-					}
-				}
-				
-				if(oneUserJoined && System.currentTimeMillis() >= lastCloseCheck + MEETING_CLOSE_CHECK_RATE)
-				{
-					synchronized(meetingLock)
+					//Wait for an event but no later than the next periodic check or audio mix
+					long untilPeriodicCheck = lastPeriodicCheck + PERIODIC_CHECK_RATE - System.currentTimeMillis();
+					if(mixer != null)
 					{
-						if(getNumberParticipants() == 0) //If the meeting is empty then close it
-						{
-							closeMeeting(); //TODO Add testing for this feature
-						}
+						untilPeriodicCheck = Math.min(untilPeriodicCheck, lastMix + MeetingConfig.AUDIO_MIX_TICK - System.currentTimeMillis());
 					}
+					eventQueue.awaitEvents(Math.max(0, untilPeriodicCheck) * 1000000L);
 				}
-				
 			}
 			
+			discardRemainingEvents();
 			setState(ServerComponentState.STOPPED);
 			logger.logInfo("Meeting stopped");
 		}
 	}
 	
 	/**
-	 * Go through every client in the meeting and check if their heart beat has expired, if so then generate an event equivalent to them leaving which will remove them from the meeting
+	 * Schedules a check of the heartbeat of a client on the shared {@link HashedTimingWheel}
+	 * @param client The client whose heartbeat should be checked
+	 * @param delay In ms, how long to wait before checking
+	 */
+	private void scheduleHeartbeatCheck(MeetingClient client,long delay)
+	{
+		HashedTimingWheel.getShared().schedule(() -> onHeartbeatDeadline(client), delay);
+	}
+	
+	/**
+	 * Runs on the thread of the timing wheel when the heartbeat of a client was due to expire. Refreshing a heartbeat does not touch the wheel,
+	 * so if the client has sent one since this check was scheduled it is simply scheduled again for the new deadline.
+	 * If the heartbeat has expired then generate an event equivalent to them leaving which will remove them from the meeting
+	 */
+	private void onHeartbeatDeadline(MeetingClient client)
+	{
+		if(!runMeetingThread || clientsByConnection.get(client.getConnection()) != client)
+		{
+			return; //The client has already left or the meeting has stopped
+		}
+		
+		long remaining = client.getHeartbeatTimeRemaining();
+		if(remaining > 0)
+		{
+			scheduleHeartbeatCheck(client, remaining);
+		}else
+		{
+			logger.logWarning("Connection to " + client.getConnection().getName() + " has timed out");
+			addEventToQueues(new UserLeftEvent(client));
+		}
+	}
+	
+	/**
+	 * Go through the writer of every client in the meeting and update how well the client is keeping up with the messages sent to it.
+	 * If a client is evicted then generate an event equivalent to them leaving which will remove them from the meeting
+	 * @return True if any writer still needs checking, see {@link ThreadedBufferedMessageWriter#needsHealthChecks()}
 	 */
-	private void checkHeartbeats()
+	private boolean checkSlowConsumers()
 	{
-		lastHeartbeatCheck = System.currentTimeMillis();
-		synchronized(meetingLock)
+		boolean checkAgain = false;
+		for(Roster.Member member : roster.get().getMembers())
 		{
-			for(MeetingClient client : getMeetingParticipants())
+			ThreadedBufferedMessageWriter writer = member.getWriter();
+			if(writer.updateHealth() && writer.getHealth() == ConsumerHealth.EVICTED)
 			{
-				if(client.hasHeartbeatExpired())
-				{
-					logger.logWarning("Connection to " + client.getConnection().getName() + " has timed out");
-					UserLeftEvent event = new UserLeftEvent(client);
-					addEventToQueues(event);
-				}
+				Connection connection = member.getClient().getConnection();
+				logger.logWarning("Evicting " + connection.getName() + " as it is not reading the messages sent to it, " + connection.getMetrics());
+				addEventToQueues(new UserLeftEvent(member.getClient()));
 			}
+			checkAgain |= writer.needsHealthChecks();
 		}
+		return checkAgain;
 	}
 	
 	private void addEventToQueues(Event e)
 	{
-		ArrayList<Event> eventQueue = null;
-		while(eventQueue == null) //Either get the priority queue for the new event priority or generate them until you do
+		if(!eventQueue.offer(e))
 		{
-			try
-			{
-				eventQueue = eventQueueList.get(e.getPriority());
-			}catch(IndexOutOfBoundsException a)
-			{
-				logger.logInfo("Event Queue not found for priority " + e.getPriority() + ", generating event queue for priority " + eventQueueList.size());
-				eventQueueList.add(new ArrayList<Event>());
-			}
+			ServerMetrics.eventDropped();
 		}
-		eventQueue.add(e); //Add the event to its respective priority queue
+		scheduleRun();
 	}
 	
-	private boolean shouldCheckHeartbeats()
+	private void addEventsToQueues(List<Event> events)
 	{
-		return System.currentTimeMillis() >= lastHeartbeatCheck + HEARTBEAT_CHECK_RATE;
+		int added = eventQueue.offerAll(events);
+		if(added < events.size())
+		{
+			ServerMetrics.eventsDropped(events.size() - added);
+		}
+		scheduleRun();
 	}
 	
 	/**
-	 * Get a set which represents each meeting client in the meeting with its respective threaded writer for queueing messages to be sent back to the clients
-	 * @return A set containing the MeetingClients and their respective {@link ThreadedBufferedMessageWriter}s
+	 * @return The number of AUDI messages checked for speech since the meeting was created
 	 */
-	public Set<Entry<MeetingClient,ThreadedBufferedMessageWriter>> getClientMessageWriters()
+	public long getAudioFramesReceived()
 	{
-		synchronized(meetingLock)
-		{
-			return clientWriters.entrySet();
-		}
+		return audioFramesReceived.get();
+	}
+	
+	/**
+	 * @return The number of AUDI messages dropped or replaced by an EAUD message because they were silent
+	 */
+	public long getAudioFramesSuppressed()
+	{
+		return audioFramesSuppressed.get();
+	}
+	
+	/**
+	 * @return The fraction of the AUDI messages checked for speech which were suppressed as silence, 0 if none have been checked
+	 */
+	public double getAudioSuppressionRatio()
+	{
+		long received = audioFramesReceived.get();
+		return received == 0 ? 0 : (double)audioFramesSuppressed.get() / received;
+	}
+	
+	/**
+	 * @return The estimated number of events waiting to be executed at each priority, indexed by priority
+	 */
+	public int[] getEventQueueDepths()
+	{
+		return eventQueue.getDepths();
+	}
+	
+	private boolean shouldRunPeriodicChecks()
+	{
+		return System.currentTimeMillis() >= lastPeriodicCheck + PERIODIC_CHECK_RATE;
 	}
 }
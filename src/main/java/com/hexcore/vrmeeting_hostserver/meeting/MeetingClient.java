@@ -1,6 +1,7 @@
 package main.java.com.hexcore.vrmeeting_hostserver.meeting;
 
 import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.VoiceActivityDetector;
 import main.java.com.hexcore.vrmeeting_hostserver.user.User;
 
 /**
@@ -12,7 +13,8 @@ public class MeetingClient{
 	
 	private User userinfo;
 	private Connection connection;
-	private long lastHeartbeat;
+	private volatile long lastHeartbeat; //Written by the meeting and read by the timing wheel which checks for expiry
+	private final VoiceActivityDetector voiceActivity = new VoiceActivityDetector();
 	private static final long HEARTBEAT_TIMEOUT_LENGTH = 7000; //In ms, the maximum time before the heartbeat expires
 	
 	public MeetingClient(Connection connection, User user)
@@ -32,6 +34,14 @@ public class MeetingClient{
 		return connection;
 	}
 	
+	/**
+	 * @return The detector which decides whether the audio sent by the client is speech, only used by the thread reading the connection of the client
+	 */
+	public VoiceActivityDetector getVoiceActivityDetector()
+	{
+		return voiceActivity;
+	}
+	
 	@Override
 	public boolean equals(Object toCompare)
 	{
@@ -53,7 +63,7 @@ public class MeetingClient{
 	}
 	
 	/**
-	 * Resets the heartbeat on the MeetingClient
+	 * Resets the heartbeat on the MeetingClient. This is a single write, the timing wheel which checks for expiry notices the new time when the old deadline is reached
 	 */
 	public void refreshHeartbeat()
 	{
@@ -62,10 +72,19 @@ public class MeetingClient{
 	
 	/**
 	 * 
-	 * @return True if {@link #HEARTBEAT_TIMEOUT_LENGTH} has passed since the last heart beat was received from the client
+	 * @return True if {@link #HEARTBEAT_TIMEOUT_LENGTH} has passed since the last heart beat, or any other packet, was received from the client
 	 */
 	public boolean hasHeartbeatExpired()
 	{
-		return System.currentTimeMillis() >= lastHeartbeat + HEARTBEAT_TIMEOUT_LENGTH;
+		return getHeartbeatTimeRemaining() <= 0;
+	}
+	
+	/**
+	 * Any packet received by the connection of the client counts as a heartbeat, so a client busy sending audio never times out because its HRTB was delayed
+	 * @return In ms, the time left before the heartbeat expires, 0 or less if it already has
+	 */
+	public long getHeartbeatTimeRemaining()
+	{
+		return Math.max(lastHeartbeat, connection.getLastReceivedTime()) + HEARTBEAT_TIMEOUT_LENGTH - System.currentTimeMillis();
 	}
 }
@@ -0,0 +1,101 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.java.com.hexcore.vrmeeting_hostserver.config.MeetingConfig;
+
+/**
+ * A fixed pool of worker threads which runs the events of many {@link Meeting}s, along with a single timer thread which tells meetings when their timers are due.
+ * A meeting only occupies a worker while it has something to do, so an idle meeting costs no thread at all.
+ * The threads are daemon threads so the pool never keeps the server alive on its own
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class MeetingExecutor {
+	private static MeetingExecutor shared;
+	private final ExecutorService workers;
+	private final ScheduledExecutorService timer;
+	
+	/**
+	 * @param threads The number of worker threads to run meetings on
+	 */
+	public MeetingExecutor(int threads)
+	{
+		workers = Executors.newFixedThreadPool(threads, new NamedDaemonThreadFactory("Meeting Worker"));
+		timer = Executors.newSingleThreadScheduledExecutor(new NamedDaemonThreadFactory("Meeting Timer"));
+	}
+	
+	/**
+	 * @return The executor shared by every meeting, created with {@link MeetingConfig#EXECUTOR_THREADS} workers the first time it is requested
+	 */
+	public static synchronized MeetingExecutor getShared()
+	{
+		if(shared == null)
+		{
+			shared = new MeetingExecutor(MeetingConfig.EXECUTOR_THREADS);
+		}
+		return shared;
+	}
+	
+	/**
+	 * @param task The task to run on one of the worker threads as soon as one is free
+	 */
+	public void execute(Runnable task)
+	{
+		workers.execute(task);
+	}
+	
+	/**
+	 * @param task The task to run once on the timer thread, it should do no more than hand work to the workers
+	 * @param delay In ms, the time to wait before running the task
+	 * @return The future which can be used to cancel the task
+	 */
+	public ScheduledFuture<?> schedule(Runnable task,long delay)
+	{
+		return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param task The task to run on the timer thread every period, it should do no more than hand work to the workers
+	 * @param period In ms, the time between each run of the task
+	 * @return The future which can be used to cancel the task
+	 */
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable task,long period)
+	{
+		return timer.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the worker and timer threads once the tasks already given to them have finished
+	 */
+	public void shutdown()
+	{
+		timer.shutdown();
+		workers.shutdown();
+	}
+	
+	private static class NamedDaemonThreadFactory implements ThreadFactory
+	{
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+		
+		private NamedDaemonThreadFactory(String name)
+		{
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable task)
+		{
+			Thread thread = new Thread(task, name + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting;
+
+import java.util.Arrays;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.IncomingMessageBroadcaster;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
+
+/**
+ * An immutable snapshot of the participants of a {@link Meeting}, each with the writer used to send them messages.
+ * A meeting replaces its roster with a new one whenever someone joins or leaves, so a roster can be read from any thread without locking and never changes while it is being iterated.
+ * Every new roster has a version one higher than the one it replaced
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class Roster {
+	/**
+	 * The roster of a meeting nobody has joined
+	 */
+	public static final Roster EMPTY = new Roster(0,new Member[0]);
+	
+	private final long version;
+	private final Member[] members;
+	
+	/**
+	 * A participant of a meeting along with the components which read from and write to their connection
+	 */
+	public static final class Member
+	{
+		private final MeetingClient client;
+		private final ThreadedBufferedMessageWriter writer;
+		private final IncomingMessageBroadcaster broadcaster;
+		private final String userJSON;
+		private final Message userDataMessage;
+		private long deliveredRosterVersion = 0; //The version of the roster the client was last told about, only used by the thread running the meeting
+		
+		Member(MeetingClient client,ThreadedBufferedMessageWriter writer,IncomingMessageBroadcaster broadcaster)
+		{
+			this.client = client;
+			this.writer = writer;
+			this.broadcaster = broadcaster;
+			userJSON = client.getUserInfo().convertToJSON();
+			userDataMessage = MessageGenerator.generateUDMMessage(userJSON);
+		}
+		
+		public MeetingClient getClient()
+		{
+			return client;
+		}
+		
+		/**
+		 * @return The writer used to queue messages to be sent to the client
+		 */
+		public ThreadedBufferedMessageWriter getWriter()
+		{
+			return writer;
+		}
+		
+		/**
+		 * The message is generated once when the member joins and shared by everyone it is sent to, so its wire format is also only encoded once for each version
+		 * @return The UDM message holding the user information of the client
+		 */
+		public Message getUserDataMessage()
+		{
+			return userDataMessage;
+		}
+		
+		IncomingMessageBroadcaster getBroadcaster()
+		{
+			return broadcaster;
+		}
+		
+		String getUserJSON()
+		{
+			return userJSON;
+		}
+		
+		long getDeliveredRosterVersion()
+		{
+			return deliveredRosterVersion;
+		}
+		
+		void setDeliveredRosterVersion(long version)
+		{
+			deliveredRosterVersion = version;
+		}
+	}
+	
+	private Roster(long version,Member[] members)
+	{
+		this.version = version;
+		this.members = members;
+	}
+	
+	/**
+	 * @return The number of times the participants changed before this roster was created
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * @return Every member in the order they joined. The array is shared by every reader of the roster and must not be modified
+	 */
+	public Member[] getMembers()
+	{
+		return members;
+	}
+	
+	/**
+	 * @return The number of participants
+	 */
+	public int size()
+	{
+		return members.length;
+	}
+	
+	/**
+	 * @return A new array containing the client of every member in the order they joined
+	 */
+	public MeetingClient[] getClients()
+	{
+		MeetingClient[] clients = new MeetingClient[members.length];
+		for(int i = 0;i < members.length;i++)
+		{
+			clients[i] = members[i].client;
+		}
+		return clients;
+	}
+	
+	/**
+	 * @param client The client to look for, compared using {@link MeetingClient#equals(Object)} so it matches any client for the same user
+	 * @return The member for the client or null if the client is not a participant
+	 */
+	public Member find(MeetingClient client)
+	{
+		for(Member member : members)
+		{
+			if(member.client.equals(client))
+			{
+				return member;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param member The member to look for
+	 * @return True if the member, compared by identity, is in the roster
+	 */
+	boolean contains(Member member)
+	{
+		for(Member present : members)
+		{
+			if(present == member)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param member The member to add
+	 * @return A new roster with the member added to the end
+	 */
+	Roster with(Member member)
+	{
+		Member[] added = Arrays.copyOf(members, members.length + 1);
+		added[members.length] = member;
+		return new Roster(version + 1,added);
+	}
+	
+	/**
+	 * @param member The member to remove, compared by identity
+	 * @return A new roster without the member or this roster if the member is not in it
+	 */
+	Roster without(Member member)
+	{
+		for(int i = 0;i < members.length;i++)
+		{
+			if(members[i] == member)
+			{
+				Member[] removed = new Member[members.length - 1];
+				System.arraycopy(members, 0, removed, 0, i);
+				System.arraycopy(members, i + 1, removed, i, members.length - i - 1);
+				return new Roster(version + 1,removed);
+			}
+		}
+		return this;
+	}
+}
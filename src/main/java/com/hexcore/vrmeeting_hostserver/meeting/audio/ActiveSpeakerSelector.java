@@ -0,0 +1,193 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.audio;
+
+import java.util.IdentityHashMap;
+
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+
+/**
+ * Chooses which participants of a meeting are the active speakers, only their audio is forwarded to the rest of the meeting.
+ * Each participant has a rolling level, an exponential moving average of the root mean square of the AUDI messages they send, which falls to 0 once they stop sending audio.
+ * Up to a fixed number of speakers are selected. A participant who is not selected only replaces the quietest selected speaker if they are louder by {@link #HYSTERESIS_FACTOR}
+ * and that speaker has been selected for at least {@link #MIN_SELECTED_TIME}, so the selection does not flap between speakers of a similar level.
+ * This class is not thread safe, it must only be used by the thread running its meeting
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class ActiveSpeakerSelector {
+	/**
+	 * How much louder a participant must be than the quietest selected speaker to replace them
+	 */
+	public static final float HYSTERESIS_FACTOR = 1.5f;
+	/**
+	 * In ms, how long a speaker stays selected before they can be replaced
+	 */
+	public static final long MIN_SELECTED_TIME = 1000;
+	/**
+	 * In ms, how long after their last AUDI message a participant's level is treated as 0
+	 */
+	public static final long LEVEL_EXPIRY = 500;
+	private static final float LEVEL_SMOOTHING = 0.2f; //The weight given to the newest frame in the rolling level
+
+	private final Speaker[] selected;
+	private int selectedCount = 0;
+	private IdentityHashMap<MeetingClient,Speaker> speakers = new IdentityHashMap<MeetingClient,Speaker>();
+	private MeetingClient lastReplaced;
+
+	/**
+	 * The rolling level of one participant
+	 */
+	private static final class Speaker
+	{
+		private final MeetingClient client;
+		private float level = 0;
+		private long lastAudio; //In ms, when the last AUDI message was received
+		private long selectedAt; //In ms, when the speaker was last selected
+		private boolean isSelected = false;
+
+		private Speaker(MeetingClient client)
+		{
+			this.client = client;
+		}
+
+		private float getLevel(long now)
+		{
+			return now - lastAudio > LEVEL_EXPIRY ? 0 : level;
+		}
+	}
+
+	/**
+	 * @param maxSpeakers The most speakers that can be selected at once
+	 */
+	public ActiveSpeakerSelector(int maxSpeakers)
+	{
+		selected = new Speaker[maxSpeakers];
+	}
+
+	/**
+	 * Updates the level of a participant with the AUDI message they sent and decides whether it should be forwarded.
+	 * If selecting the participant replaced another speaker, the speaker replaced is available from {@link #getLastReplaced()}
+	 * @param client The participant who sent the audio
+	 * @param payload The payload of the AUDI message
+	 * @param now In ms, the current time
+	 * @return True if the participant is an active speaker so the message should be forwarded
+	 */
+	public boolean onAudio(MeetingClient client,byte[] payload,long now)
+	{
+		return onAudio(client, payload, 0, payload == null ? 0 : payload.length, now);
+	}
+	
+	/**
+	 * Updates the level of a participant with the AUDI message they sent, reading its payload in place, and decides whether it should be forwarded
+	 * @param client The participant who sent the audio
+	 * @param array The array holding the payload of the AUDI message
+	 * @param payloadOffset The index of the first byte of the payload within the array
+	 * @param payloadLength The length of the payload in bytes
+	 * @param now In ms, the current time
+	 * @return True if the participant is an active speaker so the message should be forwarded
+	 * @see #onAudio(MeetingClient, byte[], long)
+	 */
+	public boolean onAudio(MeetingClient client,byte[] array,int payloadOffset,int payloadLength,long now)
+	{
+		lastReplaced = null;
+		Speaker speaker = speakers.get(client);
+		if(speaker == null)
+		{
+			speaker = new Speaker(client);
+			speakers.put(client, speaker);
+		}
+		float frameLevel = AudioSamples.rootMeanSquare(array, payloadOffset, payloadLength);
+		speaker.level = speaker.getLevel(now) + LEVEL_SMOOTHING * (frameLevel - speaker.getLevel(now));
+		speaker.lastAudio = now;
+
+		if(speaker.isSelected)
+		{
+			return true;
+		}
+		if(selectedCount < selected.length)
+		{
+			select(speaker, selectedCount++, now);
+			return true;
+		}
+
+		int quietest = -1;
+		for(int i = 0;i < selectedCount;i++)
+		{
+			if(now - selected[i].selectedAt >= MIN_SELECTED_TIME && (quietest == -1 || selected[i].getLevel(now) < selected[quietest].getLevel(now)))
+			{
+				quietest = i;
+			}
+		}
+		if(quietest == -1 || speaker.level <= selected[quietest].getLevel(now) * HYSTERESIS_FACTOR)
+		{
+			return false;
+		}
+
+		selected[quietest].isSelected = false;
+		lastReplaced = selected[quietest].client;
+		select(speaker, quietest, now);
+		return true;
+	}
+
+	/**
+	 * Records that a participant has stopped speaking so their level falls to 0 and they can be replaced as soon as they have been selected for {@link #MIN_SELECTED_TIME}
+	 * @param client The participant who sent an EAUD message
+	 * @return True if the participant is an active speaker so the EAUD message should be forwarded
+	 */
+	public boolean onEndOfAudio(MeetingClient client)
+	{
+		Speaker speaker = speakers.get(client);
+		if(speaker == null)
+		{
+			return false;
+		}
+		speaker.level = 0;
+		return speaker.isSelected;
+	}
+
+	/**
+	 * Forgets a participant who has left the meeting, freeing their place if they were selected
+	 * @param client The participant who left
+	 */
+	public void remove(MeetingClient client)
+	{
+		Speaker speaker = speakers.remove(client);
+		if(speaker == null || !speaker.isSelected)
+		{
+			return;
+		}
+		for(int i = 0;i < selectedCount;i++)
+		{
+			if(selected[i] == speaker)
+			{
+				selected[i] = selected[--selectedCount];
+				selected[selectedCount] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return The speaker who stopped being selected during the last call to {@link #onAudio(MeetingClient, byte[], long)} or null if nobody was replaced
+	 */
+	public MeetingClient getLastReplaced()
+	{
+		return lastReplaced;
+	}
+
+	/**
+	 * @param client A participant of the meeting
+	 * @return True if the participant is currently an active speaker
+	 */
+	public boolean isSelected(MeetingClient client)
+	{
+		Speaker speaker = speakers.get(client);
+		return speaker != null && speaker.isSelected;
+	}
+
+	private void select(Speaker speaker,int index,long now)
+	{
+		selected[index] = speaker;
+		speaker.isSelected = true;
+		speaker.selectedAt = now;
+	}
+}
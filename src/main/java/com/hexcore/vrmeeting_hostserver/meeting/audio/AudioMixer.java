@@ -0,0 +1,257 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.audio;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ServerSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
+
+/**
+ * Mixes the audio of every participant of a meeting who is speaking into one stream for each listener, so each listener is sent one AUDI message per tick
+ * however many people are speaking rather than one for every speaker.
+ * Audio is expected as 32 bit little endian floating point samples, see {@link AudioSamples}. The samples received from each speaker are
+ * held until the next call to {@link #mix(Roster.Member[])} which sums every speaker into one buffer and sends each listener the sum with their own voice taken out.
+ * Listeners who are not speaking all share the same message.
+ * The sample buffers are allocated once per speaker and reused every tick, only the payload of each message sent is allocated as it is held by the writer until sent.
+ * This class is not thread safe, it must only be used by the thread running its meeting
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class AudioMixer {
+	/**
+	 * The most samples sent to a listener in one AUDI message, as many as fit in the largest payload allowed
+	 */
+	public static final int MAX_SAMPLES_PER_FRAME = ProtocolConfig.MAX_SERIALIZED_PAYLOAD_SIZE / ProtocolConfig.BYTES_PER_AUDIO_SAMPLE;
+	private static final int FRAMES_BUFFERED_PER_SPEAKER = 4; //Samples beyond this many frames waiting for a speaker are dropped oldest first
+
+	private IdentityHashMap<MeetingClient,Speaker> speakers = new IdentityHashMap<MeetingClient,Speaker>();
+	private float[] total = new float[MAX_SAMPLES_PER_FRAME]; //The sum of every speaker for the current tick
+	private Speaker[] active = new Speaker[8]; //The speakers with samples waiting in the current tick, grown when more are speaking at once
+	private boolean mixedLastTick = false;
+	private long droppedSamples = 0;
+
+	/**
+	 * The samples received from one speaker which have not been mixed yet
+	 */
+	private static final class Speaker
+	{
+		private final MeetingClient client;
+		private final float[] samples = new float[MAX_SAMPLES_PER_FRAME * FRAMES_BUFFERED_PER_SPEAKER];
+		private int length = 0;
+
+		private Speaker(MeetingClient client)
+		{
+			this.client = client;
+		}
+	}
+
+	/**
+	 * Holds the samples in the payload of an AUDI message until the next tick
+	 * @param speaker The client who sent the audio
+	 * @param payload The payload of the AUDI message. Any trailing bytes which do not make up a whole sample are ignored
+	 */
+	public void addAudio(MeetingClient speaker,byte[] payload)
+	{
+		if(payload == null)
+		{
+			return;
+		}
+		addAudio(speaker, payload, 0, payload.length);
+	}
+	
+	/**
+	 * Holds the samples in the payload of an AUDI message until the next tick, reading the payload in place
+	 * @param speaker The client who sent the audio
+	 * @param array The array holding the payload of the AUDI message
+	 * @param payloadOffset The index of the first byte of the payload within the array
+	 * @param payloadLength The length of the payload in bytes. Any trailing bytes which do not make up a whole sample are ignored
+	 */
+	public void addAudio(MeetingClient speaker,byte[] array,int payloadOffset,int payloadLength)
+	{
+
+		Speaker buffer = speakers.get(speaker);
+		if(buffer == null)
+		{
+			buffer = new Speaker(speaker);
+			speakers.put(speaker, buffer);
+		}
+
+		int sampleCount = AudioSamples.count(payloadLength);
+		int free = buffer.samples.length - buffer.length;
+		if(sampleCount > free)
+		{
+			//The speaker is sending faster than the ticks are mixing, so drop the oldest samples to make room
+			int drop = Math.min(buffer.length, sampleCount - free);
+			System.arraycopy(buffer.samples, drop, buffer.samples, 0, buffer.length - drop);
+			buffer.length -= drop;
+			droppedSamples += drop;
+			if(sampleCount > buffer.samples.length)
+			{
+				droppedSamples += sampleCount - buffer.samples.length;
+				sampleCount = buffer.samples.length;
+			}
+		}
+
+		for(int i = 0;i < sampleCount;i++)
+		{
+			buffer.samples[buffer.length++] = AudioSamples.read(array, payloadOffset, i);
+		}
+	}
+
+	/**
+	 * Mixes up to {@link #MAX_SAMPLES_PER_FRAME} of the samples waiting from every speaker and sends each listener one AUDI message holding everyone but themselves.
+	 * Nothing is sent to a listener who is the only one speaking. When nobody has spoken since the last tick but someone had before it, every listener is sent an EAUD message
+	 * @param listeners Every participant of the meeting
+	 */
+	public void mix(Roster.Member[] listeners)
+	{
+		int activeCount = 0;
+		int frameLength = 0;
+		for(Roster.Member listener : listeners)
+		{
+			Speaker speaker = speakers.get(listener.getClient());
+			if(speaker != null && speaker.length > 0)
+			{
+				if(activeCount == active.length)
+				{
+					Speaker[] grown = new Speaker[active.length * 2];
+					System.arraycopy(active, 0, grown, 0, activeCount);
+					active = grown;
+				}
+				active[activeCount++] = speaker;
+				frameLength = Math.max(frameLength, Math.min(speaker.length, MAX_SAMPLES_PER_FRAME));
+			}
+		}
+		removeDepartedSpeakers(listeners);
+
+		if(activeCount == 0)
+		{
+			if(mixedLastTick)
+			{
+				Message endOfAudio = MessageGenerator.generateEAUDMessage();
+				for(Roster.Member listener : listeners)
+				{
+					listener.getWriter().enqueueMessage(endOfAudio);
+				}
+			}
+			mixedLastTick = false;
+			return;
+		}
+		mixedLastTick = true;
+
+		for(int i = 0;i < frameLength;i++)
+		{
+			total[i] = 0;
+		}
+		for(int s = 0;s < activeCount;s++)
+		{
+			Speaker speaker = active[s];
+			int length = Math.min(speaker.length, frameLength);
+			for(int i = 0;i < length;i++)
+			{
+				total[i] += speaker.samples[i];
+			}
+		}
+
+		Message everyone = null; //Shared by every listener who is not speaking
+		for(Roster.Member listener : listeners)
+		{
+			Speaker own = null;
+			for(int s = 0;s < activeCount;s++)
+			{
+				if(active[s].client == listener.getClient())
+				{
+					own = active[s];
+					break;
+				}
+			}
+
+			if(own == null)
+			{
+				if(everyone == null)
+				{
+					everyone = encode(null, frameLength);
+				}
+				listener.getWriter().enqueueMessage(everyone);
+			}else if(activeCount > 1)
+			{
+				listener.getWriter().enqueueMessage(encode(own, frameLength));
+			}
+		}
+
+		for(int s = 0;s < activeCount;s++)
+		{
+			Speaker speaker = active[s];
+			int consumed = Math.min(speaker.length, frameLength);
+			System.arraycopy(speaker.samples, consumed, speaker.samples, 0, speaker.length - consumed);
+			speaker.length -= consumed;
+			active[s] = null;
+		}
+	}
+
+	/**
+	 * Encodes the mix for one listener as an AUDI message, clipping every sample to between -1 and 1
+	 * @param own The speaker whose voice is taken out of the mix or null to send the whole mix
+	 * @param frameLength The number of samples to encode
+	 */
+	private Message encode(Speaker own,int frameLength)
+	{
+		byte[] payload = new byte[frameLength * ProtocolConfig.BYTES_PER_AUDIO_SAMPLE];
+		int ownLength = own == null ? 0 : Math.min(own.length, frameLength);
+		for(int i = 0;i < frameLength;i++)
+		{
+			float sample = i < ownLength ? total[i] - own.samples[i] : total[i];
+			if(sample > 1f)
+			{
+				sample = 1f;
+			}else if(sample < -1f)
+			{
+				sample = -1f;
+			}
+			AudioSamples.write(payload, i, sample);
+		}
+		return new Message(ServerSignals.AUDI.toString(),payload);
+	}
+
+	/**
+	 * Forgets the buffers of speakers who are no longer participants, only checked when there are more buffers than participants
+	 */
+	private void removeDepartedSpeakers(Roster.Member[] listeners)
+	{
+		if(speakers.size() <= listeners.length)
+		{
+			return;
+		}
+
+		Iterator<MeetingClient> clients = speakers.keySet().iterator();
+		while(clients.hasNext())
+		{
+			MeetingClient client = clients.next();
+			boolean present = false;
+			for(Roster.Member listener : listeners)
+			{
+				if(listener.getClient() == client)
+				{
+					present = true;
+					break;
+				}
+			}
+			if(!present)
+			{
+				clients.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of samples dropped because a speaker sent them faster than they were mixed
+	 */
+	public long getDroppedSamples()
+	{
+		return droppedSamples;
+	}
+}
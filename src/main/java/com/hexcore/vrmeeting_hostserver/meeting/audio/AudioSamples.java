@@ -0,0 +1,104 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.audio;
+
+import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
+
+/**
+ * A Utility Class used to read and write the samples in the payload of an AUDI message in place, without copying the payload.
+ * Each sample is a 32 bit little endian floating point number taking up {@link ProtocolConfig#BYTES_PER_AUDIO_SAMPLE} bytes.
+ * Every method also has a form which reads a payload starting part way through an array, such as a message which is a view of a pooled buffer
+ * @author Psymj1 (Marcus)
+ *
+ */
+public final class AudioSamples {
+	/**
+	 * Private Constructor so that the class cannot be initialised
+	 */
+	private AudioSamples(){}
+	
+	/**
+	 * @param payload The payload of an AUDI message
+	 * @return The number of whole samples in the payload, 0 if it is null
+	 */
+	public static int count(byte[] payload)
+	{
+		return payload == null ? 0 : count(payload.length);
+	}
+	
+	/**
+	 * @param payloadLength The length of the payload of an AUDI message in bytes
+	 * @return The number of whole samples in the payload
+	 */
+	public static int count(int payloadLength)
+	{
+		return payloadLength / ProtocolConfig.BYTES_PER_AUDIO_SAMPLE;
+	}
+	
+	/**
+	 * @param payload The payload of an AUDI message
+	 * @param index The index of the sample, less than {@link #count(byte[])}
+	 * @return The value of the sample
+	 */
+	public static float read(byte[] payload,int index)
+	{
+		return read(payload, 0, index);
+	}
+	
+	/**
+	 * @param array The array holding the payload of an AUDI message
+	 * @param payloadOffset The index of the first byte of the payload within the array
+	 * @param index The index of the sample within the payload
+	 * @return The value of the sample
+	 */
+	public static float read(byte[] array,int payloadOffset,int index)
+	{
+		int offset = payloadOffset + index * ProtocolConfig.BYTES_PER_AUDIO_SAMPLE;
+		int bits = (array[offset] & 0xFF) | (array[offset + 1] & 0xFF) << 8 | (array[offset + 2] & 0xFF) << 16 | array[offset + 3] << 24;
+		return Float.intBitsToFloat(bits);
+	}
+	
+	/**
+	 * @param payload The payload to write the sample into
+	 * @param index The index of the sample
+	 * @param sample The value of the sample
+	 */
+	public static void write(byte[] payload,int index,float sample)
+	{
+		int offset = index * ProtocolConfig.BYTES_PER_AUDIO_SAMPLE;
+		int bits = Float.floatToRawIntBits(sample);
+		payload[offset] = (byte)bits;
+		payload[offset + 1] = (byte)(bits >>> 8);
+		payload[offset + 2] = (byte)(bits >>> 16);
+		payload[offset + 3] = (byte)(bits >>> 24);
+	}
+	
+	/**
+	 * @param payload The payload of an AUDI message
+	 * @return The root mean square of the samples in the payload, 0 if it has none
+	 */
+	public static float rootMeanSquare(byte[] payload)
+	{
+		return payload == null ? 0 : rootMeanSquare(payload, 0, payload.length);
+	}
+	
+	/**
+	 * @param array The array holding the payload of an AUDI message
+	 * @param payloadOffset The index of the first byte of the payload within the array
+	 * @param payloadLength The length of the payload in bytes
+	 * @return The root mean square of the samples in the payload, 0 if it has none
+	 */
+	public static float rootMeanSquare(byte[] array,int payloadOffset,int payloadLength)
+	{
+		int count = count(payloadLength);
+		if(count == 0)
+		{
+			return 0;
+		}
+		double energy = 0;
+		for(int i = 0;i < count;i++)
+		{
+			float sample = read(array, payloadOffset, i);
+			energy += sample * sample;
+		}
+		return (float)Math.sqrt(energy / count);
+	}
+}
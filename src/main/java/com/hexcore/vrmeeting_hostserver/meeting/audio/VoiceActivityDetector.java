@@ -0,0 +1,126 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.audio;
+
+import main.java.com.hexcore.vrmeeting_hostserver.config.MeetingConfig;
+
+/**
+ * Decides whether each AUDI message sent by one client holds speech so that silent frames do not need to be forwarded.
+ * A frame is speech if its energy, the mean of the squared samples, is well above {@link MeetingConfig#VOICE_ACTIVITY_THRESHOLD} squared,
+ * or if it is above it and the samples cross zero no more often than speech does, as quiet noise such as hiss crosses zero far more often than a voice.
+ * Once speech stops the next {@link #HANGOVER_FRAMES} silent frames are still treated as speech so the ends of words are not cut off.
+ * The samples are read straight from the payload, nothing is allocated. This class is not thread safe, it must only be used by the thread reading the connection of its client
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class VoiceActivityDetector {
+	/**
+	 * The number of silent frames after speech which are still forwarded
+	 */
+	public static final int HANGOVER_FRAMES = 10;
+	private static final float LOUD_ENERGY_FACTOR = 4f; //A frame with this many times the threshold energy is speech however often it crosses zero
+	private static final float MAX_VOICE_ZERO_CROSSING_RATE = 0.35f; //The fraction of samples which can change sign in a quieter frame that is still speech
+
+	/**
+	 * What the client is doing according to the frame just processed
+	 */
+	public enum Activity
+	{
+		/**
+		 * The frame holds speech, or is within the hangover after it, and should be forwarded
+		 */
+		VOICE,
+		/**
+		 * The frame is silent and can be dropped
+		 */
+		SILENCE,
+		/**
+		 * The frame is silent and the first since the hangover ended, so it should be replaced with an EAUD message
+		 */
+		END_OF_VOICE
+	}
+
+	private boolean speaking = false;
+	private int hangoverRemaining = 0;
+
+	/**
+	 * @param payload The payload of the next AUDI message sent by the client
+	 * @return Whether the frame should be forwarded, dropped or replaced by the end of the audio segment
+	 */
+	public Activity process(byte[] payload)
+	{
+		return process(payload, 0, payload == null ? 0 : payload.length);
+	}
+	
+	/**
+	 * @param array The array holding the payload of the next AUDI message sent by the client
+	 * @param payloadOffset The index of the first byte of the payload within the array
+	 * @param payloadLength The length of the payload in bytes
+	 * @return Whether the frame should be forwarded, dropped or replaced by the end of the audio segment
+	 */
+	public Activity process(byte[] array,int payloadOffset,int payloadLength)
+	{
+		if(isVoice(array, payloadOffset, payloadLength))
+		{
+			speaking = true;
+			hangoverRemaining = HANGOVER_FRAMES;
+			return Activity.VOICE;
+		}
+
+		if(!speaking)
+		{
+			return Activity.SILENCE;
+		}
+		if(hangoverRemaining > 0)
+		{
+			hangoverRemaining--;
+			return Activity.VOICE;
+		}
+		speaking = false;
+		return Activity.END_OF_VOICE;
+	}
+
+	/**
+	 * @param payload The payload of an AUDI message
+	 * @return True if the samples in the payload sound like speech rather than silence or quiet noise
+	 */
+	public static boolean isVoice(byte[] payload)
+	{
+		return isVoice(payload, 0, payload == null ? 0 : payload.length);
+	}
+	
+	/**
+	 * @param array The array holding the payload of an AUDI message
+	 * @param payloadOffset The index of the first byte of the payload within the array
+	 * @param payloadLength The length of the payload in bytes
+	 * @return True if the samples in the payload sound like speech rather than silence or quiet noise
+	 */
+	public static boolean isVoice(byte[] array,int payloadOffset,int payloadLength)
+	{
+		int count = AudioSamples.count(payloadLength);
+		if(count == 0)
+		{
+			return false;
+		}
+
+		double energy = 0;
+		int zeroCrossings = 0;
+		float previous = AudioSamples.read(array, payloadOffset, 0);
+		for(int i = 0;i < count;i++)
+		{
+			float sample = AudioSamples.read(array, payloadOffset, i);
+			energy += sample * sample;
+			if((sample >= 0) != (previous >= 0))
+			{
+				zeroCrossings++;
+			}
+			previous = sample;
+		}
+		energy /= count;
+
+		double threshold = (double)MeetingConfig.VOICE_ACTIVITY_THRESHOLD * MeetingConfig.VOICE_ACTIVITY_THRESHOLD;
+		if(energy >= threshold * LOUD_ENERGY_FACTOR)
+		{
+			return true;
+		}
+		return energy >= threshold && zeroCrossings <= count * MAX_VOICE_ZERO_CROSSING_RATE;
+	}
+}
@@ -3,16 +3,13 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
-import java.util.Map.Entry;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Set;
 
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
-import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
-import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
 
 /**
  * An event which when triggered will send the Change Slide message that was received by the server to all of the clients in the meeting
@@ -27,12 +24,12 @@ public class ChangeSlideEvent extends Event {
 	 *	@param m The CHNG message that will be sent to all clients
 	 */
 	public ChangeSlideEvent(Message m) {
-		super(null,0);
+		super(null,CONTROL_PRIORITY);
 		chngMessage = m;
 	}
 
 	/**
-	 * Sends the CHNG message that was received by the server to all clients in the meeting that calls this event
+	 * Sends the CHNG message that was received by the server to all clients in the meeting that calls this event and keeps it as the current slide of the meeting for anyone who joins later
 	 * @see main.java.com.hexcore.vrmeeting_hostserver.meeting.event.Event#executeEvent(main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting)
 	 */
 	@Override
@@ -42,11 +39,12 @@ public class ChangeSlideEvent extends Event {
 		ByteBuffer b = ByteBuffer.wrap(chngMessage.getPayload());
 		b.order(ByteOrder.LITTLE_ENDIAN);
 		logger.logInfo("Triggered! Broadcasting to change to slide " + b.getInt() + " in meeting " + meeting.getMeetingCode());
-		Set<Entry<MeetingClient,ThreadedBufferedMessageWriter>> writers = meeting.getClientMessageWriters();
-		for(Entry<MeetingClient,ThreadedBufferedMessageWriter> writer : writers)
+		meeting.setCurrentSlide(chngMessage);
+		Roster.Member[] members = meeting.getRoster().getMembers();
+		for(Roster.Member member : members)
 		{
-			logger.logInfo("Queuing message to " + writer.getKey().getConnection().getName());
-			writer.getValue().enqueueMessage(chngMessage);
+			logger.logInfo("Queuing message to " + member.getClient().getConnection().getName());
+			member.getWriter().enqueueMessage(chngMessage);
 		}
 	}
 
@@ -3,18 +3,17 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
-import java.util.Map.Entry;
-import java.util.Set;
-
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
-import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
-import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.ActiveSpeakerSelector;
 
 /**
  * This Event will, when triggered, send the original EAUD message to all clients other than the presenter
+ * Nothing is sent if the meeting limits the number of active speakers and the client is not one of them.
+ * If the meeting mixes audio nothing is sent, the {@link main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.AudioMixer} sends its own EAUD message when everyone stops speaking
  * @author Psymj1 (Marcus)
  *
  */
@@ -23,7 +22,7 @@ public class EndOfAudioSegmentEvent extends Event {
 	private Message original;
 	
 	public EndOfAudioSegmentEvent(MeetingClient createdBy,Message originalMessage) {
-		super(createdBy, 5);
+		super(createdBy,AUDIO_PRIORITY);
 		original = originalMessage;
 	}
 
@@ -33,17 +32,23 @@ public class EndOfAudioSegmentEvent extends Event {
 	 */
 	@Override
 	public void executeEvent(Meeting meeting) {
-		ServerLogger logger = new ServerLogger("End of Audio Event");
-//		logger.logInfo("Event executing");
-		Set<Entry<MeetingClient,ThreadedBufferedMessageWriter>> writers = meeting.getClientMessageWriters();
-		for(Entry<MeetingClient,ThreadedBufferedMessageWriter> writer : writers)
+		ActiveSpeakerSelector selector = meeting.getActiveSpeakerSelector();
+		if(selector != null && !selector.onEndOfAudio(getClientWhoCreatedEvent()))
+		{
+			return;
+		}
+		if(meeting.getAudioMixer() != null)
+		{
+			return;
+		}
+		Roster.Member[] members = meeting.getRoster().getMembers();
+		for(Roster.Member member : members)
 		{
-			if(writer.getKey() != getClientWhoCreatedEvent())
+			if(member.getClient() != getClientWhoCreatedEvent())
 			{
-				writer.getValue().enqueueMessage(original);
+				member.getWriter().enqueueMessage(original);
 			}
 		}
-//		logger.logInfo("Event finished");
 	}
 
 }
@@ -8,6 +8,21 @@ import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
  * @author Psymj1 (Marcus)
  */
 public abstract class Event {
+	/**
+	 * The priority of events which control the meeting, such as users joining or leaving
+	 */
+	public static final int CONTROL_PRIORITY = 0;
+	
+	/**
+	 * The priority of events which carry audio
+	 */
+	public static final int AUDIO_PRIORITY = 5;
+	
+	/**
+	 * The lowest priority an event can have, events with a lower priority are treated as this one
+	 */
+	public static final int LOWEST_PRIORITY = AUDIO_PRIORITY;
+	
 	private MeetingClient clientWhoCreatedMeeting;
 	private int priority;
 	
@@ -33,6 +48,15 @@ public abstract class Event {
 	 */
 	public abstract void executeEvent(Meeting meeting);
 	
+	/**
+	 * Called instead of {@link #executeEvent(Meeting)} when the event will never be executed, because its queue was full or its meeting stopped,
+	 * so that an event holding a pooled message can release it. Does nothing by default
+	 */
+	public void discard()
+	{
+		
+	}
+	
 	/**
 	 * 
 	 * @return The priority of the event. 0 being the highest priority, higher priority events are executed first
@@ -3,32 +3,52 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
-import java.util.Map.Entry;
-import java.util.Set;
-
-import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
-import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
 
 /**
  * An event which when triggered will send the user information of all the current participants in a meeting to the client which sent the message that generated this event
  * This includes themselves
+ * If the GAP message held the version of the roster the client already knows about, the client is instead sent a single RDLT message holding only what changed since that version
  * @author Psymj1 (Marcus)
  *
  */
 public class GetAllParticipantsEvent extends Event {
+	/**
+	 * The version given when the GAP message did not hold a version of the roster
+	 */
+	public static final long NO_VERSION = -1;
 	private static ServerLogger logger;
+	private long sinceVersion;
 	
 	/**
 	 * @param createdBy The MeetingClient which sent the message that created this event
 	 */
 	public GetAllParticipantsEvent(MeetingClient createdBy) {
-		super(createdBy,0);
+		this(createdBy,NO_VERSION);
+	}
+	
+	/**
+	 * @param createdBy The MeetingClient which sent the message that created this event
+	 * @param sinceVersion The version of the roster the client already knows about or {@link #NO_VERSION} to be sent every participant
+	 */
+	public GetAllParticipantsEvent(MeetingClient createdBy,long sinceVersion) {
+		super(createdBy,CONTROL_PRIORITY);
+		this.sinceVersion = sinceVersion;
 		logger = new ServerLogger("Get all participants event sent by " + createdBy.getConnection().getName());
 	}
 
+	/**
+	 * @return The version of the roster the client already knows about or {@link #NO_VERSION} if it should be sent every participant
+	 */
+	public long getSinceVersion()
+	{
+		return sinceVersion;
+	}
+	
 	/**
 	 * Sends the user information of all the current participants of the meeting to the user who sent the message that generated this event
 	 * @see main.java.com.hexcore.vrmeeting_hostserver.meeting.event.Event#executeEvent(main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting)
@@ -36,25 +56,29 @@ public class GetAllParticipantsEvent extends Event {
 	@Override
 	public void executeEvent(Meeting meeting) {
 		logger.logInfo("Executing");
-		Set<Entry<MeetingClient,ThreadedBufferedMessageWriter>> writers = meeting.getClientMessageWriters();
-		ThreadedBufferedMessageWriter output = null;
+		Roster.Member[] members = meeting.getRoster().getMembers();
+		Roster.Member requester = null;
 		
-		for(Entry<MeetingClient,ThreadedBufferedMessageWriter> writer : writers)
+		for(Roster.Member member : members)
 		{
-			if(writer.getKey() == getClientWhoCreatedEvent())
+			if(member.getClient() == getClientWhoCreatedEvent())
 			{
-				output = writer.getValue();
+				requester = member;
 				break;
 			}
 		}
 		
-		if(output != null)
+		if(requester != null && sinceVersion != NO_VERSION)
+		{
+			meeting.sendRosterDelta(requester, sinceVersion);
+		}else if(requester != null)
 		{
-			MeetingClient[] allParticipants = meeting.getMeetingParticipants();
-			for(MeetingClient client : allParticipants)
+			Message[] userData = new Message[members.length];
+			for(int i = 0;i < members.length;i++) //The same snapshot the requester was found in so the list is consistent
 			{
-				output.enqueueMessage(MessageGenerator.generateUDMMessage(client.getUserInfo()));
+				userData[i] = members[i].getUserDataMessage();
 			}
+			requester.getWriter().enqueueMessages(userData);
 		}else
 		{
 			logger.logWarning("Event failed to execute as client who requested participant information is no longer present");
@@ -3,12 +3,12 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
-import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
 
 /**
  * An event which when triggered will refresh the heartbeat timer on the client who sent the message that triggered the event
+ * A {@link Meeting} does not queue this event for HRTB messages it receives, as every packet received by a connection already refreshes the heartbeat of its client
  * @author Psymj1 (Marcus)
  *
  */
@@ -18,7 +18,7 @@ public class HeartbeatEvent extends Event {
 	 * @param createdBy
 	 */
 	public HeartbeatEvent(MeetingClient createdBy) {
-		super(createdBy,0);
+		super(createdBy,CONTROL_PRIORITY);
 	}
 
 	/**
@@ -27,8 +27,6 @@ public class HeartbeatEvent extends Event {
 	 */
 	@Override
 	public void executeEvent(Meeting meeting) {
-		new ServerLogger("Heartbeat Event for " + getClientWhoCreatedEvent().getConnection().getName()).logInfo("Heartbeat");;
-		
 		getClientWhoCreatedEvent().refreshHeartbeat();
 	}
 
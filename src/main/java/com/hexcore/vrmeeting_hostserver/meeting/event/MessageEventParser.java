@@ -3,8 +3,11 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
+import java.nio.ByteBuffer;
+
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.MessageNotEventException;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
 
@@ -31,7 +34,11 @@ public class MessageEventParser {
 	{
 		try
 		{
-			ClientSignals signal = ClientSignals.valueOf(m.getSignal());
+			ClientSignals signal = m.getClientSignal();
+			if(signal == null)
+			{
+				throw new MessageNotEventException();
+			}
 			switch(signal)
 			{
 			case AUDI:
@@ -39,7 +46,7 @@ public class MessageEventParser {
 			case CHNG:
 				return new ChangeSlideEvent(m);
 			case GAP:
-				return new GetAllParticipantsEvent(origin);
+				return new GetAllParticipantsEvent(origin,parseSinceVersion(m));
 			case GONE:
 				return new UserLeftEvent(origin);
 			case HERE:
@@ -57,4 +64,23 @@ public class MessageEventParser {
 		}
 		
 	}
+	
+	/**
+	 * @param gapMessage A GAP message
+	 * @return The roster version held as a 4 byte integer in the payload of the message or {@link GetAllParticipantsEvent#NO_VERSION} if the payload is empty
+	 * @throws MessageNotEventException If the payload is not empty and not a 4 byte integer
+	 */
+	private static long parseSinceVersion(Message gapMessage) throws MessageNotEventException
+	{
+		byte[] payload = gapMessage.getPayload();
+		if(payload == null)
+		{
+			return GetAllParticipantsEvent.NO_VERSION;
+		}
+		if(payload.length != ProtocolConfig.BYTES_PER_ROSTER_VERSION)
+		{
+			throw new MessageNotEventException();
+		}
+		return ByteBuffer.wrap(payload).getInt() & 0xFFFFFFFFL;
+	}
 }
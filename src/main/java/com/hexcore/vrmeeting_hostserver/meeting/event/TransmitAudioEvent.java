@@ -3,17 +3,20 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
-import java.util.Set;
-import java.util.Map.Entry;
-
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
-import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
-import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.ActiveSpeakerSelector;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.AudioMixer;
 
 /**
  * An event which when triggered will transmit the received audio message to all clients in the meeting other than the client which sent the message originally
+ * If the meeting limits the number of active speakers the message is dropped unless its {@link ActiveSpeakerSelector} chooses the client as one of them,
+ * and anyone the client replaced as an active speaker has their audio segment ended with an EAUD message sent to everyone but the two speakers.
+ * If the meeting mixes audio the message is then given to its {@link AudioMixer}
+ * The event retains the message until it has been executed or discarded, its payload is read in place rather than copied
  * @author Psymj1 (Marcus)
  *
  */
@@ -25,8 +28,9 @@ public class TransmitAudioEvent extends Event {
 	 * @param createdBy
 	 */
 	public TransmitAudioEvent(MeetingClient createdBy,Message audioMessage) {
-		super(createdBy,5);
+		super(createdBy,AUDIO_PRIORITY);
 		this.audioMessage = audioMessage;
+		audioMessage.retain();
 	}
 
 	/**	
@@ -36,13 +40,59 @@ public class TransmitAudioEvent extends Event {
 	 */
 	@Override
 	public void executeEvent(Meeting meeting) {
-		ServerLogger logger = new ServerLogger("Audio Event");
-		Set<Entry<MeetingClient,ThreadedBufferedMessageWriter>> writers = meeting.getClientMessageWriters();
-		for(Entry<MeetingClient,ThreadedBufferedMessageWriter> writer : writers)
+		try
+		{
+			transmit(meeting);
+		}finally
+		{
+			audioMessage.release();
+		}
+	}
+	
+	/**
+	 * Releases the audio message as the event will not be executed
+	 */
+	@Override
+	public void discard() {
+		audioMessage.release();
+	}
+	
+	private void transmit(Meeting meeting)
+	{
+		AudioMixer mixer = meeting.getAudioMixer();
+		ActiveSpeakerSelector selector = meeting.getActiveSpeakerSelector();
+		if(selector != null)
+		{
+			if(!selector.onAudio(getClientWhoCreatedEvent(), audioMessage.getPayloadArray(), audioMessage.getPayloadOffset(), audioMessage.getPayloadLength(), System.currentTimeMillis()))
+			{
+				return;
+			}
+			MeetingClient replaced = selector.getLastReplaced();
+			if(replaced != null && mixer == null)
+			{
+				Message endOfAudio = MessageGenerator.generateEAUDMessage();
+				for(Roster.Member member : meeting.getRoster().getMembers())
+				{
+					if(member.getClient() != replaced && member.getClient() != getClientWhoCreatedEvent()) //Neither speaker was listening to the segment which ended
+					{
+						member.getWriter().enqueueMessage(endOfAudio);
+					}
+				}
+			}
+		}
+		
+		if(mixer != null)
+		{
+			mixer.addAudio(getClientWhoCreatedEvent(), audioMessage.getPayloadArray(), audioMessage.getPayloadOffset(), audioMessage.getPayloadLength());
+			return;
+		}
+		
+		Roster.Member[] members = meeting.getRoster().getMembers();
+		for(Roster.Member member : members)
 		{
-			if(writer.getKey() != getClientWhoCreatedEvent())
+			if(member.getClient() != getClientWhoCreatedEvent())
 			{
-				writer.getValue().enqueueMessage(audioMessage);
+				member.getWriter().enqueueMessage(audioMessage);
 			}
 		}
 	}
@@ -3,16 +3,14 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
-import java.util.Set;
-import java.util.Map.Entry;
-
-import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
-import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
 
 /**
  * An event which when triggered will send the user data of the client who sent the message that created this message to everyone except the client themselves
+ * The client themselves is sent the current state of the meeting as a single burst
+ * Participants who use roster deltas are not sent anything as the meeting includes the client in the next RDLT message it sends them
  * @author Psymj1 (Marcus)
  *
  */
@@ -22,23 +20,38 @@ public class UserJoinedEvent extends Event {
 	 * @param createdBy The client who created the message
 	 */
 	public UserJoinedEvent(MeetingClient createdBy) {
-		super(createdBy,0);
+		super(createdBy,CONTROL_PRIORITY);
 	}
 
 	/**
-	 * Sends the client information to every participant of the meeting except the client who created the event
+	 * Sends the client information to every participant of the meeting except the client who created the event, who is sent {@link Meeting#getJoinState(Roster.Member)} instead
 	 * @see main.java.com.hexcore.vrmeeting_hostserver.meeting.event.Event#executeEvent(main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting)
 	 */
 	@Override
 	public void executeEvent(Meeting meeting) {
-		Set<Entry<MeetingClient,ThreadedBufferedMessageWriter>> writers = meeting.getClientMessageWriters();
-		for(Entry<MeetingClient,ThreadedBufferedMessageWriter> writer : writers)
+		Roster.Member[] members = meeting.getRoster().getMembers();
+		Roster.Member joined = null;
+		for(Roster.Member member : members)
+		{
+			if(member.getClient() == getClientWhoCreatedEvent())
+			{
+				joined = member;
+				break;
+			}
+		}
+		if(joined == null)
+		{
+			return; //The client left before the event was executed
+		}
+		
+		for(Roster.Member member : members)
 		{
-			if(writer.getKey() != getClientWhoCreatedEvent())
+			if(member != joined && !meeting.usesRosterDeltas(member))
 			{
-				writer.getValue().enqueueMessage(MessageGenerator.generateUDMMessage(getClientWhoCreatedEvent().getUserInfo()));
+				member.getWriter().enqueueMessage(joined.getUserDataMessage());
 			}
 		}
+		joined.getWriter().enqueueMessages(meeting.getJoinState(joined));
 	}
 
 }
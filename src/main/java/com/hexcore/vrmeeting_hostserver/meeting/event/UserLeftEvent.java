@@ -3,19 +3,17 @@
  */
 package main.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
-import java.util.Map.Entry;
-import java.util.Set;
-
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
-import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 import main.java.com.hexcore.vrmeeting_hostserver.log.ServerLogger;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
 
 /**
  * An event which when triggered will send a LEFT message to all clients except the client who sent the message that created this event
+ * Participants who use roster deltas are not sent the LEFT message as the meeting includes the removal in the next RDLT message it sends them
  * It will then remove the client in question from the meeting and attempt to close the connection to the client
  * @author Psymj1 (Marcus)
  *
@@ -28,7 +26,7 @@ public class UserLeftEvent extends Event {
 	 * @param createdBy The client who created this event 
 	 */
 	public UserLeftEvent(MeetingClient createdBy) {
-		super(createdBy,0);
+		super(createdBy,CONTROL_PRIORITY);
 		logger = new ServerLogger("User left event created by " + createdBy.getConnection().getName());
 	}
 
@@ -39,17 +37,21 @@ public class UserLeftEvent extends Event {
 	 */
 	@Override
 	public void executeEvent(Meeting meeting) {
-		Set<Entry<MeetingClient,ThreadedBufferedMessageWriter>> writers = meeting.getClientMessageWriters();
+		Roster.Member[] members = meeting.getRoster().getMembers();
 		Message leftMessage = MessageGenerator.generateLeftMessage(getClientWhoCreatedEvent().getUserInfo().getUserID());
-		for(Entry<MeetingClient,ThreadedBufferedMessageWriter> writer : writers)
+		for(Roster.Member member : members)
 		{
-			if(writer.getKey() != getClientWhoCreatedEvent())
+			if(member.getClient() != getClientWhoCreatedEvent() && !meeting.usesRosterDeltas(member))
 			{
-				writer.getValue().enqueueMessage(leftMessage);
+				member.getWriter().enqueueMessage(leftMessage);
 			}
 		}
 		
 		meeting.removeParticipant(getClientWhoCreatedEvent());
+		if(meeting.getActiveSpeakerSelector() != null)
+		{
+			meeting.getActiveSpeakerSelector().remove(getClientWhoCreatedEvent());
+		}
 		
 		try {
 			getClientWhoCreatedEvent().getConnection().close();
@@ -0,0 +1,179 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded first in first out queue which any number of threads can add to at the same time without locking but only one thread may remove from.
+ * Each slot of the ring buffer holds a sequence number which says whether the slot is free for the producer claiming that position or full for the consumer reading it,
+ * so producers only contend on the single compare and set of the tail and the consumer never contends at all
+ * @author Psymj1 (Marcus)
+ *
+ * @param <E> The type of element held in the queue
+ */
+public class MpscBoundedQueue<E> {
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong(); //The next position a producer will claim
+	private volatile long head = 0; //The next position the consumer will read, only written by the consumer
+	
+	/**
+	 * @param capacity The minimum number of elements the queue can hold, rounded up to the next power of 2 and to at least 2 as with a single slot a published element looks free to the next producer
+	 */
+	public MpscBoundedQueue(int capacity)
+	{
+		if(capacity < 1)
+		{
+			throw new IllegalArgumentException("The capacity of the queue must be at least 1");
+		}
+		this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = this.capacity - 1;
+		elements = new AtomicReferenceArray<E>(this.capacity);
+		sequences = new AtomicLongArray(this.capacity);
+		for(int i = 0;i < this.capacity;i++)
+		{
+			sequences.set(i, i);
+		}
+	}
+	
+	/**
+	 * Adds an element to the end of the queue. Can be called from any thread
+	 * @param element The element to add, cannot be null
+	 * @return True if the element was added, false if the queue was full
+	 */
+	public boolean offer(E element)
+	{
+		if(element == null)
+		{
+			throw new NullPointerException("Cannot add null to the queue");
+		}
+		
+		long position;
+		int index;
+		while(true)
+		{
+			position = tail.get();
+			index = (int)(position & mask);
+			long available = sequences.get(index) - position;
+			if(available == 0)
+			{
+				if(tail.compareAndSet(position, position + 1))
+				{
+					break;
+				}
+			}else if(available < 0)
+			{
+				return false; //The consumer has not yet read the element a whole lap behind this position
+			}
+			//Otherwise another producer claimed the position first so try the next one
+		}
+		
+		elements.lazySet(index, element);
+		sequences.set(index, position + 1); //Publishes the element to the consumer
+		return true;
+	}
+	
+	/**
+	 * Adds as many of the elements as there is space for to the end of the queue, claiming all of their positions with a single compare and set of the tail
+	 * so a batch costs one contended operation and is never interleaved with elements from other producers. Can be called from any thread
+	 * @param batch The elements to add in order, none can be null
+	 * @return The number of elements added from the front of the batch, fewer than its size if the queue filled up
+	 */
+	public int offerAll(List<? extends E> batch)
+	{
+		for(E element : batch)
+		{
+			if(element == null)
+			{
+				throw new NullPointerException("Cannot add null to the queue");
+			}
+		}
+		if(batch.isEmpty())
+		{
+			return 0;
+		}
+		
+		long position;
+		int claimed;
+		while(true)
+		{
+			position = tail.get();
+			long available = sequences.get((int)(position & mask)) - position;
+			if(available < 0)
+			{
+				return 0; //The queue is full
+			}else if(available == 0)
+			{
+				//Positions beyond the tail are free once the consumer has read the element a lap behind them, which it does in order
+				claimed = 1;
+				while(claimed < batch.size() && claimed < capacity && sequences.get((int)((position + claimed) & mask)) == position + claimed)
+				{
+					claimed++;
+				}
+				if(tail.compareAndSet(position, position + claimed))
+				{
+					break;
+				}
+			}
+			//Otherwise another producer claimed the position first so try again from the new tail
+		}
+		
+		for(int i = 0;i < claimed;i++)
+		{
+			int index = (int)((position + i) & mask);
+			elements.lazySet(index, batch.get(i));
+			sequences.set(index, position + i + 1); //Publishes the element to the consumer
+		}
+		return claimed;
+	}
+	
+	/**
+	 * Removes the element at the front of the queue. Must only be called from the single consumer thread
+	 * @return The element at the front of the queue or null if the queue is empty
+	 */
+	public E poll()
+	{
+		long position = head;
+		int index = (int)(position & mask);
+		if(sequences.get(index) != position + 1)
+		{
+			return null; //Either empty or a producer has claimed the position but not yet published its element
+		}
+		
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.set(index, position + capacity); //Frees the slot for the producer a lap ahead
+		head = position + 1;
+		return element;
+	}
+	
+	/**
+	 * @return True if no element is waiting to be read by the consumer
+	 */
+	public boolean isEmpty()
+	{
+		long position = head;
+		return sequences.get((int)(position & mask)) != position + 1;
+	}
+	
+	/**
+	 * @return The number of elements in the queue, only an estimate while elements are being added or removed
+	 */
+	public int size()
+	{
+		long size = tail.get() - head;
+		return (int)Math.max(0, Math.min(size, capacity));
+	}
+	
+	/**
+	 * @return The maximum number of elements the queue can hold
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+}
@@ -0,0 +1,39 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parks the consumer until a producer unparks it. Producers only pay for an unpark while the consumer is actually waiting.
+ * The consumer announces it is waiting before checking for work a final time, so a producer which adds work after that check always sees the announcement and unparks it
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+	private volatile boolean waiting = false;
+	
+	@Override
+	public void await(BooleanSupplier hasWork,long timeout)
+	{
+		waiting = true;
+		try
+		{
+			if(!hasWork.getAsBoolean())
+			{
+				LockSupport.parkNanos(this, timeout);
+			}
+		}finally
+		{
+			waiting = false;
+		}
+	}
+	
+	@Override
+	public void signal(Thread consumer)
+	{
+		if(waiting && consumer != null)
+		{
+			LockSupport.unpark(consumer);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.Event;
+
+/**
+ * The events waiting to be executed by a meeting, with one {@link MpscBoundedQueue} for each priority from 0 to {@link Event#LOWEST_PRIORITY}.
+ * Any thread can add events, only the consumer thread set by {@link #setConsumer(Thread)} can remove them.
+ * When the queue for an event is full the event is dropped and counted rather than waiting for space, as producers include the event loops receiving from every connection
+ * and a full queue means the meeting is already too far behind to catch up by holding them up. Audio is worthless once late anyway, and the capacity is set so that only a meeting which has stalled fills the other priorities
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class PriorityEventQueue {
+	private final AtomicReferenceArray<MpscBoundedQueue<Event>> queues = new AtomicReferenceArray<MpscBoundedQueue<Event>>(Event.LOWEST_PRIORITY + 1);
+	private final AtomicLongArray dropped = new AtomicLongArray(Event.LOWEST_PRIORITY + 1);
+	private final int capacity;
+	private final WaitStrategy waitStrategy;
+	private volatile Thread consumer;
+	
+	/**
+	 * @param capacity The number of events that can wait at each priority
+	 * @param waitStrategy How the consumer waits for events
+	 */
+	public PriorityEventQueue(int capacity,WaitStrategy waitStrategy)
+	{
+		this.capacity = capacity;
+		this.waitStrategy = waitStrategy;
+	}
+	
+	/**
+	 * @param consumer The only thread which will remove events from the queue
+	 */
+	public void setConsumer(Thread consumer)
+	{
+		this.consumer = consumer;
+	}
+	
+	/**
+	 * Adds an event to the queue for its priority and wakes the consumer. Priorities outside of the range 0 to {@link Event#LOWEST_PRIORITY} are treated as the nearest one within it.
+	 * Never blocks, so it is safe to call from an event loop
+	 * @param event The event to add
+	 * @return True if the event was added, false if it was dropped because its queue was full, in which case it has been discarded, see {@link Event#discard()}
+	 */
+	public boolean offer(Event event)
+	{
+		int priority = Math.max(0, Math.min(event.getPriority(), Event.LOWEST_PRIORITY));
+		if(!queueFor(priority).offer(event))
+		{
+			dropped.incrementAndGet(priority);
+			event.discard();
+			return false;
+		}
+		waitStrategy.signal(consumer);
+		return true;
+	}
+	
+	/**
+	 * Adds a batch of events, each to the queue for its priority, and wakes the consumer once. The events of each priority are added with a single {@link MpscBoundedQueue#offerAll(List)}
+	 * so a batch of events which share a priority, such as a burst of audio, costs one atomic operation. Events which do not fit are dropped as they would be by {@link #offer(Event)}
+	 * @param events The events to add, in the order they should be executed within each priority
+	 * @return The number of events added, the rest were dropped and discarded because their queue was full
+	 */
+	public int offerAll(List<Event> events)
+	{
+		int added = 0;
+		List<Event> atPriority = new ArrayList<Event>(events.size());
+		for(int priority = 0;priority <= Event.LOWEST_PRIORITY;priority++)
+		{
+			atPriority.clear();
+			for(Event event : events)
+			{
+				if(Math.max(0, Math.min(event.getPriority(), Event.LOWEST_PRIORITY)) == priority)
+				{
+					atPriority.add(event);
+				}
+			}
+			if(atPriority.isEmpty())
+			{
+				continue;
+			}
+			
+			int offered = queueFor(priority).offerAll(atPriority);
+			added += offered;
+			if(offered < atPriority.size())
+			{
+				dropped.addAndGet(priority, atPriority.size() - offered);
+				for(Event event : atPriority.subList(offered, atPriority.size()))
+				{
+					event.discard();
+				}
+			}
+		}
+		if(added > 0)
+		{
+			waitStrategy.signal(consumer);
+		}
+		return added;
+	}
+	
+	/**
+	 * Removes the next event to execute, the oldest event of the highest priority. Must only be called from the consumer thread
+	 * @return The next event or null if there are none
+	 */
+	public Event poll()
+	{
+		for(int priority = 0;priority < queues.length();priority++)
+		{
+			MpscBoundedQueue<Event> queue = queues.get(priority);
+			if(queue != null)
+			{
+				Event next = queue.poll();
+				if(next != null)
+				{
+					return next;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Removes and discards every event still waiting, see {@link Event#discard()}. Must only be called from the consumer thread, once it will not execute any more events
+	 * @return The number of events discarded
+	 */
+	public int discardAll()
+	{
+		int discarded = 0;
+		Event next;
+		while((next = poll()) != null)
+		{
+			next.discard();
+			discarded++;
+		}
+		return discarded;
+	}
+	
+	/**
+	 * @return True if there are no events waiting at any priority
+	 */
+	public boolean isEmpty()
+	{
+		for(int priority = 0;priority < queues.length();priority++)
+		{
+			MpscBoundedQueue<Event> queue = queues.get(priority);
+			if(queue != null && !queue.isEmpty())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Waits using the {@link WaitStrategy} until an event is added or the timeout passes. Must only be called from the consumer thread
+	 * @param timeout In ns, the maximum time to wait
+	 */
+	public void awaitEvents(long timeout)
+	{
+		waitStrategy.await(() -> !isEmpty(), timeout);
+	}
+	
+	/**
+	 * Wakes the consumer if it is waiting for events so that it can notice it has been asked to stop
+	 */
+	public void wakeConsumer()
+	{
+		Thread waiting = consumer;
+		if(waiting != null)
+		{
+			LockSupport.unpark(waiting);
+		}
+	}
+	
+	/**
+	 * @return The estimated number of events waiting at each priority, indexed by priority
+	 */
+	public int[] getDepths()
+	{
+		int[] depths = new int[queues.length()];
+		for(int priority = 0;priority < depths.length;priority++)
+		{
+			MpscBoundedQueue<Event> queue = queues.get(priority);
+			depths[priority] = queue == null ? 0 : queue.size();
+		}
+		return depths;
+	}
+	
+	/**
+	 * @return The number of events dropped because their queue was full, indexed by priority
+	 */
+	public long[] getDropped()
+	{
+		long[] counts = new long[dropped.length()];
+		for(int priority = 0;priority < counts.length;priority++)
+		{
+			counts[priority] = dropped.get(priority);
+		}
+		return counts;
+	}
+	
+	/**
+	 * Gets the queue for a priority, creating it the first time an event of that priority is added so that unused priorities cost nothing
+	 */
+	private MpscBoundedQueue<Event> queueFor(int priority)
+	{
+		MpscBoundedQueue<Event> queue = queues.get(priority);
+		if(queue == null)
+		{
+			queues.compareAndSet(priority, null, new MpscBoundedQueue<Event>(capacity));
+			queue = queues.get(priority);
+		}
+		return queue;
+	}
+}
@@ -0,0 +1,28 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sleeps the consumer for a short fixed time, the behaviour of meetings before producers could wake the consumer. Work added while it sleeps waits for the sleep to end
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class SleepingWaitStrategy implements WaitStrategy {
+	private static final int SLEEP_TIME = 10; //In ms
+	
+	@Override
+	public void await(BooleanSupplier hasWork,long timeout)
+	{
+		try {
+			Thread.sleep(Math.max(0, Math.min(SLEEP_TIME, timeout / 1000000)));
+		} catch (InterruptedException e) {
+			//Return early, the caller checks for work again anyway
+		}
+	}
+	
+	@Override
+	public void signal(Thread consumer)
+	{
+		//Nothing to do, the consumer wakes up on its own
+	}
+}
@@ -0,0 +1,43 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decides how the thread consuming a {@link PriorityEventQueue} waits when there are no events and how producers wake it when they add one
+ * @author Psymj1 (Marcus)
+ * @see main.java.com.hexcore.vrmeeting_hostserver.config.MeetingConfig#WAIT_STRATEGY
+ */
+public interface WaitStrategy {
+	/**
+	 * Called by the consumer when it has nothing to do. Returns once there might be work, once the timeout has passed or for no reason at all, so the caller must check again for work
+	 * @param hasWork Checks whether there is work for the consumer
+	 * @param timeout In ns, the maximum time to wait
+	 */
+	void await(BooleanSupplier hasWork,long timeout);
+	
+	/**
+	 * Called by a producer after it has added work for the consumer
+	 * @param consumer The thread which consumes the work, may be null if it has not started yet
+	 */
+	void signal(Thread consumer);
+	
+	/**
+	 * @param name The name of the strategy, either park, yield or sleep
+	 * @return A new instance of the named strategy
+	 * @throws IllegalArgumentException If the name does not match a strategy
+	 */
+	static WaitStrategy forName(String name)
+	{
+		switch(name.trim().toLowerCase())
+		{
+			case "park":
+				return new ParkingWaitStrategy();
+			case "yield":
+				return new YieldingWaitStrategy();
+			case "sleep":
+				return new SleepingWaitStrategy();
+			default:
+				throw new IllegalArgumentException("Unknown wait strategy '" + name + "', expected park, yield or sleep");
+		}
+	}
+}
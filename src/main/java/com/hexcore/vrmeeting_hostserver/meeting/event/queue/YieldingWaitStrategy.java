@@ -0,0 +1,26 @@
+package main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the consumer checking for work, yielding the processor between checks. Has the lowest latency at the cost of keeping a core busy for every idle meeting
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+	@Override
+	public void await(BooleanSupplier hasWork,long timeout)
+	{
+		long deadline = System.nanoTime() + timeout;
+		while(!hasWork.getAsBoolean() && deadline - System.nanoTime() > 0)
+		{
+			Thread.yield();
+		}
+	}
+	
+	@Override
+	public void signal(Thread consumer)
+	{
+		//Nothing to do, the consumer never stops checking
+	}
+}
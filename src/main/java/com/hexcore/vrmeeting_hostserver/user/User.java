@@ -102,18 +102,18 @@ public class User {
 	 */
 	public String convertToJSON()
 	{
-		String json = "{";
-		json += "\"userID\":" + userID + ",";
-		json += "\"firstName\":" + "\"" + firstName + "\",";
-		json += "\"surName\":" + "\"" + surName + "\",";
-		json += "\"company\":" + "\"" + company + "\",";
-		json += "\"jobTitle\":" + "\"" + jobTitle + "\",";
-		json += "\"workEmail\":" + "\"" + workEmail + "\",";
-		json += "\"phoneNumber\":" + "\"" + phoneNumber + "\",";
-		json += "\"avatarID\":" + avatarID + ",";
-		json += "\"presenting\":" + new Boolean(presenting).toString();
-		json += "}";
-		return json;
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"userID\":").append(userID);
+		json.append(",\"firstName\":\"").append(firstName);
+		json.append("\",\"surName\":\"").append(surName);
+		json.append("\",\"company\":\"").append(company);
+		json.append("\",\"jobTitle\":\"").append(jobTitle);
+		json.append("\",\"workEmail\":\"").append(workEmail);
+		json.append("\",\"phoneNumber\":\"").append(phoneNumber);
+		json.append("\",\"avatarID\":").append(avatarID);
+		json.append(",\"presenting\":").append(presenting);
+		json.append('}');
+		return json.toString();
 	}
 	
 	/**
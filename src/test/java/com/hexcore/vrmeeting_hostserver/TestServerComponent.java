@@ -1,8 +1,12 @@
 package test.java.com.hexcore.vrmeeting_hostserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -36,6 +40,10 @@ public class TestServerComponent {
 			
 		}
 		
+		public void setStateForTest(ServerComponentState state)
+		{
+			setState(state);
+		}
 	}
 	
 	private class BrokenMockServerComponent extends ServerComponent
@@ -163,4 +171,45 @@ public class TestServerComponent {
 		componentThatStops.stop();
 		assertEquals("The parent component's state is not stopping despite the sub components still being in the stopping state",ServerComponentState.STOPPING,componentThatStops.getState());
 	}
+	
+	@Test
+	public void stateListenersAreToldOfEachChange() throws StartupException, IllegalComponentStateException
+	{
+		ArrayList<ServerComponentState> changes = new ArrayList<ServerComponentState>();
+		mockServerComponent.addStateListener((component,previous,current) -> changes.add(current));
+		mockServerComponent.start();
+		mockServerComponent.stop();
+		assertEquals("The listener was not told of each change of state",Arrays.asList(ServerComponentState.RUNNING,ServerComponentState.STOPPING),changes);
+	}
+	
+	@Test
+	public void componentIsOnlyStoppedOnceEverySubComponentHasStopped() throws StartupException, IllegalComponentStateException, InterruptedException
+	{
+		MockServerComponent child = new MockServerComponent()
+		{
+			@Override
+			protected void shutdown() {
+				setState(ServerComponentState.STOPPED);
+			}
+		};
+		child.start();
+		mockServerComponent.addSubServerComponent(child);
+		mockServerComponent.start();
+		
+		CompletableFuture<Void> stopped = mockServerComponent.whenStopped();
+		child.stop();
+		mockServerComponent.stop();
+		assertFalse("The component was reported stopped before it had stopped itself",mockServerComponent.awaitStopped(10));
+		
+		MockServerComponent lateChild = new MockServerComponent();
+		lateChild.start();
+		mockServerComponent.addSubServerComponent(lateChild);
+		mockServerComponent.setStateForTest(ServerComponentState.STOPPED);
+		assertEquals("The component was reported stopped while a sub component was running",ServerComponentState.STOPPING,mockServerComponent.getState());
+		assertFalse("The component was reported stopped while a sub component was running",stopped.isDone());
+		
+		mockServerComponent.removeSubServerComponent(lateChild);
+		assertTrue("The component was not reported stopped once every sub component had stopped",stopped.isDone());
+		assertTrue("Waiting for a stopped component did not return at once",mockServerComponent.awaitStopped(0));
+	}
 }
@@ -0,0 +1,71 @@
+package test.java.com.hexcore.vrmeeting_hostserver.communication.buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+
+/**
+ * Tests {@link BufferPool} and {@link PooledBuffer}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestBufferPool {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void bufferIsOnlyReusedOnceEveryReferenceIsReleased()
+	{
+		BufferPool pool = new BufferPool(1024);
+		PooledBuffer first = pool.acquire(16);
+		first.retain();
+		first.release();
+		assertNotSame("A buffer still referenced was reused",first,pool.acquire(16));
+
+		first.release();
+		assertSame("A released buffer was not reused for the same length",first,pool.acquire(16));
+		assertEquals("A reused buffer did not start with one reference",1,first.getReferenceCount());
+	}
+
+	@Test
+	public void releasingABufferTooManyTimesIsRejected()
+	{
+		PooledBuffer buffer = new BufferPool(1024).acquire(16);
+		buffer.release();
+		thrown.expect(IllegalStateException.class);
+		buffer.release();
+	}
+
+	@Test
+	public void pooledAudioIsParsedAsAViewAndRecycledWhenReleased() throws InvalidMessageException
+	{
+		byte[] encoded = new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3,4}).getEncodedMessage(ProtocolVersion.V2);
+		PooledBuffer packet = BufferPool.shared().acquire(encoded.length);
+		System.arraycopy(encoded, 0, packet.array(), 0, encoded.length);
+
+		Message audio = MessageParser.parseMessage(packet,ProtocolVersion.V2);
+		assertTrue("A pooled AUDI message was not parsed as a view",audio.isPooled());
+		assertSame("The payload of the view was copied out of the packet",packet.array(),audio.getPayloadArray());
+		assertArrayEquals("The payload of the view was not the payload sent",new byte[]{1,2,3,4},audio.getPayload());
+
+		audio.retain();
+		audio.release();
+		assertEquals("The packet was released while the message was still held",1,packet.getReferenceCount());
+		audio.release();
+		assertEquals("The packet was not released with the message",0,packet.getReferenceCount());
+	}
+}
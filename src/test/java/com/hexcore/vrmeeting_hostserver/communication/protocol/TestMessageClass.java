@@ -1,5 +1,7 @@
 package test.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
@@ -10,6 +12,8 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 import test.java.com.hexcore.vrmeeting_hostserver.TestingUtilities;
 
@@ -194,4 +198,43 @@ public class TestMessageClass {
 		String messageAsString = new String(m.getTransmittableMessage(),ProtocolConfig.SIGNAL_CHARACTER_SET);
 		assertTrue("The generated transmittable message did not contain the end of signal delimiter",messageAsString.contains(ProtocolConfig.END_OF_SIGNAL_DELIMITER));
 	}
+	
+	/**
+	 * Tests that a version 2 message consists of the signal ID, the flags, the payload length as a varint and then the payload
+	 */
+	@Test
+	public void getEncodedMessageShouldPrefixPayloadWithV2Header()
+	{
+		byte[] payload = new byte[300];
+		Arrays.fill(payload, (byte)7);
+		Message m = new Message(ClientSignals.AUDI.toString(),payload);
+		byte[] encoded = m.getEncodedMessage(ProtocolVersion.V2);
+		assertEquals("The encoded message was not the length of the header plus the payload",2 + 2 + payload.length,encoded.length);
+		assertEquals("The first byte was not the ID of the signal",ClientSignals.AUDI.getID(),encoded[0] & 0xFF);
+		assertEquals("The flags byte was not empty",ProtocolConfig.V2_NO_FLAGS,encoded[1]);
+		assertEquals("The first byte of the payload length was not encoded as a varint",(byte)(0x80 | (300 & 0x7F)),encoded[2]);
+		assertEquals("The second byte of the payload length was not encoded as a varint",(byte)(300 >>> 7),encoded[3]);
+		assertTrue("The payload was not placed after the header",Arrays.equals(payload,Arrays.copyOfRange(encoded, 4, encoded.length)));
+	}
+	
+	/**
+	 * Tests that a version 1 encoded message is the same as the existing new transmittable message format
+	 */
+	@Test
+	public void getEncodedMessageShouldUseDelimitersForV1()
+	{
+		Message m = new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3});
+		assertTrue("The version 1 encoding did not match the delimited format",Arrays.equals(m.getNewTransmittableMessage(),m.getEncodedMessage(ProtocolVersion.V1)));
+	}
+	
+	/**
+	 * Tests that a message is only serialized once however many times it is sent
+	 */
+	@Test
+	public void getEncodedMessageShouldReturnTheSameArrayEachTime()
+	{
+		Message m = new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3});
+		assertSame("The version 1 encoding was generated more than once",m.getEncodedMessage(ProtocolVersion.V1),m.getEncodedMessage(ProtocolVersion.V1));
+		assertSame("The version 2 encoding was generated more than once",m.getEncodedMessage(ProtocolVersion.V2),m.getEncodedMessage(ProtocolVersion.V2));
+	}
 }
@@ -1,6 +1,8 @@
 package test.java.com.hexcore.vrmeeting_hostserver.communication.protocol;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
@@ -13,6 +15,8 @@ import org.junit.rules.ExpectedException;
 
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersionMessage;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
@@ -452,4 +456,66 @@ public class TestMessageParserClass {
 		assertEquals("The signal was not preserved after parsing the message, Expected '" + goodHRTBMessage.getSignal() + "' but was actually '" + m.getSignal() + "'",m.getSignal(),goodHRTBMessage.getSignal());
 		assertTrue("The payload was not empty",null == m.getPayload());
 	}
+	
+	@Test
+	public void parseMessageShouldParseV2EncodedMessage() throws InvalidMessageException
+	{
+		byte[] payload = new byte[]{1,2,3,4,5};
+		Message testAUDIMessage = new Message(ClientSignals.AUDI.toString(),payload);
+		Message m = MessageParser.parseMessage(testAUDIMessage.getEncodedMessage(ProtocolVersion.V2),ProtocolVersion.V2);
+		assertEquals("The signal was not preserved after parsing the message",testAUDIMessage.getSignal(),m.getSignal());
+		assertTrue("The payload was not preserved after parsing the message",Arrays.equals(payload,m.getPayload()));
+	}
+	
+	@Test
+	public void parseMessageShouldReturnProtocolVersionMessageForPROT() throws InvalidMessageException
+	{
+		Message testPROTMessage = new Message(ClientSignals.PROT.toString(),new byte[]{2});
+		Message m = MessageParser.parseMessage(testPROTMessage.getTransmittableMessage());
+		assertTrue("A PROT message was not parsed into a ProtocolVersionMessage",m instanceof ProtocolVersionMessage);
+		assertEquals("The requested version was not preserved",2,((ProtocolVersionMessage)m).getRequestedVersion());
+	}
+	
+	@Test
+	public void parseMessageShouldThrowExceptionIfV2PayloadLengthDoesNotMatchHeader() throws InvalidMessageException
+	{
+		byte[] encoded = new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3}).getEncodedMessage(ProtocolVersion.V2);
+		thrown.expect(InvalidMessageException.class);
+		thrown.expectMessage("Error parsing message: The header gives a payload length of 3 bytes but the payload is 2 bytes long");
+		MessageParser.parseMessage(Arrays.copyOf(encoded, encoded.length - 1),ProtocolVersion.V2);
+	}
+	
+	@Test
+	public void parseMessageShouldThrowExceptionIfV2SignalIDIsUnknown() throws InvalidMessageException
+	{
+		thrown.expect(InvalidMessageException.class);
+		thrown.expectMessage("Error parsing message: Unknown signal ID '200'");
+		MessageParser.parseMessage(new byte[]{(byte)200,0,0},ProtocolVersion.V2);
+	}
+	
+	@Test
+	public void parseMessageShouldKeepV2BytesToRelayUnchanged() throws InvalidMessageException
+	{
+		byte[] received = new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3,4}).getEncodedMessage(ProtocolVersion.V2).clone();
+		Message m = MessageParser.parseMessage(received,ProtocolVersion.V2);
+		assertSame("The bytes the message was received as were not reused when relaying it",received,m.getEncodedMessage(ProtocolVersion.V2));
+	}
+	
+	@Test
+	public void everyClientSignalIsResolvedFromItsBytes()
+	{
+		for(ClientSignals signal : ClientSignals.values())
+		{
+			byte[] encoded = signal.toString().getBytes(ProtocolConfig.SIGNAL_CHARACTER_SET);
+			assertSame("The " + signal + " signal was not resolved from its bytes",signal,ClientSignals.fromASCII(encoded, 0, encoded.length));
+		}
+		assertNull("A signal differing by one byte was resolved",ClientSignals.fromASCII("AUDX".getBytes(ProtocolConfig.SIGNAL_CHARACTER_SET), 0, 4));
+	}
+	
+	@Test
+	public void parsedMessageCarriesItsClientSignal() throws InvalidMessageException
+	{
+		Message m = MessageParser.parseMessage(new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3,4}).getTransmittableMessage());
+		assertSame("The parsed message did not carry the signal it was parsed with",ClientSignals.AUDI,m.getClientSignal());
+	}
 }
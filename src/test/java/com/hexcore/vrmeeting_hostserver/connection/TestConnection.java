@@ -1,15 +1,25 @@
 package test.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import static org.hamcrest.CoreMatchers.isA;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.ConnectionState;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
+import test.java.com.hexcore.vrmeeting_hostserver.mock.ScriptedMockConnection;
 
 /**
  * Tests {@link main.java.com.hexcore.vrmeeting_hostserver.connection.Connection}
@@ -296,4 +306,85 @@ public class TestConnection {
 		thrown.expectMessage("The connection cannot be closed because it is not open");
 		connection.close();
 	}
+	
+	/**
+	 * Tests that the time a packet was last received is updated when receiveNextPacket returns a packet but not when it returns null
+	 * @throws ConnectionErrorException If the connection fails to receive the packet
+	 * @throws InterruptedException If the thread is interrupted while waiting for the clock to move on
+	 */
+	@Test
+	public void receiveNextPacketRecordsWhenAPacketWasLastReceived() throws ConnectionErrorException, InterruptedException
+	{
+		WorkingConnection empty = new WorkingConnection();
+		long createdAt = empty.getLastReceivedTime();
+		Thread.sleep(5);
+		empty.receiveNextPacket();
+		assertEquals("The last received time changed even though no packet was received",createdAt,empty.getLastReceivedTime());
+		
+		Connection connection = new WorkingConnection()
+		{
+			@Override
+			protected byte[] receive() throws ConnectionErrorException {
+				return new byte[]{1};
+			}
+		};
+		long before = connection.getLastReceivedTime();
+		Thread.sleep(5);
+		connection.receiveNextPacket();
+		assertTrue("The last received time was not updated when a packet was received",connection.getLastReceivedTime() > before);
+	}
+	
+	@Test
+	public void asyncReceiveCompletesOnceAPacketArrives() throws Exception
+	{
+		ScriptedMockConnection connection = new ScriptedMockConnection();
+		CompletableFuture<PooledBuffer> receive = connection.receiveNextPacketAsync();
+		assertFalse("The receive completed before any packet arrived",receive.isDone());
+		
+		connection.addResponse(0, new byte[]{1,2,3});
+		assertTrue("The receive did not complete once a packet arrived",receive.isDone());
+		assertArrayEquals("The receive was not completed with the packet that arrived",new byte[]{1,2,3},receive.get().array());
+	}
+	
+	@Test
+	public void asyncReceiveFailsWhenTheConnectionCloses() throws Exception
+	{
+		ScriptedMockConnection connection = new ScriptedMockConnection();
+		CompletableFuture<PooledBuffer> receive = connection.receiveNextPacketAsync();
+		connection.close();
+		assertTrue("The receive was not failed when the connection closed",receive.isCompletedExceptionally());
+		
+		thrown.expectCause(isA(ConnectionErrorException.class));
+		receive.get();
+	}
+	
+	@Test
+	public void receiveAllPacketsTakesEveryPacketReadyWithoutBlocking() throws ConnectionErrorException
+	{
+		ScriptedMockConnection connection = new ScriptedMockConnection();
+		assertTrue("Packets were received from a connection with none",connection.receiveAllPackets().isEmpty());
+		
+		connection.addResponse(0, new byte[]{1});
+		connection.addResponse(1, new byte[]{2});
+		List<byte[]> packets = connection.receiveAllPackets();
+		assertEquals("Not every packet ready was received",2,packets.size());
+		assertArrayEquals("The packets were not received in order",new byte[]{1},packets.get(0));
+		assertArrayEquals("The packets were not received in order",new byte[]{2},packets.get(1));
+	}
+	
+	@Test
+	public void onlyOneTransitionOutOfOpenSucceedsAndIsHeardByListeners()
+	{
+		WorkingConnection connection = new WorkingConnection();
+		List<ConnectionState> changes = new ArrayList<ConnectionState>();
+		connection.addStateListener((changed,previous,current) -> changes.add(current));
+		
+		assertTrue("The connection did not move from open to error",connection.transitionState(ConnectionState.OPEN, ConnectionState.ERROR));
+		assertFalse("The connection moved from open after it had already left it",connection.transitionState(ConnectionState.OPEN, ConnectionState.CLOSED));
+		assertEquals("The state was changed by a transition which did not apply",ConnectionState.ERROR,connection.getState());
+		assertEquals("The listener was not told of exactly the change made",Arrays.asList(ConnectionState.ERROR),changes);
+		
+		thrown.expect(IllegalArgumentException.class);
+		connection.transitionState(ConnectionState.CLOSED, ConnectionState.OPEN);
+	}
 }
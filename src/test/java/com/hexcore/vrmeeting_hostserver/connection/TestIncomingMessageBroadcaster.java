@@ -1,5 +1,6 @@
 package test.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -10,6 +11,7 @@ import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.ConnectionState;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.IncomingMessageBroadcaster;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.MessageBroadcastSubscriber;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.IllegalComponentStateException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
 import test.java.com.hexcore.vrmeeting_hostserver.mock.ScriptedMockConnection;
@@ -76,6 +78,20 @@ public class TestIncomingMessageBroadcaster {
 		while(broadcaster.getState() != ServerComponentState.STOPPED);
 	}
 	
+	@Test(timeout = 3000)
+	public void packetArrivingAfterStopIsKeptByTheConnection() throws StartupException, IllegalComponentStateException, ConnectionErrorException
+	{
+		ScriptedMockConnection mockConnection = new ScriptedMockConnection();
+		IncomingMessageBroadcaster broadcaster = new IncomingMessageBroadcaster(mockConnection);
+		broadcaster.start();
+		broadcaster.stop();
+		while(broadcaster.getState() != ServerComponentState.STOPPED);
+		
+		byte[] packet = new Message("END",null).getTransmittableMessage();
+		mockConnection.addResponse(0,packet);
+		assertSame("The packet was taken by the stopped broadcaster",packet,mockConnection.receiveNextPacket());
+	}
+	
 	@Test(timeout = 3000)
 	public void broadcasterThreadStopsWhenConnectionEntersClosedState() throws StartupException, IllegalComponentStateException
 	{
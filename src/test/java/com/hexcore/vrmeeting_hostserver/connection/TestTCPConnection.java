@@ -9,15 +9,22 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.TCPConnection;
@@ -178,6 +185,23 @@ public class TestTCPConnection {
 		assertTrue("The data read from the socket was not the same as the test data placed into the buffer",Arrays.equals(expectedResult.array(),incomingData));
 	}
 	
+	@Test(timeout = 3000)
+	public void asyncReceiveDoesNotBlockTheCallerOnAPartlyReceivedPacket() throws IOException, InterruptedException, ExecutionException, TimeoutException
+	{
+		byte[] testMessage = new Message("TEST",null).getNewTransmittableMessage();
+		PipedOutputStream endpoint = new PipedOutputStream();
+		MockSocket socket = new MockSocket(new PipedInputStream(endpoint,testMessage.length));
+		TCPConnection connection = new TCPConnection(socket);
+		
+		endpoint.write(testMessage, 0, testMessage.length / 2);
+		CompletableFuture<PooledBuffer> next = connection.receiveNextPacketAsync();
+		assertFalse("The receive completed before the whole packet arrived",next.isDone());
+		
+		endpoint.write(testMessage, testMessage.length / 2, testMessage.length - testMessage.length / 2);
+		byte[] received = next.get(2, TimeUnit.SECONDS).array();
+		assertTrue("The packet was not received once the rest of it arrived",new String(received).startsWith("TEST"));
+	}
+	
 	@Test
 	public void sendShouldSendBytesToEndPointOfSocket() throws IOException, ConnectionErrorException
 	{
@@ -312,4 +336,14 @@ public class TestTCPConnection {
 		assertTrue("The input stream was not attempted to be closed",brokenSocket.closeOnInputStreamCalled);
 		assertTrue("The output stream was not attempted to be closed",brokenSocket.closeOnOutputStreamCalled);
 	}
+	
+	@Test
+	public void sendPacketsShouldSendEveryPacketInOrder() throws IOException, ConnectionErrorException
+	{
+		MockSocket socket = new MockSocket();
+		TCPConnection connection = new TCPConnection(socket);
+		connection.sendPackets(Arrays.asList("Test".getBytes(),"123".getBytes()));
+		String sentMessage = new String(socket.getByteArrayOutputStream().toByteArray());
+		assertEquals("The packets read from the endpoint were not the packets sent in order","Test123",sentMessage);
+	}
 }
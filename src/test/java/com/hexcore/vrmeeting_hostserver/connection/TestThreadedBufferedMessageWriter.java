@@ -1,5 +1,7 @@
 package test.java.com.hexcore.vrmeeting_hostserver.connection;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -9,17 +11,30 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.config.SlowConsumerConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.WriterConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.ConnectionState;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.ConsumerHealth;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.TCPConnection;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.IllegalComponentStateException;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
 import test.java.com.hexcore.vrmeeting_hostserver.mock.ScriptedMockConnection;
 
@@ -133,4 +148,311 @@ public class TestThreadedBufferedMessageWriter {
 		mockConnection.setState(ConnectionState.CLOSED);
 		while(messageWriter.getState() != ServerComponentState.STOPPED);
 	}
+	
+	private class BatchRecordingConnection extends ScriptedMockConnection
+	{
+		private List<Integer> batchSizes = new ArrayList<Integer>();
+		
+		@Override
+		protected void send(List<byte[]> packets) throws ConnectionErrorException {
+			synchronized(batchSizes)
+			{
+				batchSizes.add(packets.size());
+			}
+			super.send(packets);
+		}
+		
+		public List<Integer> getBatchSizes()
+		{
+			synchronized(batchSizes)
+			{
+				return new ArrayList<Integer>(batchSizes);
+			}
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void queuedMessagesAreSentToConnectionInOneBatch() throws StartupException, IllegalComponentStateException
+	{
+		BatchRecordingConnection mockConnection = new BatchRecordingConnection();
+		ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+		Message m = new Message("AUDI",new byte[100]);
+		for(int i = 0;i < 5;i++)
+		{
+			messageWriter.enqueueMessage(m);
+		}
+		messageWriter.start();
+		
+		while(mockConnection.getBatchSizes().isEmpty());
+		assertEquals("The queued messages were not sent as a single batch",Arrays.asList(5),mockConnection.getBatchSizes());
+		messageWriter.stop();
+	}
+	
+	@Test(timeout = 3000)
+	public void batchesAreLimitedToMaxBatchBytes() throws StartupException, IllegalComponentStateException
+	{
+		int previousMax = WriterConfig.MAX_BATCH_BYTES;
+		try
+		{
+			BatchRecordingConnection mockConnection = new BatchRecordingConnection();
+			ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+			Message m = new Message("AUDI",new byte[100]);
+			WriterConfig.MAX_BATCH_BYTES = m.getNewTransmittableMessage().length * 2;
+			for(int i = 0;i < 4;i++)
+			{
+				messageWriter.enqueueMessage(m);
+			}
+			messageWriter.start();
+			
+			while(mockConnection.getBatchSizes().size() < 2);
+			assertEquals("The queued messages were not split into batches no larger than the maximum batch size",Arrays.asList(2,2),mockConnection.getBatchSizes());
+			messageWriter.stop();
+		}finally
+		{
+			WriterConfig.MAX_BATCH_BYTES = previousMax;
+		}
+	}
+	
+	/**
+	 * Collects the packets sent to the connection until the expected number have been sent
+	 */
+	private List<byte[]> waitForPackets(ScriptedMockConnection connection,int expected)
+	{
+		List<byte[]> packets = new ArrayList<byte[]>();
+		while(packets.size() < expected)
+		{
+			byte[][] sent = connection.getAllSentPackets();
+			if(sent != null)
+			{
+				packets.addAll(Arrays.asList(sent));
+			}
+		}
+		return packets;
+	}
+	
+	@Test(timeout = 3000)
+	public void controlMessagesAreSentAheadOfQueuedAudio() throws StartupException, IllegalComponentStateException
+	{
+		ScriptedMockConnection mockConnection = new ScriptedMockConnection();
+		ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+		Message audio = new Message("AUDI",new byte[100]);
+		Message control = new Message("CHNG",new byte[]{1,0,0,0});
+		messageWriter.enqueueMessage(audio);
+		messageWriter.enqueueMessage(audio);
+		messageWriter.enqueueMessage(control);
+		messageWriter.start();
+		
+		List<byte[]> packets = waitForPackets(mockConnection,3);
+		assertTrue("The control message was not sent ahead of the queued audio",Arrays.equals(control.getNewTransmittableMessage(),packets.get(0)));
+		messageWriter.stop();
+	}
+	
+	@Test(timeout = 3000)
+	public void oldestAudioIsDroppedWhenQueuedAudioExceedsTheLimit() throws StartupException, IllegalComponentStateException
+	{
+		int previousMax = WriterConfig.MAX_QUEUED_AUDIO_BYTES;
+		try
+		{
+			ScriptedMockConnection mockConnection = new ScriptedMockConnection();
+			ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+			Message first = new Message("AUDI",new byte[]{1});
+			Message second = new Message("AUDI",new byte[]{2});
+			Message third = new Message("AUDI",new byte[]{3});
+			Message endOfAudio = new Message("EAUD",null);
+			Message control = new Message("MEET",null);
+			WriterConfig.MAX_QUEUED_AUDIO_BYTES = first.getNewTransmittableMessage().length * 2;
+			messageWriter.enqueueMessage(first);
+			messageWriter.enqueueMessage(endOfAudio);
+			messageWriter.enqueueMessage(second);
+			messageWriter.enqueueMessage(control);
+			messageWriter.enqueueMessage(third);
+			messageWriter.start();
+			
+			List<byte[]> packets = waitForPackets(mockConnection,4);
+			byte[][] expected = new byte[][]{control.getNewTransmittableMessage(),endOfAudio.getNewTransmittableMessage(),second.getNewTransmittableMessage(),third.getNewTransmittableMessage()};
+			for(int i = 0;i < expected.length;i++)
+			{
+				assertTrue("Packet " + i + " was not the expected message after the oldest audio was dropped",Arrays.equals(expected[i],packets.get(i)));
+			}
+			assertEquals("The dropped audio was not counted",1,mockConnection.getMetrics().getAudioFramesDroppedForSpace());
+			assertEquals("The bytes of the dropped audio were not counted",first.getNewTransmittableMessage().length,mockConnection.getMetrics().getAudioBytesDropped());
+			messageWriter.stop();
+		}finally
+		{
+			WriterConfig.MAX_QUEUED_AUDIO_BYTES = previousMax;
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void audioOlderThanTheMaximumAgeIsDropped() throws StartupException, IllegalComponentStateException, InterruptedException
+	{
+		int previousAge = WriterConfig.MAX_AUDIO_AGE;
+		try
+		{
+			WriterConfig.MAX_AUDIO_AGE = 1;
+			ScriptedMockConnection mockConnection = new ScriptedMockConnection();
+			ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+			Message audio = new Message("AUDI",new byte[100]);
+			Message endOfAudio = new Message("EAUD",null);
+			messageWriter.enqueueMessage(audio);
+			messageWriter.enqueueMessage(endOfAudio);
+			Thread.sleep(10);
+			messageWriter.start();
+			
+			List<byte[]> packets = waitForPackets(mockConnection,1);
+			assertTrue("The end of audio message was dropped or the expired audio was sent",Arrays.equals(endOfAudio.getNewTransmittableMessage(),packets.get(0)));
+			assertEquals("The expired audio was not counted",1,mockConnection.getMetrics().getAudioFramesDroppedForAge());
+			messageWriter.stop();
+		}finally
+		{
+			WriterConfig.MAX_AUDIO_AGE = previousAge;
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void writerIsDegradedAndDropsAudioWhenTooManyBytesAreQueued()
+	{
+		int previousDegrade = SlowConsumerConfig.DEGRADE_QUEUED_BYTES;
+		try
+		{
+			ScriptedMockConnection mockConnection = new ScriptedMockConnection();
+			ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+			Message audio = new Message("AUDI",new byte[100]);
+			SlowConsumerConfig.DEGRADE_QUEUED_BYTES = audio.getNewTransmittableMessage().length * 2;
+			messageWriter.enqueueMessage(audio);
+			messageWriter.enqueueMessage(new Message("CHNG",new byte[]{1,0,0,0}));
+			messageWriter.enqueueMessage(audio);
+			
+			assertTrue("The health of the writer did not change",messageWriter.updateHealth());
+			assertEquals("The writer was not degraded",ConsumerHealth.DEGRADED,messageWriter.getHealth());
+			assertEquals("The queued audio was not dropped when the writer was degraded",2,mockConnection.getMetrics().getAudioFramesDroppedWhileDegraded());
+			
+			messageWriter.enqueueMessage(audio);
+			assertEquals("Audio queued while degraded was not dropped",3,mockConnection.getMetrics().getAudioFramesDroppedWhileDegraded());
+		}finally
+		{
+			SlowConsumerConfig.DEGRADE_QUEUED_BYTES = previousDegrade;
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void degradedWriterBecomesHealthyOnceItsQueueIsSent() throws StartupException, IllegalComponentStateException
+	{
+		int previousDegrade = SlowConsumerConfig.DEGRADE_QUEUED_BYTES;
+		try
+		{
+			ScriptedMockConnection mockConnection = new ScriptedMockConnection();
+			ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+			Message control = new Message("CHNG",new byte[]{1,0,0,0});
+			SlowConsumerConfig.DEGRADE_QUEUED_BYTES = control.getNewTransmittableMessage().length;
+			messageWriter.enqueueMessage(control);
+			messageWriter.updateHealth();
+			assertEquals("The writer was not degraded",ConsumerHealth.DEGRADED,messageWriter.getHealth());
+			
+			messageWriter.start();
+			waitForPackets(mockConnection,1);
+			while(messageWriter.getQueuedBytes() > 0);
+			messageWriter.updateHealth();
+			assertEquals("The writer did not become healthy after its queue was sent",ConsumerHealth.HEALTHY,messageWriter.getHealth());
+			messageWriter.stop();
+		}finally
+		{
+			SlowConsumerConfig.DEGRADE_QUEUED_BYTES = previousDegrade;
+		}
+	}
+	
+	@Test
+	public void backlogListenerIsRunOnlyWhenMessagesStartWaiting()
+	{
+		ScriptedMockConnection mockConnection = new ScriptedMockConnection();
+		ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+		final AtomicInteger backlogsStarted = new AtomicInteger();
+		messageWriter.setBacklogListener(backlogsStarted::incrementAndGet);
+		assertFalse("A writer with nothing to send needed checking",messageWriter.needsHealthChecks());
+		
+		messageWriter.enqueueMessage(new Message("CHNG",new byte[]{1,0,0,0}));
+		messageWriter.enqueueMessages(new Message("MEET",null),new Message("MEET",null));
+		assertEquals("The listener was not run once when messages started waiting",1,backlogsStarted.get());
+		assertTrue("A writer with messages waiting did not need checking",messageWriter.needsHealthChecks());
+	}
+	
+	@Test(timeout = 3000)
+	public void writerIsEvictedWhenAWriteStaysBlocked() throws StartupException, IllegalComponentStateException, InterruptedException
+	{
+		int previousEvict = SlowConsumerConfig.EVICT_BLOCKED_WRITE;
+		final CountDownLatch writeStarted = new CountDownLatch(1);
+		final CountDownLatch releaseWrite = new CountDownLatch(1);
+		try
+		{
+			SlowConsumerConfig.EVICT_BLOCKED_WRITE = 50;
+			ScriptedMockConnection mockConnection = new ScriptedMockConnection(){
+				@Override
+				protected void send(byte[] packet) throws ConnectionErrorException {
+					writeStarted.countDown();
+					try {
+						releaseWrite.await();
+					} catch (InterruptedException e) {
+						//Let the write finish
+					}
+					super.send(packet);
+				}
+			};
+			ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+			messageWriter.start();
+			messageWriter.enqueueMessage(new Message("MEET",null));
+			writeStarted.await();
+			Thread.sleep(100);
+			
+			assertTrue("The health of the writer did not change",messageWriter.updateHealth());
+			assertEquals("The writer was not evicted",ConsumerHealth.EVICTED,messageWriter.getHealth());
+			releaseWrite.countDown();
+			messageWriter.stop();
+		}finally
+		{
+			releaseWrite.countDown();
+			SlowConsumerConfig.EVICT_BLOCKED_WRITE = previousEvict;
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void messagesStillQueuedWhenTheWriterStopsAreReleased() throws StartupException, IllegalComponentStateException, InterruptedException, InvalidMessageException
+	{
+		final CountDownLatch writeStarted = new CountDownLatch(1);
+		final CountDownLatch releaseWrite = new CountDownLatch(1);
+		try
+		{
+			ScriptedMockConnection mockConnection = new ScriptedMockConnection(){
+				@Override
+				protected void send(byte[] packet) throws ConnectionErrorException {
+					writeStarted.countDown();
+					try {
+						releaseWrite.await();
+					} catch (InterruptedException e) {
+						//Let the write finish
+					}
+					super.send(packet);
+				}
+			};
+			ThreadedBufferedMessageWriter messageWriter = new ThreadedBufferedMessageWriter(mockConnection);
+			messageWriter.start();
+			messageWriter.enqueueMessage(new Message("MEET",null));
+			writeStarted.await();
+			
+			byte[] encoded = new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3,4}).getEncodedMessage(ProtocolVersion.V2);
+			PooledBuffer packet = BufferPool.shared().acquire(encoded.length);
+			System.arraycopy(encoded, 0, packet.array(), 0, encoded.length);
+			Message audio = MessageParser.parseMessage(packet,ProtocolVersion.V2);
+			messageWriter.enqueueMessage(audio);
+			audio.release();
+			assertEquals("The writer did not hold the queued audio",1,packet.getReferenceCount());
+			
+			messageWriter.stop();
+			releaseWrite.countDown();
+			while(messageWriter.getState() != ServerComponentState.STOPPED);
+			assertEquals("The audio still queued when the writer stopped was not released",0,packet.getReferenceCount());
+		}finally
+		{
+			releaseWrite.countDown();
+		}
+	}
 }
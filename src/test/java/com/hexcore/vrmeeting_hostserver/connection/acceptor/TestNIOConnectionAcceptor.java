@@ -0,0 +1,325 @@
+package test.java.com.hexcore.vrmeeting_hostserver.connection.acceptor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.ThreadedBufferedMessageWriter;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.ConnectionListener;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.acceptor.NIOConnectionAcceptor;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.nio.NIOConnection;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.nio.NIOEventLoopGroup;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.IllegalComponentStateException;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
+
+/**
+ * Tests {@link NIOConnectionAcceptor} and the {@link NIOConnection}s it creates over a real loopback socket
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestNIOConnectionAcceptor {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private static final int TEST_PORT = 25566;
+	private NIOEventLoopGroup eventLoops;
+
+	private class TestConnectionListener implements ConnectionListener
+	{
+		private volatile Connection receivedConnection = null;
+		@Override
+		public void connectionReceived(Connection connection) {
+			receivedConnection = connection;
+		}
+	}
+
+	@Before
+	public void before() throws StartupException, IllegalComponentStateException
+	{
+		eventLoops = new NIOEventLoopGroup(2);
+		eventLoops.start();
+	}
+
+	@After
+	public void after() throws IllegalComponentStateException
+	{
+		if(eventLoops.getState() == ServerComponentState.RUNNING)
+		{
+			eventLoops.stop();
+		}
+		while(eventLoops.getState() != ServerComponentState.STOPPED);
+	}
+
+	@Test(timeout = 10000)
+	public void shouldMoveToStoppedStateWhenStopCalledInAReasonableAmountOfTime() throws StartupException, IllegalComponentStateException
+	{
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(TEST_PORT,eventLoops);
+		acceptor.start();
+
+		acceptor.stop();
+		while(acceptor.getState() != ServerComponentState.STOPPED);
+	}
+
+	@Test(timeout = 10000)
+	public void packetsAreReceivedAndSentThroughTheAcceptedConnection() throws StartupException, IllegalComponentStateException, IOException, ConnectionErrorException
+	{
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(TEST_PORT,eventLoops);
+		TestConnectionListener listener = new TestConnectionListener();
+		acceptor.addConnectionListener(listener);
+		acceptor.start();
+
+		try(Socket client = new Socket("localhost",TEST_PORT))
+		{
+			while(listener.receivedConnection == null);
+			Connection connection = listener.receivedConnection;
+			assertTrue("The connection passed to the listener was not a NIOConnection",connection instanceof NIOConnection);
+
+			//Send two messages in one write and one split across two writes to check the packets are separated correctly
+			Message first = new Message("AUDI",new byte[]{1,2,3,4});
+			Message second = new Message("HRTB",null);
+			OutputStream out = client.getOutputStream();
+			byte[] firstBytes = first.getNewTransmittableMessage();
+			byte[] secondBytes = second.getNewTransmittableMessage();
+			byte[] both = new byte[firstBytes.length + secondBytes.length];
+			System.arraycopy(firstBytes, 0, both, 0, firstBytes.length);
+			System.arraycopy(secondBytes, 0, both, firstBytes.length, secondBytes.length);
+			out.write(both, 0, 10);
+			out.flush();
+			out.write(both, 10, both.length - 10);
+			out.flush();
+
+			while(connection.willReceiveBlock());
+			assertTrue("The first packet was not received intact",Arrays.equals(first.getTransmittableMessage(),connection.receiveNextPacket()));
+			while(connection.willReceiveBlock());
+			assertTrue("The second packet was not received intact",Arrays.equals(second.getTransmittableMessage(),connection.receiveNextPacket()));
+
+			byte[] reply = new Message("VAL",null).getNewTransmittableMessage();
+			connection.sendPacket(reply);
+			byte[] received = new byte[reply.length];
+			InputStream in = client.getInputStream();
+			int offset = 0;
+			while(offset < received.length)
+			{
+				offset += in.read(received, offset, received.length - offset);
+			}
+			assertTrue("The packet sent by the connection was not received by the client",Arrays.equals(reply,received));
+		}
+
+		acceptor.stop();
+		while(acceptor.getState() != ServerComponentState.STOPPED);
+	}
+
+	@Test(timeout = 10000)
+	public void connectionsAreClosedWhenTheirEventLoopStops() throws StartupException, IllegalComponentStateException, IOException
+	{
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(TEST_PORT,eventLoops);
+		TestConnectionListener listener = new TestConnectionListener();
+		acceptor.addConnectionListener(listener);
+		acceptor.start();
+
+		try(Socket client = new Socket("localhost",TEST_PORT))
+		{
+			while(listener.receivedConnection == null);
+			Connection connection = listener.receivedConnection;
+			eventLoops.stop();
+			while(eventLoops.getState() != ServerComponentState.STOPPED);
+			assertFalse("The connection was left open after its event loop stopped",connection.isOpen());
+			assertEquals("The channel of the connection was not closed",-1,client.getInputStream().read());
+		}
+
+		acceptor.stop();
+		while(acceptor.getState() != ServerComponentState.STOPPED);
+	}
+
+	@Test(timeout = 10000)
+	public void anErrorOnTheEventLoopDoesNotStopItServingConnections() throws StartupException, IllegalComponentStateException, IOException, ConnectionErrorException
+	{
+		//Every loop in the group hits an error before the connection is accepted
+		eventLoops.next().execute(() -> {throw new IllegalStateException("Test error");});
+		eventLoops.next().execute(() -> {throw new IllegalStateException("Test error");});
+
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(TEST_PORT,eventLoops);
+		TestConnectionListener listener = new TestConnectionListener();
+		acceptor.addConnectionListener(listener);
+		acceptor.start();
+
+		try(Socket client = new Socket("localhost",TEST_PORT))
+		{
+			while(listener.receivedConnection == null);
+			Connection connection = listener.receivedConnection;
+			Message message = new Message("HRTB",null);
+			client.getOutputStream().write(message.getNewTransmittableMessage());
+			client.getOutputStream().flush();
+
+			while(connection.willReceiveBlock());
+			assertTrue("The packet was not received after the event loop hit an error",Arrays.equals(message.getTransmittableMessage(),connection.receiveNextPacket()));
+			assertEquals("The event loop group stopped after an error",ServerComponentState.RUNNING,eventLoops.getState());
+		}
+
+		acceptor.stop();
+		while(acceptor.getState() != ServerComponentState.STOPPED);
+	}
+
+	/**
+	 * @return True if a thread with the given name is running
+	 */
+	private boolean threadExists(String name)
+	{
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if(thread.getName().equals(name))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void readFully(InputStream in,byte[] received) throws IOException
+	{
+		int offset = 0;
+		while(offset < received.length)
+		{
+			int read = in.read(received, offset, received.length - offset);
+			assertTrue("The socket closed before every byte was received",read != -1);
+			offset += read;
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void aWriterSendsFromTheEventLoopWithoutAThreadOfItsOwn() throws StartupException, IllegalComponentStateException, IOException
+	{
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(TEST_PORT,eventLoops);
+		TestConnectionListener listener = new TestConnectionListener();
+		acceptor.addConnectionListener(listener);
+		acceptor.start();
+
+		try(Socket client = new Socket("localhost",TEST_PORT))
+		{
+			while(listener.receivedConnection == null);
+			Connection connection = listener.receivedConnection;
+			ThreadedBufferedMessageWriter writer = new ThreadedBufferedMessageWriter(connection);
+			writer.start();
+			assertFalse("The writer started a thread of its own for a connection with an event loop",threadExists(connection.getName() + " Buffered Message Writer"));
+
+			Message first = new Message("CHNG",new byte[]{1,0,0,0});
+			Message second = new Message("MEET",null);
+			writer.enqueueMessages(first,second);
+			byte[] firstBytes = first.getEncodedMessage(ProtocolVersion.V1);
+			byte[] secondBytes = second.getEncodedMessage(ProtocolVersion.V1);
+			byte[] received = new byte[firstBytes.length + secondBytes.length];
+			readFully(client.getInputStream(),received);
+			assertTrue("The first message was not sent intact",Arrays.equals(firstBytes,Arrays.copyOfRange(received, 0, firstBytes.length)));
+			assertTrue("The second message was not sent intact",Arrays.equals(secondBytes,Arrays.copyOfRange(received, firstBytes.length, received.length)));
+
+			writer.stop();
+			while(writer.getState() != ServerComponentState.STOPPED);
+		}
+
+		acceptor.stop();
+		while(acceptor.getState() != ServerComponentState.STOPPED);
+	}
+
+	@Test(timeout = 10000)
+	public void aWriterFinishesABacklogTheSocketCouldNotTakeOnceTheClientReads() throws StartupException, IllegalComponentStateException, IOException
+	{
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(TEST_PORT,eventLoops);
+		TestConnectionListener listener = new TestConnectionListener();
+		acceptor.addConnectionListener(listener);
+		acceptor.start();
+
+		try(Socket client = new Socket("localhost",TEST_PORT))
+		{
+			while(listener.receivedConnection == null);
+			Connection connection = listener.receivedConnection;
+			ThreadedBufferedMessageWriter writer = new ThreadedBufferedMessageWriter(connection);
+			writer.start();
+
+			//Far more than the socket buffers can hold while the client is not reading
+			int messages = 4000;
+			byte[] payload = new byte[1000];
+			for(int i = 0;i < messages;i++)
+			{
+				payload[0] = (byte)i;
+				writer.enqueueMessage(new Message("CHNG",payload.clone()));
+			}
+			while(!connection.getMetrics().isWriting());
+			assertTrue("Messages were not left waiting while the socket was full",writer.needsHealthChecks());
+
+			byte[] expected = new byte[0];
+			for(int i = 0;i < messages;i++)
+			{
+				payload[0] = (byte)i;
+				byte[] packet = new Message("CHNG",payload.clone()).getEncodedMessage(ProtocolVersion.V1);
+				int offset = expected.length;
+				expected = Arrays.copyOf(expected, offset + packet.length);
+				System.arraycopy(packet, 0, expected, offset, packet.length);
+			}
+			byte[] received = new byte[expected.length];
+			readFully(client.getInputStream(),received);
+			assertTrue("The backlog was not sent intact and in order",Arrays.equals(expected,received));
+			while(connection.getMetrics().isWriting());
+			assertEquals("Not every byte was counted as sent",expected.length,connection.getMetrics().getBytesSent());
+
+			writer.stop();
+			while(writer.getState() != ServerComponentState.STOPPED);
+		}
+
+		acceptor.stop();
+		while(acceptor.getState() != ServerComponentState.STOPPED);
+	}
+
+	@Test(timeout = 10000)
+	public void aWriterSendingFromTheEventLoopStopsWhenTheConnectionCloses() throws StartupException, IllegalComponentStateException, IOException, ConnectionErrorException
+	{
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(TEST_PORT,eventLoops);
+		TestConnectionListener listener = new TestConnectionListener();
+		acceptor.addConnectionListener(listener);
+		acceptor.start();
+
+		try(Socket client = new Socket("localhost",TEST_PORT))
+		{
+			while(listener.receivedConnection == null);
+			Connection connection = listener.receivedConnection;
+			ThreadedBufferedMessageWriter writer = new ThreadedBufferedMessageWriter(connection);
+			writer.start();
+			connection.close();
+			while(writer.getState() != ServerComponentState.STOPPED);
+		}
+
+		acceptor.stop();
+		while(acceptor.getState() != ServerComponentState.STOPPED);
+	}
+
+	@Test
+	public void exceptionThrownByConstructorIfPortNumberIsNegative()
+	{
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("The port cannot be negative");
+		new NIOConnectionAcceptor(-1,eventLoops);
+	}
+
+	@Test
+	public void portToUseSetByConstructor()
+	{
+		int testPort = 3;
+		NIOConnectionAcceptor acceptor = new NIOConnectionAcceptor(testPort,eventLoops);
+		assertEquals("The port used by the acceptor is not equal to that passed into the constructor",testPort,acceptor.getPort());
+	}
+}
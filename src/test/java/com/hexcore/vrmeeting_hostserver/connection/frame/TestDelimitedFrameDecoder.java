@@ -0,0 +1,136 @@
+package test.java.com.hexcore.vrmeeting_hostserver.connection.frame;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.frame.DelimitedFrameDecoder;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+
+/**
+ * Tests {@link DelimitedFrameDecoder}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestDelimitedFrameDecoder {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private byte[] concatenate(byte[]... parts)
+	{
+		int length = 0;
+		for(byte[] part : parts)
+		{
+			length += part.length;
+		}
+		ByteBuffer joined = ByteBuffer.allocate(length);
+		for(byte[] part : parts)
+		{
+			joined.put(part);
+		}
+		return joined.array();
+	}
+
+	@Test
+	public void nextFrameReturnsNullIfNoPacketIsComplete() throws InvalidMessageException
+	{
+		DelimitedFrameDecoder decoder = new DelimitedFrameDecoder();
+		byte[] wire = new Message("AUDI",new byte[]{1,2,3}).getNewTransmittableMessage();
+		decoder.feed(wire, 0, wire.length - 1);
+		assertFalse("hasFrame returned true before the end of payload delimiter was complete",decoder.hasFrame());
+		assertNull("nextFrame returned a packet before the end of payload delimiter was complete",decoder.nextFrame());
+	}
+
+	@Test
+	public void packetIsDecodedWhenFedOneByteAtATime() throws InvalidMessageException
+	{
+		Message message = new Message("AUDI",new byte[]{1,2,3,4,5,6,7,8});
+		byte[] wire = message.getNewTransmittableMessage();
+		DelimitedFrameDecoder decoder = new DelimitedFrameDecoder();
+		for(int i = 0;i < wire.length;i++)
+		{
+			assertFalse("A packet was decoded before all of its bytes were fed",decoder.hasFrame());
+			decoder.feed(wire, i, 1);
+		}
+		assertTrue("The packet decoded was not the signal and payload of the message",Arrays.equals(message.getTransmittableMessage(),decoder.nextFrame()));
+	}
+
+	@Test
+	public void packetsSplitAtEveryPossiblePointAreDecoded() throws InvalidMessageException
+	{
+		Message first = new Message("AUDI",new byte[]{9,8,7,6});
+		Message second = new Message("HRTB",null);
+		byte[] wire = concatenate(first.getNewTransmittableMessage(),second.getNewTransmittableMessage());
+		for(int split = 0;split <= wire.length;split++)
+		{
+			DelimitedFrameDecoder decoder = new DelimitedFrameDecoder();
+			decoder.feed(wire, 0, split);
+			decoder.feed(wire, split, wire.length - split);
+			assertTrue("The first packet was not decoded when split at " + split,Arrays.equals(first.getTransmittableMessage(),decoder.nextFrame()));
+			assertTrue("The second packet was not decoded when split at " + split,Arrays.equals(second.getTransmittableMessage(),decoder.nextFrame()));
+			assertFalse("More packets were decoded than were fed when split at " + split,decoder.hasFrame());
+		}
+	}
+
+	@Test
+	public void payloadContainingPartOfTheDelimiterIsNotSplit() throws InvalidMessageException
+	{
+		byte[] delimiter = ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER;
+		//A payload containing an almost complete delimiter immediately followed by the real one checks matching resumes correctly after a mismatch
+		byte[] payload = concatenate(Arrays.copyOf(delimiter, delimiter.length - 1),"x\n".getBytes(),Arrays.copyOf(delimiter, 5));
+		Message message = new Message("AUDI",payload);
+		byte[] wire = message.getNewTransmittableMessage();
+		DelimitedFrameDecoder decoder = new DelimitedFrameDecoder();
+		decoder.feed(wire, 0, wire.length);
+		assertTrue("The payload was not decoded intact",Arrays.equals(message.getTransmittableMessage(),decoder.nextFrame()));
+		assertFalse("The payload was split into more than one packet",decoder.hasFrame());
+	}
+
+	@Test
+	public void packetsLargerThanTheInitialBufferAreDecodedFromAByteBuffer() throws InvalidMessageException
+	{
+		byte[] payload = new byte[10000];
+		for(int i = 0;i < payload.length;i++)
+		{
+			payload[i] = (byte)i;
+		}
+		Message message = new Message("AUDI",payload);
+		ByteBuffer wire = ByteBuffer.wrap(concatenate(message.getNewTransmittableMessage(),message.getNewTransmittableMessage()));
+		DelimitedFrameDecoder decoder = new DelimitedFrameDecoder();
+		decoder.feed(wire);
+		assertFalse("The ByteBuffer was not fully consumed",wire.hasRemaining());
+		assertTrue("The first large packet was not decoded intact",Arrays.equals(message.getTransmittableMessage(),decoder.nextFrame()));
+		assertTrue("The second large packet was not decoded intact",Arrays.equals(message.getTransmittableMessage(),decoder.nextFrame()));
+	}
+
+	@Test
+	public void exceptionThrownIfSignalIsTooLong() throws InvalidMessageException
+	{
+		byte[] signal = new byte[ProtocolConfig.MAX_BYTES_PER_SIGNAL + 1];
+		Arrays.fill(signal, (byte)'A');
+		DelimitedFrameDecoder decoder = new DelimitedFrameDecoder();
+		thrown.expect(InvalidMessageException.class);
+		thrown.expectMessage("Signal End Delimiter not found within " + ProtocolConfig.MAX_BYTES_PER_SIGNAL + " bytes");
+		decoder.feed(signal, 0, signal.length);
+	}
+
+	@Test
+	public void exceptionThrownIfPacketExceedsTheMaximumMessageLength() throws InvalidMessageException
+	{
+		byte[] header = "AUDI\n".getBytes();
+		byte[] payload = new byte[ProtocolConfig.MAX_POSSIBLE_SERIALIZED_MESSAGE_LENGTH + ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER.length];
+		DelimitedFrameDecoder decoder = new DelimitedFrameDecoder();
+		decoder.feed(header, 0, header.length);
+		thrown.expect(InvalidMessageException.class);
+		decoder.feed(payload, 0, payload.length);
+	}
+}
@@ -0,0 +1,85 @@
+package test.java.com.hexcore.vrmeeting_hostserver.connection.frame;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.frame.LengthPrefixedFrameDecoder;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+
+/**
+ * Tests {@link LengthPrefixedFrameDecoder}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestLengthPrefixedFrameDecoder {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void packetsSplitAtEveryPossiblePointAreDecoded() throws InvalidMessageException
+	{
+		byte[] audio = new byte[200];
+		Arrays.fill(audio, (byte)'\n');
+		byte[] first = new Message("AUDI",audio).getEncodedMessage(ProtocolVersion.V2);
+		byte[] second = new Message("HRTB",null).getEncodedMessage(ProtocolVersion.V2);
+		byte[] wire = ByteBuffer.allocate(first.length + second.length).put(first).put(second).array();
+		for(int split = 0;split <= wire.length;split++)
+		{
+			LengthPrefixedFrameDecoder decoder = new LengthPrefixedFrameDecoder();
+			decoder.feed(wire, 0, split);
+			decoder.feed(wire, split, wire.length - split);
+			assertTrue("The first packet was not decoded when split at " + split,Arrays.equals(first,decoder.nextFrame()));
+			assertTrue("The second packet was not decoded when split at " + split,Arrays.equals(second,decoder.nextFrame()));
+			assertFalse("More packets were decoded than were fed when split at " + split,decoder.hasFrame());
+		}
+	}
+
+	@Test
+	public void payloadContainingTheV1DelimiterIsNotSplit() throws InvalidMessageException
+	{
+		byte[] encoded = new Message("AUDI",ProtocolConfig.ENCODED_END_PAYLOAD_DELIMITER).getEncodedMessage(ProtocolVersion.V2);
+		LengthPrefixedFrameDecoder decoder = new LengthPrefixedFrameDecoder();
+		decoder.feed(ByteBuffer.wrap(encoded));
+		assertTrue("The packet was not decoded intact",Arrays.equals(encoded,decoder.nextFrame()));
+		assertFalse("The payload was split into more than one packet",decoder.hasFrame());
+	}
+
+	@Test
+	public void remainingBytesReturnsIncompletePacket() throws InvalidMessageException
+	{
+		byte[] encoded = new Message("AUDI",new byte[]{1,2,3}).getEncodedMessage(ProtocolVersion.V2);
+		LengthPrefixedFrameDecoder decoder = new LengthPrefixedFrameDecoder();
+		decoder.feed(encoded, 0, encoded.length - 1);
+		assertTrue("The bytes of the incomplete packet were not returned",Arrays.equals(Arrays.copyOf(encoded, encoded.length - 1),decoder.remainingBytes()));
+	}
+
+	@Test
+	public void exceptionThrownIfPayloadLengthExceedsTheMaximumPayloadSize() throws InvalidMessageException
+	{
+		int tooLong = ProtocolConfig.MAX_SERIALIZED_PAYLOAD_SIZE + 1;
+		byte[] header = new byte[]{3,0,(byte)(0x80 | (tooLong & 0x7F)),(byte)(tooLong >>> 7)};
+		LengthPrefixedFrameDecoder decoder = new LengthPrefixedFrameDecoder();
+		thrown.expect(InvalidMessageException.class);
+		decoder.feed(header, 0, header.length);
+	}
+
+	@Test
+	public void exceptionThrownIfPayloadLengthVarintIsTooLong() throws InvalidMessageException
+	{
+		byte[] header = new byte[]{3,0,(byte)0x80,(byte)0x80,(byte)0x80,1};
+		LengthPrefixedFrameDecoder decoder = new LengthPrefixedFrameDecoder();
+		thrown.expect(InvalidMessageException.class);
+		thrown.expectMessage("The payload length is not a valid varint of at most " + ProtocolConfig.MAX_BYTES_PER_PAYLOAD_LENGTH + " bytes");
+		decoder.feed(header, 0, header.length);
+	}
+}
@@ -12,11 +12,16 @@ import org.junit.rules.ExpectedException;
 
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.AuthTokenMessage;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MeetingIDMessage;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersionMessage;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ValidatorConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.ConnectionState;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.validation.ConnectionValidator;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ValidationFailedException;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
@@ -246,4 +251,35 @@ public class TestConnectionValidator {
 		User resultantUser = client.getUserInfo();
 		assertTrue("The meeting client generated as a result of validating the connection is not identical to the matchin user who's information was used as connection responses",resultantUser.equals(testValidUser));
 	}
+	
+	@Test
+	public void getTokenShouldNegotiateProtocolVersionIfClientSendsPROT() throws ValidationFailedException
+	{
+		defaultTestConnection.addResponse(0, new Message(ClientSignals.PROT.toString(),new byte[]{(byte)ProtocolVersion.V2.getNumber()}).getTransmittableMessage());
+		defaultTestConnection.addResponse(1, validTOKEMessage.getEncodedMessage(ProtocolVersion.V2));
+		String receivedToken = ConnectionValidator.getTokenFromClient(defaultTestConnection);
+		assertEquals("The token sent in the negotiated format was not received",validTOKEMessage.getAuthenticationToken(),receivedToken);
+		assertEquals("The inbound protocol version was not changed",ProtocolVersion.V2,defaultTestConnection.getInboundProtocolVersion());
+		assertEquals("The outbound protocol version was not changed",ProtocolVersion.V2,defaultTestConnection.getOutboundProtocolVersion());
+		
+		byte[][] sentPackets = defaultTestConnection.getAllSentPackets();
+		byte[] expectedReply = MessageGenerator.generateProtocolVersionMessage(ProtocolVersion.V2).getNewTransmittableMessage();
+		assertTrue("The PROT reply was not sent in the version the client was using when it asked",Arrays.equals(expectedReply,sentPackets[0]));
+	}
+	
+	@Test
+	public void negotiateProtocolVersionShouldFallBackToLatestSupportedVersion() throws ConnectionErrorException
+	{
+		ProtocolVersion chosen = ConnectionValidator.negotiateProtocolVersion(defaultTestConnection, new ProtocolVersionMessage(new byte[]{99}));
+		assertEquals("The latest version supported by the server was not chosen",ProtocolVersion.LATEST,chosen);
+	}
+	
+	@Test
+	public void connectionShouldUseV1IfClientDoesNotSendPROT() throws ValidationFailedException
+	{
+		defaultTestConnection.addResponse(0, validTOKEMessage.getTransmittableMessage());
+		ConnectionValidator.getTokenFromClient(defaultTestConnection);
+		assertEquals("The inbound protocol version was changed without being negotiated",ProtocolVersion.V1,defaultTestConnection.getInboundProtocolVersion());
+		assertEquals("The outbound protocol version was changed without being negotiated",ProtocolVersion.V1,defaultTestConnection.getOutboundProtocolVersion());
+	}
 }
\ No newline at end of file
@@ -142,4 +142,34 @@ public class TestValidationThread {
 		byte[] messageReceived = packetsSent[1]; //Get the 2nd message
 		assertTrue("An NVAL message was not sent despite the connection being invalid and so failing validation",Arrays.equals(nvalMessage,messageReceived));
 	}
+	
+	@Test(timeout = ValidatorConfig.RESPONSE_TIMEOUT * 2)
+	public void shouldSendNVALInsteadOfJoiningWhenOutputIsNotAcceptingClients() throws StartupException, IllegalComponentStateException
+	{
+		defaultTestServer.shouldMeetingIDBeValid(true);
+		defaultTestServer.shouldAuthenticationTokenBeValid(true);
+		defaultTestConnection.addResponse(0, validTOKEMessage.getNewTransmittableMessage());
+		defaultTestConnection.addResponse(1, validMIDMessage.getNewTransmittableMessage());
+		ValidConnectionOutput drainingOutput = new ValidConnectionOutput() {
+			@Override
+			public void connectionValidationOutput(MeetingClient client) {
+				clientGiven = client;
+			}
+			
+			@Override
+			public boolean isAcceptingClients() {
+				return false;
+			}
+		};
+		ValidationThread validationThread = new ValidationThread(null,defaultTestConnection, defaultTestServer, drainingOutput);
+		validationThread.start();
+		while(validationThread.getState() != ServerComponentState.STOPPED);
+		
+		assertTrue("A client joined although the output was not accepting clients",clientGiven == null);
+		byte[] nvalMessage = MessageGenerator.generateNotValidatedMessage().getTransmittableMessage();
+		byte[][] packetsSent = defaultTestConnection.getAllSentPackets(); //Should have packets [AUTH,MEET,NVAL]
+		assertEquals("There are not enough packets for all of the necessary messages in the protocol to have been sent",3,packetsSent.length);
+		assertTrue("An NVAL message was not sent to a client refused while draining",Arrays.equals(nvalMessage,packetsSent[2]));
+		assertTrue("The connection of a client refused while draining was not closed",!defaultTestConnection.isOpen());
+	}
 }
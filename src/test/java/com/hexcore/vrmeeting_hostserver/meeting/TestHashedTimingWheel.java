@@ -0,0 +1,70 @@
+package test.java.com.hexcore.vrmeeting_hostserver.meeting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.HashedTimingWheel;
+
+/**
+ * Tests {@link HashedTimingWheel}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestHashedTimingWheel {
+	private HashedTimingWheel wheel = new HashedTimingWheel(10,8); //One turn of the wheel is only 80ms so longer delays must wait for more than one turn
+	
+	@After
+	public void after()
+	{
+		wheel.stop();
+	}
+	
+	@Test(timeout = 3000)
+	public void taskRunsNoEarlierThanItsDelay() throws InterruptedException
+	{
+		final CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+		wheel.schedule(ran::countDown, 200);
+		ran.await();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("The task ran after " + elapsed + "ms, before its delay of 200ms",elapsed >= 200);
+	}
+	
+	@Test(timeout = 3000)
+	public void cancelledTaskDoesNotRun() throws InterruptedException
+	{
+		final AtomicBoolean cancelledRan = new AtomicBoolean(false);
+		final CountDownLatch laterRan = new CountDownLatch(1);
+		wheel.schedule(() -> cancelledRan.set(true), 50).cancel();
+		wheel.schedule(laterRan::countDown, 100);
+		laterRan.await();
+		assertFalse("A cancelled task was run",cancelledRan.get());
+	}
+	
+	@Test(timeout = 5000)
+	public void everyTaskRunsOnceWhenManyAreScheduled() throws InterruptedException
+	{
+		final int tasks = 10000;
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch allRan = new CountDownLatch(tasks);
+		for(int i = 0;i < tasks;i++)
+		{
+			wheel.schedule(() -> {
+				runs.incrementAndGet();
+				allRan.countDown();
+			}, i % 300);
+		}
+		allRan.await();
+		Thread.sleep(100);
+		assertEquals("A task was run more than once",tasks,runs.get());
+	}
+}
@@ -2,21 +2,40 @@ package test.java.com.hexcore.vrmeeting_hostserver.meeting;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import main.java.com.hexcore.vrmeeting_hostserver.ServerComponentState;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.config.MeetingConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.config.SlowConsumerConfig;
+import main.java.com.hexcore.vrmeeting_hostserver.connection.ConnectionState;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.IllegalComponentStateException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.StartupException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.UserExistsException;
+import main.java.com.hexcore.vrmeeting_hostserver.log.ServerMetrics;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingExecutor;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.ActiveSpeakerSelector;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.TransmitAudioEvent;
 import main.java.com.hexcore.vrmeeting_hostserver.user.User;
 import test.java.com.hexcore.vrmeeting_hostserver.mock.ScriptedMockConnection;
 
@@ -37,6 +56,21 @@ public class TestMeeting {
 		client = new MeetingClient(connection,testValidUser);
 	}
 	
+	/**
+	 * Closes the connection of anyone left in the test meeting, which stops their broadcaster and writer, so their threads do not outlive the test
+	 */
+	@After
+	public void after() throws ConnectionErrorException
+	{
+		for(MeetingClient participant : testMeeting.getMeetingParticipants())
+		{
+			if(participant.getConnection().isOpen())
+			{
+				participant.getConnection().close();
+			}
+		}
+	}
+	
 	/**
 	 * Tests to make sure that even when there are sub components attached to the meeting (The threads that handle the message exchanges with clients), it still moves to the stopped state
 	 * @throws StartupException If there is an error starting the meeting
@@ -134,4 +168,440 @@ public class TestMeeting {
 		testMeeting.setPresenterUID(10);
 		assertEquals("The presenter ID returned does not match the id given in the set method",10,testMeeting.getPresenterID());
 	}
+	
+	private void waitForUDMOnMeeting(Meeting meeting) throws UserExistsException
+	{
+		meeting.addNewParticipant(client);
+		meeting.onReceiveBroadcast(connection, new Message("GAP",null));
+		byte[][] sent;
+		do
+		{
+			sent = connection.getAllSentPackets();
+		}while(sent == null);
+		assertEquals("The GAP event was not executed by the meeting","UDM",new String(sent[0]).split("\n")[0]);
+	}
+	
+	@Test(timeout = 3000)
+	public void eventsAreExecutedByAMeetingOnAnExecutor() throws StartupException, IllegalComponentStateException, UserExistsException
+	{
+		MeetingExecutor executor = new MeetingExecutor(1);
+		try
+		{
+			Meeting meeting = new Meeting("PooledMeeting",executor);
+			meeting.start();
+			waitForUDMOnMeeting(meeting);
+			meeting.stop();
+			while(meeting.getState() != ServerComponentState.STOPPED);
+		}finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void eventsAreExecutedByAMeetingWithItsOwnThread() throws StartupException, IllegalComponentStateException, UserExistsException
+	{
+		Meeting meeting = new Meeting("ThreadedMeeting",null);
+		meeting.start();
+		waitForUDMOnMeeting(meeting);
+		meeting.stop();
+		while(meeting.getState() != ServerComponentState.STOPPED);
+	}
+	
+	@Test(timeout = 10000)
+	public void manyMeetingsShareTheThreadsOfTheirExecutor() throws StartupException, IllegalComponentStateException
+	{
+		MeetingExecutor executor = new MeetingExecutor(2);
+		try
+		{
+			int threadsBefore = Thread.activeCount();
+			Meeting[] meetings = new Meeting[1000];
+			for(int i = 0;i < meetings.length;i++)
+			{
+				meetings[i] = new Meeting("Meeting" + i,executor);
+				meetings[i].start();
+			}
+			assertTrue("Starting meetings on an executor created a thread for each meeting",Thread.activeCount() - threadsBefore < 10);
+			
+			for(Meeting meeting : meetings)
+			{
+				meeting.stop();
+			}
+			for(Meeting meeting : meetings)
+			{
+				while(meeting.getState() != ServerComponentState.STOPPED);
+			}
+		}finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test(timeout = 5000)
+	public void anIdleMeetingOnAnExecutorIsNotGivenAWorker() throws StartupException, IllegalComponentStateException, UserExistsException, InterruptedException
+	{
+		final AtomicInteger runs = new AtomicInteger();
+		MeetingExecutor executor = new MeetingExecutor(1){
+			@Override
+			public void execute(Runnable task)
+			{
+				runs.incrementAndGet();
+				super.execute(task);
+			}
+		};
+		try
+		{
+			Meeting meeting = new Meeting("IdleMeeting",executor);
+			meeting.start();
+			Thread.sleep(300);
+			assertEquals("An empty meeting was given a worker",0,runs.get());
+			
+			meeting.addNewParticipant(client);
+			Thread.sleep(300); //Long enough for the change to the roster to have been sent
+			int runsWhenSettled = runs.get();
+			Thread.sleep(500);
+			assertEquals("A meeting with nothing to do was given a worker",runsWhenSettled,runs.get());
+			
+			meeting.removeParticipant(client);
+			meeting.stop();
+			while(meeting.getState() != ServerComponentState.STOPPED);
+		}finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void changesToTheRosterAreSentByAMeetingOnAnExecutor() throws StartupException, IllegalComponentStateException, UserExistsException
+	{
+		MeetingExecutor executor = new MeetingExecutor(1);
+		try
+		{
+			Meeting meeting = new Meeting("DeltaMeeting",executor);
+			meeting.start();
+			connection.setOutboundProtocolVersion(ProtocolVersion.V2);
+			meeting.addNewParticipant(client);
+			MeetingClient joined = newClient(2);
+			meeting.addNewParticipant(joined);
+			
+			String delta = waitForPayloadText(connection);
+			assertTrue("The participant who joined was not in the delta",delta.contains("\"userID\":2,"));
+			
+			meeting.removeParticipant(joined);
+			meeting.removeParticipant(client);
+			meeting.stop();
+			while(meeting.getState() != ServerComponentState.STOPPED);
+		}finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void messagesAreAttributedToTheClientWhoseConnectionReceivedThem() throws StartupException, IllegalComponentStateException, UserExistsException
+	{
+		MeetingExecutor executor = new MeetingExecutor(1);
+		try
+		{
+			Meeting meeting = new Meeting("LookupMeeting",executor);
+			meeting.start();
+			ScriptedMockConnection[] connections = new ScriptedMockConnection[50];
+			for(int i = 0;i < connections.length;i++)
+			{
+				User user = new User(i,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1);
+				connections[i] = new ScriptedMockConnection();
+				meeting.addNewParticipant(new MeetingClient(connections[i],user));
+			}
+			
+			meeting.onReceiveBroadcast(connections[30], new Message("GAP",null));
+			byte[][] sent;
+			do
+			{
+				sent = connections[30].getAllSentPackets();
+			}while(sent == null);
+			for(int i = 0;i < connections.length;i++)
+			{
+				assertTrue("A client other than the origin of the message received the response",i == 30 || connections[i].getAllSentPackets() == null);
+			}
+			meeting.stop();
+			while(meeting.getState() != ServerComponentState.STOPPED);
+		}finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void joiningAndLeavingReplaceTheRosterWithoutChangingEarlierSnapshots() throws UserExistsException
+	{
+		Roster empty = testMeeting.getRoster();
+		testMeeting.addNewParticipant(client);
+		Roster joined = testMeeting.getRoster();
+		testMeeting.removeParticipant(client);
+		Roster left = testMeeting.getRoster();
+		
+		assertEquals("An earlier snapshot of the roster changed when a client joined",0,empty.size());
+		assertEquals("The client was not in the roster after joining",1,joined.size());
+		assertTrue("The roster does not hold the client who joined",joined.getMembers()[0].getClient() == client);
+		assertEquals("An earlier snapshot of the roster changed when a client left",1,joined.size());
+		assertEquals("The client was still in the roster after leaving",0,left.size());
+		assertTrue("The version of the roster did not increase with each change",empty.getVersion() < joined.getVersion() && joined.getVersion() < left.getVersion());
+	}
+	
+	@Test
+	public void joinStateHoldsTheCachedUserDataOfEveryParticipantFollowedByTheLatestSlide() throws UserExistsException
+	{
+		testMeeting.addNewParticipant(client);
+		Roster.Member member = testMeeting.getRoster().getMembers()[0];
+		Message[] beforeSlide = testMeeting.getJoinState(member);
+		assertEquals("The join state did not hold only the user data of the participant before the slide was changed",1,beforeSlide.length);
+		assertEquals("The join state did not hold a UDM message for the participant","UDM",beforeSlide[0].getSignal());
+		
+		Message slide = new Message("CHNG",new byte[]{2,0,0,0});
+		testMeeting.setCurrentSlide(slide);
+		Message[] afterSlide = testMeeting.getJoinState(member);
+		assertEquals("The latest slide was not added to the join state",2,afterSlide.length);
+		assertTrue("The user data of the participant was generated again rather than reused",beforeSlide[0] == afterSlide[0]);
+		assertTrue("The latest slide was not at the end of the join state",afterSlide[1] == slide);
+	}
+	
+	@Test(timeout = 3000)
+	public void aLateJoinerIsSentTheCurrentSlide() throws StartupException, IllegalComponentStateException, UserExistsException
+	{
+		MeetingExecutor executor = new MeetingExecutor(1);
+		try
+		{
+			Meeting meeting = new Meeting("LateJoinMeeting",executor);
+			meeting.start();
+			meeting.addNewParticipant(client);
+			meeting.onReceiveBroadcast(connection, new Message("CHNG",new byte[]{5,0,0,0}));
+			while(meeting.getCurrentSlide() == null); //The late joiner must join after the slide has changed rather than be sent the change as it happens
+			
+			ScriptedMockConnection lateConnection = new ScriptedMockConnection();
+			User lateUser = new User(2,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1);
+			meeting.addNewParticipant(new MeetingClient(lateConnection,lateUser));
+			meeting.onReceiveBroadcast(lateConnection, new Message("HERE",null));
+			
+			StringBuilder received = new StringBuilder();
+			while(received.indexOf("CHNG\n") == -1)
+			{
+				byte[][] sent = lateConnection.getAllSentPackets();
+				if(sent != null)
+				{
+					for(byte[] packet : sent)
+					{
+						received.append(new String(packet));
+					}
+				}
+			}
+			assertTrue("The late joiner was not sent the user data of the participants before the slide",received.indexOf("UDM\n") < received.indexOf("CHNG\n"));
+			meeting.stop();
+			while(meeting.getState() != ServerComponentState.STOPPED);
+		}finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test(timeout = 5000)
+	public void evictingAClientWhileTheControlQueueIsFullDoesNotBlockTheMeeting() throws StartupException, IllegalComponentStateException, UserExistsException, InterruptedException
+	{
+		int previousCapacity = MeetingConfig.EVENT_QUEUE_CAPACITY;
+		int previousEvict = SlowConsumerConfig.EVICT_BLOCKED_WRITE;
+		final CountDownLatch writeStarted = new CountDownLatch(1);
+		final CountDownLatch releaseWrite = new CountDownLatch(1);
+		final CountDownLatch workerBlocked = new CountDownLatch(1);
+		final CountDownLatch releaseWorker = new CountDownLatch(1);
+		MeetingExecutor executor = new MeetingExecutor(1);
+		try
+		{
+			MeetingConfig.EVENT_QUEUE_CAPACITY = 4;
+			Meeting meeting = new Meeting("FullQueueMeeting",executor);
+			meeting.start();
+			ScriptedMockConnection stalled = new ScriptedMockConnection(){
+				@Override
+				protected void send(byte[] packet) throws ConnectionErrorException {
+					writeStarted.countDown();
+					try {
+						releaseWrite.await();
+					} catch (InterruptedException e) {
+						//Let the write finish
+					}
+					super.send(packet);
+				}
+			};
+			ScriptedMockConnection other = new ScriptedMockConnection();
+			meeting.addNewParticipant(new MeetingClient(stalled,new User(1,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1)));
+			meeting.addNewParticipant(new MeetingClient(other,new User(2,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1)));
+			meeting.onReceiveBroadcast(stalled, new Message("GAP",null));
+			writeStarted.await();
+			
+			//Hold the only worker so the control queue can be filled before the meeting runs again
+			executor.execute(() -> {
+				workerBlocked.countDown();
+				try {
+					releaseWorker.await();
+				} catch (InterruptedException e) {
+					//Let the meeting run
+				}
+			});
+			workerBlocked.await();
+			for(int i = 0;i < MeetingConfig.EVENT_QUEUE_CAPACITY;i++)
+			{
+				meeting.onReceiveBroadcast(other, new Message("GAP",null));
+			}
+			SlowConsumerConfig.EVICT_BLOCKED_WRITE = 50;
+			Thread.sleep(200); //Long enough for the write to pass the threshold and the periodic checks to become due
+			
+			long droppedBefore = ServerMetrics.getEventsDropped();
+			releaseWorker.countDown();
+			while(ServerMetrics.getEventsDropped() == droppedBefore)
+			{
+				Thread.sleep(10);
+			}
+			releaseWrite.countDown();
+			meeting.stop();
+			while(meeting.getState() != ServerComponentState.STOPPED);
+		}finally
+		{
+			releaseWorker.countDown();
+			releaseWrite.countDown();
+			MeetingConfig.EVENT_QUEUE_CAPACITY = previousCapacity;
+			SlowConsumerConfig.EVICT_BLOCKED_WRITE = previousEvict;
+			executor.shutdown();
+		}
+	}
+	
+	@Test(timeout = 3000)
+	public void theNewSpeakerIsNotSentTheEndOfTheSpeakerItReplaced() throws UserExistsException, InterruptedException
+	{
+		int previousSpeakers = MeetingConfig.MAX_ACTIVE_SPEAKERS;
+		try
+		{
+			MeetingConfig.MAX_ACTIVE_SPEAKERS = 1;
+			Meeting meeting = new Meeting("SpeakerMeeting");
+			ScriptedMockConnection[] connections = new ScriptedMockConnection[3];
+			MeetingClient[] clients = new MeetingClient[connections.length];
+			for(int i = 0;i < connections.length;i++)
+			{
+				connections[i] = new ScriptedMockConnection();
+				clients[i] = new MeetingClient(connections[i],new User(i,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1));
+				meeting.addNewParticipant(clients[i]);
+			}
+			
+			//The first client has been the only speaker for long enough to be replaced by a louder one
+			meeting.getActiveSpeakerSelector().onAudio(clients[0], new byte[1920], System.currentTimeMillis() - ActiveSpeakerSelector.MIN_SELECTED_TIME - 100);
+			ByteBuffer loud = ByteBuffer.allocate(1920).order(ByteOrder.LITTLE_ENDIAN);
+			while(loud.hasRemaining())
+			{
+				loud.putFloat(0.5f);
+			}
+			new TransmitAudioEvent(clients[1],new Message("AUDI",loud.array())).executeEvent(meeting);
+			
+			List<String> listenerReceived = new ArrayList<String>();
+			while(listenerReceived.size() < 2)
+			{
+				byte[][] sent = connections[2].getAllSentPackets();
+				for(int i = 0;sent != null && i < sent.length;i++)
+				{
+					listenerReceived.add(new String(sent[i]).substring(0, 4));
+				}
+			}
+			assertEquals("The listener was not sent the end of the replaced speaker and the new speaker's audio",Arrays.asList("EAUD","AUDI"),listenerReceived);
+			Thread.sleep(50); //Long enough for anything queued alongside to have been sent
+			assertNull("The new speaker was sent the end of the speaker it replaced",connections[1].getAllSentPackets());
+			
+			for(ScriptedMockConnection connection : connections)
+			{
+				connection.setState(ConnectionState.CLOSED);
+			}
+		}finally
+		{
+			MeetingConfig.MAX_ACTIVE_SPEAKERS = previousSpeakers;
+		}
+	}
+	
+	private MeetingClient newClient(int userID)
+	{
+		User user = new User(userID,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1);
+		user.setMeetingCode(testMeetingID);
+		return new MeetingClient(new ScriptedMockConnection(),user);
+	}
+	
+	private String waitForPayloadText(ScriptedMockConnection recipient)
+	{
+		byte[][] sent;
+		do
+		{
+			sent = recipient.getAllSentPackets();
+		}while(sent == null);
+		String text = new String(sent[0]);
+		return text.substring(text.indexOf('{'));
+	}
+	
+	@Test(timeout = 3000)
+	public void rosterDeltaHoldsOnlyWhoJoinedAndLeftSinceTheVersionGiven() throws UserExistsException
+	{
+		connection.setOutboundProtocolVersion(ProtocolVersion.V2);
+		testMeeting.addNewParticipant(client);
+		MeetingClient leaving = newClient(2);
+		testMeeting.addNewParticipant(leaving);
+		long since = testMeeting.getRoster().getVersion();
+		
+		testMeeting.addNewParticipant(newClient(3));
+		MeetingClient passingThrough = newClient(4);
+		testMeeting.addNewParticipant(passingThrough);
+		testMeeting.removeParticipant(passingThrough);
+		testMeeting.removeParticipant(leaving);
+		
+		testMeeting.sendRosterDelta(testMeeting.getRoster().getMembers()[0], since);
+		String delta = waitForPayloadText(connection);
+		assertTrue("The delta was not from the version given",delta.contains("\"since\":" + since + ","));
+		assertTrue("The delta was not to the current version",delta.contains("\"version\":" + testMeeting.getRoster().getVersion() + ","));
+		assertTrue("The participant who joined was not in the delta",delta.contains("\"userID\":3,"));
+		assertFalse("A participant who joined and left since the version was in the delta",delta.contains("\"userID\":4,") || delta.contains("4]"));
+		assertTrue("The participant who left was not in the delta",delta.endsWith("\"removed\":[2]}"));
+		testMeeting.removeParticipant(client);
+	}
+	
+	@Test(timeout = 3000)
+	public void rosterDeltaFromAForgottenVersionResetsTheRoster() throws UserExistsException
+	{
+		connection.setOutboundProtocolVersion(ProtocolVersion.V2);
+		testMeeting.addNewParticipant(client);
+		
+		testMeeting.sendRosterDelta(testMeeting.getRoster().getMembers()[0], testMeeting.getRoster().getVersion() + 100);
+		String delta = waitForPayloadText(connection);
+		assertTrue("The delta from an unknown version did not reset the roster",delta.contains("\"reset\":true"));
+		assertTrue("The delta from an unknown version did not hold every participant",delta.contains("\"userID\":1,"));
+		testMeeting.removeParticipant(client);
+	}
+	
+	@Test
+	public void silentAudioIsCountedAsSuppressed() throws UserExistsException
+	{
+		boolean previousDetection = MeetingConfig.VOICE_ACTIVITY_DETECTION;
+		MeetingConfig.VOICE_ACTIVITY_DETECTION = true;
+		try
+		{
+			testMeeting.addNewParticipant(client);
+			testMeeting.onReceiveBroadcast(connection, new Message("AUDI",new byte[1920]));
+			testMeeting.onReceiveBroadcast(connection, new Message("AUDI",new byte[1920]));
+			assertEquals("Both silent frames were not checked",2,testMeeting.getAudioFramesReceived());
+			assertEquals("Both silent frames were not suppressed",1.0,testMeeting.getAudioSuppressionRatio(),0);
+			testMeeting.removeParticipant(client);
+		}finally
+		{
+			MeetingConfig.VOICE_ACTIVITY_DETECTION = previousDetection;
+		}
+	}
+	
+	@Test
+	public void silentAudioIsForwardedByDefault() throws UserExistsException
+	{
+		testMeeting.addNewParticipant(client);
+		testMeeting.onReceiveBroadcast(connection, new Message("AUDI",new byte[1920]));
+		assertEquals("A frame was checked for speech without voice activity detection",0,testMeeting.getAudioFramesReceived());
+		testMeeting.removeParticipant(client);
+	}
 }
@@ -0,0 +1,95 @@
+package test.java.com.hexcore.vrmeeting_hostserver.meeting.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.ActiveSpeakerSelector;
+import main.java.com.hexcore.vrmeeting_hostserver.user.User;
+import test.java.com.hexcore.vrmeeting_hostserver.mock.ScriptedMockConnection;
+
+/**
+ * Tests {@link ActiveSpeakerSelector}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestActiveSpeakerSelector {
+	private MeetingClient first = newClient(1);
+	private MeetingClient second = newClient(2);
+	private MeetingClient third = newClient(3);
+
+	private MeetingClient newClient(int userID)
+	{
+		return new MeetingClient(new ScriptedMockConnection(),new User(userID,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1));
+	}
+
+	/**
+	 * @param level The root mean square level of the frame
+	 * @return A frame of 480 samples alternating between level and -level
+	 */
+	private byte[] frame(float level)
+	{
+		ByteBuffer payload = ByteBuffer.allocate(480 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i = 0;i < 480;i++)
+		{
+			payload.putFloat(i % 2 == 0 ? level : -level);
+		}
+		return payload.array();
+	}
+
+	@Test
+	public void onlyTheFirstSpeakersUpToTheLimitAreForwarded()
+	{
+		ActiveSpeakerSelector selector = new ActiveSpeakerSelector(2);
+		assertTrue("The first speaker was not forwarded",selector.onAudio(first, frame(0.1f), 0));
+		assertTrue("The second speaker was not forwarded",selector.onAudio(second, frame(0.1f), 0));
+		assertFalse("A speaker beyond the limit was forwarded",selector.onAudio(third, frame(0.1f), 0));
+	}
+
+	@Test
+	public void louderSpeakerOnlyReplacesTheQuietestOnceItHasBeenSelectedLongEnough()
+	{
+		ActiveSpeakerSelector selector = new ActiveSpeakerSelector(1);
+		selector.onAudio(first, frame(0.1f), 0);
+		assertFalse("A louder speaker replaced one selected too recently",selector.onAudio(second, frame(0.5f), 100));
+
+		long later = ActiveSpeakerSelector.MIN_SELECTED_TIME + 100;
+		selector.onAudio(first, frame(0.1f), later);
+		assertTrue("A much louder speaker did not replace the quietest",selector.onAudio(second, frame(0.5f), later));
+		assertTrue("The speaker replaced was not reported",selector.getLastReplaced() == first);
+		assertFalse("The speaker replaced was still forwarded",selector.onAudio(first, frame(0.1f), later));
+		assertNull("A speaker was reported as replaced when nobody was",selector.getLastReplaced());
+	}
+
+	@Test
+	public void speakersAtASimilarLevelDoNotFlap()
+	{
+		ActiveSpeakerSelector selector = new ActiveSpeakerSelector(1);
+		int forwardedFromSecond = 0;
+		for(long now = 0;now < ActiveSpeakerSelector.MIN_SELECTED_TIME * 5;now += 20)
+		{
+			selector.onAudio(first, frame(0.3f), now);
+			if(selector.onAudio(second, frame(0.35f), now))
+			{
+				forwardedFromSecond++;
+			}
+		}
+		assertEquals("A speaker only slightly louder replaced the one selected",0,forwardedFromSecond);
+	}
+
+	@Test
+	public void speakerWhoLeavesFreesTheirPlace()
+	{
+		ActiveSpeakerSelector selector = new ActiveSpeakerSelector(1);
+		selector.onAudio(first, frame(0.1f), 0);
+		selector.remove(first);
+		assertTrue("The place of a speaker who left was not freed",selector.onAudio(second, frame(0.1f), 0));
+	}
+}
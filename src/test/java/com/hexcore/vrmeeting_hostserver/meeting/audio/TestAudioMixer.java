@@ -0,0 +1,126 @@
+package test.java.com.hexcore.vrmeeting_hostserver.meeting.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.java.com.hexcore.vrmeeting_hostserver.exception.UserExistsException;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Roster;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.AudioMixer;
+import main.java.com.hexcore.vrmeeting_hostserver.user.User;
+import test.java.com.hexcore.vrmeeting_hostserver.mock.ScriptedMockConnection;
+
+/**
+ * Tests {@link AudioMixer}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestAudioMixer {
+	private Meeting meeting = new Meeting("MixingMeeting",null);
+	private ScriptedMockConnection[] connections = new ScriptedMockConnection[3];
+	private MeetingClient[] clients = new MeetingClient[3];
+	private AudioMixer mixer = new AudioMixer();
+
+	@Before
+	public void before() throws UserExistsException
+	{
+		for(int i = 0;i < clients.length;i++)
+		{
+			User user = new User(i,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1);
+			user.setMeetingCode("MixingMeeting");
+			connections[i] = new ScriptedMockConnection();
+			clients[i] = new MeetingClient(connections[i],user);
+			meeting.addNewParticipant(clients[i]);
+		}
+	}
+
+	@After
+	public void after()
+	{
+		for(MeetingClient client : clients)
+		{
+			meeting.removeParticipant(client);
+		}
+	}
+
+	private byte[] encode(float... samples)
+	{
+		ByteBuffer payload = ByteBuffer.allocate(samples.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for(float sample : samples)
+		{
+			payload.putFloat(sample);
+		}
+		return payload.array();
+	}
+
+	/**
+	 * Waits for the first packet sent to a connection and decodes the samples in its payload
+	 */
+	private float[] waitForSamples(ScriptedMockConnection connection,int sampleCount)
+	{
+		byte[][] sent;
+		do
+		{
+			sent = connection.getAllSentPackets();
+		}while(sent == null);
+		assertEquals("The packet sent was not audio","AUDI",new String(sent[0]).split("\n")[0]);
+		ByteBuffer payload = ByteBuffer.wrap(sent[0], "AUDI\n".length(), sampleCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+		float[] samples = new float[sampleCount];
+		for(int i = 0;i < sampleCount;i++)
+		{
+			samples[i] = payload.getFloat();
+		}
+		return samples;
+	}
+
+	@Test(timeout = 3000)
+	public void eachListenerHearsEveryoneButThemselves()
+	{
+		mixer.addAudio(clients[0], encode(0.25f,0.5f));
+		mixer.addAudio(clients[1], encode(0.125f,-0.5f));
+		mixer.mix(meeting.getRoster().getMembers());
+
+		float[] first = waitForSamples(connections[0],2);
+		assertEquals("The first speaker did not hear only the second speaker",0.125f,first[0],0);
+		assertEquals("The first speaker did not hear only the second speaker",-0.5f,first[1],0);
+		float[] second = waitForSamples(connections[1],2);
+		assertEquals("The second speaker did not hear only the first speaker",0.25f,second[0],0);
+		assertEquals("The second speaker did not hear only the first speaker",0.5f,second[1],0);
+		float[] listener = waitForSamples(connections[2],2);
+		assertEquals("The listener did not hear the sum of both speakers",0.375f,listener[0],0);
+		assertEquals("The listener did not hear the sum of both speakers",0f,listener[1],0);
+	}
+
+	@Test(timeout = 3000)
+	public void onlySpeakerIsSentNothingAndEveryoneIsToldWhenTheAudioEnds() throws InterruptedException
+	{
+		Roster.Member[] members = meeting.getRoster().getMembers();
+		mixer.addAudio(clients[0], encode(0.25f));
+		mixer.mix(members);
+		waitForSamples(connections[1],1);
+		waitForSamples(connections[2],1);
+
+		mixer.mix(members);
+		byte[][] sent;
+		do
+		{
+			sent = connections[1].getAllSentPackets();
+		}while(sent == null);
+		assertEquals("The listener was not told the audio ended","EAUD",new String(sent[0]).split("\n")[0]);
+		do
+		{
+			sent = connections[0].getAllSentPackets();
+		}while(sent == null);
+		assertEquals("The only speaker was sent audio or the end of audio was sent before anything else","EAUD",new String(sent[0]).split("\n")[0]);
+		Thread.sleep(50);
+		assertNull("The only speaker was sent more than the end of audio",connections[0].getAllSentPackets());
+	}
+}
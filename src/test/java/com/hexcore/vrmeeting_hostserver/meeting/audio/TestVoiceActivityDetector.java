@@ -0,0 +1,66 @@
+package test.java.com.hexcore.vrmeeting_hostserver.meeting.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.VoiceActivityDetector;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.audio.VoiceActivityDetector.Activity;
+
+/**
+ * Tests {@link VoiceActivityDetector}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestVoiceActivityDetector {
+	private static final int FRAME_SAMPLES = 480;
+
+	/**
+	 * @param amplitude The peak of the wave
+	 * @param period The number of samples in one cycle of the wave
+	 * @return A frame holding a square wave
+	 */
+	private byte[] frame(float amplitude,int period)
+	{
+		ByteBuffer payload = ByteBuffer.allocate(FRAME_SAMPLES * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i = 0;i < FRAME_SAMPLES;i++)
+		{
+			payload.putFloat((i % period) < period / 2 ? amplitude : -amplitude);
+		}
+		return payload.array();
+	}
+
+	@Test
+	public void silenceIsNotVoice()
+	{
+		assertFalse("A silent frame was detected as voice",VoiceActivityDetector.isVoice(new byte[FRAME_SAMPLES * 4]));
+	}
+
+	@Test
+	public void quietNoiseWhichCrossesZeroOftenIsNotVoiceButAToneAtTheSameLevelIs()
+	{
+		assertFalse("Quiet noise changing sign every sample was detected as voice",VoiceActivityDetector.isVoice(frame(0.015f,2)));
+		assertTrue("A quiet tone was not detected as voice",VoiceActivityDetector.isVoice(frame(0.015f,40)));
+		assertTrue("Loud audio was not detected as voice however often it crosses zero",VoiceActivityDetector.isVoice(frame(0.5f,2)));
+	}
+
+	@Test
+	public void silenceAfterVoiceIsForwardedForTheHangoverThenEndsTheSegmentOnce()
+	{
+		VoiceActivityDetector detector = new VoiceActivityDetector();
+		byte[] silence = new byte[FRAME_SAMPLES * 4];
+		assertEquals("Silence before any voice was not dropped",Activity.SILENCE,detector.process(silence));
+		assertEquals("Voice was not forwarded",Activity.VOICE,detector.process(frame(0.5f,40)));
+		for(int i = 0;i < VoiceActivityDetector.HANGOVER_FRAMES;i++)
+		{
+			assertEquals("Silence within the hangover was not forwarded",Activity.VOICE,detector.process(silence));
+		}
+		assertEquals("The end of the voice was not marked after the hangover",Activity.END_OF_VOICE,detector.process(silence));
+		assertEquals("Silence after the end of the voice was not dropped",Activity.SILENCE,detector.process(silence));
+	}
+}
@@ -1,5 +1,6 @@
 package test.java.com.hexcore.vrmeeting_hostserver.meeting.event;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
@@ -12,9 +13,12 @@ import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.AuthTok
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MeetingIDMessage;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageGenerator;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
 import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
 import main.java.com.hexcore.vrmeeting_hostserver.config.ProtocolConfig;
 import main.java.com.hexcore.vrmeeting_hostserver.connection.Connection;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
 import main.java.com.hexcore.vrmeeting_hostserver.exception.MessageNotEventException;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
 import main.java.com.hexcore.vrmeeting_hostserver.meeting.MeetingClient;
@@ -95,6 +99,40 @@ public class TestMessageEventParser {
 		assertTrue("The returned event was not a GetAllParticipantsEvent",event.getClass() == GetAllParticipantsEvent.class);
 	}
 	
+	@Test
+	public void parserThrowsExceptionIfGAPPayloadIsNotARosterVersion() throws MessageNotEventException
+	{
+		Message message = new Message(ClientSignals.GAP.toString(),new byte[]{1,2});
+		MeetingClient client = new MeetingClient(new ScriptedMockConnection(),new User(1,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1));
+		
+		thrown.expect(MessageNotEventException.class);
+		MessageEventParser.parseMessageToEvent(client, message);
+	}
+	
+	@Test
+	public void rosterVersionInAGAPMessageReachesTheEventFromEitherWireFormat() throws MessageNotEventException, InvalidMessageException
+	{
+		MeetingClient client = new MeetingClient(new ScriptedMockConnection(),new User(1,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1));
+		Message sent = new Message(ClientSignals.GAP.toString(),ByteBuffer.allocate(ProtocolConfig.BYTES_PER_ROSTER_VERSION).putInt(42).array());
+		
+		Message v1 = MessageParser.parseMessage(sent.getTransmittableMessage());
+		GetAllParticipantsEvent v1Event = (GetAllParticipantsEvent)MessageEventParser.parseMessageToEvent(client, v1);
+		assertEquals("The roster version was lost parsing a version 1 GAP message",42,v1Event.getSinceVersion());
+		
+		Message v2 = MessageParser.parseMessage(sent.getEncodedMessage(ProtocolVersion.V2),ProtocolVersion.V2);
+		GetAllParticipantsEvent v2Event = (GetAllParticipantsEvent)MessageEventParser.parseMessageToEvent(client, v2);
+		assertEquals("The roster version was lost parsing a version 2 GAP message",42,v2Event.getSinceVersion());
+	}
+	
+	@Test
+	public void gapMessageWithoutARosterVersionAsksForEveryParticipant() throws MessageNotEventException, InvalidMessageException
+	{
+		MeetingClient client = new MeetingClient(new ScriptedMockConnection(),new User(1,"FirstName","SurName","CompanyName","JobTitle","WorkEmail","01234567891",1));
+		Message parsed = MessageParser.parseMessage(new Message(ClientSignals.GAP.toString(),null).getEncodedMessage(ProtocolVersion.V2),ProtocolVersion.V2);
+		GetAllParticipantsEvent event = (GetAllParticipantsEvent)MessageEventParser.parseMessageToEvent(client, parsed);
+		assertEquals("A GAP message without a version did not ask for every participant",GetAllParticipantsEvent.NO_VERSION,event.getSinceVersion());
+	}
+	
 	@Test
 	public void parserReturnsHeartbeatEventFromHRTBMessage() throws MessageNotEventException
 	{
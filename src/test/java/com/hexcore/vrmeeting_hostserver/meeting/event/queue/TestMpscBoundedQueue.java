@@ -0,0 +1,118 @@
+package test.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue.MpscBoundedQueue;
+
+/**
+ * Tests {@link MpscBoundedQueue}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestMpscBoundedQueue {
+	
+	@Test
+	public void elementsArePolledInTheOrderTheyWereOffered()
+	{
+		MpscBoundedQueue<Integer> queue = new MpscBoundedQueue<Integer>(4);
+		for(int lap = 0;lap < 3;lap++) //Wrap around the ring buffer more than once
+		{
+			for(int i = 0;i < 4;i++)
+			{
+				assertTrue("An element was not accepted by a queue with space",queue.offer(i));
+			}
+			for(int i = 0;i < 4;i++)
+			{
+				assertEquals("Elements were not polled in the order they were offered",Integer.valueOf(i),queue.poll());
+			}
+			assertNull("An element was polled from an empty queue",queue.poll());
+		}
+	}
+	
+	@Test
+	public void offerReturnsFalseWhenTheQueueIsFull()
+	{
+		MpscBoundedQueue<Integer> queue = new MpscBoundedQueue<Integer>(3);
+		assertEquals("The capacity was not rounded up to a power of 2",4,queue.getCapacity());
+		for(int i = 0;i < 4;i++)
+		{
+			queue.offer(i);
+		}
+		assertFalse("An element was accepted by a full queue",queue.offer(4));
+		assertEquals("The size of a full queue was not its capacity",4,queue.size());
+		queue.poll();
+		assertTrue("An element was not accepted after space was made",queue.offer(4));
+	}
+	
+	@Test
+	public void offerAllAddsAsManyAsFitInOrder()
+	{
+		MpscBoundedQueue<Integer> queue = new MpscBoundedQueue<Integer>(4);
+		queue.offer(0);
+		assertEquals("Every element of a batch with space was not added",2,queue.offerAll(Arrays.asList(1,2)));
+		assertEquals("Only the elements with space should have been added from the batch",1,queue.offerAll(Arrays.asList(3,4,5)));
+		assertEquals("An element was added to a full queue",0,queue.offerAll(Arrays.asList(6)));
+		for(int i = 0;i < 4;i++)
+		{
+			assertEquals("A batch was not polled in the order it was offered",Integer.valueOf(i),queue.poll());
+		}
+		assertNull("An element which did not fit was added",queue.poll());
+	}
+	
+	@Test(timeout = 10000)
+	public void everyElementFromConcurrentProducersIsPolledOnce() throws InterruptedException
+	{
+		final int producers = 4;
+		final int perProducer = 20000;
+		final MpscBoundedQueue<Integer> queue = new MpscBoundedQueue<Integer>(64);
+		Thread[] threads = new Thread[producers];
+		for(int p = 0;p < producers;p++)
+		{
+			final int producer = p;
+			threads[p] = new Thread(){
+				@Override
+				public void run()
+				{
+					for(int i = 0;i < perProducer;i++)
+					{
+						while(!queue.offer(producer * perProducer + i))
+						{
+							Thread.yield();
+						}
+					}
+				}
+			};
+			threads[p].start();
+		}
+		
+		boolean[] seen = new boolean[producers * perProducer];
+		int[] lastFromProducer = new int[producers];
+		Arrays.fill(lastFromProducer, -1);
+		for(int received = 0;received < seen.length;)
+		{
+			Integer next = queue.poll();
+			if(next == null)
+			{
+				continue;
+			}
+			assertFalse("An element was polled more than once",seen[next]);
+			seen[next] = true;
+			int producer = next / perProducer;
+			assertTrue("The elements of a single producer were polled out of order",next % perProducer > lastFromProducer[producer]);
+			lastFromProducer[producer] = next % perProducer;
+			received++;
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		assertNull("More elements were polled than were offered",queue.poll());
+	}
+}
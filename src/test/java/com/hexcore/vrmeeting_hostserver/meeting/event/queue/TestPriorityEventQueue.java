@@ -0,0 +1,135 @@
+package test.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.BufferPool;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.buffer.PooledBuffer;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.Message;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.MessageParser;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.ProtocolVersion;
+import main.java.com.hexcore.vrmeeting_hostserver.communication.protocol.signal.ClientSignals;
+import main.java.com.hexcore.vrmeeting_hostserver.exception.InvalidMessageException;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.Meeting;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.Event;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.TransmitAudioEvent;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue.ParkingWaitStrategy;
+import main.java.com.hexcore.vrmeeting_hostserver.meeting.event.queue.PriorityEventQueue;
+
+/**
+ * Tests {@link PriorityEventQueue}
+ * @author Psymj1 (Marcus)
+ *
+ */
+public class TestPriorityEventQueue {
+	
+	private class TestEvent extends Event
+	{
+		public TestEvent(int priority)
+		{
+			super(null,priority);
+		}
+		
+		@Override
+		public void executeEvent(Meeting meeting) {
+			
+		}
+	}
+	
+	@Test
+	public void higherPriorityEventsArePolledFirst()
+	{
+		PriorityEventQueue queue = new PriorityEventQueue(16,new ParkingWaitStrategy());
+		Event audio = new TestEvent(Event.AUDIO_PRIORITY);
+		Event firstControl = new TestEvent(Event.CONTROL_PRIORITY);
+		Event secondControl = new TestEvent(Event.CONTROL_PRIORITY);
+		queue.offer(audio);
+		queue.offer(firstControl);
+		queue.offer(secondControl);
+		
+		assertSame("The oldest control event was not polled first",firstControl,queue.poll());
+		assertSame("The second control event was not polled before the audio",secondControl,queue.poll());
+		assertSame("The audio event was not polled last",audio,queue.poll());
+		assertTrue("The queue was not empty after every event was polled",queue.isEmpty());
+	}
+	
+	@Test
+	public void lowestPriorityEventsAreDroppedWhenTheirQueueIsFull()
+	{
+		PriorityEventQueue queue = new PriorityEventQueue(2,new ParkingWaitStrategy());
+		assertTrue("An audio event was not accepted",queue.offer(new TestEvent(Event.AUDIO_PRIORITY)));
+		assertTrue("An audio event was not accepted",queue.offer(new TestEvent(Event.AUDIO_PRIORITY)));
+		assertFalse("An audio event was accepted by a full queue",queue.offer(new TestEvent(Event.AUDIO_PRIORITY)));
+		assertEquals("The dropped event was not counted",1,queue.getDropped()[Event.AUDIO_PRIORITY]);
+		assertEquals("The depth of the audio queue was wrong",2,queue.getDepths()[Event.AUDIO_PRIORITY]);
+		assertTrue("A control event was not accepted while the audio queue was full",queue.offer(new TestEvent(Event.CONTROL_PRIORITY)));
+	}
+	
+	@Test(timeout = 3000)
+	public void controlEventsAreDroppedRatherThanWaitingWhenTheirQueueIsFull()
+	{
+		PriorityEventQueue queue = new PriorityEventQueue(2,new ParkingWaitStrategy());
+		assertTrue("A control event was not accepted",queue.offer(new TestEvent(Event.CONTROL_PRIORITY)));
+		assertTrue("A control event was not accepted",queue.offer(new TestEvent(Event.CONTROL_PRIORITY)));
+		assertFalse("A control event was accepted by a full queue",queue.offer(new TestEvent(Event.CONTROL_PRIORITY)));
+		assertEquals("An event was added from a batch to a full queue",0,queue.offerAll(Arrays.<Event>asList(new TestEvent(Event.CONTROL_PRIORITY),new TestEvent(Event.CONTROL_PRIORITY))));
+		assertEquals("The dropped events were not counted",3,queue.getDropped()[Event.CONTROL_PRIORITY]);
+	}
+	
+	@Test
+	public void audioDroppedByAFullQueueReleasesItsPacket() throws InvalidMessageException
+	{
+		PriorityEventQueue queue = new PriorityEventQueue(2,new ParkingWaitStrategy());
+		queue.offer(new TestEvent(Event.AUDIO_PRIORITY));
+		queue.offer(new TestEvent(Event.AUDIO_PRIORITY));
+		
+		byte[] encoded = new Message(ClientSignals.AUDI.toString(),new byte[]{1,2,3,4}).getEncodedMessage(ProtocolVersion.V2);
+		PooledBuffer packet = BufferPool.shared().acquire(encoded.length);
+		System.arraycopy(encoded, 0, packet.array(), 0, encoded.length);
+		Message audio = MessageParser.parseMessage(packet,ProtocolVersion.V2);
+		assertFalse("An audio event was accepted by a full queue",queue.offer(new TransmitAudioEvent(null,audio)));
+		audio.release();
+		assertEquals("The dropped audio event did not release its packet",0,packet.getReferenceCount());
+	}
+	
+	@Test
+	public void discardAllEmptiesTheQueue()
+	{
+		PriorityEventQueue queue = new PriorityEventQueue(16,new ParkingWaitStrategy());
+		queue.offer(new TestEvent(Event.AUDIO_PRIORITY));
+		queue.offer(new TestEvent(Event.CONTROL_PRIORITY));
+		assertEquals("Not every waiting event was discarded",2,queue.discardAll());
+		assertTrue("The queue was not empty after discarding every event",queue.isEmpty());
+	}
+	
+	@Test(timeout = 3000)
+	public void waitingConsumerIsWokenWhenAnEventIsOffered() throws InterruptedException
+	{
+		final PriorityEventQueue queue = new PriorityEventQueue(16,new ParkingWaitStrategy());
+		final Event[] received = new Event[1];
+		Thread consumer = new Thread(){
+			@Override
+			public void run()
+			{
+				while(received[0] == null)
+				{
+					queue.awaitEvents(60000000000L); //Long enough that only being woken can end the test in time
+					received[0] = queue.poll();
+				}
+			}
+		};
+		queue.setConsumer(consumer);
+		consumer.start();
+		Thread.sleep(50);
+		Event event = new TestEvent(Event.CONTROL_PRIORITY);
+		queue.offer(event);
+		consumer.join();
+		assertSame("The consumer was not woken with the event",event,received[0]);
+	}
+}
@@ -1,17 +1,19 @@
 package test.java.com.hexcore.vrmeeting_hostserver.mock;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import main.java.com.hexcore.vrmeeting_hostserver.exception.ConnectionErrorException;
 
 /**
  * A specific implementation of a MockConnection which has a different number of responses which will be returned using receive, or not at all in the case that willReadBlock returns true
  * When a response is read i.e {@link #receiveNextPacket()} is called, the response number is incremented by 1
+ * Adding a response completes a receive waiting for it, as a connection told when data arrives would
  * @author Psymj1 (Marcus)
  */
 public class ScriptedMockConnection extends MockConnection {
-		private int responseNumber = 0;
-		private HashMap<Integer,byte[]> responses = new HashMap<Integer,byte[]>();
+		private volatile int responseNumber = 0;
+		private Map<Integer,byte[]> responses = new ConcurrentHashMap<Integer,byte[]>(); //Responses may be added while another thread is waiting to receive one
 		
 		/**
 		 * Add a new response so that when the response number of the connection is set to x, the associated packet is returned
@@ -21,6 +23,7 @@ public class ScriptedMockConnection extends MockConnection {
 		public void addResponse(int responseNumber,byte[] packet)
 		{
 			responses.put(responseNumber, packet);
+			signalReadable();
 		}
 		
 		@Override